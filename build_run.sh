@@ -1,3 +1,3 @@
 mkdir -p pkg
 mvn clean package && cp target/*.jar pkg/
-java -jar ./pkg/*-shaded.jar $PWD/pkg $PWD testsrc
\ No newline at end of file
+java --add-modules jdk.incubator.vector -jar ./pkg/*-shaded.jar $PWD/pkg $PWD testsrc
\ No newline at end of file
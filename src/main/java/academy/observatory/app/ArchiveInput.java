@@ -0,0 +1,194 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.compress.archivers.ArchiveEntry;
+import org.apache.commons.compress.archivers.ArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
+
+/**
+ * Reads ONIX messages straight out of compressed files (*.xml.gz, *.onx.gz) and
+ * archives (*.zip, *.tar, *.tar.gz, *.tgz) without extracting them to disk.
+ * Decompression runs on its own thread, which feeds the parser through a
+ * {@link ReadAheadInputStream}, so inflating and parsing overlap.
+ *
+ * Archive entries can only be read in the order they are stored. A single reader
+ * thread walks the archive and fills one entry at a time; it moves on to the next
+ * entry once the parser has taken all but the read-ahead of the current one.
+ */
+class ArchiveInput {
+	private static final int BLOCK_SIZE = 1 << 16;
+	private static final int DEPTH = 16;
+
+	private static final ReadAheadInputStream END = new ReadAheadInputStream("", 1, 1);
+
+	/**
+	 * @param file Input file.
+	 * @return Whether the file is a zip or tar archive.
+	 */
+	static boolean isArchive(File file) {
+		String name = file.getName().toLowerCase();
+		return name.endsWith(".zip") || name.endsWith(".tar") || name.endsWith(".tar.gz") || name.endsWith(".tgz");
+	}
+
+	/**
+	 * @param file Input file.
+	 * @return Whether the file is a single gzip compressed message.
+	 */
+	static boolean isCompressed(File file) {
+		return file.getName().toLowerCase().endsWith(".gz") && !isArchive(file);
+	}
+
+	/**
+	 * @param name File or entry name.
+	 * @return Whether the name is that of an ONIX message.
+	 */
+	static boolean isOnix(String name) {
+		String lower = name.toLowerCase();
+		return lower.endsWith(".xml") || lower.endsWith(".onx");
+	}
+
+	/**
+	 * Open a gzip compressed message, inflating it on a background thread.
+	 *
+	 * @param file Compressed file.
+	 * @param name Name reported by the returned stream.
+	 * @return Stream over the decompressed message.
+	 * @throws IOException if the file cannot be opened.
+	 */
+	static InputStream decompress(File file, String name) throws IOException {
+		InputStream in = new GZIPInputStream(new FileInputStream(file), BLOCK_SIZE);
+		ReadAheadInputStream out = new ReadAheadInputStream(name, BLOCK_SIZE, DEPTH);
+
+		start("decompress " + name, () -> out.pump(in));
+		return out;
+	}
+
+	/**
+	 * Pass on one input source per ONIX entry of an archive, in the order the
+	 * entries are stored. Each source can be opened once. Sources must be opened
+	 * in index order, as the reader thread fills the entries one after another.
+	 *
+	 * @param file     Archive file.
+	 * @param index    Index of the first source.
+	 * @param consumer Receives each input source.
+	 * @return Number of sources passed on.
+	 * @throws IOException if the archive cannot be read.
+	 */
+	static int entries(File file, int index, Consumer<InputSource> consumer) throws IOException {
+		BlockingQueue<ReadAheadInputStream> entries = new ArrayBlockingQueue<ReadAheadInputStream>(1);
+		IOException[] error = { null };
+		ArchiveInputStream<?> archive = openArchive(file);
+
+		start("unpack " + file, () -> {
+			try (archive) {
+				ArchiveEntry entry;
+
+				while ((entry = archive.getNextEntry()) != null) {
+					if (entry.isDirectory() || !isOnix(entry.getName()) || !archive.canReadEntryData(entry)) {
+						continue;
+					}
+
+					ReadAheadInputStream out = new ReadAheadInputStream(file + "!/" + entry.getName(), BLOCK_SIZE,
+							DEPTH);
+					entries.put(out);
+					out.pump(new FilterInputStream(archive) {
+						@Override
+						public void close() {
+							// Leave the archive open for the next entry.
+						}
+					});
+				}
+			} catch (IOException e) {
+				error[0] = e;
+			} finally {
+				entries.put(END);
+			}
+		});
+
+		int count = 0;
+
+		try {
+			ReadAheadInputStream entry;
+			while ((entry = entries.take()) != END) {
+				consumer.accept(InputSource.of(entry, index + count++));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading " + file, e);
+		}
+
+		if (error[0] != null) {
+			throw error[0];
+		}
+
+		return count;
+	}
+
+	/**
+	 * Open an archive by file name: zip, tar, or gzip compressed tar.
+	 */
+	private static ArchiveInputStream<?> openArchive(File file) throws IOException {
+		String name = file.getName().toLowerCase();
+		InputStream in = new BufferedInputStream(new FileInputStream(file), BLOCK_SIZE);
+
+		if (name.endsWith(".zip")) {
+			return new ZipArchiveInputStream(in);
+		} else if (name.endsWith(".tar")) {
+			return new TarArchiveInputStream(in);
+		}
+
+		return new TarArchiveInputStream(new GZIPInputStream(in, BLOCK_SIZE));
+	}
+
+	/**
+	 * Work run on a background thread that may be interrupted while waiting.
+	 */
+	private interface Task {
+		void run() throws InterruptedException;
+	}
+
+	/**
+	 * Start a daemon thread, so a reader left waiting on a failed run does not
+	 * keep the JVM alive.
+	 */
+	private static void start(String name, Task task) {
+		Thread thread = new Thread(() -> {
+			try {
+				task.run();
+			} catch (InterruptedException e) {
+				// Abandoned.
+			}
+		}, name);
+
+		thread.setDaemon(true);
+		thread.start();
+	}
+}
@@ -0,0 +1,137 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import com.tectonica.jonix.common.OnixCodelist;
+
+/**
+ * The description of every Jonix code list value, quoted, escaped and encoded
+ * as UTF-8 once per process, for {@link JsonStreamOutput} to copy instead of
+ * encoding. The mappers pass descriptions straight from the code list enums, so
+ * they are looked up by identity: a lookup never compares characters, and a
+ * string that merely equals a description is encoded as usual.
+ *
+ * The code lists are found by listing the Jonix package in the jar or
+ * directory it was loaded from. If it cannot be listed the table is empty and
+ * every description is encoded.
+ */
+final class CodelistStrings {
+	private static final String PACKAGE = "com/tectonica/jonix/common/codelist/";
+
+	private static final Map<String, byte[]> DESCRIPTIONS = load();
+
+	private CodelistStrings() {
+	}
+
+	private static Map<String, byte[]> load() {
+		Map<String, byte[]> descriptions = new IdentityHashMap<String, byte[]>();
+		JsonStreamOutput out = new JsonStreamOutput();
+
+		for (String name : classNames()) {
+			try {
+				Class<?> type = Class.forName(name, true, OnixCodelist.class.getClassLoader());
+
+				if (!type.isEnum() || !OnixCodelist.class.isAssignableFrom(type)) {
+					continue;
+				}
+
+				for (Object value : type.getEnumConstants()) {
+					String description = ((OnixCodelist) value).getDescription();
+
+					if (description != null && !descriptions.containsKey(description)) {
+						descriptions.put(description, out.quote(description));
+					}
+				}
+			} catch (ClassNotFoundException | LinkageError e) {
+				// Not a code list this build can use.
+			}
+		}
+
+		return descriptions;
+	}
+
+	/**
+	 * List the top-level classes of the Jonix code list package.
+	 */
+	private static List<String> classNames() {
+		List<String> names = new ArrayList<String>();
+
+		try {
+			CodeSource code = OnixCodelist.class.getProtectionDomain().getCodeSource();
+
+			if (code == null) {
+				throw new IOException("No code source for " + OnixCodelist.class.getName());
+			}
+
+			File source = new File(code.getLocation().toURI());
+
+			if (source.isDirectory()) {
+				String[] files = new File(source, PACKAGE).list();
+
+				for (String file : files == null ? new String[0] : files) {
+					addClassName(names, PACKAGE + file);
+				}
+			} else {
+				try (JarFile jar = new JarFile(source)) {
+					for (Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements();) {
+						addClassName(names, entries.nextElement().getName());
+					}
+				}
+			}
+		} catch (IOException | URISyntaxException | IllegalArgumentException | SecurityException e) {
+			System.out.println("Code list descriptions are not cached: " + e);
+		}
+
+		return names;
+	}
+
+	private static void addClassName(List<String> names, String path) {
+		if (path.startsWith(PACKAGE) && path.endsWith(".class") && path.indexOf('$') < 0
+				&& path.indexOf('/', PACKAGE.length()) < 0) {
+			names.add(path.substring(0, path.length() - 6).replace('/', '.'));
+		}
+	}
+
+	/**
+	 * @param description Description of a code list value.
+	 * @return The quoted UTF-8 JSON string of the description, or null if it is
+	 *         not the description object of a Jonix code list value.
+	 */
+	static byte[] get(String description) {
+		return DESCRIPTIONS.get(description);
+	}
+
+	/**
+	 * @return Number of descriptions in the table.
+	 */
+	static int size() {
+		return DESCRIPTIONS.size();
+	}
+}
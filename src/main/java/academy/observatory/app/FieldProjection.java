@@ -0,0 +1,80 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The top-level output fields a run writes. A field is selected by its output
+ * key, e.g. Contributors or ISBN13, or by the ONIX section it comes from, e.g.
+ * DescriptiveDetail or ProductIdentifiers. The mappers consult the projection
+ * once, when they are built, and leave out the parts that are not selected, so
+ * those parts of the product are never read.
+ */
+class FieldProjection {
+	/**
+	 * Projection that selects every field.
+	 */
+	static final FieldProjection ALL = new FieldProjection(null);
+
+	private final Set<String> names;
+
+	private FieldProjection(Set<String> names) {
+		this.names = names;
+	}
+
+	/**
+	 * @param names Selected output keys and section names, or null for all fields.
+	 * @return Projection.
+	 */
+	static FieldProjection of(Collection<String> names) {
+		return names == null ? ALL : new FieldProjection(new TreeSet<String>(names));
+	}
+
+	/**
+	 * Whether a top-level field is selected.
+	 *
+	 * @param key     Output key.
+	 * @param section Section the field belongs to, or null.
+	 * @return Whether the field is written.
+	 */
+	boolean includes(String key, String section) {
+		return names == null || names.contains(key) || (section != null && names.contains(section));
+	}
+
+	/**
+	 * Check that every selected name is a field or section the mapper knows.
+	 *
+	 * @param known Output keys and section names of the mapper.
+	 * @throws IllegalArgumentException on an unknown name.
+	 */
+	void validate(Collection<String> known) {
+		if (names == null) {
+			return;
+		}
+
+		for (String name : names) {
+			if (!known.contains(name)) {
+				throw new IllegalArgumentException(
+						"Unknown field: " + name + ". Known fields: " + String.join(",", new TreeSet<String>(known)));
+			}
+		}
+	}
+}
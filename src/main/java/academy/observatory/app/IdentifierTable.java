@@ -0,0 +1,141 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import com.tectonica.jonix.common.OnixCodelist;
+import com.tectonica.jonix.common.OnixComposite.OnixDataCompositeWithKey;
+
+/**
+ * Maps identifier types to output keys through a table indexed by the type's
+ * ordinal, so a list of identifiers is written in a single pass instead of one
+ * find() scan per output key.
+ *
+ * As with find(), the first identifier of each type wins. Keys are written in
+ * the order they were mapped, whatever the order of the identifiers.
+ *
+ * @param <K> Identifier type enum.
+ */
+class IdentifierTable<K extends Enum<K> & OnixCodelist> {
+	private final Class<K> type;
+	private String[] keys = new String[0];
+	private final int[] slots;
+
+	/**
+	 * @param type Identifier type enum class.
+	 */
+	IdentifierTable(Class<K> type) {
+		this.type = type;
+		slots = new int[type.getEnumConstants().length];
+		Arrays.fill(slots, -1);
+	}
+
+	/**
+	 * Map an identifier type to an output key.
+	 *
+	 * @param type Identifier type.
+	 * @param key  Output key.
+	 * @return This table.
+	 */
+	IdentifierTable<K> map(K type, String key) {
+		slots[type.ordinal()] = keys.length;
+		keys = Arrays.copyOf(keys, keys.length + 1);
+		keys[keys.length - 1] = key;
+		return this;
+	}
+
+	/**
+	 * @return Output keys, in the order they are written.
+	 */
+	List<String> keys() {
+		return Arrays.asList(keys);
+	}
+
+	/**
+	 * A copy of this table with only the keys that pass a filter.
+	 *
+	 * @param filter Selects the output keys to keep.
+	 * @return Filtered table.
+	 */
+	IdentifierTable<K> select(Predicate<String> filter) {
+		IdentifierTable<K> table = new IdentifierTable<K>(type);
+		K[] types = type.getEnumConstants();
+
+		for (int slot = 0; slot < keys.length; slot++) {
+			if (filter.test(keys[slot])) {
+				for (int i = 0; i < slots.length; i++) {
+					if (slots[i] == slot) {
+						table.map(types[i], keys[slot]);
+					}
+				}
+			}
+		}
+
+		return table;
+	}
+
+	/**
+	 * Write the value of the first identifier of each mapped type.
+	 *
+	 * @param ids      Identifiers.
+	 * @param value    Gets the value of an identifier.
+	 * @param jsonline JSON object to write to.
+	 */
+	<C extends OnixDataCompositeWithKey<?, K>> void write(Iterable<C> ids, Function<? super C, ?> value,
+			JsonOutput jsonline) {
+		write(ids, C::structKey, value, jsonline);
+	}
+
+	/**
+	 * Write the value of the first identifier of each mapped type, for
+	 * identifiers that are not Jonix composites.
+	 *
+	 * @param ids      Identifiers.
+	 * @param type_of  Gets the type of an identifier, or null if it has none.
+	 * @param value    Gets the value of an identifier.
+	 * @param jsonline JSON object to write to.
+	 */
+	<C> void write(Iterable<C> ids, Function<? super C, K> type_of, Function<? super C, ?> value,
+			JsonOutput jsonline) {
+		Object[] found = new Object[keys.length];
+
+		for (C id : ids) {
+			K type = type_of.apply(id);
+
+			if (type != null) {
+				int slot = slots[type.ordinal()];
+
+				if (slot >= 0 && found[slot] == null) {
+					found[slot] = id;
+				}
+			}
+		}
+
+		for (int i = 0; i < found.length; i++) {
+			if (found[i] != null) {
+				@SuppressWarnings("unchecked")
+				C id = (C) found[i];
+				jsonline.put(keys[i], value.apply(id));
+			}
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A unit of ONIX input that can be handed to a worker: either a whole file, a
+ * chunk of Product records split from a large file, or an entry of an archive.
+ * Sources are numbered in the order a sequential run would read them: file
+ * order, then chunk or entry order.
+ */
+abstract class InputSource {
+	private final String name;
+	private final int index;
+
+	InputSource(String name, int index) {
+		this.name = name;
+		this.index = index;
+	}
+
+	/**
+	 * Open the source as a complete ONIX message. The returned stream reports the
+	 * source name from toString(), which Jonix uses to name stream sources.
+	 *
+	 * @return Stream over the ONIX message.
+	 * @throws IOException if the source cannot be opened.
+	 */
+	abstract InputStream open() throws IOException;
+
+	/**
+	 * @return Name of the source for logging.
+	 */
+	String name() {
+		return name;
+	}
+
+	/**
+	 * @return Position of the source in the order of a sequential run.
+	 */
+	int index() {
+		return index;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/**
+	 * Source for a whole file. Gzip compressed files are decompressed on a
+	 * background thread as they are read.
+	 *
+	 * @param file  ONIX file.
+	 * @param index Source index.
+	 * @param mmap  Whether to read the file through a memory mapping.
+	 * @return Input source.
+	 */
+	static InputSource of(File file, int index, boolean mmap) {
+		return new InputSource(file.getPath(), index) {
+			@Override
+			InputStream open() throws IOException {
+				if (ArchiveInput.isCompressed(file)) {
+					return ArchiveInput.decompress(file, name());
+				}
+
+				if (mmap) {
+					MappedFile mapped = MappedFile.map(file);
+					return named(mapped.stream(0, mapped.size()), name());
+				}
+
+				return named(new FileInputStream(file), name());
+			}
+		};
+	}
+
+	/**
+	 * Source for a chunk of a split file.
+	 *
+	 * @param chunk Chunk of Product records.
+	 * @param index Source index.
+	 * @return Input source.
+	 */
+	static InputSource of(ProductSplitter.Chunk chunk, int index) {
+		return new InputSource(chunk.toString(), index) {
+			@Override
+			InputStream open() throws IOException {
+				return chunk.open();
+			}
+		};
+	}
+
+	/**
+	 * Source for an archive entry that is being filled by an archive reader. It
+	 * can only be opened once.
+	 *
+	 * @param entry Stream over the entry.
+	 * @param index Source index.
+	 * @return Input source.
+	 */
+	static InputSource of(ReadAheadInputStream entry, int index) {
+		return new InputSource(entry.toString(), index) {
+			private boolean opened = false;
+
+			@Override
+			synchronized InputStream open() throws IOException {
+				if (opened) {
+					throw new IOException("Archive entry already read: " + name());
+				}
+
+				opened = true;
+				return entry;
+			}
+		};
+	}
+
+	/**
+	 * Enumerate the input sources for a list of files. Files larger than the split
+	 * size are split at Product boundaries into one source per chunk, and the
+	 * chunks are passed on as soon as they are found. Archives are passed on as
+	 * one source per ONIX entry. Sources are passed on in index order.
+	 *
+	 * @param files      ONIX files.
+	 * @param split_size Split size in bytes, or 0 to never split.
+	 * @param mmap       Whether to scan and read uncompressed files through a
+	 *                   memory mapping.
+	 * @param consumer   Receives each input source.
+	 * @throws IOException if a file cannot be scanned.
+	 */
+	static void enumerate(List<File> files, long split_size, boolean mmap, Consumer<InputSource> consumer)
+			throws IOException {
+		int[] index = { 0 };
+
+		for (File file : files) {
+			if (ArchiveInput.isArchive(file)) {
+				index[0] += ArchiveInput.entries(file, index[0], consumer);
+				continue;
+			}
+
+			if (split_size > 0 && file.length() > split_size && !ArchiveInput.isCompressed(file)) {
+				Consumer<ProductSplitter.Chunk> chunk_consumer = chunk -> consumer.accept(of(chunk, index[0]++));
+				int chunks = mmap ? ProductSplitter.split(MappedFile.map(file), file, split_size, chunk_consumer)
+						: ProductSplitter.split(file, split_size, chunk_consumer);
+
+				if (chunks > 0) {
+					System.out.println("Split " + file + " into " + chunks + " chunks");
+					continue;
+				}
+			}
+
+			consumer.accept(of(file, index[0]++, mmap));
+		}
+	}
+
+	/**
+	 * Wrap a stream so that it reports the given name from toString().
+	 *
+	 * @param in   Stream to wrap.
+	 * @param name Name to report.
+	 * @return Named stream.
+	 */
+	static InputStream named(InputStream in, String name) {
+		return new FilterInputStream(in) {
+			@Override
+			public String toString() {
+				return name;
+			}
+		};
+	}
+}
@@ -0,0 +1,200 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+import org.json.JSONObject;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes the mapping calls as UTF-8 JSON text with a Jackson JsonGenerator.
+ * Numbers are formatted as by JSONObject.numberToString, so records hold the
+ * same values as with the other serialisations; strings are escaped the
+ * Jackson way, so the bytes can differ.
+ *
+ * Reuse one instance for one record at a time: {@link #reset()} before each
+ * record and {@link #finish()} after it, then take the bytes with
+ * {@link #buffer()} and {@link #size()}.
+ */
+class JsonJacksonOutput implements JsonOutput {
+	private static final JsonFactory FACTORY = new JsonFactory();
+
+	private final Buffer out = new Buffer();
+	private JsonGenerator generator = null;
+
+	/**
+	 * Clear the buffer and start a generator for the next record.
+	 */
+	void reset() {
+		out.size = 0;
+
+		try {
+			generator = FACTORY.createGenerator(out, JsonEncoding.UTF8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Flush the record into the buffer.
+	 */
+	void finish() {
+		try {
+			generator.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return Buffer holding the JSON text written since the last reset.
+	 */
+	byte[] buffer() {
+		return out.buf;
+	}
+
+	/**
+	 * @return Number of bytes written since the last reset.
+	 */
+	int size() {
+		return out.size;
+	}
+
+	@Override
+	public void startObject() {
+		try {
+			generator.writeStartObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void startObject(String key) {
+		try {
+			generator.writeFieldName(key);
+			generator.writeStartObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void endObject() {
+		try {
+			generator.writeEndObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void startArray(String key) {
+		try {
+			generator.writeFieldName(key);
+			generator.writeStartArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void endArray() {
+		try {
+			generator.writeEndArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void put(String key, Object value) {
+		if (value == null) {
+			return;
+		}
+
+		try {
+			generator.writeFieldName(key);
+			value(value);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void add(Object value) {
+		try {
+			value(value);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Write a value the way JSONObject.writeValue does.
+	 */
+	private void value(Object value) throws IOException {
+		if (value == null) {
+			generator.writeNull();
+		} else if (value instanceof String) {
+			generator.writeString((String) value);
+		} else if (value instanceof Number) {
+			generator.writeNumber(JSONObject.numberToString((Number) value));
+		} else if (value instanceof Boolean) {
+			generator.writeBoolean((Boolean) value);
+		} else if (value instanceof Enum<?>) {
+			generator.writeString(((Enum<?>) value).name());
+		} else {
+			generator.writeString(value.toString());
+		}
+	}
+
+	/**
+	 * Growable byte buffer the generator flushes into, kept between records.
+	 */
+	private static final class Buffer extends OutputStream {
+		byte[] buf = new byte[1 << 14];
+		int size = 0;
+
+		@Override
+		public void write(int b) {
+			ensure(1);
+			buf[size++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			ensure(len);
+			System.arraycopy(b, off, buf, size, len);
+			size += len;
+		}
+
+		private void ensure(int n) {
+			if (size + n > buf.length) {
+				buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+/**
+ * Target of the ONIX to JSON mapping. The process* methods of
+ * {@link OnixParser} visit a product's fields in order and describe the record
+ * through these calls, so the same mapping code can build an org.json tree
+ * ({@link JsonTreeOutput}), write the JSON text directly
+ * ({@link JsonStreamOutput}) or drive a Jackson generator
+ * ({@link JsonJacksonOutput}).
+ *
+ * Values follow org.json conventions: null members are left out, numbers are
+ * formatted as by JSONObject.numberToString, and enums are written by name.
+ */
+interface JsonOutput {
+	/**
+	 * Start an object: the record itself, or an element of the current array.
+	 */
+	void startObject();
+
+	/**
+	 * Start an object as a member of the current object.
+	 *
+	 * @param key Member name.
+	 */
+	void startObject(String key);
+
+	/**
+	 * End the current object.
+	 */
+	void endObject();
+
+	/**
+	 * Start an array as a member of the current object.
+	 *
+	 * @param key Member name.
+	 */
+	void startArray(String key);
+
+	/**
+	 * End the current array.
+	 */
+	void endArray();
+
+	/**
+	 * Add a member to the current object. Null values are left out.
+	 *
+	 * @param key   Member name.
+	 * @param value String, Number, Boolean or Enum value, or null.
+	 */
+	void put(String key, Object value);
+
+	/**
+	 * Add an element to the current array. Null values are written as null.
+	 *
+	 * @param value String, Number, Boolean or Enum value, or null.
+	 */
+	void add(Object value);
+}
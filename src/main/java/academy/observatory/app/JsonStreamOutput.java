@@ -0,0 +1,448 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.json.JSONObject;
+
+/**
+ * Writes the mapping calls straight out as UTF-8 JSON text into a reusable byte
+ * buffer, without building an intermediate tree. Members appear in the order
+ * they are visited. Strings are escaped exactly as org.json's JSONObject.quote
+ * does, so values read back identically to the tree output.
+ *
+ * Member names and code list descriptions are copied as ready encoded bytes:
+ * names from a per-instance cache filled the first time each name object is
+ * written, descriptions from {@link CodelistStrings}. Both are keyed by object
+ * identity, which holds for the string constants the mappers pass.
+ *
+ * When the JVM runs with --add-modules jdk.incubator.vector, strings of at
+ * least {@link VectorEscaper#LANES} chars are scanned a vector at a time and
+ * runs of chars needing no escape are copied in one go; the bytes are the same
+ * either way.
+ *
+ * Reuse one instance for one record at a time: {@link #reset()} before each
+ * record, then take the bytes with {@link #buffer()} and {@link #size()}.
+ */
+class JsonStreamOutput implements JsonOutput {
+	private static final byte[] HEX = "0123456789abcdef".getBytes();
+	private static final byte[] TRUE = "true".getBytes();
+	private static final byte[] FALSE = "false".getBytes();
+	private static final byte[] NULL = "null".getBytes();
+
+	/**
+	 * Most member names cached per instance, in case a mapping builds names at
+	 * run time.
+	 */
+	private static final int MAX_NAMES = 4096;
+
+	/**
+	 * Whether the Vector API module was added at startup.
+	 */
+	static final boolean VECTOR_AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+	private final boolean vector;
+	private final Map<String, byte[]> names = new IdentityHashMap<String, byte[]>();
+	private long copied = 0;
+	private long encoded = 0;
+
+	private byte[] buf = new byte[1 << 14];
+	private int size = 0;
+
+	// Chars of the string being escaped, for the vector scan.
+	private char[] chars = new char[256];
+
+	// Whether the container at each depth has no members yet.
+	private boolean[] empty = new boolean[32];
+	private int depth = 0;
+
+	JsonStreamOutput() {
+		this(VECTOR_AVAILABLE);
+	}
+
+	/**
+	 * @param vector Whether to scan strings with the Vector API. Needs the
+	 *               jdk.incubator.vector module.
+	 */
+	JsonStreamOutput(boolean vector) {
+		if (vector && !VECTOR_AVAILABLE) {
+			throw new IllegalStateException("The jdk.incubator.vector module is not available");
+		}
+
+		this.vector = vector;
+	}
+
+	/**
+	 * Clear the buffer for the next record.
+	 */
+	void reset() {
+		size = 0;
+		depth = 0;
+		copied = 0;
+		encoded = 0;
+	}
+
+	/**
+	 * @return Buffer holding the JSON text written since the last reset.
+	 */
+	byte[] buffer() {
+		return buf;
+	}
+
+	/**
+	 * @return Number of bytes written since the last reset.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return Bytes of strings copied ready encoded since the last reset.
+	 */
+	long copied() {
+		return copied;
+	}
+
+	/**
+	 * @return Bytes of strings escaped and encoded since the last reset.
+	 */
+	long encoded() {
+		return encoded;
+	}
+
+	/**
+	 * Quote, escape and encode a string, as it would be written as a value. This
+	 * clears the buffer.
+	 *
+	 * @param s String.
+	 * @return UTF-8 JSON string.
+	 */
+	byte[] quote(String s) {
+		reset();
+		string(s);
+		return toByteArray();
+	}
+
+	/**
+	 * @return Copy of the JSON text written since the last reset.
+	 */
+	byte[] toByteArray() {
+		return Arrays.copyOf(buf, size);
+	}
+
+	@Override
+	public void startObject() {
+		separator();
+		open('{');
+	}
+
+	@Override
+	public void startObject(String key) {
+		name(key);
+		open('{');
+	}
+
+	@Override
+	public void endObject() {
+		close('}');
+	}
+
+	@Override
+	public void startArray(String key) {
+		name(key);
+		open('[');
+	}
+
+	@Override
+	public void endArray() {
+		close(']');
+	}
+
+	@Override
+	public void put(String key, Object value) {
+		if (value == null) {
+			return;
+		}
+
+		name(key);
+		value(value);
+	}
+
+	@Override
+	public void add(Object value) {
+		separator();
+		value(value);
+	}
+
+	private void open(char bracket) {
+		ensure(1);
+		buf[size++] = (byte) bracket;
+
+		if (++depth == empty.length) {
+			empty = Arrays.copyOf(empty, depth * 2);
+		}
+		empty[depth] = true;
+	}
+
+	private void close(char bracket) {
+		depth--;
+		ensure(1);
+		buf[size++] = (byte) bracket;
+	}
+
+	/**
+	 * Write the comma before every member or element but the first.
+	 */
+	private void separator() {
+		if (depth > 0) {
+			if (!empty[depth]) {
+				ensure(1);
+				buf[size++] = ',';
+			}
+			empty[depth] = false;
+		}
+	}
+
+	private void name(String key) {
+		separator();
+		byte[] quoted = names.get(key);
+
+		if (quoted != null) {
+			copy(quoted);
+		} else {
+			int start = size;
+			encode(key);
+
+			if (names.size() < MAX_NAMES) {
+				names.put(key, Arrays.copyOfRange(buf, start, size));
+			}
+		}
+
+		ensure(1);
+		buf[size++] = ':';
+	}
+
+	/**
+	 * Write a value the way JSONObject.writeValue does.
+	 */
+	private void value(Object value) {
+		if (value == null) {
+			raw(NULL);
+		} else if (value instanceof String) {
+			byte[] quoted = CodelistStrings.get((String) value);
+
+			if (quoted != null) {
+				copy(quoted);
+			} else {
+				encode((String) value);
+			}
+		} else if (value instanceof Number) {
+			ascii(JSONObject.numberToString((Number) value));
+		} else if (value instanceof Boolean) {
+			raw((Boolean) value ? TRUE : FALSE);
+		} else if (value instanceof Enum<?>) {
+			encode(((Enum<?>) value).name());
+		} else {
+			encode(value.toString());
+		}
+	}
+
+	private void copy(byte[] quoted) {
+		raw(quoted);
+		copied += quoted.length;
+	}
+
+	private void encode(String s) {
+		int start = size;
+		string(s);
+		encoded += size - start;
+	}
+
+	private void raw(byte[] bytes) {
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, buf, size, bytes.length);
+		size += bytes.length;
+	}
+
+	private void ascii(String s) {
+		int n = s.length();
+		ensure(n);
+
+		for (int i = 0; i < n; i++) {
+			buf[size++] = (byte) s.charAt(i);
+		}
+	}
+
+	/**
+	 * Write a quoted string, escaped as by JSONObject.quote and encoded as UTF-8.
+	 * Unpaired surrogates are written as '?', as String.getBytes does.
+	 */
+	private void string(String s) {
+		int n = s.length();
+
+		// At most 6 bytes per char (a \\uXXXX escape), plus the quotes.
+		ensure(n * 6 + 2);
+
+		byte[] b = buf;
+		int p = size;
+
+		b[p++] = '"';
+
+		if (vector && n >= VectorEscaper.LANES) {
+			p = scan(s, n, b, p);
+		} else {
+			p = escape(s, 0, n, (char) 0, b, p);
+		}
+
+		b[p++] = '"';
+		size = p;
+	}
+
+	/**
+	 * Write the chars of a string, copying runs of plain ASCII a vector at a time
+	 * and escaping the chars between them.
+	 */
+	private int scan(String s, int n, byte[] b, int p) {
+		if (chars.length < n) {
+			chars = new char[Math.max(n, chars.length * 2)];
+		}
+		char[] cs = chars;
+		s.getChars(0, n, cs, 0);
+
+		int i = 0;
+
+		while (i < n) {
+			int run = VectorEscaper.copyPlain(cs, i, n, b, p);
+			i += run;
+			p += run;
+
+			if (i == n) {
+				break;
+			}
+
+			// Escape up to the next pair of ASCII chars, where a run may start, so
+			// text in other scripts is not scanned again at every char.
+			int end = n;
+
+			if (n - i >= VectorEscaper.LANES) {
+				end = i + 1;
+				while (end + 1 < n && (cs[end] | cs[end + 1]) >= 0x80) {
+					end++;
+				}
+
+				// Never split a surrogate pair between two ranges.
+				if (end < n && Character.isHighSurrogate(cs[end - 1])) {
+					end++;
+				}
+			}
+
+			p = escape(s, i, end, i > 0 ? cs[i - 1] : 0, b, p);
+			i = end;
+		}
+
+		return p;
+	}
+
+	/**
+	 * Escape and encode the chars s[from, to) into b from p.
+	 *
+	 * @param prev The char before from, or 0.
+	 * @return Position after the last byte written.
+	 */
+	private static int escape(String s, int from, int to, char prev, byte[] b, int p) {
+		for (int i = from; i < to; i++) {
+			char c = s.charAt(i);
+
+			switch (c) {
+			case '\\':
+			case '"':
+				b[p++] = '\\';
+				b[p++] = (byte) c;
+				break;
+			case '/':
+				if (prev == '<') {
+					b[p++] = '\\';
+				}
+				b[p++] = '/';
+				break;
+			case '\b':
+				b[p++] = '\\';
+				b[p++] = 'b';
+				break;
+			case '\t':
+				b[p++] = '\\';
+				b[p++] = 't';
+				break;
+			case '\n':
+				b[p++] = '\\';
+				b[p++] = 'n';
+				break;
+			case '\f':
+				b[p++] = '\\';
+				b[p++] = 'f';
+				break;
+			case '\r':
+				b[p++] = '\\';
+				b[p++] = 'r';
+				break;
+			default:
+				if (c < ' ' || (c >= 0x80 && c < 0xa0) || (c >= 0x2000 && c < 0x2100)) {
+					b[p++] = '\\';
+					b[p++] = 'u';
+					b[p++] = HEX[(c >> 12) & 0xf];
+					b[p++] = HEX[(c >> 8) & 0xf];
+					b[p++] = HEX[(c >> 4) & 0xf];
+					b[p++] = HEX[c & 0xf];
+				} else if (c < 0x80) {
+					b[p++] = (byte) c;
+				} else if (c < 0x800) {
+					b[p++] = (byte) (0xc0 | (c >> 6));
+					b[p++] = (byte) (0x80 | (c & 0x3f));
+				} else if (Character.isSurrogate(c)) {
+					if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(s.charAt(i + 1))) {
+						int cp = Character.toCodePoint(c, s.charAt(++i));
+						b[p++] = (byte) (0xf0 | (cp >> 18));
+						b[p++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+						b[p++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+						b[p++] = (byte) (0x80 | (cp & 0x3f));
+						c = s.charAt(i);
+					} else {
+						b[p++] = '?';
+					}
+				} else {
+					b[p++] = (byte) (0xe0 | (c >> 12));
+					b[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+					b[p++] = (byte) (0x80 | (c & 0x3f));
+				}
+			}
+
+			prev = c;
+		}
+
+		return p;
+	}
+
+	private void ensure(int n) {
+		if (size + n > buf.length) {
+			buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Builds an org.json JSONObject tree from the mapping calls.
+ */
+class JsonTreeOutput implements JsonOutput {
+	private final Deque<Object> stack = new ArrayDeque<Object>();
+	private JSONObject root = null;
+
+	/**
+	 * @return The outermost object, once it has been started.
+	 */
+	JSONObject root() {
+		return root;
+	}
+
+	@Override
+	public void startObject() {
+		open(null, new JSONObject());
+	}
+
+	@Override
+	public void startObject(String key) {
+		open(key, new JSONObject());
+	}
+
+	@Override
+	public void endObject() {
+		stack.pop();
+	}
+
+	@Override
+	public void startArray(String key) {
+		open(key, new JSONArray());
+	}
+
+	@Override
+	public void endArray() {
+		stack.pop();
+	}
+
+	@Override
+	public void put(String key, Object value) {
+		((JSONObject) stack.peek()).put(key, value);
+	}
+
+	@Override
+	public void add(Object value) {
+		((JSONArray) stack.peek()).put(value);
+	}
+
+	/**
+	 * Attach a new container to the current one and make it current.
+	 */
+	private void open(String key, Object container) {
+		Object top = stack.peek();
+
+		if (top == null) {
+			root = (JSONObject) container;
+		} else if (top instanceof JSONObject) {
+			((JSONObject) top).put(key, container);
+		} else {
+			((JSONArray) top).put(container);
+		}
+
+		stack.push(container);
+	}
+}
@@ -0,0 +1,545 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.json.JSONObject;
+
+/**
+ * Writes one jsonlines output, either to a single file (e.g. full.jsonl) or to
+ * a series of shards (full-00000.jsonl, full-00001.jsonl, ...) that roll over
+ * when a record count or byte threshold is reached. Records are written as
+ * given, already encoded as UTF-8. Not thread safe; callers must serialise
+ * writes.
+ *
+ * Records are copied into direct buffers taken from a pool shared by all
+ * writers, and up to {@link #GATHER} full buffers go out in one gathering
+ * write, so the file sees few large writes rather than many small ones. How
+ * often the file is forced to storage is set by its durability. The writes and
+ * syncs made are counted for {@link #report()}.
+ *
+ * With a write buffer size set, the files are written by a thread of the
+ * writer's own. Records are appended to one of two blocks of that size; when
+ * it is full it is handed to the thread and the caller goes on filling the
+ * other, so a caller only waits when the disk falls a whole block behind.
+ */
+class JsonlWriter implements Closeable {
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * Most buffers written per write call.
+	 */
+	static final int GATHER = 8;
+
+	private static final byte[] NEWLINE = { '\n' };
+
+	private static final Queue<ByteBuffer> POOL = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	/**
+	 * Records appended for the writer thread: their lines back to back, and
+	 * where each one ends.
+	 */
+	private static final class Block {
+		final int capacity;
+		byte[] data;
+		int size = 0;
+		int[] ends = new int[1024];
+		int records = 0;
+
+		// Blocks grow to their capacity as they are filled, so that an output
+		// with few records does not hold it all.
+		Block(int capacity) {
+			this.capacity = capacity;
+			data = new byte[Math.min(capacity, 1 << 16)];
+		}
+
+		boolean fits(int len) {
+			return records == 0 || size + len + 1 <= capacity;
+		}
+
+		void append(byte[] line, int off, int len) {
+			if (size + len + 1 > data.length) {
+				data = Arrays.copyOf(data, Math.max(size + len + 1, Math.min(data.length * 2, capacity)));
+			}
+			if (records == ends.length) {
+				ends = Arrays.copyOf(ends, records * 2);
+			}
+
+			System.arraycopy(line, off, data, size, len);
+			size += len;
+			data[size++] = '\n';
+			ends[records++] = size;
+		}
+
+		void clear() {
+			size = 0;
+			records = 0;
+		}
+	}
+
+	/**
+	 * One output file and what was written to it.
+	 */
+	static final class Shard {
+		final String file;
+		long records = 0;
+		long bytes = 0;
+
+		Shard(String file) {
+			this.file = file;
+		}
+
+		/**
+		 * @return Manifest entry for the shard.
+		 */
+		JSONObject toJson() {
+			JSONObject json = new JSONObject();
+			json.put("file", file);
+			json.put("records", records);
+			json.put("bytes", bytes);
+			return json;
+		}
+	}
+
+	private final String output_dir;
+	private final String name;
+	private final String file_name;
+	private final long max_records;
+	private final long max_bytes;
+	private final ParserOptions.Durability durability;
+	private final long sync_size;
+
+	private final List<Shard> shards = new ArrayList<Shard>();
+	private Shard shard = null;
+	private FileChannel channel = null;
+
+	// Buffers filled since the last write; the last one is being filled.
+	private final ByteBuffer[] gather = new ByteBuffer[GATHER];
+	private int buffers = 0;
+	private long buffered = 0;
+	private long unsynced = 0;
+
+	private long writes = 0;
+	private long write_bytes = 0;
+	private long min_write = Long.MAX_VALUE;
+	private long max_write = 0;
+	private long syncs = 0;
+
+	// Hand-off to the writer thread, when there is one. The caller fills one
+	// block while the thread writes the other.
+	private final Thread thread;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition written = lock.newCondition();
+	private final Condition ready = lock.newCondition();
+	private Block filling = null;
+	private Block free = null;
+	private Block pending = null;
+	private boolean closing = false;
+	private IOException error = null;
+	private long blocks = 0;
+	private long wait_nanos = 0;
+	private long busy_nanos = 0;
+
+	/**
+	 * Opens the first output file, with the shard limits, write buffer and
+	 * durability of the parser options.
+	 *
+	 * @param output_dir Output directory.
+	 * @param name       Base name of the shard files, e.g. "full".
+	 * @param file_name  File name to use when not sharding, e.g. "full.jsonl".
+	 * @param options    Parser options.
+	 * @throws IOException if the file cannot be opened.
+	 */
+	JsonlWriter(String output_dir, String name, String file_name, ParserOptions options) throws IOException {
+		this(output_dir, name, file_name, options.shardRecords(), options.shardSize(), options.writeBuffer(),
+				options.durability(), options.syncSize());
+	}
+
+	/**
+	 * Opens the first output file.
+	 *
+	 * @param output_dir   Output directory.
+	 * @param name         Base name of the shard files, e.g. "full".
+	 * @param file_name    File name to use when not sharding, e.g. "full.jsonl".
+	 * @param max_records  Records per shard, or 0 for no limit.
+	 * @param max_bytes    Bytes per shard, or 0 for no limit.
+	 * @param write_buffer Size of each block handed to the writer thread, or 0
+	 *                     to write on the calling thread.
+	 * @param durability   When each file is forced to storage.
+	 * @param sync_size    Bytes written between syncs, with durability EVERY.
+	 * @throws IOException if the file cannot be opened.
+	 */
+	JsonlWriter(String output_dir, String name, String file_name, long max_records, long max_bytes,
+			int write_buffer, ParserOptions.Durability durability, long sync_size) throws IOException {
+		this.output_dir = output_dir;
+		this.name = name;
+		this.file_name = file_name;
+		this.max_records = max_records;
+		this.max_bytes = max_bytes;
+		this.durability = durability;
+		this.sync_size = sync_size;
+		roll();
+
+		if (write_buffer > 0) {
+			filling = new Block(write_buffer);
+			free = new Block(write_buffer);
+			thread = new Thread(this::drain, "write-" + name);
+			thread.setDaemon(true);
+			thread.start();
+		} else {
+			thread = null;
+		}
+	}
+
+	/**
+	 * @return Whether output is split into shards.
+	 */
+	boolean sharded() {
+		return max_records > 0 || max_bytes > 0;
+	}
+
+	/**
+	 * Write one record, rolling over to a new shard first if the current one is
+	 * full. A record is never split across shards, so a single record larger than
+	 * the byte limit gets a shard of its own.
+	 *
+	 * @param line UTF-8 JSON text of the record, without line terminator.
+	 * @param off  Offset of the record in the buffer.
+	 * @param len  Length of the record in bytes.
+	 * @throws IOException on write failure.
+	 */
+	void write(byte[] line, int off, int len) throws IOException {
+		if (thread == null) {
+			writeRecord(line, off, len);
+			return;
+		}
+
+		if (!filling.fits(len)) {
+			handOff();
+		}
+
+		filling.append(line, off, len);
+	}
+
+	/**
+	 * Write one record to the current shard, rolling over first if it is full.
+	 */
+	private void writeRecord(byte[] line, int off, int len) throws IOException {
+		long size = len + 1;
+
+		if (shard.records > 0 && ((max_records > 0 && shard.records >= max_records)
+				|| (max_bytes > 0 && shard.bytes + size > max_bytes))) {
+			roll();
+		}
+
+		put(line, off, len);
+		put(NEWLINE, 0, 1);
+		shard.records++;
+		shard.bytes += size;
+	}
+
+	/**
+	 * Copy bytes into the buffers, writing them out whenever all are full or a
+	 * sync is due.
+	 */
+	private void put(byte[] bytes, int off, int len) throws IOException {
+		while (len > 0) {
+			ByteBuffer buffer = buffers == 0 ? null : gather[buffers - 1];
+
+			if (buffer == null || !buffer.hasRemaining()) {
+				if (buffers == GATHER) {
+					flush();
+				}
+				buffer = POOL.poll();
+				if (buffer == null) {
+					buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+				}
+				gather[buffers++] = buffer;
+			}
+
+			int n = Math.min(len, buffer.remaining());
+			buffer.put(bytes, off, n);
+			off += n;
+			len -= n;
+			buffered += n;
+		}
+
+		if (durability == ParserOptions.Durability.EVERY && unsynced + buffered >= sync_size) {
+			flush();
+		}
+	}
+
+	/**
+	 * Write the buffered bytes with as few gathering writes as the channel
+	 * allows, return the buffers to the pool, and sync if due.
+	 */
+	private void flush() throws IOException {
+		long bytes = buffered;
+
+		try {
+			for (int i = 0; i < buffers; i++) {
+				gather[i].flip();
+			}
+
+			for (int i = 0; i < buffers;) {
+				long n = channel.write(gather, i, buffers - i);
+				writes++;
+				write_bytes += n;
+				min_write = Math.min(min_write, n);
+				max_write = Math.max(max_write, n);
+
+				while (i < buffers && !gather[i].hasRemaining()) {
+					i++;
+				}
+			}
+		} finally {
+			for (int i = 0; i < buffers; i++) {
+				gather[i].clear();
+				POOL.offer(gather[i]);
+				gather[i] = null;
+			}
+			buffers = 0;
+			buffered = 0;
+		}
+
+		unsynced += bytes;
+		if (durability == ParserOptions.Durability.EVERY && unsynced >= sync_size) {
+			sync(false);
+		}
+	}
+
+	private void sync(boolean metadata) throws IOException {
+		channel.force(metadata);
+		syncs++;
+		unsynced = 0;
+	}
+
+	/**
+	 * Write out what is buffered, sync unless durability is NONE, and close the
+	 * current file.
+	 */
+	private void finish() throws IOException {
+		try {
+			flush();
+			if (durability != ParserOptions.Durability.NONE && unsynced > 0) {
+				sync(true);
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Queue the filled block for the writer thread and take the other one to fill,
+	 * once the thread has written it.
+	 */
+	private void handOff() throws IOException {
+		lock.lock();
+		try {
+			long start = System.nanoTime();
+			while (free == null && error == null) {
+				written.awaitUninterruptibly();
+			}
+			wait_nanos += System.nanoTime() - start;
+
+			if (error != null) {
+				throw new IOException("Writing " + name + " records failed", error);
+			}
+
+			pending = filling;
+			filling = free;
+			free = null;
+			blocks++;
+			ready.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writer thread: write each block handed off, until closed.
+	 */
+	private void drain() {
+		while (true) {
+			Block block;
+
+			lock.lock();
+			try {
+				while (pending == null && !closing) {
+					ready.awaitUninterruptibly();
+				}
+				if (pending == null) {
+					return;
+				}
+				block = pending;
+				pending = null;
+			} finally {
+				lock.unlock();
+			}
+
+			long start = System.nanoTime();
+			IOException failure = null;
+			try {
+				if (sharded()) {
+					for (int i = 0, off = 0; i < block.records; off = block.ends[i++]) {
+						writeRecord(block.data, off, block.ends[i] - off - 1);
+					}
+				} else {
+					put(block.data, 0, block.size);
+					shard.records += block.records;
+					shard.bytes += block.size;
+				}
+			} catch (IOException e) {
+				failure = e;
+			}
+
+			lock.lock();
+			try {
+				busy_nanos += System.nanoTime() - start;
+				block.clear();
+				free = block;
+				if (failure != null && error == null) {
+					error = failure;
+				}
+				written.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * @return Summary of the records written and of the write and sync calls
+	 *         made, and of the blocks handed to the writer thread if there is
+	 *         one.
+	 */
+	String report() {
+		long records = 0;
+		long bytes = 0;
+		for (Shard s : shards) {
+			records += s.records;
+			bytes += s.bytes;
+		}
+
+		StringBuilder sb = new StringBuilder(String.format("Wrote %d %s records (%.1f MB) in %d writes", records,
+				name, bytes / 1048576.0, writes));
+		if (writes > 0) {
+			sb.append(String.format(" of %.1f KB on average (%.1f to %.1f KB)", write_bytes / 1024.0 / writes,
+					min_write / 1024.0, max_write / 1024.0));
+		}
+		sb.append(String.format(", %d fsyncs", syncs));
+		if (thread != null) {
+			sb.append(String.format("; %d blocks, writer busy %.2fs, callers waited %.2fs", blocks,
+					busy_nanos / 1e9, wait_nanos / 1e9));
+		}
+
+		return sb.toString();
+	}
+
+	/**
+	 * @return Write calls made so far.
+	 */
+	long writes() {
+		return writes;
+	}
+
+	/**
+	 * @return Syncs made so far.
+	 */
+	long syncs() {
+		return syncs;
+	}
+
+	/**
+	 * @return Files written so far.
+	 */
+	List<Shard> shards() {
+		return shards;
+	}
+
+	/**
+	 * Close the current file and open the next one.
+	 */
+	private void roll() throws IOException {
+		if (channel != null) {
+			finish();
+		}
+
+		String file = sharded() ? String.format("%s-%05d.jsonl", name, shards.size()) : file_name;
+		shard = new Shard(file);
+		shards.add(shard);
+		channel = FileChannel.open(Paths.get(output_dir, file), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Hand off the last records and wait for the writer thread to write them,
+	 * then write out the buffers and close the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (thread != null) {
+				stop();
+			}
+		} finally {
+			finish();
+		}
+	}
+
+	private void stop() throws IOException {
+		try {
+			if (filling.records > 0) {
+				handOff();
+			}
+		} finally {
+			lock.lock();
+			try {
+				closing = true;
+				ready.signal();
+			} finally {
+				lock.unlock();
+			}
+
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted writing " + name + " records");
+			}
+		}
+
+		if (error != null) {
+			throw new IOException("Writing " + name + " records failed", error);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file memory mapped read-only. A single mapping is limited to 2 GB, so larger
+ * files are mapped as a series of consecutive windows. Reading from the mapping
+ * avoids a read system call and a kernel to user copy per buffer; pages are
+ * faulted in by the OS as they are touched.
+ *
+ * The mapping stays valid after the file channel is closed and is released by
+ * the garbage collector once no longer referenced. Streams over the mapping use
+ * absolute reads only, so any number of them can read the same file from
+ * different threads.
+ */
+class MappedFile {
+	static final int WINDOW_SIZE = 1 << 30;
+
+	private final File file;
+	private final long size;
+	private final int window_size;
+	private final MappedByteBuffer[] windows;
+
+	private MappedFile(File file, long size, int window_size, MappedByteBuffer[] windows) {
+		this.file = file;
+		this.size = size;
+		this.window_size = window_size;
+		this.windows = windows;
+	}
+
+	/**
+	 * Map a file in windows of {@link #WINDOW_SIZE} bytes.
+	 *
+	 * @param file File to map.
+	 * @return Mapped file.
+	 * @throws IOException if the file cannot be mapped.
+	 */
+	static MappedFile map(File file) throws IOException {
+		return map(file, WINDOW_SIZE);
+	}
+
+	/**
+	 * Map a file in windows of the given size.
+	 *
+	 * @param file        File to map.
+	 * @param window_size Bytes per mapping.
+	 * @return Mapped file.
+	 * @throws IOException if the file cannot be mapped.
+	 */
+	static MappedFile map(File file, int window_size) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = channel.size();
+			MappedByteBuffer[] windows = new MappedByteBuffer[(int) ((size + window_size - 1) / window_size)];
+
+			for (int i = 0; i < windows.length; i++) {
+				long start = (long) i * window_size;
+				windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(window_size, size - start));
+			}
+
+			return new MappedFile(file, size, window_size, windows);
+		}
+	}
+
+	/**
+	 * @return Size of the file in bytes.
+	 */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * @return Number of windows the file is mapped in.
+	 */
+	int windows() {
+		return windows.length;
+	}
+
+	/**
+	 * A view of one window with its own position, starting at 0. Window i starts
+	 * at file offset i * window size.
+	 *
+	 * @param i Window index.
+	 * @return Buffer over the window.
+	 */
+	ByteBuffer window(int i) {
+		return windows[i].duplicate();
+	}
+
+	/**
+	 * Stream over a byte range of the mapping.
+	 *
+	 * @param start Offset of the first byte.
+	 * @param end   Offset after the last byte.
+	 * @return Input stream.
+	 */
+	InputStream stream(long start, long end) {
+		return new InputStream() {
+			private long position = start;
+
+			@Override
+			public int read() {
+				if (position >= end) {
+					return -1;
+				}
+
+				int b = windows[(int) (position / window_size)].get((int) (position % window_size)) & 0xff;
+				position++;
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) {
+				if (len == 0) {
+					return 0;
+				}
+
+				if (position >= end) {
+					return -1;
+				}
+
+				int offset = (int) (position % window_size);
+				MappedByteBuffer window = windows[(int) (position / window_size)];
+				int n = (int) Math.min(Math.min(len, window.limit() - offset), end - position);
+
+				window.get(offset, b, off, n);
+				position += n;
+				return n;
+			}
+
+			@Override
+			public long skip(long n) {
+				long skipped = Math.max(0, Math.min(n, end - position));
+				position += skipped;
+				return skipped;
+			}
+
+			@Override
+			public int available() {
+				return (int) Math.min(Integer.MAX_VALUE, end - position);
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return file.getPath();
+	}
+}
@@ -0,0 +1,570 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * A product mapper compiled from a declarative mapping spec. The spec is a JSON
+ * document that lists the output members in order and the ONIX accessor path
+ * each is read from. At load time every path is resolved against the Jonix
+ * model classes and the whole spec is bound into a tree of method handles, so
+ * mapping a product does no reflection or name lookups.
+ *
+ * The document has a "product" array of nodes, and optional "define" nodes
+ * that can be reused by name. A path is a dot separated chain of public fields
+ * or accessor methods, e.g. "descriptiveDetail.productForm.value.description".
+ * A null anywhere along the path gives null, and null members are left out.
+ * Node forms:
+ *
+ * <pre>
+ * {"key": K, "path": P}                        member K = value at P
+ * {"key": K, "path": P, "values": V}           array K of V for each element of list P
+ * {"key": K, "path": P, "each": [nodes]}       array K of one object per element of list P
+ * {"key": K, "path": P, "fields": [nodes]}     object K with the nodes applied to P
+ * {"path": P, "fields": [nodes]}               the nodes applied to P, in the current object
+ * {"identifiers": P, "value": V, "keys": [[TYPE, K], ...]}
+ *                                              member K = V of the first identifier of each TYPE
+ * {"use": NAME}                                the nodes of a definition
+ * </pre>
+ *
+ * Any node can have "if" or "unless" paths, tested on the current target before
+ * the node runs. Arrays can have a "where" path, tested on each element. A test
+ * passes on any non-null value except false.
+ *
+ * A field projection is applied to the top-level members before compiling.
+ * Members of a keyless "fields" node belong to the section named after its
+ * path, e.g. DescriptiveDetail, and members of a top-level "use" node to the
+ * section named after the definition.
+ */
+class MappingPlan implements ProductMapper {
+	/**
+	 * Mapping spec bundled with the parser. It reproduces the hand-written
+	 * mapping exactly.
+	 */
+	static final String DEFAULT_SPEC = "mapping.json";
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	// (Object target, JsonOutput jsonline)void
+	private static final MethodType STEP = MethodType.methodType(void.class, Object.class, JsonOutput.class);
+
+	// (Object target)Object
+	private static final MethodType GETTER = MethodType.methodType(Object.class, Object.class);
+
+	private static final MethodHandle PUT = helper("put", String.class, Object.class, JsonOutput.class);
+	private static final MethodHandle VALUES = helper("values", String.class, MethodHandle.class,
+			MethodHandle.class, MethodHandle.class, Object.class, JsonOutput.class);
+	private static final MethodHandle EACH = helper("each", String.class, MethodHandle.class, MethodHandle.class,
+			MethodHandle.class, Object.class, JsonOutput.class);
+	private static final MethodHandle OBJECT = helper("object", String.class, MethodHandle.class,
+			MethodHandle.class, Object.class, JsonOutput.class);
+	private static final MethodHandle IDENTIFIERS = helper("identifiers", IdentifierTable.class, MethodHandle.class,
+			Function.class, Object.class, JsonOutput.class);
+	private static final MethodHandle TEST = helper("test", Object.class);
+	private static final MethodHandle IS_NULL = helper("isNull", Object.class);
+
+	private final MethodHandle plan;
+
+	private MappingPlan(MethodHandle plan) {
+		this.plan = plan;
+	}
+
+	/**
+	 * Load and compile a mapping spec.
+	 *
+	 * @param path   Spec file, or null for the bundled spec.
+	 * @param fields Field projection.
+	 * @return Compiled plan.
+	 * @throws IOException if the spec cannot be read.
+	 */
+	static MappingPlan load(String path, FieldProjection fields) throws IOException {
+		try (InputStream in = path == null ? MappingPlan.class.getResourceAsStream(DEFAULT_SPEC)
+				: new FileInputStream(path)) {
+			return compile(new JSONObject(new JSONTokener(in)), fields);
+		}
+	}
+
+	/**
+	 * Compile a mapping spec.
+	 *
+	 * @param spec   Mapping spec.
+	 * @param fields Field projection.
+	 * @return Compiled plan.
+	 * @throws IllegalArgumentException if the spec is invalid, refers to
+	 *                                  accessors that do not exist, or the
+	 *                                  projection names an unknown field.
+	 */
+	static MappingPlan compile(JSONObject spec, FieldProjection fields) {
+		Compiler compiler = new Compiler(spec.optJSONObject("define"));
+		Set<String> known = new HashSet<String>();
+		JSONArray product = compiler.select(spec.getJSONArray("product"), null, fields, known);
+		fields.validate(known);
+		return new MappingPlan(compiler.nodes(product, com.tectonica.jonix.onix3.Product.class));
+	}
+
+	@Override
+	public void map(com.tectonica.jonix.onix3.Product product, JsonOutput jsonline) {
+		jsonline.startObject();
+		invoke(plan, product, jsonline);
+		jsonline.endObject();
+	}
+
+	private static void invoke(MethodHandle step, Object target, JsonOutput jsonline) {
+		try {
+			step.invokeExact(target, jsonline);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static MethodHandle helper(String name, Class<?>... parameters) {
+		try {
+			for (Method method : MappingPlan.class.getDeclaredMethods()) {
+				if (method.getName().equals(name) && Arrays.equals(method.getParameterTypes(), parameters)) {
+					return LOOKUP.unreflect(method);
+				}
+			}
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+
+		throw new IllegalStateException("No helper " + name);
+	}
+
+	// The step helpers below are bound to their node's arguments when the spec is
+	// compiled. Each node becomes one method handle, which the JVM compiles with
+	// its bound handles as constants.
+
+	private static void put(String key, Object value, JsonOutput jsonline) {
+		jsonline.put(key, value);
+	}
+
+	private static void values(String key, MethodHandle list, MethodHandle where, MethodHandle value, Object target,
+			JsonOutput jsonline) throws Throwable {
+		jsonline.startArray(key);
+
+		for (Object e : (Iterable<?>) (Object) list.invokeExact(target)) {
+			if (where == null || (boolean) where.invokeExact(e)) {
+				jsonline.add((Object) value.invokeExact(e));
+			}
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void each(String key, MethodHandle list, MethodHandle where, MethodHandle fields, Object target,
+			JsonOutput jsonline) throws Throwable {
+		jsonline.startArray(key);
+
+		for (Object e : (Iterable<?>) (Object) list.invokeExact(target)) {
+			if (where == null || (boolean) where.invokeExact(e)) {
+				jsonline.startObject();
+				fields.invokeExact(e, jsonline);
+				jsonline.endObject();
+			}
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void object(String key, MethodHandle path, MethodHandle fields, Object target,
+			JsonOutput jsonline) throws Throwable {
+		jsonline.startObject(key);
+		fields.invokeExact((Object) path.invokeExact(target), jsonline);
+		jsonline.endObject();
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static void identifiers(IdentifierTable table, MethodHandle list, Function value, Object target,
+			JsonOutput jsonline) throws Throwable {
+		table.write((Iterable) (Object) list.invokeExact(target), value, jsonline);
+	}
+
+	private static boolean test(Object value) {
+		return value != null && value != Boolean.FALSE;
+	}
+
+	private static boolean isNull(Object value) {
+		return value == null;
+	}
+
+	/**
+	 * A resolved accessor path: a (Object)Object method handle, and the static
+	 * type it yields.
+	 */
+	private static class Path {
+		final MethodHandle getter;
+		final Type type;
+
+		Path(MethodHandle getter, Type type) {
+			this.getter = getter;
+			this.type = type;
+		}
+
+		Class<?> rawType() {
+			return raw(type);
+		}
+
+		/**
+		 * Type argument of a parameterised list type, e.g. the element type.
+		 */
+		Class<?> typeArgument(int i) {
+			if (!(type instanceof ParameterizedType)) {
+				throw new IllegalArgumentException("Not a typed list: " + type);
+			}
+
+			return raw(((ParameterizedType) type).getActualTypeArguments()[i]);
+		}
+
+		private static Class<?> raw(Type type) {
+			if (type instanceof Class) {
+				return (Class<?>) type;
+			} else if (type instanceof ParameterizedType) {
+				return (Class<?>) ((ParameterizedType) type).getRawType();
+			}
+
+			throw new IllegalArgumentException("Unsupported type: " + type);
+		}
+	}
+
+	/**
+	 * Resolves the nodes of a spec into method handles of type
+	 * (Object target, JsonOutput jsonline)void.
+	 */
+	private static class Compiler {
+		private final JSONObject define;
+		private final Map<String, MethodHandle> defined = new HashMap<String, MethodHandle>();
+
+		Compiler(JSONObject define) {
+			this.define = define == null ? new JSONObject() : define;
+		}
+
+		/**
+		 * Apply a field projection to a list of top-level nodes, collecting the
+		 * output keys and section names they can write. Nodes with nothing selected
+		 * are dropped; the list is returned unchanged if everything is selected.
+		 */
+		JSONArray select(JSONArray nodes, String section, FieldProjection fields, Set<String> known) {
+			JSONArray selected = new JSONArray();
+			boolean changed = false;
+
+			for (int i = 0; i < nodes.length(); i++) {
+				JSONObject node = nodes.getJSONObject(i);
+				JSONObject copy = select(node, section, fields, known);
+				changed |= copy != node;
+
+				if (copy != null) {
+					selected.put(copy);
+				}
+			}
+
+			return changed ? selected : nodes;
+		}
+
+		/**
+		 * @return The node, a copy with only the selected members, or null.
+		 */
+		private JSONObject select(JSONObject node, String section, FieldProjection fields, Set<String> known) {
+			if (node.has("use")) {
+				String name = node.getString("use");
+
+				if (!define.has(name)) {
+					throw new IllegalArgumentException("Unknown mapping definition: " + name);
+				}
+
+				String group = section == null ? name : section;
+				known.add(group);
+				JSONArray members = define.getJSONArray(name);
+				JSONArray selected = select(members, group, fields, known);
+
+				if (selected == members) {
+					return node;
+				}
+
+				return selected.length() == 0 ? null : copy(node, "use").put("fields", selected);
+			}
+
+			if (node.has("identifiers")) {
+				JSONArray keys = node.getJSONArray("keys");
+				JSONArray selected = new JSONArray();
+
+				for (int i = 0; i < keys.length(); i++) {
+					String key = keys.getJSONArray(i).getString(1);
+					known.add(key);
+
+					if (fields.includes(key, section)) {
+						selected.put(keys.get(i));
+					}
+				}
+
+				if (selected.length() == keys.length()) {
+					return node;
+				}
+
+				return selected.length() == 0 ? null : copy(node, "keys").put("keys", selected);
+			}
+
+			if (node.has("key") || !node.has("fields")) {
+				String key = node.optString("key", null);
+
+				if (key != null) {
+					known.add(key);
+				}
+
+				return fields.includes(key, section) ? node : null;
+			}
+
+			String path = node.optString("path", "");
+			String group = section != null || path.isEmpty() ? section
+					: Character.toUpperCase(path.charAt(0)) + path.substring(1);
+
+			if (group != null) {
+				known.add(group);
+			}
+
+			JSONArray members = node.getJSONArray("fields");
+			JSONArray selected = select(members, group, fields, known);
+
+			if (selected == members) {
+				return node;
+			}
+
+			return selected.length() == 0 ? null : copy(node, "fields").put("fields", selected);
+		}
+
+		/**
+		 * Shallow copy of a node without one of its members.
+		 */
+		private static JSONObject copy(JSONObject node, String without) {
+			JSONObject copy = new JSONObject();
+
+			for (String name : node.keySet()) {
+				if (!name.equals(without)) {
+					copy.put(name, node.get(name));
+				}
+			}
+
+			return copy;
+		}
+
+		/**
+		 * Compile a list of nodes into one handle that runs them in order.
+		 */
+		MethodHandle nodes(JSONArray nodes, Class<?> target) {
+			MethodHandle sequence = null;
+
+			for (int i = nodes.length() - 1; i >= 0; i--) {
+				JSONObject node = nodes.getJSONObject(i);
+				MethodHandle step = node.has("use") ? use(node.getString("use"), target) : node(node, target);
+				step = guard(node, target, step);
+				sequence = sequence == null ? step : MethodHandles.foldArguments(sequence, step);
+			}
+
+			return sequence == null ? MethodHandles.empty(STEP) : sequence;
+		}
+
+		private MethodHandle use(String name, Class<?> target) {
+			String id = name + "@" + target.getName();
+			MethodHandle steps = defined.get(id);
+
+			if (steps == null) {
+				if (!define.has(name)) {
+					throw new IllegalArgumentException("Unknown mapping definition: " + name);
+				}
+
+				steps = nodes(define.getJSONArray(name), target);
+				defined.put(id, steps);
+			}
+
+			return steps;
+		}
+
+		private MethodHandle guard(JSONObject node, Class<?> target, MethodHandle step) {
+			boolean unless = node.has("unless");
+
+			if (!unless && !node.has("if")) {
+				return step;
+			}
+
+			MethodHandle test = test(path(target, node.getString(unless ? "unless" : "if")));
+			test = MethodHandles.dropArguments(test, 1, JsonOutput.class);
+			MethodHandle skip = MethodHandles.empty(STEP);
+
+			return unless ? MethodHandles.guardWithTest(test, skip, step)
+					: MethodHandles.guardWithTest(test, step, skip);
+		}
+
+		private MethodHandle node(JSONObject node, Class<?> target) {
+			if (node.has("identifiers")) {
+				return identifiers(node, target);
+			}
+
+			String key = node.optString("key", null);
+			Path path = node.has("path") ? path(target, node.getString("path"))
+					: new Path(MethodHandles.identity(Object.class), target);
+
+			if (node.has("values")) {
+				Class<?> element = path.typeArgument(0);
+				MethodHandle value = path(element, node.getString("values")).getter;
+				return MethodHandles.insertArguments(VALUES, 0, key, path.getter, where(node, element), value);
+			}
+
+			if (node.has("each")) {
+				Class<?> element = path.typeArgument(0);
+				MethodHandle fields = nodes(node.getJSONArray("each"), element);
+				return MethodHandles.insertArguments(EACH, 0, key, path.getter, where(node, element), fields);
+			}
+
+			if (node.has("fields")) {
+				MethodHandle fields = nodes(node.getJSONArray("fields"), path.rawType());
+
+				if (key == null) {
+					return MethodHandles.filterArguments(fields, 0, path.getter);
+				}
+
+				return MethodHandles.insertArguments(OBJECT, 0, key, path.getter, fields);
+			}
+
+			if (key == null || !node.has("path")) {
+				throw new IllegalArgumentException("Invalid mapping node: " + node);
+			}
+
+			MethodHandle put = MethodHandles.insertArguments(PUT, 0, key);
+			return MethodHandles.filterArguments(put, 0, path.getter);
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private MethodHandle identifiers(JSONObject node, Class<?> target) {
+			Path path = path(target, node.getString("identifiers"));
+			Class<?> element = path.typeArgument(0);
+			Class types = path.typeArgument(2);
+			MethodHandle value = path(element, node.getString("value")).getter;
+
+			IdentifierTable table = new IdentifierTable(types);
+			JSONArray keys = node.getJSONArray("keys");
+
+			for (int i = 0; i < keys.length(); i++) {
+				JSONArray pair = keys.getJSONArray(i);
+				table.map(Enum.valueOf(types, pair.getString(0)), pair.getString(1));
+			}
+
+			Function<Object, Object> get = id -> {
+				try {
+					return (Object) value.invokeExact(id);
+				} catch (RuntimeException | Error e) {
+					throw e;
+				} catch (Throwable e) {
+					throw new IllegalStateException(e);
+				}
+			};
+
+			return MethodHandles.insertArguments(IDENTIFIERS, 0, table, path.getter, get);
+		}
+
+		private MethodHandle where(JSONObject node, Class<?> element) {
+			return node.has("where") ? test(path(element, node.getString("where"))) : null;
+		}
+
+		/**
+		 * (Object target)boolean handle testing the value at a path.
+		 */
+		private static MethodHandle test(Path path) {
+			return MethodHandles.filterReturnValue(path.getter, TEST);
+		}
+
+		/**
+		 * Resolve a dot separated accessor path against a class. A null part way
+		 * along gives null.
+		 */
+		private Path path(Class<?> target, String path) {
+			MethodHandle getter = null;
+			Type type = target;
+
+			for (String name : path.split("\\.")) {
+				Path segment = accessor(Path.raw(type), name);
+
+				if (getter == null) {
+					getter = segment.getter;
+				} else {
+					MethodHandle nil = MethodHandles.dropArguments(MethodHandles.constant(Object.class, null), 0,
+							Object.class);
+					getter = MethodHandles.filterReturnValue(getter,
+							MethodHandles.guardWithTest(IS_NULL, nil, segment.getter));
+				}
+
+				type = segment.type;
+			}
+
+			return new Path(getter, type);
+		}
+
+		/**
+		 * Bind a public field or, failing that, a public no-argument method. Fields
+		 * come first because Jonix elements have both a value field and a value()
+		 * method returning an Optional.
+		 */
+		private Path accessor(Class<?> target, String name) {
+			try {
+				Field field = field(target, name);
+
+				if (field != null) {
+					return new Path(LOOKUP.unreflectGetter(field).asType(GETTER), field.getGenericType());
+				}
+
+				Method method = target.getMethod(name);
+				return new Path(LOOKUP.unreflect(method).asType(GETTER), method.getGenericReturnType());
+			} catch (NoSuchMethodException e) {
+				throw new IllegalArgumentException("No accessor " + name + " on " + target.getName());
+			} catch (IllegalAccessException e) {
+				throw new IllegalArgumentException("Cannot bind " + name + " on " + target.getName(), e);
+			}
+		}
+
+		private static Field field(Class<?> target, String name) {
+			try {
+				Field field = target.getField(name);
+				return Modifier.isStatic(field.getModifiers()) ? null : field;
+			} catch (NoSuchFieldException e) {
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,65 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * Unbounded pool of objects that are costly to create and not thread safe, such
+ * as XML factories and serialisation buffers. A task borrows an object for one
+ * use and releases it when done, so the objects are shared between tasks rather
+ * than tied to threads. Virtual threads run one task each, so per-thread
+ * instances would be created anew for every task. The pool only grows to the
+ * number of objects in use at once.
+ *
+ * @param <T> Pooled object type.
+ */
+final class ObjectPool<T> {
+	private final Queue<T> idle = new ConcurrentLinkedQueue<T>();
+	private final Supplier<? extends T> factory;
+
+	/**
+	 * @param factory Creates an object when none is idle.
+	 */
+	ObjectPool(Supplier<? extends T> factory) {
+		this.factory = factory;
+	}
+
+	/**
+	 * Take an idle object, or create one if there is none. Safe to call from any
+	 * thread.
+	 *
+	 * @return Object for the caller's sole use until released.
+	 */
+	T borrow() {
+		T object = idle.poll();
+		return object != null ? object : factory.get();
+	}
+
+	/**
+	 * Return a borrowed object to the pool. The caller must not use it
+	 * afterwards.
+	 *
+	 * @param object Borrowed object.
+	 */
+	void release(T object) {
+		idle.offer(object);
+	}
+}
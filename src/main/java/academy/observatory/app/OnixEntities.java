@@ -0,0 +1,77 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Local catalog of the character entities declared by the ONIX 3.0 DTD.
+ * External DTDs are never loaded, so without it a reference such as &amp;eacute;
+ * in a message that declares the DTD would be dropped. The table is read once
+ * per process and shared by every reader of a run.
+ */
+final class OnixEntities {
+	/**
+	 * Entity table bundled with the parser, as name=replacement properties.
+	 */
+	static final String CATALOG = "onix-entities.properties";
+
+	private static final Map<String, String> ENTITIES = load();
+
+	private OnixEntities() {
+	}
+
+	private static Map<String, String> load() {
+		Properties properties = new Properties();
+
+		try (InputStream in = OnixEntities.class.getResourceAsStream(CATALOG)) {
+			properties.load(in);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		Map<String, String> entities = new HashMap<String, String>();
+
+		for (String name : properties.stringPropertyNames()) {
+			entities.put(name, properties.getProperty(name));
+		}
+
+		return entities;
+	}
+
+	/**
+	 * @param name Entity name.
+	 * @return Replacement text of the entity, or null if the ONIX DTD does not
+	 *         declare it.
+	 */
+	static String resolve(String name) {
+		return ENTITIES.get(name);
+	}
+
+	/**
+	 * @return Number of entities in the catalog.
+	 */
+	static int size() {
+		return ENTITIES.size();
+	}
+}
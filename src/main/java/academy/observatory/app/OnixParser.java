@@ -23,11 +23,24 @@
 package academy.observatory.app;
 
 import java.io.File;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.json.JSONObject;
 import org.json.JSONArray;
@@ -50,14 +63,23 @@ public class OnixParser {
 	public static final String FULL_RECORD_FILE = "full.jsonl";
 	public static final String UPDATE_RECORD_FILE = "update.jsonl";
 	public static final String DELETE_RECORD_FILE = "delete.jsonl";
+	public static final String MANIFEST_FILE = "manifest.json";
+	public static final String VALIDATION_REPORT_FILE = "validation.jsonl";
+
+	/**
+	 * Size of the chunks read from a channel input.
+	 */
+	private static final int CHANNEL_BUFFER_SIZE = 1 << 16;
 
 	/**
 	 * Processes a directory of ONIX messages, and writes out full.json,
 	 * updates.json, deletes.json to the output directory.
 	 * 
 	 * @param args Command line arguments (required). args[0] is a directory
-	 *             containing ONIX XML files to process. args[1] is the output
-	 *             directory.
+	 *             containing ONIX XML files to process, or - to read one message
+	 *             from standard input. args[1] is the output directory. Any
+	 *             further arguments are options of the form --name=value, see
+	 *             {@link ParserOptions}.
 	 */
 	public static void main(String[] args) {
 		if (args.length < 2) {
@@ -65,9 +87,14 @@ public class OnixParser {
 					"Requires the directory containing ONIX xml files as the first argument and the output directory as the second argument");
 		}
 
-		File input_directory = new File(args[0]);
 		String output_directory = args[1];
-		parseOnix(input_directory, output_directory);
+		ParserOptions options = ParserOptions.parse(Arrays.copyOfRange(args, 2, args.length));
+
+		if (args[0].equals("-")) {
+			parseOnix(Channels.newChannel(System.in), "stdin", output_directory, options);
+		} else {
+			parseOnix(new File(args[0]), output_directory, options);
+		}
 	}
 
 	/**
@@ -77,35 +104,505 @@ public class OnixParser {
 	 * @param output_directory String object for output directory.
 	 */
 	public static void parseOnix(File input_directory, String output_directory) {
+		parseOnix(input_directory, output_directory, new ParserOptions());
+	}
+
+	/**
+	 * Parse ONIX records. Write out records to full/update/delete json files.
+	 * 
+	 * @param input_directory  File object for input directory.
+	 * @param output_directory String object for output directory.
+	 * @param options          Run options.
+	 */
+	public static void parseOnix(File input_directory, String output_directory, ParserOptions options) {
 		create_directory_if_missing(output_directory);
 
 		try {
-			JonixRecords records = Jonix.source(input_directory, "*.xml", false)
-					.source(input_directory, "*.onx", false)
-					.onSourceStart(src -> {
-						System.out.println("Processing " + src.onixVersion() + " file: " + src.sourceName());
-
-						// We're only going to process ONIX3. If ONIX2 is required later, use
-						// JonixUnifier or process it separately.
-						if (src.onixVersion() != OnixVersion.ONIX3) {
-							throw new RuntimeException("ONIX2 message received. We are only processing ONIX3");
-						}
-					}).onSourceEnd(src -> {
-						System.out.println("Processed records: " + src.productsProcessedCount());
-					}).configure("jonix.stream.failOnInvalidFile", Boolean.FALSE);
+			ParseEngine<?> engine = parseEngine(options);
+			SubtreeSkipper skipper = new SubtreeSkipper(options.skip());
+
+			try (ProductValidator validator = new ProductValidator(options, output_directory)) {
+				switch (options.mode()) {
+				case PARALLEL:
+					parseOnixConcurrent(listInputFiles(input_directory), output_directory, options, engine, skipper,
+							validator, Executors.newFixedThreadPool(options.threads()), Integer.MAX_VALUE);
+					break;
+				case PIPELINE:
+					parseOnixPipeline(listInputFiles(input_directory), output_directory, options, engine, skipper,
+							validator);
+					break;
+				case VIRTUAL:
+					parseOnixConcurrent(listInputFiles(input_directory), output_directory, options, engine, skipper,
+							validator, newVirtualThreadExecutor(), options.maxConcurrency());
+					break;
+				default:
+					parseOnixSequential(listInputFiles(input_directory), output_directory, options, engine, skipper,
+							validator);
+					break;
+				}
+			}
 
-			// CSV serialisation
-			// File targetFile = new File("/tmp/test.csv");
-			// int recordsWritten =
-			// records.streamUnified().collect(toDelimitedFile(targetFile,',',BaseTabulation.ALL));
+			if (!skipper.composites().isEmpty()) {
+				System.out.println(skipper.report());
+			}
 
-			// JSON serialisation
-			processRecords(records, output_directory);
+			if (options.json() == ParserOptions.Json.STREAM) {
+				System.out.println(engine.writer().report());
+			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
 
+	/**
+	 * Parse one ONIX message from a channel, such as standard input or a socket,
+	 * while it arrives. Records are written as soon as each product's end tag is
+	 * read, without staging the message to a file. A channel in non-blocking mode
+	 * is waited on with a selector. Only the StAX engine can parse a message in
+	 * chunks, and it always tokenises with Aalto's non-blocking reader here.
+	 * 
+	 * @param channel          ONIX message. It is not closed.
+	 * @param name             Name of the message in log messages.
+	 * @param output_directory String object for output directory.
+	 * @param options          Run options. The execution mode does not apply.
+	 *                         Skipping composites and validation are not
+	 *                         supported, so --skip, a schema or --drop-invalid
+	 *                         is rejected rather than ignored.
+	 */
+	public static void parseOnix(ReadableByteChannel channel, String name, String output_directory,
+			ParserOptions options) {
+		create_directory_if_missing(output_directory);
+
+		try {
+			ParseEngine<?> engine = parseEngine(options);
+
+			if (!(engine instanceof StaxEngine)) {
+				throw new IllegalArgumentException("Channel input needs --engine=stax");
+			}
+
+			if (!options.skip().isEmpty()) {
+				throw new IllegalArgumentException("--skip needs directory input");
+			}
+
+			if (options.validate() != null || options.dropInvalid()) {
+				throw new IllegalArgumentException("--validate and --drop-invalid need directory input");
+			}
+
+			StaxEngine stax = (StaxEngine) engine;
+			ProductWriter<StaxEngine.Node> writer = stax.writer();
+
+			try (RecordSink sink = new RecordSink(output_directory, options)) {
+				StaxEngine.PushParser parser = stax.pushParser(name, product -> {
+					String code = stax.notificationCode(product);
+					writer.write(product, (line, off, len) -> sink.write(code, line, off, len));
+				});
+
+				readChannel(channel, parser);
+			}
+
+			if (options.json() == ParserOptions.Json.STREAM) {
+				System.out.println(writer.report());
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Feed a channel to a push parser until the end of its input.
+	 * 
+	 * @param channel ONIX message.
+	 * @param parser  Push parser.
+	 * @throws Exception if reading, parsing or the output fails.
+	 */
+	private static void readChannel(ReadableByteChannel channel, StaxEngine.PushParser parser) throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(CHANNEL_BUFFER_SIZE);
+		Selector selector = null;
+
+		if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+			selector = Selector.open();
+			((SelectableChannel) channel).register(selector, SelectionKey.OP_READ);
+		}
+
+		try {
+			while (true) {
+				int read = channel.read(buffer);
+
+				if (read < 0) {
+					break;
+				}
+
+				if (read == 0 && selector != null) {
+					selector.select();
+					selector.selectedKeys().clear();
+					continue;
+				}
+
+				buffer.flip();
+				parser.feed(buffer);
+				buffer.clear();
+			}
+
+			parser.end();
+		} finally {
+			if (selector != null) {
+				selector.close();
+			}
+		}
+	}
+
+	/**
+	 * Parse ONIX files one after another on the calling thread.
+	 * 
+	 * @param files            ONIX files to parse.
+	 * @param output_directory Output directory.
+	 * @param options          Run options.
+	 * @param engine           Parse engine.
+	 * @param skipper          Removes the skipped composites from the input.
+	 * @param validator        Validates the products beside the mapping.
+	 * @throws Exception if any file fails to parse or the output fails.
+	 */
+	private static <P> void parseOnixSequential(List<File> files, String output_directory, ParserOptions options,
+			ParseEngine<P> engine, SubtreeSkipper skipper, ProductValidator validator) throws Exception {
+		// Read the files in the same order as the concurrent modes write them.
+		// Compressed files and archive entries are read as streams.
+
+		// CSV serialisation
+		// File targetFile = new File("/tmp/test.csv");
+		// int recordsWritten =
+		// records.streamUnified().collect(toDelimitedFile(targetFile,',',BaseTabulation.ALL));
+
+		// JSON serialisation
+		try (RecordSink sink = new RecordSink(output_directory, options)) {
+			InputSource.enumerate(files, 0, options.mmap(), source -> {
+				try {
+					processSource(source, sink, null, engine, skipper, validator);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Parse ONIX files concurrently, one task per file. Files larger than the
+	 * split size are split at Product boundaries into one task per chunk. Each
+	 * task maps its own products and writes them to the shared sink. Unless
+	 * unordered output was requested, records pass through a reorder buffer so
+	 * the output is in the same order as a sequential run.
+	 * 
+	 * @param files            ONIX files to parse.
+	 * @param output_directory Output directory.
+	 * @param options          Run options.
+	 * @param engine           Parse engine.
+	 * @param skipper          Removes the skipped composites from the input.
+	 * @param validator        Validates the products beside the mapping.
+	 * @param pool             Executor to run the tasks on. Tasks must be started
+	 *                         in submission order. It is shut down when done.
+	 * @param max_in_flight    Maximum number of tasks submitted but not finished.
+	 * @throws Exception if any file fails to parse or the output fails.
+	 */
+	private static <P> void parseOnixConcurrent(List<File> files, String output_directory, ParserOptions options,
+			ParseEngine<P> engine, SubtreeSkipper skipper, ProductValidator validator, ExecutorService pool,
+			int max_in_flight) throws Exception {
+		Semaphore permits = new Semaphore(max_in_flight);
+
+		try (RecordSink sink = new RecordSink(output_directory, options)) {
+			ReorderBuffer reorder = options.ordered() ? new ReorderBuffer(sink, options.reorderBuffer()) : null;
+			List<Future<?>> tasks = new ArrayList<Future<?>>();
+
+			InputSource.enumerate(files, options.splitSize(), options.mmap(), source -> {
+				try {
+					permits.acquire();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				tasks.add(pool.submit(() -> {
+					try {
+						processSource(source, sink, reorder, engine, skipper, validator);
+					} catch (Throwable e) {
+						// A failed source never finishes, so the sources after it could never
+						// be written; abort the buffer so their workers stop waiting for it.
+						if (reorder != null) {
+							reorder.abort(e);
+						}
+						throw e;
+					} finally {
+						permits.release();
+					}
+					return null;
+				}));
+			});
+
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Process the records of one input source.
+	 * 
+	 * @param source    Input source.
+	 * @param sink      Sink to write the processed records to.
+	 * @param reorder   Reorder buffer in front of the sink, or null to write
+	 *                  records in the order they are produced.
+	 * @param engine    Parse engine.
+	 * @param skipper   Removes the skipped composites from the input.
+	 * @param validator Validates the products beside the mapping.
+	 * @throws Exception if the source fails to parse or the output fails.
+	 */
+	private static <P> void processSource(InputSource source, RecordSink sink, ReorderBuffer reorder,
+			ParseEngine<P> engine, SubtreeSkipper skipper, ProductValidator validator) throws Exception {
+		ProductValidator.Checked checked = validator.open(source);
+
+		try (InputStream in = skipper.wrap(checked.in())) {
+			if (reorder == null) {
+				processRecords(in, sink, engine, checked);
+				return;
+			}
+
+			ProductWriter<P> writer = engine.writer();
+			int[] seq = { 0 };
+
+			engine.parse(in, product -> {
+				String code = engine.notificationCode(product);
+				int record_seq = seq[0]++;
+
+				reorder.admit(source.index());
+
+				// A dropped record still takes its place in the order.
+				if (!checked.keep(record_seq, code)) {
+					reorder.write(source.index(), record_seq, null, new byte[0], 0, 0);
+					return;
+				}
+
+				writer.write(product,
+						(line, off, len) -> reorder.write(source.index(), record_seq, code, line, off, len));
+			});
+
+			reorder.finish(source.index(), seq[0]);
+		}
+	}
+
+	/**
+	 * Create an executor that starts a new virtual thread for each task. Virtual
+	 * threads need Java 21; on older runtimes this falls back to a cached pool of
+	 * platform threads.
+	 * 
+	 * @return Executor service.
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			System.out.println("Virtual threads need Java 21 or later. Using platform threads.");
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	/**
+	 * An input source on its way from the read stage to the parse stage.
+	 */
+	private static final class PipelineSource {
+		final InputSource source;
+		final ReadAheadInputStream in;
+		volatile ProductValidator.Checked checked;
+
+		PipelineSource(InputSource source) {
+			this.source = source;
+			this.in = new ReadAheadInputStream(source.name(), 1 << 16, 16);
+		}
+	}
+
+	/**
+	 * A record on its way through the pipeline, keyed by its position in the
+	 * output order.
+	 */
+	private static final class PipelineRecord<P> {
+		final int source;
+		final int seq;
+		final ProductValidator.Checked checked;
+		P product;
+		String notification_code;
+		JSONObject jsonline;
+		byte[] line;
+
+		PipelineRecord(int source, int seq, ProductValidator.Checked checked, P product) {
+			this.source = source;
+			this.seq = seq;
+			this.checked = checked;
+			this.product = product;
+		}
+	}
+
+	/**
+	 * Parse ONIX files with a staged pipeline: read, parse, map, serialise and
+	 * write each run on their own threads, connected by bounded queues. A stage
+	 * that cannot keep up blocks the stages before it, so a slow disk throttles
+	 * parsing instead of filling the heap. Unless unordered output was
+	 * requested, the write stage puts records back into the order of a sequential
+	 * run.
+	 * 
+	 * @param files            ONIX files to parse.
+	 * @param output_directory Output directory.
+	 * @param options          Run options.
+	 * @param engine           Parse engine.
+	 * @param skipper          Removes the skipped composites from the input.
+	 * @param validator        Validates the products beside the mapping.
+	 * @throws Exception if any file fails to parse or the output fails.
+	 */
+	private static <P> void parseOnixPipeline(List<File> files, String output_directory, ParserOptions options,
+			ParseEngine<P> engine, SubtreeSkipper skipper, ProductValidator validator) throws Exception {
+		int depth = options.queueDepth();
+		ProductWriter<P> writer = engine.writer();
+
+		try (RecordSink sink = new RecordSink(output_directory, options)) {
+			ReorderBuffer reorder = options.ordered() ? new ReorderBuffer(sink, options.reorderBuffer()) : null;
+			Pipeline pipeline = new Pipeline();
+
+			Pipeline.Stage<PipelineRecord<P>> write = pipeline.stage("write", 1, depth, null, record -> {
+				if (reorder == null) {
+					sink.write(record.notification_code, record.line, 0, record.line.length);
+				} else {
+					reorder.write(record.source, record.seq, record.notification_code, record.line, 0,
+							record.line.length);
+				}
+			});
+
+			// The streaming writer serialises while mapping, so its records pass through
+			// the serialise stage untouched.
+			Pipeline.Stage<PipelineRecord<P>> serialize = pipeline.stage("serialize", options.serializeThreads(), depth,
+					write, record -> {
+						if (record.jsonline != null) {
+							record.line = record.jsonline.toString().getBytes(StandardCharsets.UTF_8);
+							record.jsonline = null;
+						}
+						write.put(record);
+					});
+
+			Pipeline.Stage<PipelineRecord<P>> map = pipeline.stage("map", options.mapThreads(), depth, serialize,
+					record -> {
+						record.notification_code = engine.notificationCode(record.product);
+
+						// A dropped record still takes its place in the order.
+						if (!record.checked.keep(record.seq, record.notification_code)) {
+							record.notification_code = null;
+							record.line = new byte[0];
+							record.product = null;
+							serialize.put(record);
+							return;
+						}
+
+						if (writer.json() == ParserOptions.Json.TREE) {
+							record.jsonline = writer.tree(record.product);
+						} else {
+							writer.write(record.product,
+									(line, off, len) -> record.line = Arrays.copyOfRange(line, off, off + len));
+						}
+
+						record.product = null;
+						serialize.put(record);
+					});
+
+			Pipeline.Stage<PipelineSource> parse = pipeline.stage("parse", options.parseThreads(), depth, map,
+					item -> {
+						int index = item.source.index();
+						int[] seq = { 0 };
+
+						engine.parse(item.in, product -> {
+							if (reorder != null) {
+								reorder.admit(index);
+							}
+
+							map.put(new PipelineRecord<P>(index, seq[0]++, item.checked, product));
+						});
+
+						if (reorder != null) {
+							reorder.finish(index, seq[0]);
+						}
+					});
+
+			Pipeline.Stage<PipelineSource> read = pipeline.stage("read", options.readThreads(), depth, parse,
+					item -> {
+						item.checked = validator.open(item.source);
+						item.in.pump(skipper.wrap(item.checked.in()));
+					});
+
+			pipeline.start(options.statsInterval());
+
+			// Sources are queued for reading and for parsing in index order, so that
+			// parse workers always take the earliest unparsed source next.
+			try {
+				InputSource.enumerate(files, options.splitSize(), options.mmap(), source -> {
+					try {
+						PipelineSource item = new PipelineSource(source);
+						read.put(item);
+						parse.put(item);
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				});
+				read.end();
+			} catch (Exception e) {
+				pipeline.abort(e);
+			}
+
+			try {
+				pipeline.await();
+			} finally {
+				System.out.println(pipeline.report());
+			}
+		}
+	}
+
+	/**
+	 * List the ONIX files in the input directory, sorted by name: plain messages
+	 * (*.xml, *.onx), gzip compressed messages (*.xml.gz, *.onx.gz) and archives
+	 * of messages (*.zip, *.tar, *.tar.gz, *.tgz).
+	 * 
+	 * @param input_directory Input directory.
+	 * @return List of ONIX files.
+	 * @throws IOException if the directory cannot be read.
+	 */
+	static List<File> listInputFiles(File input_directory) throws IOException {
+		List<File> files = new ArrayList<File>();
+
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(input_directory.toPath(), "*.{xml,onx,xml.gz,onx.gz,zip,tar,tar.gz,tgz}")) {
+			for (Path path : stream) {
+				if (Files.isRegularFile(path)) {
+					files.add(path.toFile());
+				}
+			}
+		}
+
+		Collections.sort(files);
+		return files;
+	}
+
+	/**
+	 * Apply the source event handlers and configuration shared by every Jonix
+	 * source used by the parser.
+	 * 
+	 * @param records Jonix records to configure.
+	 * @return The configured records.
+	 */
+	private static JonixRecords configureSource(JonixRecords records) {
+		return records.onSourceStart(src -> {
+			System.out.println("Processing " + src.onixVersion() + " file: " + src.sourceName());
+
+			// We're only going to process ONIX3. If ONIX2 is required later, use
+			// JonixUnifier or process it separately.
+			if (src.onixVersion() != OnixVersion.ONIX3) {
+				throw new RuntimeException("ONIX2 message received. We are only processing ONIX3");
+			}
+		}).onSourceEnd(src -> {
+			System.out.println("Processed records: " + src.productsProcessedCount());
+		}).configure("jonix.stream.failOnInvalidFile", Boolean.FALSE);
+	}
+
 	/**
 	 * Create directory if missing.
 	 * 
@@ -119,102 +616,316 @@ public class OnixParser {
 	}
 
 	/**
-	 * Process ONIX records identified by Jonix.
+	 * Process the ONIX records of a message. Records are streamed out to the
+	 * full/update/delete jsonlines files as soon as they are processed.
 	 * 
-	 * @param records    List of Jonix records.
-	 * @param output_dir Output directory.
+	 * @param in      ONIX message.
+	 * @param sink    Sink to write the processed records to.
+	 * @param engine  Parse engine.
+	 * @param checked Verdicts on the products of the message.
+	 * @throws Exception on output failure.
 	 */
-	private static void processRecords(JonixRecords records, String output_dir) {
-		List<JSONObject> full_list = new ArrayList<JSONObject>();
-		List<JSONObject> update_list = new ArrayList<JSONObject>();
-		List<JSONObject> delete_list = new ArrayList<JSONObject>();
+	private static <P> void processRecords(InputStream in, RecordSink sink, ParseEngine<P> engine,
+			ProductValidator.Checked checked) throws Exception {
+		ProductWriter<P> writer = engine.writer();
+		int[] seq = { 0 };
 
 		// Process each record
-		for (JonixRecord record : records) {
-			if (record.product instanceof com.tectonica.jonix.onix3.Product) {
-				com.tectonica.jonix.onix3.Product product = (com.tectonica.jonix.onix3.Product) record.product;
-				JSONObject jsonline = processProduct(product);
-
-				String notification_code = product.notificationType().value.code;
-				if (NotificationOrUpdateTypes.Notification_confirmed_on_publication.getCode() == notification_code
-						|| NotificationOrUpdateTypes.Advance_notification_confirmed.getCode() == notification_code
-						|| NotificationOrUpdateTypes.Early_notification.getCode() == notification_code) {
-					full_list.add(jsonline);
-				} else if (NotificationOrUpdateTypes.Update_partial.getCode() == notification_code) {
-					update_list.add(jsonline);
-				} else if (NotificationOrUpdateTypes.Delete.getCode() == notification_code) {
-					delete_list.add(jsonline);
-				}
-			} else { // Only process ONIX 3.
-				throw new IllegalArgumentException();
+		engine.parse(in, product -> {
+			String code = engine.notificationCode(product);
+
+			if (!checked.keep(seq[0]++, code)) {
+				return;
 			}
-		}
 
-		// Write the records out to different jsonlines files for full record, update
-		// record, and deletion record messages.
-		writeJsonl(full_list, output_dir, FULL_RECORD_FILE);
-		writeJsonl(update_list, output_dir, UPDATE_RECORD_FILE);
-		writeJsonl(delete_list, output_dir, DELETE_RECORD_FILE);
+			writer.write(product, (line, off, len) -> sink.write(code, line, off, len));
+		});
 	}
 
 	/**
-	 * Write out Java json objects to jsonlines. See https://jsonlines.org/ for the
-	 * spec.
+	 * Create the parse engine for a run.
 	 * 
-	 * @param json_list   List of json objects to write out.
-	 * @param output_dir  Output directory to write the file to.
-	 * @param output_file Name of the output file to use.
+	 * @param options Run options.
+	 * @return Parse engine.
+	 * @throws IOException              if the mapping spec cannot be read.
+	 * @throws IllegalArgumentException if the StAX engine is asked to run a
+	 *                                  mapping spec.
 	 */
-	private static void writeJsonl(List<JSONObject> json_list, String output_dir, String output_file) {
-		try {
-			BufferedWriter out = new BufferedWriter(new FileWriter(output_dir + "/" + output_file));
+	static ParseEngine<?> parseEngine(ParserOptions options) throws IOException {
+		if (options.engine() == ParserOptions.Engine.STAX) {
+			if (options.mapper() == ParserOptions.Mapper.SPEC) {
+				throw new IllegalArgumentException("Mapping specs need --engine=jonix");
+			}
+
+			return new StaxEngine(FieldProjection.of(options.fields()), options.json(), options.stax());
+		}
+
+		StaxProviders.useForJonix(options.stax());
+		return new JonixEngine(productWriter(options));
+	}
+
+	/**
+	 * Parses messages with Jonix into its ONIX 3 product model.
+	 */
+	private static final class JonixEngine implements ParseEngine<com.tectonica.jonix.onix3.Product> {
+		private final ProductWriter<com.tectonica.jonix.onix3.Product> writer;
+
+		JonixEngine(ProductWriter<com.tectonica.jonix.onix3.Product> writer) {
+			this.writer = writer;
+		}
 
-			for (JSONObject line : json_list) {
-				String str = line.toString();
-				out.write(str);
-				out.write("\n");
+		@Override
+		public void parse(InputStream in, ProductConsumer<? super com.tectonica.jonix.onix3.Product> consumer)
+				throws Exception {
+			for (JonixRecord record : configureSource(Jonix.source(in))) {
+				consumer.accept(onix3Product(record));
 			}
-			out.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+		}
+
+		@Override
+		public String notificationCode(com.tectonica.jonix.onix3.Product product) {
+			return product.notificationType().value.code;
+		}
+
+		@Override
+		public ProductWriter<com.tectonica.jonix.onix3.Product> writer() {
+			return writer;
 		}
 	}
 
 	/**
-	 * Processes a Product record.
+	 * Create the product writer for a run, with the hand-written mapping or a
+	 * mapping spec compiled at startup, limited to the selected fields.
 	 * 
-	 * @param product Product record.
-	 * @return Product record as a JSON object.
+	 * @param options Run options.
+	 * @return Product writer.
+	 * @throws IOException if the mapping spec cannot be read.
 	 */
-	private static JSONObject processProduct(com.tectonica.jonix.onix3.Product product) {
-		JSONObject jsonline = new JSONObject();
+	static ProductWriter<com.tectonica.jonix.onix3.Product> productWriter(ParserOptions options) throws IOException {
+		FieldProjection fields = FieldProjection.of(options.fields());
+		ProductMapper mapper;
+
+		if (options.mapper() == ParserOptions.Mapper.SPEC) {
+			mapper = MappingPlan.load(options.mapping(), fields);
+		} else {
+			mapper = codeMapper(fields);
+		}
+
+		return new ProductWriter<>(mapper::map, options.json());
+	}
 
-		if (product.recordSourceName().exists())
-			jsonline.put("RecordSourceName", product.recordSourceName().value);
+	/**
+	 * Get the ONIX 3 product of a record. Only ONIX 3 is processed.
+	 * 
+	 * @param record Jonix record.
+	 * @return ONIX 3 product.
+	 * @throws IllegalArgumentException if the record is not ONIX 3.
+	 */
+	private static com.tectonica.jonix.onix3.Product onix3Product(JonixRecord record) {
+		if (record.product instanceof com.tectonica.jonix.onix3.Product) {
+			return (com.tectonica.jonix.onix3.Product) record.product;
+		} else { // Only process ONIX 3.
+			throw new IllegalArgumentException();
+		}
+	}
 
-		if (product.recordSourceType().exists())
-			jsonline.put("RecordSourceType", product.recordSourceType().value.description);
+	/**
+	 * One top-level output field of the hand-written mapping.
+	 */
+	private static class Branch {
+		final String key;
+		final String section;
+		final ProductMapper mapper;
+
+		/**
+		 * @param key     Output key.
+		 * @param section ONIX section the field is read from, or null.
+		 * @param mapper  Writes the field.
+		 */
+		Branch(String key, String section, ProductMapper mapper) {
+			this.key = key;
+			this.section = section;
+			this.mapper = mapper;
+		}
 
-		processRecordReference(product.recordReference(), jsonline);
-		processProductIdentifiers(product.productIdentifiers(), jsonline);
-		processCollateralDetail(product.collateralDetail(), jsonline);
-		// processContentDetail(product.contentDetail(), jsonline);
-		processDescriptiveDetail(product.descriptiveDetail(), jsonline);
-		processRelatedMaterial(product.relatedMaterial(), jsonline);
-		processPublishingDetail(product.publishingDetail(), jsonline);
+		/**
+		 * @return Output keys the branch can write.
+		 */
+		List<String> keys() {
+			return Collections.singletonList(key);
+		}
 
-		return jsonline;
+		/**
+		 * @param fields Field projection.
+		 * @return Mapper for the selected part of the branch, or null if none of it
+		 *         is selected.
+		 */
+		ProductMapper select(FieldProjection fields) {
+			return fields.includes(key, section) ? mapper : null;
+		}
 	}
 
 	/**
-	 * Process RelatedMaterial records.
+	 * The hand-written mapping, in output order.
+	 */
+	private static final Branch[] BRANCHES = {
+			new Branch("RecordSourceName", null, (product, jsonline) -> {
+				if (product.recordSourceName().exists())
+					jsonline.put("RecordSourceName", product.recordSourceName().value);
+			}),
+			new Branch("RecordSourceType", null, (product, jsonline) -> {
+				if (product.recordSourceType().exists())
+					jsonline.put("RecordSourceType", product.recordSourceType().value.description);
+			}),
+			new Branch("RecordRef", "RecordReference", (product, jsonline) -> {
+				if (product.recordReference().exists())
+					jsonline.put("RecordRef", product.recordReference().value);
+			}),
+			new Branch("RecordRef_src", "RecordReference", (product, jsonline) -> {
+				if (product.recordReference().exists())
+					jsonline.put("RecordRef_src", product.recordReference().sourcename);
+			}),
+			new Branch("RecordRef_ts", "RecordReference", (product, jsonline) -> {
+				if (product.recordReference().exists())
+					jsonline.put("RecordRef_ts", product.recordReference().datestamp);
+			}),
+			new Branch("RecordRef_src_type", "RecordReference", (product, jsonline) -> {
+				if (product.recordReference().exists() && product.recordReference().sourcetype != null)
+					jsonline.put("RecordRef_src_type", product.recordReference().sourcetype.description);
+			}),
+			new Branch(null, "ProductIdentifiers", null) {
+				@Override
+				List<String> keys() {
+					return PRODUCT_IDENTIFIERS.keys();
+				}
+
+				@Override
+				ProductMapper select(FieldProjection fields) {
+					IdentifierTable<ProductIdentifierTypes> table = PRODUCT_IDENTIFIERS
+							.select(key -> fields.includes(key, section));
+
+					if (table.keys().isEmpty()) {
+						return null;
+					}
+
+					return (product, jsonline) -> table.write(product.productIdentifiers(), pid -> pid.idValue().value,
+							jsonline);
+				}
+			},
+			// citedcontents
+			// prizes
+			// supporting resources
+			new Branch("TextContent", "CollateralDetail", (product, jsonline) -> {
+				if (product.collateralDetail().exists())
+					processTextContent(product.collateralDetail().textContents(), jsonline);
+			}),
+			// processContentDetail(product.contentDetail(), jsonline);
+			new Branch("EditionNumber", "DescriptiveDetail", (product, jsonline) -> jsonline.put("EditionNumber",
+					product.descriptiveDetail().editionNumber().value)),
+			new Branch("EditionVersionNumber", "DescriptiveDetail", (product, jsonline) -> jsonline
+					.put("EditionVersionNumber", product.descriptiveDetail().editionVersionNumber().value)),
+			new Branch("Contributors", "DescriptiveDetail", (product, jsonline) -> {
+				if (!product.descriptiveDetail().isNoContributor())
+					processContributors(product.descriptiveDetail().contributors(), jsonline);
+			}),
+			new Branch("Subjects", "DescriptiveDetail",
+					(product, jsonline) -> processSubjects(product.descriptiveDetail().subjects(), jsonline)),
+			new Branch("CountryOfManufacture", "DescriptiveDetail", (product, jsonline) -> {
+				if (product.descriptiveDetail().countryOfManufacture().exists())
+					jsonline.put("CountryOfManufacture",
+							product.descriptiveDetail().countryOfManufacture().value.code);
+			}),
+			new Branch("TitleDetails", "DescriptiveDetail",
+					(product, jsonline) -> processTitleDetails(product.descriptiveDetail().titleDetails(), jsonline)),
+			new Branch("Languages", "DescriptiveDetail",
+					(product, jsonline) -> processLanguages(product.descriptiveDetail().languages(), jsonline)),
+			new Branch("EditionType", "DescriptiveDetail",
+					(product, jsonline) -> processEditionTypes(product.descriptiveDetail().editionTypes(), jsonline)),
+			new Branch("Extent", "DescriptiveDetail",
+					(product, jsonline) -> processExtents(product.descriptiveDetail().extents(), jsonline)),
+			new Branch("Collections", "DescriptiveDetail", (product, jsonline) -> {
+				if (!product.descriptiveDetail().isNoCollection())
+					processCollections(product.descriptiveDetail().collections(), jsonline);
+			}),
+			new Branch("ProductForm", "DescriptiveDetail",
+					(product, jsonline) -> processProductForm(product.descriptiveDetail().productForm(), jsonline)),
+			new Branch("RelatedProducts", "RelatedMaterial", (product, jsonline) -> processRelatedProducts(
+					product.relatedMaterial().relatedProducts(), jsonline)),
+			new Branch("RelatedWorks", "RelatedMaterial",
+					(product, jsonline) -> processRelatedWorks(product.relatedMaterial().relatedWorks(), jsonline)),
+			// latestreprintnumber
+			// productcontacts
+			new Branch("CityOfPublications", "PublishingDetail", (product, jsonline) -> {
+				if (product.publishingDetail().exists())
+					processCityofPublications(product.publishingDetail().cityOfPublications(), jsonline);
+			}),
+			new Branch("Imprints", "PublishingDetail", (product, jsonline) -> {
+				if (product.publishingDetail().exists())
+					processImprints(product.publishingDetail().imprints(), jsonline);
+			}),
+			new Branch("Publishers", "PublishingDetail", (product, jsonline) -> {
+				if (product.publishingDetail().exists())
+					processPublishers(product.publishingDetail().publishers(), jsonline);
+			}),
+			new Branch("PublishingDates", "PublishingDetail", (product, jsonline) -> {
+				if (product.publishingDetail().exists())
+					processPublishingDates(product.publishingDetail().publishingDates(), jsonline);
+			}),
+			// publishingstatus
+			// publishingstatusnotes
+			// rowsalerightstype
+			// salesrestrictions
+			// salesrights
+	};
+
+	/**
+	 * Create the hand-written product mapper. Branches the field projection does
+	 * not select are left out, so their part of the product is never read.
 	 * 
-	 * @param rel_mat  Related material object.
-	 * @param jsonline JSON object to write to.
+	 * @param fields Field projection.
+	 * @return Product mapper.
+	 * @throws IllegalArgumentException if the projection names an unknown field.
+	 */
+	static ProductMapper codeMapper(FieldProjection fields) {
+		Set<String> known = new HashSet<String>();
+		List<ProductMapper> selected = new ArrayList<ProductMapper>();
+
+		for (Branch branch : BRANCHES) {
+			known.addAll(branch.keys());
+
+			if (branch.section != null) {
+				known.add(branch.section);
+			}
+
+			ProductMapper mapper = branch.select(fields);
+
+			if (mapper != null) {
+				selected.add(mapper);
+			}
+		}
+
+		fields.validate(known);
+
+		ProductMapper[] branches = selected.toArray(new ProductMapper[0]);
+		return (product, jsonline) -> processProduct(product, branches, jsonline);
+	}
+
+	/**
+	 * Processes a Product record.
+	 * 
+	 * @param product  Product record.
+	 * @param branches Mapping branches to run.
+	 * @param jsonline JSON output to write the record to.
 	 */
-	private static void processRelatedMaterial(RelatedMaterial rel_mat, JSONObject jsonline) {
-		processRelatedProducts(rel_mat.relatedProducts(), jsonline);
-		processRelatedWorks(rel_mat.relatedWorks(), jsonline);
+	private static void processProduct(com.tectonica.jonix.onix3.Product product, ProductMapper[] branches,
+			JsonOutput jsonline) {
+		jsonline.startObject();
+
+		for (ProductMapper branch : branches) {
+			branch.map(product, jsonline);
+		}
+
+		jsonline.endObject();
 	}
 
 	/**
@@ -223,20 +934,19 @@ public class OnixParser {
 	 * @param rel_works List of RelatedProduct records.
 	 * @param jsonline  JSON object to write to.
 	 */
-	private static void processRelatedProducts(List<RelatedProduct> rel_prods, JSONObject jsonline) {
-		JSONArray jl_rel_products = new JSONArray();
+	private static void processRelatedProducts(List<RelatedProduct> rel_prods, JsonOutput jsonline) {
+		jsonline.startArray("RelatedProducts");
 
 		for (RelatedProduct rel_prod : rel_prods) {
-			JSONObject jl_rel_prod = new JSONObject();
-			processProductForm(rel_prod.productForm(), jl_rel_prod);
-			processProductIdentifiers(rel_prod.productIdentifiers(), jl_rel_prod);
+			jsonline.startObject();
+			processProductForm(rel_prod.productForm(), jsonline);
+			processProductIdentifiers(rel_prod.productIdentifiers(), jsonline);
 			// processProductFormDetails()
-			processProductRelationCodes(rel_prod.productRelationCodes(), jl_rel_prod);
-
-			jl_rel_products.put(jl_rel_prod);
+			processProductRelationCodes(rel_prod.productRelationCodes(), jsonline);
+			jsonline.endObject();
 		}
 
-		jsonline.put("RelatedProducts", jl_rel_products);
+		jsonline.endArray();
 	}
 
 	/**
@@ -246,16 +956,16 @@ public class OnixParser {
 	 * @param jsonline            JSON object to write to.
 	 */
 	private static void processProductRelationCodes(
-			ListOfOnixElement<ProductRelationCode, ProductRelations> prod_relation_codes, JSONObject jsonline) {
-		JSONArray jl_codes = new JSONArray();
+			ListOfOnixElement<ProductRelationCode, ProductRelations> prod_relation_codes, JsonOutput jsonline) {
+		jsonline.startArray("ProductRelationCodes");
 
 		for (ProductRelationCode code : prod_relation_codes) {
 			if (code.exists()) {
-				jl_codes.put(code.value.description);
+				jsonline.add(code.value.description);
 			}
 		}
 
-		jsonline.put("ProductRelationCodes", jl_codes);
+		jsonline.endArray();
 	}
 
 	/**
@@ -264,22 +974,22 @@ public class OnixParser {
 	 * @param rel_works List of RelatedWork records.
 	 * @param jsonline  JSON object to write to.
 	 */
-	private static void processRelatedWorks(List<RelatedWork> rel_works, JSONObject jsonline) {
-		JSONArray jl_rel_works = new JSONArray();
+	private static void processRelatedWorks(List<RelatedWork> rel_works, JsonOutput jsonline) {
+		jsonline.startArray("RelatedWorks");
 
 		for (RelatedWork rel_work : rel_works) {
-			JSONObject jl_rel_work = new JSONObject();
+			jsonline.startObject();
 
 			if (rel_work.workRelationCode().value != null) {
-				jl_rel_work.put("WorkRelationCode", rel_work.workRelationCode().value.description);
+				jsonline.put("WorkRelationCode", rel_work.workRelationCode().value.description);
 			}
 
-			processWorkIdentifiers(rel_work.workIdentifiers(), jl_rel_work);
+			processWorkIdentifiers(rel_work.workIdentifiers(), jsonline);
 
-			jl_rel_works.put(jl_rel_work);
+			jsonline.endObject();
 		}
 
-		jsonline.put("RelatedWorks", jl_rel_works);
+		jsonline.endArray();
 	}
 
 	/**
@@ -290,47 +1000,23 @@ public class OnixParser {
 	 */
 	private static void processWorkIdentifiers(
 			ListOfOnixDataCompositeWithKey<WorkIdentifier, JonixWorkIdentifier, WorkIdentifierTypes> work_ids,
-			JSONObject jsonline) {
-		JSONArray jl_work_ids = new JSONArray();
+			JsonOutput jsonline) {
+		jsonline.startArray("WorkIdentifiers");
 
 		for (WorkIdentifier work_id : work_ids) {
-			JSONObject jl_work_id = new JSONObject();
+			jsonline.startObject();
 
-			jl_work_id.put("IDTypeName", work_id.idTypeName().value);
-			jl_work_id.put("IDValue", work_id.idValue().value);
+			jsonline.put("IDTypeName", work_id.idTypeName().value);
+			jsonline.put("IDValue", work_id.idValue().value);
 
 			if (work_id.workIDType().value != null) {
-				jl_work_id.put("WorkIDType", work_id.workIDType().value.description);
+				jsonline.put("WorkIDType", work_id.workIDType().value.description);
 			}
 
-			jl_work_ids.put(jl_work_id);
-		}
-
-		jsonline.put("WorkIdentifiers", jl_work_ids);
-	}
-
-	/**
-	 * Process the PublishingDetail group of records.
-	 * 
-	 * @param pdet     Publishing detail object.
-	 * @param jsonline JSON object to write to.
-	 */
-	private static void processPublishingDetail(PublishingDetail pdet, JSONObject jsonline) {
-		if (!pdet.exists()) {
-			return;
+			jsonline.endObject();
 		}
 
-		processCityofPublications(pdet.cityOfPublications(), jsonline);
-		processImprints(pdet.imprints(), jsonline);
-		// latestreprintnumber
-		// productcontacts
-		processPublishers(pdet.publishers(), jsonline);
-		processPublishingDates(pdet.publishingDates(), jsonline);
-		// publishingstatus
-		// publishingstatusnotes
-		// rowsalerightstype
-		// salesrestrictions
-		// salesrights
+		jsonline.endArray();
 	}
 
 	/**
@@ -339,17 +1025,17 @@ public class OnixParser {
 	 * @param imprints List of Imprint objects.
 	 * @param jsonline JSON object to write to.
 	 */
-	private static void processImprints(List<Imprint> imprints, JSONObject jsonline) {
-		JSONArray jl_imprints = new JSONArray();
+	private static void processImprints(List<Imprint> imprints, JsonOutput jsonline) {
+		jsonline.startArray("Imprints");
 
 		for (Imprint imprint : imprints) {
-			JSONObject jl_imprint = new JSONObject();
-			processImprintName(imprint.imprintName(), jl_imprint);
-			processImprintIdentifiers(imprint.imprintIdentifiers(), jl_imprint);
-			jl_imprints.put(jl_imprint);
+			jsonline.startObject();
+			processImprintName(imprint.imprintName(), jsonline);
+			processImprintIdentifiers(imprint.imprintIdentifiers(), jsonline);
+			jsonline.endObject();
 		}
 
-		jsonline.put("Imprints", jl_imprints);
+		jsonline.endArray();
 	}
 
 	/**
@@ -358,7 +1044,7 @@ public class OnixParser {
 	 * @param iname    ImprintName object.
 	 * @param jsonline JSON object to write to.
 	 */
-	private static void processImprintName(ImprintName iname, JSONObject jsonline) {
+	private static void processImprintName(ImprintName iname, JsonOutput jsonline) {
 		jsonline.put("ImprintName", iname.value);
 
 		if (iname.language != null) {
@@ -374,24 +1060,24 @@ public class OnixParser {
 	 */
 	private static void processImprintIdentifiers(
 			ListOfOnixDataCompositeWithKey<ImprintIdentifier, JonixImprintIdentifier, NameIdentifierTypes> iids,
-			JSONObject jsonline) {
-		JSONArray jl_iids = new JSONArray();
+			JsonOutput jsonline) {
+		jsonline.startArray("ImprintIdentifiers");
 
 		for (ImprintIdentifier iid : iids) {
 			if (!iid.exists()) {
 				continue;
 			}
 
-			JSONObject jl_iid = new JSONObject();
+			jsonline.startObject();
 
-			jl_iid.put("IDTypeName", iid.idTypeName().value);
-			jl_iid.put("IDValue", iid.idValue().value);
-			jl_iid.put("ImprintIDType", iid.imprintIDType().value);
+			jsonline.put("IDTypeName", iid.idTypeName().value);
+			jsonline.put("IDValue", iid.idValue().value);
+			jsonline.put("ImprintIDType", iid.imprintIDType().value);
 
-			jl_iids.put(jl_iid);
+			jsonline.endObject();
 		}
 
-		jsonline.put("ImprintIdentifiers", jl_iids);
+		jsonline.endArray();
 	}
 
 	/**
@@ -401,14 +1087,14 @@ public class OnixParser {
 	 * @param jsonline JSON object to write to.
 	 */
 	private static void processCityofPublications(ListOfOnixElement<CityOfPublication, String> cpubs,
-			JSONObject jsonline) {
-		JSONArray jl_cpubs = new JSONArray();
+			JsonOutput jsonline) {
+		jsonline.startArray("CityOfPublications");
 
 		for (CityOfPublication cpub : cpubs) {
-			jl_cpubs.put(cpub.value);
+			jsonline.add(cpub.value);
 		}
 
-		jsonline.put("CityOfPublications", jl_cpubs);
+		jsonline.endArray();
 	}
 
 	/**
@@ -419,26 +1105,26 @@ public class OnixParser {
 	 */
 	private static void processPublishingDates(
 			ListOfOnixDataCompositeWithKey<PublishingDate, JonixPublishingDate, PublishingDateRoles> pubdates,
-			JSONObject jsonline) {
-		JSONArray jl_pubdates = new JSONArray();
+			JsonOutput jsonline) {
+		jsonline.startArray("PublishingDates");
 
 		for (PublishingDate pubdate : pubdates) {
-			JSONObject jl_pubdate = new JSONObject();
+			jsonline.startObject();
 
-			jl_pubdate.put("Date", pubdate.date().value);
+			jsonline.put("Date", pubdate.date().value);
 
 			if (pubdate.dateFormat().exists()) {
-				jl_pubdate.put("DateFormat", pubdate.dateFormat().value.description);
+				jsonline.put("DateFormat", pubdate.dateFormat().value.description);
 			}
 
 			if (pubdate.publishingDateRole().exists()) {
-				jl_pubdate.put("PublishingDateRole", pubdate.publishingDateRole().value.description);
+				jsonline.put("PublishingDateRole", pubdate.publishingDateRole().value.description);
 			}
 
-			jl_pubdates.put(jl_pubdate);
+			jsonline.endObject();
 		}
 
-		jsonline.put("PublishingDates", jl_pubdates);
+		jsonline.endArray();
 	}
 
 	/**
@@ -447,43 +1133,26 @@ public class OnixParser {
 	 * @param publishers List of publishers.
 	 * @param jsonline   JSON object to write to.
 	 */
-	private static void processPublishers(List<Publisher> publishers, JSONObject jsonline) {
-		JSONArray jl_publishers = new JSONArray();
+	private static void processPublishers(List<Publisher> publishers, JsonOutput jsonline) {
+		jsonline.startArray("Publishers");
 
 		for (Publisher publisher : publishers) {
-			JSONObject jl_publisher = new JSONObject();
+			jsonline.startObject();
 
-			jl_publisher.put("PublisherName", publisher.publisherName().value);
+			jsonline.put("PublisherName", publisher.publisherName().value);
 
 			if (publisher.publishingRole().value != null) {
-				jl_publisher.put("PublishingRole", publisher.publishingRole().value.description);
+				jsonline.put("PublishingRole", publisher.publishingRole().value.description);
 			}
 
-			processWebsites(publisher.websites(), jl_publisher);
+			processWebsites(publisher.websites(), jsonline);
 			// identifiers
 			// websites
 			// fundings
-			jl_publishers.put(jl_publisher);
-		}
-
-		jsonline.put("Publishers", jl_publishers);
-	}
-
-	/**
-	 * Process CollateralDetail group of records.
-	 * 
-	 * @param cdet     Collateral detail object.
-	 * @param jsonline JSON object to write to.
-	 */
-	private static void processCollateralDetail(CollateralDetail cdet, JSONObject jsonline) {
-		if (!cdet.exists()) {
-			return;
+			jsonline.endObject();
 		}
 
-		processTextContent(cdet.textContents(), jsonline);
-		// citedcontents
-		// prizes
-		// supporting resources
+		jsonline.endArray();
 	}
 
 	/**
@@ -492,49 +1161,57 @@ public class OnixParser {
 	 * @param text_contents List of text contents.
 	 * @param jsonline      JSON object to write to.
 	 */
-	private static void processTextContent(List<TextContent> text_contents, JSONObject jsonline) {
-		JSONArray jl_text_contents = new JSONArray();
+	private static void processTextContent(List<TextContent> text_contents, JsonOutput jsonline) {
+		jsonline.startArray("TextContent");
 
 		for (TextContent text_content : text_contents) {
-			JSONObject jl_text_content = new JSONObject();
+			jsonline.startObject();
 
-			JSONArray texts = new JSONArray();
+			jsonline.startArray("Text");
 
 			for (Text text : text_content.texts()) {
-				texts.put(text.value);
+				jsonline.add(text.value);
 			}
 
-			jl_text_content.put("Text", texts);
+			jsonline.endArray();
 
 			if (text_content.textType().exists()) {
-				jl_text_content.put("TextType", text_content.textType().value.description);
+				jsonline.put("TextType", text_content.textType().value.description);
 			}
 
-			jl_text_contents.put(jl_text_content);
+			jsonline.endObject();
 		}
 
-		jsonline.put("TextContent", jl_text_contents);
+		jsonline.endArray();
 	}
 
 	/**
-	 * Process RecordReference records.
-	 * 
-	 * @param record_ref List of RecordReferences.
-	 * @param jsonline   JSON object to write to.
+	 * Output keys of the product identifier types.
 	 */
-	private static void processRecordReference(com.tectonica.jonix.onix3.RecordReference record_ref,
-			JSONObject jsonline) {
-		if (!record_ref.exists()) {
-			return;
-		}
-
-		jsonline.put("RecordRef", record_ref.value);
-		jsonline.put("RecordRef_src", record_ref.sourcename);
-		jsonline.put("RecordRef_ts", record_ref.datestamp);
-
-		if (record_ref.sourcetype != null)
-			jsonline.put("RecordRef_src_type", record_ref.sourcetype.description);
-	}
+	static final IdentifierTable<ProductIdentifierTypes> PRODUCT_IDENTIFIERS = new IdentifierTable<>(
+			ProductIdentifierTypes.class)
+			.map(ProductIdentifierTypes.ISBN_13, "ISBN13")
+			.map(ProductIdentifierTypes.ISBN_10, "ISBN10")
+			.map(ProductIdentifierTypes.ARK, "ARK")
+			.map(ProductIdentifierTypes.BNF_Control_number, "BNF_Control_number")
+			.map(ProductIdentifierTypes.Co_publisher_s_ISBN_13, "Co_publisher_s_ISBN_13")
+			.map(ProductIdentifierTypes.GTIN_13, "GTIN_13")
+			.map(ProductIdentifierTypes.GTIN_14, "GTIN_14")
+			.map(ProductIdentifierTypes.ISBN_A, "ISBN_A")
+			.map(ProductIdentifierTypes.ISMN_10, "ISMN_10")
+			.map(ProductIdentifierTypes.JP_e_code, "JP_e_code")
+			.map(ProductIdentifierTypes.JP_Magazine_ID, "JP_Magazine_ID")
+			.map(ProductIdentifierTypes.LCCN, "LCCN")
+			.map(ProductIdentifierTypes.Legal_deposit_number, "Legal_deposit_number")
+			.map(ProductIdentifierTypes.OCLC_number, "OCLC_number")
+			.map(ProductIdentifierTypes.OLCC_number, "OLCC_number")
+			.map(ProductIdentifierTypes.Proprietary, "PID_Proprietary")
+			.map(ProductIdentifierTypes.UPC, "UPC")
+			.map(ProductIdentifierTypes.UPC12_5, "UPC12_5")
+			.map(ProductIdentifierTypes.URN, "URN")
+			// We might need to support multiple DOI listings at a later point. See how
+			// single DOI pans out first.
+			.map(ProductIdentifierTypes.DOI, "DOI");
 
 	/**
 	 * Process ProductIdentifier records.
@@ -544,73 +1221,11 @@ public class OnixParser {
 	 */
 	private static void processProductIdentifiers(
 			ListOfOnixDataCompositeWithKey<ProductIdentifier, JonixProductIdentifier, ProductIdentifierTypes> pids,
-			JSONObject jsonline) {
-		jsonline.put("ISBN13", pids.find(ProductIdentifierTypes.ISBN_13).map(pid -> pid.idValue().value).orElse(null));
-		jsonline.put("ISBN10", pids.find(ProductIdentifierTypes.ISBN_10).map(pid -> pid.idValue().value).orElse(null));
-		jsonline.put("ARK", pids.find(ProductIdentifierTypes.ARK).map(pid -> pid.idValue().value).orElse(null));
-		jsonline.put("BNF_Control_number",
-				pids.find(ProductIdentifierTypes.BNF_Control_number).map(pid -> pid.idValue().value).orElse(null));
-		jsonline.put("Co_publisher_s_ISBN_13",
-				pids.find(ProductIdentifierTypes.Co_publisher_s_ISBN_13).map(pid -> pid.idValue().value).orElse(null));
-		jsonline.put("GTIN_13", pids.find(ProductIdentifierTypes.GTIN_13).map(pid -> pid.idValue().value).orElse(null));
-		jsonline.put("GTIN_14", pids.find(ProductIdentifierTypes.GTIN_14).map(pid -> pid.idValue().value).orElse(null));
-		jsonline.put("ISBN_A", pids.find(ProductIdentifierTypes.ISBN_A).map(pid -> pid.idValue().value).orElse(null));
-		jsonline.put("ISMN_10", pids.find(ProductIdentifierTypes.ISMN_10).map(pid -> pid.idValue().value).orElse(null));
-		jsonline.put("JP_e_code",
-				pids.find(ProductIdentifierTypes.JP_e_code).map(pid -> pid.idValue().value).orElse(null));
-		jsonline.put("JP_Magazine_ID",
-				pids.find(ProductIdentifierTypes.JP_Magazine_ID).map(pid -> pid.idValue().value).orElse(null));
-		jsonline.put("LCCN", pids.find(ProductIdentifierTypes.LCCN).map(pid -> pid.idValue().value).orElse(null));
-		jsonline.put("Legal_deposit_number",
-				pids.find(ProductIdentifierTypes.Legal_deposit_number).map(pid -> pid.idValue().value).orElse(null));
-		jsonline.put("OCLC_number",
-				pids.find(ProductIdentifierTypes.OCLC_number).map(pid -> pid.idValue().value).orElse(null));
-		jsonline.put("OLCC_number",
-				pids.find(ProductIdentifierTypes.OLCC_number).map(pid -> pid.idValue().value).orElse(null));
-		jsonline.put("PID_Proprietary",
-				pids.find(ProductIdentifierTypes.Proprietary).map(pid -> pid.idValue().value).orElse(null));
-		jsonline.put("UPC", pids.find(ProductIdentifierTypes.UPC).map(pid -> pid.idValue().value).orElse(null));
-		jsonline.put("UPC12_5", pids.find(ProductIdentifierTypes.UPC12_5).map(pid -> pid.idValue().value).orElse(null));
-		jsonline.put("UPC12_5", pids.find(ProductIdentifierTypes.UPC12_5).map(pid -> pid.idValue().value).orElse(null));
-		jsonline.put("URN", pids.find(ProductIdentifierTypes.URN).map(pid -> pid.idValue().value).orElse(null));
-
-		// We might need to support multiple DOI listings at a later point. See how
-		// single DOI pans out first.
-		jsonline.put("DOI", pids.find(ProductIdentifierTypes.DOI).map(pid -> pid.idValue().value).orElse(null));
-	}
-
-	/**
-	 * Process DescriptiveDetail group of records.
-	 * 
-	 * @param dd       DescriptiveDetail record.
-	 * @param jsonline JSON object to write to.
-	 */
-	private static void processDescriptiveDetail(DescriptiveDetail dd, JSONObject jsonline) {
-		jsonline.put("EditionNumber", dd.editionNumber().value);
-		jsonline.put("EditionVersionNumber", dd.editionVersionNumber().value);
-
-		if (!dd.isNoContributor())
-			processContributors(dd.contributors(), jsonline);
-
-		processSubjects(dd.subjects(), jsonline);
-
-		if (dd.countryOfManufacture().exists()) {
-			jsonline.put("CountryOfManufacture", dd.countryOfManufacture().value.code);
-		}
-
-		processTitleDetails(dd.titleDetails(), jsonline);
-		processLanguages(dd.languages(), jsonline);
-		processEditionTypes(dd.editionTypes(), jsonline);
-		processExtents(dd.extents(), jsonline);
-
-		if (!dd.isNoCollection()) {
-			processCollections(dd.collections(), jsonline);
-		}
-
-		processProductForm(dd.productForm(), jsonline);
+			JsonOutput jsonline) {
+		PRODUCT_IDENTIFIERS.write(pids, pid -> pid.idValue().value, jsonline);
 	}
 
-	private static void processProductForm(ProductForm pf, JSONObject jsonline) {
+	private static void processProductForm(ProductForm pf, JsonOutput jsonline) {
 		if (!pf.exists()) {
 			return;
 		}
@@ -625,23 +1240,23 @@ public class OnixParser {
 	 * @param jsonline    JSON object to write to.
 	 */
 	private static void processCollections(List<com.tectonica.jonix.onix3.Collection> collections,
-			JSONObject jsonline) {
-		JSONArray jl_collections = new JSONArray();
+			JsonOutput jsonline) {
+		jsonline.startArray("Collections");
 
 		for (com.tectonica.jonix.onix3.Collection collection : collections) {
-			JSONObject jl_collection = new JSONObject();
+			jsonline.startObject();
 
 			if (collection.collectionType().value != null) {
-				jl_collection.put("CollectionType", collection.collectionType().value.description);
+				jsonline.put("CollectionType", collection.collectionType().value.description);
 			}
 
-			processCollectionIdentifiers(collection.collectionIdentifiers(), jl_collection);
-			processTitleDetails(collection.titleDetails(), jl_collection);
+			processCollectionIdentifiers(collection.collectionIdentifiers(), jsonline);
+			processTitleDetails(collection.titleDetails(), jsonline);
 
-			jl_collections.put(jl_collection);
+			jsonline.endObject();
 		}
 
-		jsonline.put("Collections", jl_collections);
+		jsonline.endArray();
 	}
 
 	/**
@@ -652,20 +1267,20 @@ public class OnixParser {
 	 */
 	private static void processCollectionIdentifiers(
 			ListOfOnixDataCompositeWithKey<CollectionIdentifier, JonixCollectionIdentifier, SeriesIdentifierTypes> col_ids,
-			JSONObject jsonline) {
-		JSONArray jl_col_ids = new JSONArray();
+			JsonOutput jsonline) {
+		jsonline.startArray("CollectionIdentifers");
 
 		for (CollectionIdentifier col_id : col_ids) {
-			JSONObject jl_col_id = new JSONObject();
+			jsonline.startObject();
 
-			jl_col_id.put("CollectionIdType", col_id.collectionIDType().value);
-			jl_col_id.put("IDTypeName", col_id.idTypeName().value);
-			jl_col_id.put("IDValue", col_id.idValue().value);
+			jsonline.put("CollectionIdType", col_id.collectionIDType().value);
+			jsonline.put("IDTypeName", col_id.idTypeName().value);
+			jsonline.put("IDValue", col_id.idValue().value);
 
-			jl_col_ids.put(jl_col_id);
+			jsonline.endObject();
 		}
 
-		jsonline.put("CollectionIdentifers", jl_col_ids);
+		jsonline.endArray();
 	}
 
 	/**
@@ -674,16 +1289,16 @@ public class OnixParser {
 	 * @param etypes   List of EditionType records.
 	 * @param jsonline JSON object to write to.
 	 */
-	private static void processEditionTypes(ListOfOnixElement<EditionType, EditionTypes> etypes, JSONObject jsonline) {
-		JSONArray jl_etypes = new JSONArray();
+	private static void processEditionTypes(ListOfOnixElement<EditionType, EditionTypes> etypes, JsonOutput jsonline) {
+		jsonline.startArray("EditionType");
 
 		for (EditionType etype : etypes) {
 			if (etype.value != null) {
-				jl_etypes.put(etype.value.description);
+				jsonline.add(etype.value.description);
 			}
 		}
 
-		jsonline.put("EditionType", jl_etypes);
+		jsonline.endArray();
 	}
 
 	/**
@@ -693,27 +1308,27 @@ public class OnixParser {
 	 * @param jsonline JSON object to write to.
 	 */
 	private static void processExtents(ListOfOnixDataCompositeWithKey<Extent, JonixExtent, ExtentTypes> extents,
-			JSONObject jsonline) {
-		JSONArray jl_extents = new JSONArray();
+			JsonOutput jsonline) {
+		jsonline.startArray("Extent");
 
 		for (Extent extent : extents) {
-			JSONObject jl_extent = new JSONObject();
+			jsonline.startObject();
 
 			if (extent.extentType().value != null) {
-				jl_extent.put("ExtentType", extent.extentType().value.description);
+				jsonline.put("ExtentType", extent.extentType().value.description);
 			}
 
 			if (extent.extentUnit().value != null) {
-				jl_extent.put("ExtentUnit", extent.extentUnit().value.description);
+				jsonline.put("ExtentUnit", extent.extentUnit().value.description);
 			}
 
-			jl_extent.put("ExtentValue", extent.extentValue().value);
-			jl_extent.put("ExtentValueRoman", extent.extentValueRoman().value);
+			jsonline.put("ExtentValue", extent.extentValue().value);
+			jsonline.put("ExtentValueRoman", extent.extentValueRoman().value);
 
-			jl_extents.put(jl_extent);
+			jsonline.endObject();
 		}
 
-		jsonline.put("Extent", jl_extents);
+		jsonline.endArray();
 	}
 
 	/**
@@ -723,36 +1338,36 @@ public class OnixParser {
 	 * @param jsonline  JSON object to write to.
 	 */
 	private static void processLanguages(
-			ListOfOnixDataCompositeWithKey<Language, JonixLanguage, LanguageRoles> languages, JSONObject jsonline) {
-		JSONArray jl_languages = new JSONArray();
+			ListOfOnixDataCompositeWithKey<Language, JonixLanguage, LanguageRoles> languages, JsonOutput jsonline) {
+		jsonline.startArray("Languages");
 
 		for (Language language : languages) {
-			JSONObject jl_language = new JSONObject();
-
 			if (!language.exists()) {
 				continue;
 			}
 
+			jsonline.startObject();
+
 			if (language.countryCode().exists()) {
-				jl_language.put("CountryCode", language.countryCode().value.code);
+				jsonline.put("CountryCode", language.countryCode().value.code);
 			}
 
 			if (language.languageCode().exists()) {
-				jl_language.put("LanguageCode", language.languageCode().value.code);
+				jsonline.put("LanguageCode", language.languageCode().value.code);
 			}
 
 			if (language.languageRole().exists()) {
-				jl_language.put("LanguageRole", language.languageRole().value.description);
+				jsonline.put("LanguageRole", language.languageRole().value.description);
 			}
 
 			if (language.scriptCode().exists()) {
-				jl_language.put("ScriptCode", language.scriptCode().value.description);
+				jsonline.put("ScriptCode", language.scriptCode().value.description);
 			}
 
-			jl_languages.put(jl_language);
+			jsonline.endObject();
 		}
 
-		jsonline.put("Languages", jl_languages);
+		jsonline.endArray();
 	}
 
 	/**
@@ -761,23 +1376,23 @@ public class OnixParser {
 	 * @param details  List of TitleDetail records.
 	 * @param jsonline JSON object to write to.
 	 */
-	private static void processTitleDetails(List<TitleDetail> details, JSONObject jsonline) {
-		JSONArray jl_details = new JSONArray();
+	private static void processTitleDetails(List<TitleDetail> details, JsonOutput jsonline) {
+		jsonline.startArray("TitleDetails");
 
 		for (TitleDetail detail : details) {
-			JSONObject jl_detail = new JSONObject();
+			jsonline.startObject();
 
 			if (detail.titleType().value != null) {
-				jl_detail.put("TitleType", detail.titleType().value.description);
+				jsonline.put("TitleType", detail.titleType().value.description);
 			}
 
-			jl_detail.put("TitleStatement", detail.titleStatement().value);
-			processTitleElements(detail.titleElements(), jl_detail);
+			jsonline.put("TitleStatement", detail.titleStatement().value);
+			processTitleElements(detail.titleElements(), jsonline);
 
-			jl_details.put(jl_detail);
+			jsonline.endObject();
 		}
 
-		jsonline.put("TitleDetails", jl_details);
+		jsonline.endArray();
 	}
 
 	/**
@@ -787,30 +1402,30 @@ public class OnixParser {
 	 * @param jsonline JSON object to write to.
 	 */
 	private static void processTitleElements(ListOfOnixDataComposite<TitleElement, JonixTitleElement> elements,
-			JSONObject jsonline) {
-		JSONArray jl_elements = new JSONArray();
+			JsonOutput jsonline) {
+		jsonline.startArray("TitleElements");
 
 		for (TitleElement element : elements) {
-			JSONObject jl_element = new JSONObject();
+			jsonline.startObject();
 
-			jl_element.put("SequenceNumber", element.sequenceNumber().value);
+			jsonline.put("SequenceNumber", element.sequenceNumber().value);
 
 			if (element.titleElementLevel().value != null) {
-				jl_element.put("TitleElementLevel", element.titleElementLevel().value.description);
+				jsonline.put("TitleElementLevel", element.titleElementLevel().value.description);
 			}
 
-			jl_element.put("YearOfAnnual", element.yearOfAnnual().value);
+			jsonline.put("YearOfAnnual", element.yearOfAnnual().value);
 
-			processPartNumber(element.partNumber(), jl_element);
-			processSubtitle(element.subtitle(), jl_element);
-			processTitlePrefix(element.titlePrefix(), jl_element);
-			processTitleWithoutPrefix(element.titleWithoutPrefix(), jl_element);
-			processTitleText(element.titleText(), jl_element);
+			processPartNumber(element.partNumber(), jsonline);
+			processSubtitle(element.subtitle(), jsonline);
+			processTitlePrefix(element.titlePrefix(), jsonline);
+			processTitleWithoutPrefix(element.titleWithoutPrefix(), jsonline);
+			processTitleText(element.titleText(), jsonline);
 
-			jl_elements.put(jl_element);
+			jsonline.endObject();
 		}
 
-		jsonline.put("TitleElements", jl_elements);
+		jsonline.endArray();
 	}
 
 	/**
@@ -819,7 +1434,7 @@ public class OnixParser {
 	 * @param elements TitleElement record.
 	 * @param jsonline JSON object to write to.
 	 */
-	private static void processTitleText(TitleText tt, JSONObject jsonline) {
+	private static void processTitleText(TitleText tt, JsonOutput jsonline) {
 		if (!tt.exists()) {
 			return;
 		}
@@ -845,24 +1460,24 @@ public class OnixParser {
 	 * @param pnum     PartNumber record.
 	 * @param jsonline JSON object to write to.
 	 */
-	private static void processPartNumber(PartNumber pnum, JSONObject jsonline) {
-		JSONObject jl_pnum = new JSONObject();
-
+	private static void processPartNumber(PartNumber pnum, JsonOutput jsonline) {
 		if (!pnum.exists()) {
 			return;
 		}
 
+		jsonline.startObject("PartNumber");
+
 		if (pnum.language != null) {
-			jl_pnum.put("Language", pnum.language.description);
+			jsonline.put("Language", pnum.language.description);
 		}
 
 		if (pnum.textscript != null) {
-			jl_pnum.put("TextScript", pnum.textscript.description);
+			jsonline.put("TextScript", pnum.textscript.description);
 		}
 
-		jl_pnum.put("Value", pnum.value);
+		jsonline.put("Value", pnum.value);
 
-		jsonline.put("PartNumber", jl_pnum);
+		jsonline.endObject();
 	}
 
 	/**
@@ -871,7 +1486,7 @@ public class OnixParser {
 	 * @param tpref    TitleWithoutPrefix record.
 	 * @param jsonline JSON object to write to.
 	 */
-	private static void processTitleWithoutPrefix(TitleWithoutPrefix tpref, JSONObject jsonline) {
+	private static void processTitleWithoutPrefix(TitleWithoutPrefix tpref, JsonOutput jsonline) {
 		if (!tpref.exists()) {
 			return;
 		}
@@ -897,28 +1512,28 @@ public class OnixParser {
 	 * @param tpref    TitlePrefix record.
 	 * @param jsonline JSON object to write to.
 	 */
-	private static void processTitlePrefix(TitlePrefix tpref, JSONObject jsonline) {
-		JSONObject jl_tpref = new JSONObject();
-
+	private static void processTitlePrefix(TitlePrefix tpref, JsonOutput jsonline) {
 		if (!tpref.exists()) {
 			return;
 		}
 
+		jsonline.startObject("TitlePrefix");
+
 		if (tpref.language != null) {
-			jl_tpref.put("Language", tpref.language.description);
+			jsonline.put("Language", tpref.language.description);
 		}
 
 		if (tpref.textscript != null) {
-			jl_tpref.put("TextScript", tpref.textscript.description);
+			jsonline.put("TextScript", tpref.textscript.description);
 		}
 
 		if (tpref.textcase != null) {
-			jl_tpref.put("TextCaseFlags", tpref.textcase.description);
+			jsonline.put("TextCaseFlags", tpref.textcase.description);
 		}
 
-		jl_tpref.put("Value", tpref.value);
+		jsonline.put("Value", tpref.value);
 
-		jsonline.put("TitlePrefix", jl_tpref);
+		jsonline.endObject();
 	}
 
 	/**
@@ -927,9 +1542,7 @@ public class OnixParser {
 	 * @param subtitle Subtitle record.
 	 * @param jsonline JSON object to write to.
 	 */
-	private static void processSubtitle(Subtitle subtitle, JSONObject jsonline) {
-		// JSONObject jl_subtitle = new JSONObject();
-
+	private static void processSubtitle(Subtitle subtitle, JsonOutput jsonline) {
 		if (!subtitle.exists()) {
 			return;
 		}
@@ -946,8 +1559,6 @@ public class OnixParser {
 			jsonline.put("Subtitle_TextCaseFlags", subtitle.textcase.description);
 		}
 
-		// jl_subtitle.put("Value", subtitle.value);
-
 		jsonline.put("Subtitle", subtitle.value);
 	}
 
@@ -957,33 +1568,33 @@ public class OnixParser {
 	 * @param subjects List of Subject records.
 	 * @param jsonline JSON object to write to.
 	 */
-	private static void processSubjects(ListOfOnixDataComposite<Subject, JonixSubject> subjects, JSONObject jsonline) {
-		JSONArray jl_subjects = new JSONArray();
+	private static void processSubjects(ListOfOnixDataComposite<Subject, JonixSubject> subjects, JsonOutput jsonline) {
+		jsonline.startArray("Subjects");
 
 		for (Subject subject : subjects) {
-			JSONObject jl_subject = new JSONObject();
+			jsonline.startObject();
 
-			jl_subject.put("MainSubject", subject.isMainSubject());
-			jl_subject.put("SubjectCode", subject.subjectCode().value);
+			jsonline.put("MainSubject", subject.isMainSubject());
+			jsonline.put("SubjectCode", subject.subjectCode().value);
 
-			JSONArray heading_texts = new JSONArray();
+			jsonline.startArray("SubjectHeadingText");
 			for (SubjectHeadingText text : subject.subjectHeadingTexts()) {
-				heading_texts.put(text.value);
+				jsonline.add(text.value);
 			}
+			jsonline.endArray();
 
-			jl_subject.put("SubjectHeadingText", heading_texts);
-			jl_subject.put("SubjectSchemeIdentifier", subject.subjectSchemeIdentifier().value);
-			jl_subject.put("SubjectSchemeVersion", subject.subjectSchemeVersion().value);
-			jl_subject.put("SubjectSchemeName", subject.subjectSchemeName().value);
+			jsonline.put("SubjectSchemeIdentifier", subject.subjectSchemeIdentifier().value);
+			jsonline.put("SubjectSchemeVersion", subject.subjectSchemeVersion().value);
+			jsonline.put("SubjectSchemeName", subject.subjectSchemeName().value);
 
 			if (subject.subjectSchemeName().language != null) {
-				jl_subject.put("SubjectSchemeNameLanguage", subject.subjectSchemeName().language.description);
+				jsonline.put("SubjectSchemeNameLanguage", subject.subjectSchemeName().language.description);
 			}
 
-			jl_subjects.put(jl_subject);
+			jsonline.endObject();
 		}
 
-		jsonline.put("Subjects", jl_subjects);
+		jsonline.endArray();
 	}
 
 	/**
@@ -992,55 +1603,55 @@ public class OnixParser {
 	 * @param contributors List of Contributor records.
 	 * @param jsonline     JSON object to write to.
 	 */
-	private static void processContributors(List<Contributor> contributors, JSONObject jsonline) {
-		JSONArray jl_contributors = new JSONArray();
+	private static void processContributors(List<Contributor> contributors, JsonOutput jsonline) {
+		jsonline.startArray("Contributors");
 
 		for (Contributor contributor : contributors) {
-			JSONObject jl_contributor = new JSONObject();
-			jl_contributor.put("PersonName", contributor.personName().value);
-			jl_contributor.put("PersonNameInverted", contributor.personNameInverted().value);
-			jl_contributor.put("NamesAfterKey", contributor.namesAfterKey().value);
-			jl_contributor.put("NamesBeforeKey", contributor.namesBeforeKey().value);
+			jsonline.startObject();
+			jsonline.put("PersonName", contributor.personName().value);
+			jsonline.put("PersonNameInverted", contributor.personNameInverted().value);
+			jsonline.put("NamesAfterKey", contributor.namesAfterKey().value);
+			jsonline.put("NamesBeforeKey", contributor.namesBeforeKey().value);
 
 			if (contributor.nameType().exists()) {
-				jl_contributor.put("NameType", contributor.nameType().value.description);
+				jsonline.put("NameType", contributor.nameType().value.description);
 			}
 
-			jl_contributor.put("LettersAfterNames", contributor.lettersAfterNames().value);
-			jl_contributor.put("KeyNames", contributor.keyNames().value);
-			jl_contributor.put("CorprorateName", contributor.corporateName().value);
-			jl_contributor.put("CorprorateNameInverted", contributor.corporateNameInverted().value);
+			jsonline.put("LettersAfterNames", contributor.lettersAfterNames().value);
+			jsonline.put("KeyNames", contributor.keyNames().value);
+			jsonline.put("CorprorateName", contributor.corporateName().value);
+			jsonline.put("CorprorateNameInverted", contributor.corporateNameInverted().value);
 
 			if (contributor.unnamedPersons().value != null) {
-				jl_contributor.put("UnnamedPersons", contributor.unnamedPersons().value.description);
+				jsonline.put("UnnamedPersons", contributor.unnamedPersons().value.description);
 			}
 
 			if (contributor.gender().value != null) {
-				jl_contributor.put("Gender", contributor.gender().value.description);
+				jsonline.put("Gender", contributor.gender().value.description);
 			}
 
 			if (contributor.sequenceNumber().exists()) {
-				jl_contributor.put("SequenceNumber", contributor.sequenceNumber().value);
+				jsonline.put("SequenceNumber", contributor.sequenceNumber().value);
 			}
 
-			jl_contributor.put("TitlesBeforeNames", contributor.titlesBeforeNames().value);
-			jl_contributor.put("TitlesAfterNames", contributor.titlesAfterNames().value);
-			jl_contributor.put("PrefixToKey", contributor.prefixToKey().value);
-			jl_contributor.put("SuffixToKey", contributor.suffixToKey().value);
-
-			processContributorDates(contributor.contributorDates(), jl_contributor);
-			processContributorRoles(contributor.contributorRoles(), jl_contributor);
-			processContributorPlaces(contributor.contributorPlaces(), jl_contributor);
-			processNameIdentifiers(contributor.nameIdentifiers(), jl_contributor);
-			processProfessionalAffiliations(contributor.professionalAffiliations(), jl_contributor);
-			processAlternativeNames(contributor.alternativeNames(), jl_contributor);
-			processWebsites(contributor.websites(), jl_contributor);
-			processBiographicalNotes(contributor.biographicalNotes(), jl_contributor);
-
-			jl_contributors.put(jl_contributor);
+			jsonline.put("TitlesBeforeNames", contributor.titlesBeforeNames().value);
+			jsonline.put("TitlesAfterNames", contributor.titlesAfterNames().value);
+			jsonline.put("PrefixToKey", contributor.prefixToKey().value);
+			jsonline.put("SuffixToKey", contributor.suffixToKey().value);
+
+			processContributorDates(contributor.contributorDates(), jsonline);
+			processContributorRoles(contributor.contributorRoles(), jsonline);
+			processContributorPlaces(contributor.contributorPlaces(), jsonline);
+			processNameIdentifiers(contributor.nameIdentifiers(), jsonline);
+			processProfessionalAffiliations(contributor.professionalAffiliations(), jsonline);
+			processAlternativeNames(contributor.alternativeNames(), jsonline);
+			processWebsites(contributor.websites(), jsonline);
+			processBiographicalNotes(contributor.biographicalNotes(), jsonline);
+
+			jsonline.endObject();
 		}
 
-		jsonline.put("Contributors", jl_contributors);
+		jsonline.endArray();
 	}
 
 	/**
@@ -1050,26 +1661,26 @@ public class OnixParser {
 	 * @param jsonline JSON object to write to.
 	 */
 	private static void processBiographicalNotes(ListOfOnixElement<BiographicalNote, String> notes,
-			JSONObject jsonlines) {
-		JSONArray jl_notes = new JSONArray();
+			JsonOutput jsonlines) {
+		jsonlines.startArray("BiographicalNotes");
 
 		for (BiographicalNote note : notes) {
-			JSONObject jl_note = new JSONObject();
+			jsonlines.startObject();
 
 			if (note.language != null) {
-				jl_note.put("Language", note.language.description);
+				jsonlines.put("Language", note.language.description);
 			}
 
 			if (note.textformat != null) {
-				jl_note.put("TextFormat", note.textformat.description);
+				jsonlines.put("TextFormat", note.textformat.description);
 			}
 
-			jl_note.put("Note", note.value);
+			jsonlines.put("Note", note.value);
 
-			jl_notes.put(jl_note);
+			jsonlines.endObject();
 		}
 
-		jsonlines.put("BiographicalNotes", jl_notes);
+		jsonlines.endArray();
 	}
 
 	/**
@@ -1078,23 +1689,23 @@ public class OnixParser {
 	 * @param websites List of website records.
 	 * @param jsonline JSON object to write to.
 	 */
-	private static void processWebsites(ListOfOnixDataComposite<Website, JonixWebsite> websites, JSONObject jsonlines) {
-		JSONArray jl_websites = new JSONArray();
+	private static void processWebsites(ListOfOnixDataComposite<Website, JonixWebsite> websites, JsonOutput jsonlines) {
+		jsonlines.startArray("Websites");
 
 		for (Website website : websites) {
-			JSONObject jl_website = new JSONObject();
+			jsonlines.startObject();
 
 			if (website.websiteRole().exists()) {
-				jl_website.put("WebsiteRole", website.websiteRole().value.description);
+				jsonlines.put("WebsiteRole", website.websiteRole().value.description);
 			}
 
-			processWebsiteDescriptions(website.websiteDescriptions(), jl_website);
-			processWebsiteLinks(website.websiteLinks(), jl_website);
+			processWebsiteDescriptions(website.websiteDescriptions(), jsonlines);
+			processWebsiteLinks(website.websiteLinks(), jsonlines);
 
-			jl_websites.put(jl_website);
+			jsonlines.endObject();
 		}
 
-		jsonlines.put("Websites", jl_websites);
+		jsonlines.endArray();
 	}
 
 	/**
@@ -1103,14 +1714,14 @@ public class OnixParser {
 	 * @param websites List of WebsiteLink records.
 	 * @param jsonline JSON object to write to.
 	 */
-	private static void processWebsiteLinks(ListOfOnixElement<WebsiteLink, String> links, JSONObject jsonlines) {
-		JSONArray jl_links = new JSONArray();
+	private static void processWebsiteLinks(ListOfOnixElement<WebsiteLink, String> links, JsonOutput jsonlines) {
+		jsonlines.startArray("WebsiteLinks");
 
 		for (WebsiteLink link : links) {
-			jl_links.put(link.value);
+			jsonlines.add(link.value);
 		}
 
-		jsonlines.put("WebsiteLinks", jl_links);
+		jsonlines.endArray();
 	}
 
 	/**
@@ -1120,14 +1731,14 @@ public class OnixParser {
 	 * @param jsonline JSON object to write to.
 	 */
 	private static void processWebsiteDescriptions(ListOfOnixElement<WebsiteDescription, String> descriptions,
-			JSONObject jsonlines) {
-		JSONArray jl_descriptions = new JSONArray();
+			JsonOutput jsonlines) {
+		jsonlines.startArray("WebsiteDescriptions");
 
 		for (WebsiteDescription desc : descriptions) {
-			jl_descriptions.put(desc.value);
+			jsonlines.add(desc.value);
 		}
 
-		jsonlines.put("WebsiteDescriptions", jl_descriptions);
+		jsonlines.endArray();
 	}
 
 	/**
@@ -1136,41 +1747,41 @@ public class OnixParser {
 	 * @param websites List of AlternativeName records.
 	 * @param jsonline JSON object to write to.
 	 */
-	private static void processAlternativeNames(List<AlternativeName> alt_names, JSONObject jsonlines) {
-		JSONArray jl_alt_names = new JSONArray();
+	private static void processAlternativeNames(List<AlternativeName> alt_names, JsonOutput jsonlines) {
+		jsonlines.startArray("AlternativeNames");
 
 		for (AlternativeName alt_name : alt_names) {
-			JSONObject jl_alt_name = new JSONObject();
+			jsonlines.startObject();
 
-			jl_alt_name.put("CorprorateName", alt_name.corporateName().value);
-			jl_alt_name.put("CorprorateNameInverted", alt_name.corporateNameInverted().value);
+			jsonlines.put("CorprorateName", alt_name.corporateName().value);
+			jsonlines.put("CorprorateNameInverted", alt_name.corporateNameInverted().value);
 
 			if (alt_name.gender().value != null) {
-				jl_alt_name.put("Gender", alt_name.gender().value.description);
+				jsonlines.put("Gender", alt_name.gender().value.description);
 			}
 
-			jl_alt_name.put("KeyNames", alt_name.keyNames().value);
-			jl_alt_name.put("LettersAfterNames", alt_name.lettersAfterNames().value);
-			processNameIdentifiers(alt_name.nameIdentifiers(), jl_alt_name);
+			jsonlines.put("KeyNames", alt_name.keyNames().value);
+			jsonlines.put("LettersAfterNames", alt_name.lettersAfterNames().value);
+			processNameIdentifiers(alt_name.nameIdentifiers(), jsonlines);
 
-			jl_alt_name.put("NamesAfterKey", alt_name.namesAfterKey().value);
-			jl_alt_name.put("NamesBeforeKey", alt_name.namesBeforeKey().value);
+			jsonlines.put("NamesAfterKey", alt_name.namesAfterKey().value);
+			jsonlines.put("NamesBeforeKey", alt_name.namesBeforeKey().value);
 
 			if (alt_name.nameType().exists()) {
-				jl_alt_name.put("NameType", alt_name.nameType().value.description);
+				jsonlines.put("NameType", alt_name.nameType().value.description);
 			}
 
-			jl_alt_name.put("PersonName", alt_name.personName().value);
-			jl_alt_name.put("PersonNameInverted", alt_name.personNameInverted().value);
-			jl_alt_name.put("PrefixToKey", alt_name.prefixToKey().value);
-			jl_alt_name.put("SuffixToKey", alt_name.suffixToKey().value);
-			jl_alt_name.put("TitlesBeforeNames", alt_name.titlesBeforeNames().value);
-			jl_alt_name.put("TitlesAfterNames", alt_name.titlesAfterNames().value);
+			jsonlines.put("PersonName", alt_name.personName().value);
+			jsonlines.put("PersonNameInverted", alt_name.personNameInverted().value);
+			jsonlines.put("PrefixToKey", alt_name.prefixToKey().value);
+			jsonlines.put("SuffixToKey", alt_name.suffixToKey().value);
+			jsonlines.put("TitlesBeforeNames", alt_name.titlesBeforeNames().value);
+			jsonlines.put("TitlesAfterNames", alt_name.titlesAfterNames().value);
 
-			jl_alt_names.put(jl_alt_name);
+			jsonlines.endObject();
 		}
 
-		jsonlines.put("AlternativeNames", jl_alt_names);
+		jsonlines.endArray();
 	}
 
 	/**
@@ -1181,26 +1792,26 @@ public class OnixParser {
 	 */
 	private static void processContributorDates(
 			ListOfOnixDataCompositeWithKey<ContributorDate, JonixContributorDate, PersonOrganizationDateRoles> dates,
-			JSONObject jsonline) {
-		JSONArray jl_dates = new JSONArray();
+			JsonOutput jsonline) {
+		jsonline.startArray("Dates");
 
 		for (ContributorDate date : dates) {
-			JSONObject jl_date = new JSONObject();
+			jsonline.startObject();
 
 			if (date.contributorDateRole().value != null) {
-				jl_date.put("Role", date.contributorDateRole().value.description);
+				jsonline.put("Role", date.contributorDateRole().value.description);
 			}
 
-			jl_date.put("Date", date.date().value);
+			jsonline.put("Date", date.date().value);
 
 			if (date.dateFormat().value != null) {
-				jl_date.put("Format", date.dateFormat().value.description);
+				jsonline.put("Format", date.dateFormat().value.description);
 			}
 
-			jl_dates.put(jl_date);
+			jsonline.endObject();
 		}
 
-		jsonline.put("Dates", jl_dates);
+		jsonline.endArray();
 	}
 
 	/**
@@ -1210,34 +1821,34 @@ public class OnixParser {
 	 * @param jsonline JSON object to write to.
 	 */
 	private static void processContributorPlaces(
-			ListOfOnixDataComposite<ContributorPlace, JonixContributorPlace> places, JSONObject jsonline) {
-		JSONArray jl_contributor_places = new JSONArray();
+			ListOfOnixDataComposite<ContributorPlace, JonixContributorPlace> places, JsonOutput jsonline) {
+		jsonline.startArray("Places");
 
 		for (ContributorPlace place : places) {
-			JSONObject jl_place = new JSONObject();
-			JSONArray location_names = new JSONArray();
+			jsonline.startObject();
 
 			if (place.contributorPlaceRelator().value != null) {
-				jl_place.put("Relation", place.contributorPlaceRelator().value.description);
+				jsonline.put("Relation", place.contributorPlaceRelator().value.description);
 			}
 
 			if (place.countryCode().value != null) {
-				jl_place.put("CountryCode", place.countryCode().value.description);
+				jsonline.put("CountryCode", place.countryCode().value.description);
 			}
 
 			if (place.regionCode().value != null) {
-				jl_place.put("RegionCode", place.regionCode().value.description);
+				jsonline.put("RegionCode", place.regionCode().value.description);
 			}
 
+			jsonline.startArray("Locations");
 			for (LocationName location : place.locationNames()) {
-				location_names.put(location.value);
+				jsonline.add(location.value);
 			}
-			jl_place.put("Locations", location_names);
+			jsonline.endArray();
 
-			jl_contributor_places.put(jl_place);
+			jsonline.endObject();
 		}
 
-		jsonline.put("Places", jl_contributor_places);
+		jsonline.endArray();
 	}
 
 	/**
@@ -1247,16 +1858,16 @@ public class OnixParser {
 	 * @param jsonline JSON object to write to.
 	 */
 	private static void processContributorRoles(ListOfOnixElement<ContributorRole, ContributorRoles> roles,
-			JSONObject jsonline) {
-		JSONArray str_roles = new JSONArray();
+			JsonOutput jsonline) {
+		jsonline.startArray("Roles");
 
 		for (ContributorRole role : roles) {
 			if (role.value != null) {
-				str_roles.put(role.value.description);
+				jsonline.add(role.value.description);
 			}
 		}
 
-		jsonline.put("Roles", str_roles);
+		jsonline.endArray();
 	}
 
 	/**
@@ -1267,27 +1878,65 @@ public class OnixParser {
 	 */
 	private static void processProfessionalAffiliations(
 			ListOfOnixDataComposite<ProfessionalAffiliation, JonixProfessionalAffiliation> paffils,
-			JSONObject jsonline) {
-		JSONArray jl_affils = new JSONArray();
+			JsonOutput jsonline) {
+		jsonline.startArray("ProfessionalAffiliations");
 
 		for (ProfessionalAffiliation affil : paffils) {
-			JSONObject jl_affil = new JSONObject();
+			jsonline.startObject();
 
-			jl_affil.put("Affiliations", affil.affiliation().value);
+			jsonline.put("Affiliations", affil.affiliation().value);
 
-			JSONArray positions = new JSONArray();
+			jsonline.startArray("Positions");
 			for (ProfessionalPosition position : affil.professionalPositions()) {
-				positions.put(position.value);
+				jsonline.add(position.value);
 			}
+			jsonline.endArray();
 
-			jl_affil.put("Positions", positions);
-
-			jl_affils.put(jl_affil);
+			jsonline.endObject();
 		}
 
-		jsonline.put("ProfessionalAffiliations", jl_affils);
+		jsonline.endArray();
 	}
 
+	/**
+	 * Output keys of the name identifier types.
+	 */
+	static final IdentifierTable<NameIdentifierTypes> NAME_IDENTIFIERS = new IdentifierTable<>(
+			NameIdentifierTypes.class)
+			.map(NameIdentifierTypes.ARK, "ARK")
+			.map(NameIdentifierTypes.B_rsenverein_Verkehrsnummer, "B_rsenverein_Verkehrsnummer")
+			.map(NameIdentifierTypes.BNE_CN, "BNE_CN")
+			.map(NameIdentifierTypes.BNF_Control_Number, "BNF_Control_Number")
+			.map(NameIdentifierTypes.Centraal_Boekhuis_Relatie_ID, "Centraal_Boekhuis_Relatie_ID")
+			.map(NameIdentifierTypes.DNB_publisher_identifier, "DNB_publisher_identifier")
+			.map(NameIdentifierTypes.DUNS, "DUNS")
+			.map(NameIdentifierTypes.EIDR_Party_DOI, "EIDR_Party_DOI")
+			.map(NameIdentifierTypes.Fondscode_Boekenbank, "Fondscode_Boekenbank")
+			.map(NameIdentifierTypes.FundRef_DOI, "FundRef_DOI")
+			.map(NameIdentifierTypes.GAPP_Publisher_Identifier, "GAPP_Publisher_Identifier")
+			.map(NameIdentifierTypes.German_ISBN_Agency_publisher_identifier, "German_ISBN_Agency_publisher_identifier")
+			.map(NameIdentifierTypes.GKD, "GKD")
+			.map(NameIdentifierTypes.GLN, "GLN")
+			.map(NameIdentifierTypes.GND, "GND")
+			.map(NameIdentifierTypes.GRID, "GRID")
+			.map(NameIdentifierTypes.Identifiant_Editeur_Electre, "Identifiant_Editeur_Electre")
+			.map(NameIdentifierTypes.Identifiant_Marque_Electre, "Identifiant_Marque_Electre")
+			.map(NameIdentifierTypes.ISNI, "ISNI")
+			.map(NameIdentifierTypes.Japanese_Publisher_identifier, "Japanese_Publisher_identifier")
+			.map(NameIdentifierTypes.JP_Distribution_Identifier, "JP_Distribution_Identifier")
+			.map(NameIdentifierTypes.LCCN, "LCCN")
+			.map(NameIdentifierTypes.MARC_organization_code, "MARC_organization_code")
+			.map(NameIdentifierTypes.Nasjonalt_autoritetsregister, "Nasjonalt_autoritetsregister")
+			.map(NameIdentifierTypes.ORCID, "ORCID")
+			.map(NameIdentifierTypes.PND, "PND")
+			.map(NameIdentifierTypes.Proprietary, "Proprietary")
+			.map(NameIdentifierTypes.Proprietary_, "Proprietary_")
+			.map(NameIdentifierTypes.Ringgold_ID, "Ringgold_ID")
+			.map(NameIdentifierTypes.SAN, "SAN")
+			.map(NameIdentifierTypes.VAT_Identity_Number, "VAT_Identity_Number")
+			.map(NameIdentifierTypes.VIAF_ID, "VIAF_ID")
+			.map(NameIdentifierTypes.Y_tunnus, "Y_tunnus");
+
 	/**
 	 * Process NameIdentifier records.
 	 * 
@@ -1296,73 +1945,8 @@ public class OnixParser {
 	 */
 	private static void processNameIdentifiers(
 			ListOfOnixDataCompositeWithKey<NameIdentifier, JonixNameIdentifier, NameIdentifierTypes> nids,
-			JSONObject jsonline) {
-		// JSONObject jl_name_identifiers = new JSONObject();
-		JSONObject jl_name_identifiers = jsonline;
-
-		jl_name_identifiers.put("ARK", nids.find(NameIdentifierTypes.ARK).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("B_rsenverein_Verkehrsnummer", nids
-				.find(NameIdentifierTypes.B_rsenverein_Verkehrsnummer).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("BNE_CN",
-				nids.find(NameIdentifierTypes.BNE_CN).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("BNF_Control_Number",
-				nids.find(NameIdentifierTypes.BNF_Control_Number).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("Centraal_Boekhuis_Relatie_ID", nids
-				.find(NameIdentifierTypes.Centraal_Boekhuis_Relatie_ID).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("DNB_publisher_identifier",
-				nids.find(NameIdentifierTypes.DNB_publisher_identifier).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("DUNS",
-				nids.find(NameIdentifierTypes.DUNS).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("EIDR_Party_DOI",
-				nids.find(NameIdentifierTypes.EIDR_Party_DOI).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("Fondscode_Boekenbank",
-				nids.find(NameIdentifierTypes.Fondscode_Boekenbank).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("FundRef_DOI",
-				nids.find(NameIdentifierTypes.FundRef_DOI).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("GAPP_Publisher_Identifier",
-				nids.find(NameIdentifierTypes.GAPP_Publisher_Identifier).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("German_ISBN_Agency_publisher_identifier",
-				nids.find(NameIdentifierTypes.German_ISBN_Agency_publisher_identifier).map(nid -> nid.idValue().value)
-						.orElse(null));
-		jl_name_identifiers.put("GKD", nids.find(NameIdentifierTypes.GKD).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("GLN", nids.find(NameIdentifierTypes.GLN).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("GND", nids.find(NameIdentifierTypes.GND).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("GRID",
-				nids.find(NameIdentifierTypes.GRID).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("Identifiant_Editeur_Electre", nids
-				.find(NameIdentifierTypes.Identifiant_Editeur_Electre).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("Identifiant_Marque_Electre",
-				nids.find(NameIdentifierTypes.Identifiant_Marque_Electre).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("ISNI",
-				nids.find(NameIdentifierTypes.ISNI).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("Japanese_Publisher_identifier", nids
-				.find(NameIdentifierTypes.Japanese_Publisher_identifier).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("JP_Distribution_Identifier",
-				nids.find(NameIdentifierTypes.JP_Distribution_Identifier).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("LCCN",
-				nids.find(NameIdentifierTypes.LCCN).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("MARC_organization_code",
-				nids.find(NameIdentifierTypes.MARC_organization_code).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("Nasjonalt_autoritetsregister", nids
-				.find(NameIdentifierTypes.Nasjonalt_autoritetsregister).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("ORCID",
-				nids.find(NameIdentifierTypes.ORCID).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("PND", nids.find(NameIdentifierTypes.PND).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("Proprietary",
-				nids.find(NameIdentifierTypes.Proprietary).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("Proprietary_",
-				nids.find(NameIdentifierTypes.Proprietary_).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("Ringgold_ID",
-				nids.find(NameIdentifierTypes.Ringgold_ID).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("SAN", nids.find(NameIdentifierTypes.SAN).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("VAT_Identity_Number",
-				nids.find(NameIdentifierTypes.VAT_Identity_Number).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("VIAF_ID",
-				nids.find(NameIdentifierTypes.VIAF_ID).map(nid -> nid.idValue().value).orElse(null));
-		jl_name_identifiers.put("Y_tunnus",
-				nids.find(NameIdentifierTypes.Y_tunnus).map(nid -> nid.idValue().value).orElse(null));
-
-		// jsonline.put("NameIdentifiers", jl_name_identifiers);
+			JsonOutput jsonline) {
+		NAME_IDENTIFIERS.write(nids, nid -> nid.idValue().value, jsonline);
 	}
 
 }
@@ -0,0 +1,61 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.io.InputStream;
+
+/**
+ * Turns ONIX messages into products, and products into JSON records. The
+ * execution modes only move products between threads; what a product is and
+ * how it is read and mapped is up to the engine. One engine is shared by all
+ * the threads of a run.
+ *
+ * @param <P> Product representation.
+ */
+interface ParseEngine<P> {
+	/**
+	 * Receives the products of a message.
+	 */
+	interface ProductConsumer<P> {
+		void accept(P product) throws Exception;
+	}
+
+	/**
+	 * Parse one ONIX message, passing its products on in document order. A message
+	 * that is not ONIX 3 or is not well formed is reported and skipped from the
+	 * point of the error on, as Jonix does with failOnInvalidFile off.
+	 *
+	 * @param in       ONIX message. Its toString() names the source in log
+	 *                 messages.
+	 * @param consumer Receives each product.
+	 * @throws Exception if the consumer fails.
+	 */
+	void parse(InputStream in, ProductConsumer<? super P> consumer) throws Exception;
+
+	/**
+	 * @param product Product.
+	 * @return Notification type code of the product, which selects its output
+	 *         file.
+	 */
+	String notificationCode(P product);
+
+	/**
+	 * @return Writer that maps products to JSON records.
+	 */
+	ProductWriter<P> writer();
+}
@@ -0,0 +1,835 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Run options for the ONIX parser. Options are given on the command line after
+ * the input and output directories in the form --name=value.
+ */
+public class ParserOptions {
+	/**
+	 * How the work of a run is spread over threads.
+	 */
+	public enum Mode {
+		/** One file after another on the calling thread. */
+		SEQUENTIAL,
+		/** One task per file or split chunk on a worker pool. */
+		PARALLEL,
+		/** Separate read, parse, map, serialise and write stages with bounded queues. */
+		PIPELINE,
+		/** One virtual thread per file or split chunk, for many small or slow files. */
+		VIRTUAL
+	}
+
+	/**
+	 * How each product record is turned into JSON text. Every serialiser gives
+	 * the same records, but not the same bytes: TREE writes the members of each
+	 * object in JSONObject's hash order, as the parser did before STREAM became
+	 * the default, while STREAM and JACKSON write them in mapping order. JACKSON
+	 * also escapes strings the Jackson way.
+	 */
+	public enum Json {
+		/** Build an org.json object tree, then serialise it. */
+		TREE,
+		/** Write UTF-8 JSON text directly while the record is mapped. */
+		STREAM,
+		/** Write UTF-8 JSON text with a Jackson generator while the record is mapped. */
+		JACKSON
+	}
+
+	/**
+	 * How product records are mapped from ONIX to JSON.
+	 */
+	public enum Mapper {
+		/** The hand-written process* methods of {@link OnixParser}. */
+		CODE,
+		/** A declarative mapping spec compiled at startup, see {@link MappingPlan}. */
+		SPEC
+	}
+
+	/**
+	 * How ONIX messages are parsed into products.
+	 */
+	public enum Engine {
+		/** Jonix, building its object model of each product. */
+		JONIX,
+		/** A StAX reader that keeps only the elements the mapping reads. */
+		STAX
+	}
+
+	/**
+	 * StAX implementation that tokenises the XML, for either engine.
+	 */
+	public enum Stax {
+		/** The JDK's built-in SJSXP. */
+		JDK,
+		/** Woodstox. */
+		WOODSTOX,
+		/** Aalto. */
+		AALTO
+	}
+
+	/**
+	 * When the output files are forced to storage with fsync.
+	 */
+	public enum Durability {
+		/** Never: the files are left to the operating system to write back. */
+		NONE,
+		/** Once per file, when it is closed. */
+		END,
+		/** Every {@link ParserOptions#syncSize()} bytes, and when closed. */
+		EVERY
+	}
+
+	/**
+	 * Large composites the bundled mappings never read, skipped by a bare --skip.
+	 */
+	public static final List<String> UNMAPPED_COMPOSITES = Collections
+			.unmodifiableList(Arrays.asList("ProductSupply", "ContentDetail"));
+
+	private Mode mode = null;
+	private int threads = 1;
+	private long split_size = 64L << 20;
+	private int read_threads = 1;
+	private int parse_threads = 0;
+	private int map_threads = 0;
+	private int serialize_threads = 1;
+	private int queue_depth = 1024;
+	private int stats_interval = 10;
+	private int max_concurrency = 256;
+	private boolean ordered = true;
+	private int reorder_buffer = 10000;
+	private long shard_records = 0;
+	private long shard_size = 0;
+	private int write_buffer = 0;
+	private Durability durability = Durability.NONE;
+	private long sync_size = 0;
+	private int write_queue = 0;
+	private boolean mmap = false;
+	private Json json = Json.STREAM;
+	private Mapper mapper = Mapper.CODE;
+	private Engine engine = Engine.JONIX;
+	private Stax stax = Stax.JDK;
+	private String mapping = null;
+	private List<String> fields = null;
+	private List<String> skip = Collections.emptyList();
+	private String validate = null;
+	private boolean drop_invalid = false;
+
+	/**
+	 * Parse options from command line arguments. Arguments that do not start with
+	 * "--" are ignored.
+	 *
+	 * @param args Command line arguments following the input and output
+	 *             directories.
+	 * @return Parsed options.
+	 */
+	public static ParserOptions parse(String[] args) {
+		ParserOptions options = new ParserOptions();
+
+		for (String arg : args) {
+			if (!arg.startsWith("--")) {
+				continue;
+			}
+
+			int eq = arg.indexOf('=');
+			String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+			String value = eq < 0 ? "" : arg.substring(eq + 1);
+
+			switch (name) {
+			case "threads":
+				options.threads(Integer.parseInt(value));
+				break;
+			case "split-size":
+				options.splitSize(parseSize(value));
+				break;
+			case "mode":
+				options.mode(Mode.valueOf(value.toUpperCase()));
+				break;
+			case "read-threads":
+				options.readThreads(Integer.parseInt(value));
+				break;
+			case "parse-threads":
+				options.parseThreads(Integer.parseInt(value));
+				break;
+			case "map-threads":
+				options.mapThreads(Integer.parseInt(value));
+				break;
+			case "serialize-threads":
+				options.serializeThreads(Integer.parseInt(value));
+				break;
+			case "queue-depth":
+				options.queueDepth(Integer.parseInt(value));
+				break;
+			case "stats-interval":
+				options.statsInterval(Integer.parseInt(value));
+				break;
+			case "max-concurrency":
+				options.maxConcurrency(Integer.parseInt(value));
+				break;
+			case "unordered":
+				options.ordered(false);
+				break;
+			case "reorder-buffer":
+				options.reorderBuffer(Integer.parseInt(value));
+				break;
+			case "shard-records":
+				options.shardRecords(Long.parseLong(value));
+				break;
+			case "shard-size":
+				options.shardSize(parseSize(value));
+				break;
+			case "write-buffer":
+				options.writeBuffer(Math.toIntExact(parseSize(value)));
+				break;
+			case "fsync":
+				if (value.equalsIgnoreCase("none") || value.equalsIgnoreCase("end")) {
+					options.durability(Durability.valueOf(value.toUpperCase()));
+				} else {
+					options.durability(Durability.EVERY).syncSize(parseSize(value));
+				}
+				break;
+			case "write-queue":
+				options.writeQueue(Integer.parseInt(value));
+				break;
+			case "mmap":
+				options.mmap(true);
+				break;
+			case "json":
+				options.json(Json.valueOf(value.toUpperCase()));
+				break;
+			case "mapper":
+				options.mapper(Mapper.valueOf(value.toUpperCase()));
+				break;
+			case "mapping":
+				options.mapping(value).mapper(Mapper.SPEC);
+				break;
+			case "engine":
+				options.engine(Engine.valueOf(value.toUpperCase()));
+				break;
+			case "stax":
+				options.stax(Stax.valueOf(value.toUpperCase()));
+				break;
+			case "fields":
+				options.fields(Arrays.asList(value.split(",")));
+				break;
+			case "validate":
+				options.validate(value);
+				break;
+			case "drop-invalid":
+				options.dropInvalid(true);
+				break;
+			case "skip":
+				options.skip(value.isEmpty() ? UNMAPPED_COMPOSITES : Arrays.asList(value.split(",")));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option: " + arg);
+			}
+		}
+
+		return options;
+	}
+
+	/**
+	 * Parse a byte size with an optional K, M or G suffix (powers of 1024).
+	 *
+	 * @param value Size string, e.g. 256M.
+	 * @return Size in bytes.
+	 */
+	static long parseSize(String value) {
+		String v = value.trim().toUpperCase();
+		long unit = 1;
+
+		if (v.endsWith("K")) {
+			unit = 1L << 10;
+		} else if (v.endsWith("M")) {
+			unit = 1L << 20;
+		} else if (v.endsWith("G")) {
+			unit = 1L << 30;
+		}
+
+		if (unit > 1) {
+			v = v.substring(0, v.length() - 1);
+		}
+
+		return Long.parseLong(v) * unit;
+	}
+
+	/**
+	 * Number of worker threads used to parse input files. A value of 1 processes
+	 * the files sequentially on the calling thread.
+	 *
+	 * @return Worker thread count.
+	 */
+	public int threads() {
+		return threads;
+	}
+
+	/**
+	 * Set the number of worker threads. Values below 1 use one thread per
+	 * available processor.
+	 *
+	 * @param threads Worker thread count.
+	 * @return This object.
+	 */
+	public ParserOptions threads(int threads) {
+		this.threads = threads < 1 ? Runtime.getRuntime().availableProcessors() : threads;
+		return this;
+	}
+
+	/**
+	 * Target size of the chunks that large ONIX files are split into when running
+	 * with several threads. Files larger than this are split at Product boundaries
+	 * so that their products can be mapped by several workers. A value of 0
+	 * disables splitting.
+	 *
+	 * @return Split size in bytes.
+	 */
+	public long splitSize() {
+		return split_size;
+	}
+
+	/**
+	 * Set the target chunk size for splitting large ONIX files.
+	 *
+	 * @param split_size Split size in bytes, or 0 to disable splitting.
+	 * @return This object.
+	 */
+	public ParserOptions splitSize(long split_size) {
+		this.split_size = split_size;
+		return this;
+	}
+
+	/**
+	 * Execution mode. Unless set explicitly, runs are sequential with one thread
+	 * and parallel with more.
+	 *
+	 * @return Execution mode.
+	 */
+	public Mode mode() {
+		if (mode != null) {
+			return mode;
+		}
+
+		return threads > 1 ? Mode.PARALLEL : Mode.SEQUENTIAL;
+	}
+
+	/**
+	 * Set the execution mode.
+	 *
+	 * @param mode Execution mode.
+	 * @return This object.
+	 */
+	public ParserOptions mode(Mode mode) {
+		this.mode = mode;
+		return this;
+	}
+
+	/**
+	 * Pipeline mode: number of threads reading input files ahead of the parser.
+	 *
+	 * @return Read stage thread count.
+	 */
+	public int readThreads() {
+		return read_threads;
+	}
+
+	/**
+	 * @param read_threads Read stage thread count.
+	 * @return This object.
+	 */
+	public ParserOptions readThreads(int read_threads) {
+		this.read_threads = Math.max(read_threads, 1);
+		return this;
+	}
+
+	/**
+	 * Pipeline mode: number of threads running the Jonix XML parser. Defaults to
+	 * the worker thread count.
+	 *
+	 * @return Parse stage thread count.
+	 */
+	public int parseThreads() {
+		return parse_threads > 0 ? parse_threads : threads;
+	}
+
+	/**
+	 * @param parse_threads Parse stage thread count.
+	 * @return This object.
+	 */
+	public ParserOptions parseThreads(int parse_threads) {
+		this.parse_threads = parse_threads;
+		return this;
+	}
+
+	/**
+	 * Pipeline mode: number of threads mapping products to JSON. Defaults to the
+	 * worker thread count.
+	 *
+	 * @return Map stage thread count.
+	 */
+	public int mapThreads() {
+		return map_threads > 0 ? map_threads : threads;
+	}
+
+	/**
+	 * @param map_threads Map stage thread count.
+	 * @return This object.
+	 */
+	public ParserOptions mapThreads(int map_threads) {
+		this.map_threads = map_threads;
+		return this;
+	}
+
+	/**
+	 * Pipeline mode: number of threads serialising JSON objects to text.
+	 *
+	 * @return Serialise stage thread count.
+	 */
+	public int serializeThreads() {
+		return serialize_threads;
+	}
+
+	/**
+	 * @param serialize_threads Serialise stage thread count.
+	 * @return This object.
+	 */
+	public ParserOptions serializeThreads(int serialize_threads) {
+		this.serialize_threads = Math.max(serialize_threads, 1);
+		return this;
+	}
+
+	/**
+	 * Pipeline mode: capacity of each stage's input queue, in items.
+	 *
+	 * @return Queue depth.
+	 */
+	public int queueDepth() {
+		return queue_depth;
+	}
+
+	/**
+	 * @param queue_depth Queue depth.
+	 * @return This object.
+	 */
+	public ParserOptions queueDepth(int queue_depth) {
+		this.queue_depth = Math.max(queue_depth, 1);
+		return this;
+	}
+
+	/**
+	 * Pipeline mode: seconds between progress reports of queue depths and stage
+	 * throughput. A summary is always printed at the end of the run.
+	 *
+	 * @return Report interval in seconds, or 0 for none.
+	 */
+	public int statsInterval() {
+		return stats_interval;
+	}
+
+	/**
+	 * @param stats_interval Report interval in seconds, or 0 for none.
+	 * @return This object.
+	 */
+	public ParserOptions statsInterval(int stats_interval) {
+		this.stats_interval = Math.max(stats_interval, 0);
+		return this;
+	}
+
+	/**
+	 * Virtual thread mode: maximum number of sources processed at the same time.
+	 *
+	 * @return Concurrency limit.
+	 */
+	public int maxConcurrency() {
+		return max_concurrency;
+	}
+
+	/**
+	 * @param max_concurrency Concurrency limit.
+	 * @return This object.
+	 */
+	public ParserOptions maxConcurrency(int max_concurrency) {
+		this.max_concurrency = Math.max(max_concurrency, 1);
+		return this;
+	}
+
+	/**
+	 * Whether concurrent modes write records in the same order as a sequential run
+	 * (file order, then product order). Turn off with --unordered for maximum
+	 * throughput.
+	 *
+	 * @return Whether output is ordered.
+	 */
+	public boolean ordered() {
+		return ordered;
+	}
+
+	/**
+	 * @param ordered Whether output is ordered.
+	 * @return This object.
+	 */
+	public ParserOptions ordered(boolean ordered) {
+		this.ordered = ordered;
+		return this;
+	}
+
+	/**
+	 * Ordered output: number of out of order records held back before workers
+	 * ahead of the current file are made to wait.
+	 *
+	 * @return Reorder buffer capacity in records.
+	 */
+	public int reorderBuffer() {
+		return reorder_buffer;
+	}
+
+	/**
+	 * @param reorder_buffer Reorder buffer capacity in records.
+	 * @return This object.
+	 */
+	public ParserOptions reorderBuffer(int reorder_buffer) {
+		this.reorder_buffer = Math.max(reorder_buffer, 1);
+		return this;
+	}
+
+	/**
+	 * Number of records after which an output file is rolled over to a new shard
+	 * (full-00000.jsonl, full-00001.jsonl, ...).
+	 *
+	 * @return Records per shard, or 0 for no limit.
+	 */
+	public long shardRecords() {
+		return shard_records;
+	}
+
+	/**
+	 * @param shard_records Records per shard, or 0 for no limit.
+	 * @return This object.
+	 */
+	public ParserOptions shardRecords(long shard_records) {
+		this.shard_records = Math.max(shard_records, 0);
+		return this;
+	}
+
+	/**
+	 * Size after which an output file is rolled over to a new shard. With neither
+	 * this nor the record limit set, each output is a single file.
+	 *
+	 * @return Bytes per shard, or 0 for no limit.
+	 */
+	public long shardSize() {
+		return shard_size;
+	}
+
+	/**
+	 * @param shard_size Bytes per shard, or 0 for no limit.
+	 * @return This object.
+	 */
+	public ParserOptions shardSize(long shard_size) {
+		this.shard_size = Math.max(shard_size, 0);
+		return this;
+	}
+
+	/**
+	 * Size of the blocks that records are handed to the output writer threads in.
+	 * With a size set, each output file gets a thread of its own and two blocks:
+	 * workers fill one while the thread writes the other, so they do not wait on
+	 * the disk. With 0, workers write the files themselves.
+	 *
+	 * @return Block size in bytes, or 0 to write on the worker threads.
+	 */
+	public int writeBuffer() {
+		return write_buffer;
+	}
+
+	/**
+	 * @param write_buffer Block size in bytes, or 0 to write on the worker
+	 *                     threads.
+	 * @return This object.
+	 */
+	public ParserOptions writeBuffer(int write_buffer) {
+		this.write_buffer = Math.max(write_buffer, 0);
+		return this;
+	}
+
+	/**
+	 * When the output files are forced to storage: --fsync=none, --fsync=end, or
+	 * a size such as --fsync=64M for every 64 MB written to a file.
+	 *
+	 * @return Durability of the output. Defaults to NONE.
+	 */
+	public Durability durability() {
+		return durability;
+	}
+
+	/**
+	 * @param durability Durability of the output.
+	 * @return This object.
+	 */
+	public ParserOptions durability(Durability durability) {
+		this.durability = durability;
+		return this;
+	}
+
+	/**
+	 * Bytes written to an output file between syncs, with durability EVERY.
+	 *
+	 * @return Sync interval in bytes.
+	 */
+	public long syncSize() {
+		return sync_size;
+	}
+
+	/**
+	 * @param sync_size Sync interval in bytes.
+	 * @return This object.
+	 */
+	public ParserOptions syncSize(long sync_size) {
+		this.sync_size = Math.max(sync_size, 1);
+		return this;
+	}
+
+	/**
+	 * Slots in the lock-free queue in front of each output file. With a size
+	 * set, workers publish their records to the queue without taking a lock and
+	 * a thread per output writes them out in batches (see {@link RecordRing}).
+	 * With 0, workers take turns writing under a lock per output.
+	 *
+	 * @return Queue slots per output, rounded up to a power of two, or 0 to
+	 *         write under a lock.
+	 */
+	public int writeQueue() {
+		return write_queue;
+	}
+
+	/**
+	 * @param write_queue Queue slots per output, or 0 to write under a lock.
+	 * @return This object.
+	 */
+	public ParserOptions writeQueue(int write_queue) {
+		this.write_queue = Math.max(write_queue, 0);
+		return this;
+	}
+
+	/**
+	 * Whether uncompressed input files are memory mapped rather than read through
+	 * buffered streams. Mapping saves a system call and a copy per buffer on very
+	 * large files, and lets the Product splitter scan the mapped pages directly.
+	 *
+	 * @return Whether input files are memory mapped.
+	 */
+	public boolean mmap() {
+		return mmap;
+	}
+
+	/**
+	 * @param mmap Whether input files are memory mapped.
+	 * @return This object.
+	 */
+	public ParserOptions mmap(boolean mmap) {
+		this.mmap = mmap;
+		return this;
+	}
+
+	/**
+	 * How product records are serialised. The streaming writer skips the object
+	 * tree; members are written in mapping order rather than hash order, but the
+	 * records are otherwise the same.
+	 *
+	 * @return JSON serialisation.
+	 */
+	public Json json() {
+		return json;
+	}
+
+	/**
+	 * @param json JSON serialisation.
+	 * @return This object.
+	 */
+	public ParserOptions json(Json json) {
+		this.json = json;
+		return this;
+	}
+
+	/**
+	 * How products are mapped to JSON. The bundled mapping spec gives the same
+	 * records as the hand-written mapping.
+	 *
+	 * @return Product mapper.
+	 */
+	public Mapper mapper() {
+		return mapper;
+	}
+
+	/**
+	 * @param mapper Product mapper.
+	 * @return This object.
+	 */
+	public ParserOptions mapper(Mapper mapper) {
+		this.mapper = mapper;
+		return this;
+	}
+
+	/**
+	 * How ONIX messages are parsed. The StAX engine gives the same records as
+	 * Jonix with the hand-written mapping; it cannot run a mapping spec, which is
+	 * written against the Jonix model.
+	 *
+	 * @return Parse engine.
+	 */
+	public Engine engine() {
+		return engine;
+	}
+
+	/**
+	 * @param engine Parse engine.
+	 * @return This object.
+	 */
+	public ParserOptions engine(Engine engine) {
+		this.engine = engine;
+		return this;
+	}
+
+	/**
+	 * StAX implementation used by the parse engine. All of them give the same
+	 * records. Jonix sets up its reader once per process, so every Jonix run in a
+	 * process has to use the same implementation.
+	 *
+	 * @return StAX implementation.
+	 */
+	public Stax stax() {
+		return stax;
+	}
+
+	/**
+	 * @param stax StAX implementation.
+	 * @return This object.
+	 */
+	public ParserOptions stax(Stax stax) {
+		this.stax = stax;
+		return this;
+	}
+
+	/**
+	 * Mapping spec file used by the spec mapper. Giving one on the command line
+	 * with --mapping also selects the spec mapper.
+	 *
+	 * @return Mapping spec path, or null for the bundled spec.
+	 */
+	public String mapping() {
+		return mapping;
+	}
+
+	/**
+	 * @param mapping Mapping spec path, or null for the bundled spec.
+	 * @return This object.
+	 */
+	public ParserOptions mapping(String mapping) {
+		this.mapping = mapping;
+		return this;
+	}
+
+	/**
+	 * Top-level output fields to write, by output key (e.g. Contributors) or by
+	 * the ONIX section they come from (e.g. DescriptiveDetail). Parts of the
+	 * product that are not selected are never read. Given on the command line as
+	 * a comma separated list.
+	 *
+	 * @return Selected fields, or null for all fields.
+	 */
+	public List<String> fields() {
+		return fields;
+	}
+
+	/**
+	 * @param fields Selected fields, or null for all fields.
+	 * @return This object.
+	 */
+	public ParserOptions fields(List<String> fields) {
+		this.fields = fields;
+		return this;
+	}
+
+	/**
+	 * ONIX composites removed from the input before it is parsed, by reference
+	 * name (e.g. ProductSupply). Given on the command line as a comma separated
+	 * list; a bare --skip skips {@link #UNMAPPED_COMPOSITES}. Composites the
+	 * mapping reads must not be skipped. Skipping applies to directory input only.
+	 *
+	 * @return Skipped composites. Defaults to none.
+	 */
+	public List<String> skip() {
+		return skip;
+	}
+
+	/**
+	 * @param skip Skipped composites.
+	 * @return This object.
+	 */
+	public ParserOptions skip(List<String> skip) {
+		this.skip = skip;
+		return this;
+	}
+
+	/**
+	 * ONIX 3.0 XML schema to validate each product against, on threads of its
+	 * own beside the mapping, e.g. the EDItEUR ONIX_BookProduct_3.0_reference.xsd
+	 * with its code list schemas next to it. Invalid products are listed in
+	 * {@link OnixParser#VALIDATION_REPORT_FILE}, keyed by RecordReference.
+	 * Validation applies to directory input only.
+	 *
+	 * @return Schema path, or null to not validate.
+	 */
+	public String validate() {
+		return validate;
+	}
+
+	/**
+	 * @param validate Schema path, or null to not validate.
+	 * @return This object.
+	 */
+	public ParserOptions validate(String validate) {
+		this.validate = validate;
+		return this;
+	}
+
+	/**
+	 * Whether products that fail validation are left out of the full record file.
+	 * Update and delete records are always written. Needs a schema to validate
+	 * against.
+	 *
+	 * @return Whether invalid products are dropped. Defaults to false.
+	 */
+	public boolean dropInvalid() {
+		return drop_invalid;
+	}
+
+	/**
+	 * @param drop_invalid Whether invalid products are dropped.
+	 * @return This object.
+	 */
+	public ParserOptions dropInvalid(boolean drop_invalid) {
+		this.drop_invalid = drop_invalid;
+		return this;
+	}
+}
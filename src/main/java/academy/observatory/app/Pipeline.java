@@ -0,0 +1,264 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A chain of processing stages connected by bounded queues. Each stage has its
+ * own input queue and worker threads. A stage hands its output to the next stage
+ * with {@link Stage#put(Object)}, which blocks while the next queue is full, so a
+ * slow stage throttles the stages before it rather than letting work pile up in
+ * memory.
+ *
+ * Per stage the pipeline tracks the number of items processed, the current queue
+ * depth and the time workers spent idle waiting for input. The stage with full
+ * queues in front of it and little idle time is the one limiting throughput.
+ */
+class Pipeline {
+	private static final Object END = new Object();
+
+	// How often a thread waiting for queue space checks for a failure.
+	private static final long ABORT_POLL_MILLIS = 100;
+
+	/**
+	 * Work done by a stage on one item.
+	 *
+	 * @param <T> Item type.
+	 */
+	interface Task<T> {
+		void process(T item) throws Exception;
+	}
+
+	/**
+	 * One stage of the pipeline.
+	 *
+	 * @param <T> Type of the items taken from the input queue.
+	 */
+	final class Stage<T> {
+		private final String name;
+		private final int threads;
+		private final BlockingQueue<Object> input;
+		private final Stage<?> downstream;
+		private final Task<T> task;
+		private final AtomicInteger running;
+
+		private final LongAdder items = new LongAdder();
+		private final LongAdder idle_nanos = new LongAdder();
+
+		private Stage(String name, int threads, int depth, Stage<?> downstream, Task<T> task) {
+			this.name = name;
+			this.threads = threads;
+			this.input = new ArrayBlockingQueue<Object>(depth);
+			this.downstream = downstream;
+			this.task = task;
+			this.running = new AtomicInteger(threads);
+		}
+
+		/**
+		 * Queue an item for this stage, blocking while the queue is full.
+		 *
+		 * @param item Item to queue.
+		 * @throws InterruptedException if the pipeline was aborted.
+		 */
+		void put(T item) throws InterruptedException {
+			enqueue(item);
+		}
+
+		/**
+		 * Signal that no more items will be queued for this stage. Once the workers
+		 * have drained the queue, the downstream stage is ended in turn.
+		 *
+		 * @throws InterruptedException if the pipeline was aborted.
+		 */
+		void end() throws InterruptedException {
+			enqueue(END);
+		}
+
+		/**
+		 * Queue an item, waiting while the queue is full. Threads outside the
+		 * pipeline, such as the one feeding the first stage, are not interrupted by
+		 * {@link #abort(Throwable)}, so the wait gives up once the pipeline has
+		 * failed rather than waiting for workers that have stopped.
+		 */
+		private void enqueue(Object item) throws InterruptedException {
+			while (!input.offer(item, ABORT_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (failure.get() != null) {
+					throw new InterruptedException("Pipeline aborted");
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void work() {
+			try {
+				while (true) {
+					long start = System.nanoTime();
+					Object item = input.take();
+					idle_nanos.add(System.nanoTime() - start);
+
+					if (item == END) {
+						// Leave the marker for the other workers of this stage.
+						input.put(END);
+						break;
+					}
+
+					task.process((T) item);
+					items.increment();
+				}
+
+				if (running.decrementAndGet() == 0) {
+					if (downstream != null) {
+						downstream.end();
+					} else {
+						done.countDown();
+					}
+				}
+			} catch (InterruptedException e) {
+				// Aborted.
+			} catch (Throwable e) {
+				abort(e);
+			}
+		}
+
+		/**
+		 * @return One line summary of the stage's progress.
+		 */
+		String report(double seconds) {
+			long count = items.sum();
+			double idle = threads * seconds > 0 ? idle_nanos.sum() / (threads * seconds * 1e9) : 0;
+
+			return String.format("%-10s threads %3d  items %10d  %10.1f/s  queue %6d/%-6d  idle %3.0f%%", name, threads,
+					count, seconds > 0 ? count / seconds : 0, input.size(), input.size() + input.remainingCapacity(),
+					Math.min(idle, 1) * 100);
+		}
+	}
+
+	private final List<Stage<?>> stages = new ArrayList<Stage<?>>();
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	private final CountDownLatch done = new CountDownLatch(1);
+	private ExecutorService workers;
+	private long start_nanos;
+
+	/**
+	 * Add a stage. Stages are created from the last to the first, so that each
+	 * stage can be given the stage it feeds.
+	 *
+	 * @param name       Stage name for reporting.
+	 * @param threads    Number of worker threads.
+	 * @param depth      Capacity of the stage's input queue.
+	 * @param downstream Stage fed by this one, or null for the last stage.
+	 * @param task       Work done on each item.
+	 * @return The new stage.
+	 */
+	<T> Stage<T> stage(String name, int threads, int depth, Stage<?> downstream, Task<T> task) {
+		Stage<T> stage = new Stage<T>(name, threads, depth, downstream, task);
+		stages.add(0, stage);
+		return stage;
+	}
+
+	/**
+	 * Start the worker threads of all stages.
+	 *
+	 * @param report_seconds Interval between progress reports, or 0 for none.
+	 */
+	void start(int report_seconds) {
+		int total = 0;
+		for (Stage<?> stage : stages) {
+			total += stage.threads;
+		}
+
+		start_nanos = System.nanoTime();
+		workers = Executors.newFixedThreadPool(total + (report_seconds > 0 ? 1 : 0));
+
+		for (Stage<?> stage : stages) {
+			for (int i = 0; i < stage.threads; i++) {
+				workers.execute(stage::work);
+			}
+		}
+
+		if (report_seconds > 0) {
+			workers.execute(() -> {
+				try {
+					while (!done.await(report_seconds, TimeUnit.SECONDS)) {
+						System.out.println(report());
+					}
+				} catch (InterruptedException e) {
+					// Aborted.
+				}
+			});
+		}
+	}
+
+	/**
+	 * Wait for the last stage to finish, or for the pipeline to fail.
+	 *
+	 * @throws Exception the first failure of any stage.
+	 */
+	void await() throws Exception {
+		try {
+			done.await();
+		} finally {
+			workers.shutdownNow();
+		}
+
+		Throwable e = failure.get();
+		if (e instanceof Exception) {
+			throw (Exception) e;
+		} else if (e != null) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Record a failure and stop all stages. The failure is rethrown from
+	 * {@link #await()}.
+	 *
+	 * @param e Cause of the failure.
+	 */
+	void abort(Throwable e) {
+		if (failure.compareAndSet(null, e)) {
+			done.countDown();
+			workers.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return Progress report with one line per stage.
+	 */
+	String report() {
+		double seconds = (System.nanoTime() - start_nanos) / 1e9;
+		StringBuilder sb = new StringBuilder(String.format("Pipeline after %.1fs:", seconds));
+
+		for (Stage<?> stage : stages) {
+			sb.append("\n  ").append(stage.report(seconds));
+		}
+
+		return sb.toString();
+	}
+}
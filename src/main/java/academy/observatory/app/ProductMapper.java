@@ -0,0 +1,32 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+/**
+ * Maps an ONIX 3 product to one JSON record. Implementations must be safe to
+ * use from several threads at once.
+ */
+interface ProductMapper {
+	/**
+	 * Write a product as one JSON object.
+	 *
+	 * @param product  Product record.
+	 * @param jsonline JSON output to write the record to.
+	 */
+	void map(com.tectonica.jonix.onix3.Product product, JsonOutput jsonline);
+}
@@ -0,0 +1,435 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.function.Consumer;
+
+/**
+ * Splits a single ONIX message into chunks of whole Product records so that a
+ * large file can be mapped by several worker threads. The file is scanned at
+ * the byte level for Product start and end tags, in either reference
+ * (&lt;Product&gt;) or short (&lt;product&gt;) form. Each chunk is presented to
+ * Jonix as a complete message: the original header (everything before the first
+ * Product), followed by the chunk's Product records, followed by the closing
+ * tag of the message element.
+ *
+ * The file is either read through positional channel reads, or memory mapped
+ * ({@link MappedFile}), in which case the scanner works directly on the mapped
+ * pages and the chunks are read from the same mapping.
+ *
+ * The scanner only understands ASCII compatible encodings (UTF-8, ISO-8859-x).
+ * If no Product boundaries are found no chunks are produced, and the caller
+ * should process the file as a whole.
+ */
+class ProductSplitter {
+	private static final byte[] PRODUCT_REF = "Product".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] PRODUCT_SHORT = "product".getBytes(StandardCharsets.US_ASCII);
+
+	private static final int MAX_NAME = 128;
+
+	/**
+	 * A run of consecutive Product records from one file, wrapped in the message
+	 * header and footer.
+	 */
+	static final class Chunk {
+		final File file;
+		final int index;
+		final long start;
+		final long end;
+		final byte[] header;
+		final byte[] footer;
+		final MappedFile mapped;
+
+		Chunk(File file, int index, long start, long end, byte[] header, byte[] footer, MappedFile mapped) {
+			this.file = file;
+			this.index = index;
+			this.start = start;
+			this.end = end;
+			this.header = header;
+			this.footer = footer;
+			this.mapped = mapped;
+		}
+
+		/**
+		 * Open the chunk as a standalone ONIX message.
+		 *
+		 * @return Stream over header, Product records and footer.
+		 * @throws IOException if the file cannot be opened.
+		 */
+		InputStream open() throws IOException {
+			Chunk chunk = this;
+
+			// Jonix reports stream sources by their toString(), so name the stream after
+			// the chunk.
+			InputStream records = mapped != null ? mapped.stream(start, end) : new FileRangeInputStream(file, start, end);
+
+			return new SequenceInputStream(Collections.enumeration(
+					Arrays.asList(new ByteArrayInputStream(header), records, new ByteArrayInputStream(footer)))) {
+				@Override
+				public String toString() {
+					return chunk.toString();
+				}
+			};
+		}
+
+		@Override
+		public String toString() {
+			return file.getPath() + " [" + start + ", " + end + ")";
+		}
+	}
+
+	private final File file;
+	private final InputStream in;
+	private final MappedFile mapped;
+	private final byte[] buf;
+	private ByteBuffer window = ByteBuffer.allocate(0);
+	private long window_offset = 0;
+	private int next_window = 0;
+
+	private final byte[] name = new byte[MAX_NAME];
+	private int name_len = 0;
+
+	/**
+	 * @param file   File being scanned.
+	 * @param in     Stream over the file, or null to scan the mapping.
+	 * @param mapped Mapping of the file, or null to read the stream.
+	 */
+	private ProductSplitter(File file, InputStream in, MappedFile mapped) {
+		this.file = file;
+		this.in = in;
+		this.mapped = mapped;
+		this.buf = in != null ? new byte[1 << 16] : null;
+	}
+
+	/**
+	 * Split a file into chunks of Product records. A chunk is closed at the first
+	 * Product end after it has grown to chunk_size bytes, so chunks may be larger
+	 * than chunk_size by up to one Product record.
+	 *
+	 * @param file       ONIX file to split.
+	 * @param chunk_size Target chunk size in bytes.
+	 * @param consumer   Receives each chunk as soon as its end has been found.
+	 * @return Number of chunks produced.
+	 * @throws IOException if the file cannot be read.
+	 */
+	static int split(File file, long chunk_size, Consumer<Chunk> consumer) throws IOException {
+		try (InputStream in = new FileRangeInputStream(file, 0, file.length())) {
+			return new ProductSplitter(file, in, null).scan(chunk_size, consumer);
+		}
+	}
+
+	/**
+	 * Split a memory mapped file into chunks of Product records. The chunks read
+	 * their records from the mapping.
+	 *
+	 * @param mapped     Mapping of the ONIX file to split.
+	 * @param file       The mapped file.
+	 * @param chunk_size Target chunk size in bytes.
+	 * @param consumer   Receives each chunk as soon as its end has been found.
+	 * @return Number of chunks produced.
+	 * @throws IOException if the file cannot be read.
+	 */
+	static int split(MappedFile mapped, File file, long chunk_size, Consumer<Chunk> consumer) throws IOException {
+		return new ProductSplitter(file, null, mapped).scan(chunk_size, consumer);
+	}
+
+	/**
+	 * Scan the input for Product boundaries, emitting chunks as they fill up.
+	 */
+	private int scan(long chunk_size, Consumer<Chunk> consumer) throws IOException {
+		byte[] header = null;
+		byte[] footer = null;
+		long chunk_start = -1;
+		long last_end = -1;
+		int chunks = 0;
+		int c;
+
+		while ((c = read()) != -1) {
+			if (c != '<') {
+				continue;
+			}
+
+			long tag_start = position() - 1;
+			c = read();
+
+			if (c == '!') {
+				skipMarkupDeclaration();
+				continue;
+			} else if (c == '?') {
+				skipUntil('?', '>');
+				continue;
+			}
+
+			boolean end_tag = c == '/';
+			readName(end_tag ? read() : c);
+
+			if (!isProduct()) {
+				if (!end_tag && footer == null) {
+					// First element in the document is the message element.
+					footer = ("</" + new String(name, 0, name_len, StandardCharsets.US_ASCII) + ">")
+							.getBytes(StandardCharsets.US_ASCII);
+				}
+				continue;
+			}
+
+			if (!end_tag) {
+				if (header == null) {
+					try (InputStream head = mapped != null ? mapped.stream(0, tag_start)
+							: new FileRangeInputStream(file, 0, tag_start)) {
+						header = head.readAllBytes();
+					}
+				}
+
+				if (chunk_start < 0) {
+					chunk_start = tag_start;
+				}
+			} else {
+				skipUntil('>');
+				last_end = position();
+
+				if (chunk_start >= 0 && last_end - chunk_start >= chunk_size) {
+					consumer.accept(new Chunk(file, chunks++, chunk_start, last_end, header, footer, mapped));
+					chunk_start = -1;
+				}
+			}
+		}
+
+		if (chunk_start >= 0 && last_end > chunk_start) {
+			consumer.accept(new Chunk(file, chunks++, chunk_start, last_end, header, footer, mapped));
+		}
+
+		return chunks;
+	}
+
+	/**
+	 * Read the next byte.
+	 *
+	 * @return Byte value, or -1 at end of input.
+	 */
+	private int read() throws IOException {
+		if (!window.hasRemaining() && !nextWindow()) {
+			return -1;
+		}
+
+		return window.get() & 0xff;
+	}
+
+	/**
+	 * Move on to the next mapped window, or read the next buffer from the stream.
+	 *
+	 * @return false at end of input.
+	 */
+	private boolean nextWindow() throws IOException {
+		window_offset += window.limit();
+
+		if (mapped != null) {
+			if (next_window == mapped.windows()) {
+				return false;
+			}
+
+			window = mapped.window(next_window++);
+			return true;
+		}
+
+		int n = in.read(buf);
+		if (n <= 0) {
+			return false;
+		}
+
+		window = ByteBuffer.wrap(buf, 0, n);
+		return true;
+	}
+
+	/**
+	 * @return File offset of the next byte to be read.
+	 */
+	private long position() {
+		return window_offset + window.position();
+	}
+
+	/**
+	 * Read a tag name starting with byte c into the name buffer. Reading stops at
+	 * whitespace or '/', which is consumed, or at '>', which is left unread.
+	 */
+	private void readName(int c) throws IOException {
+		name_len = 0;
+
+		while (c != -1 && c != '>' && c != '/' && c > ' ') {
+			if (name_len < MAX_NAME) {
+				name[name_len++] = (byte) c;
+			}
+			c = read();
+		}
+
+		if (c == '>') {
+			window.position(window.position() - 1);
+		}
+	}
+
+	/**
+	 * @return Whether the local part of the name buffer is Product or product.
+	 */
+	private boolean isProduct() {
+		int local = 0;
+
+		for (int i = 0; i < name_len; i++) {
+			if (name[i] == ':') {
+				local = i + 1;
+			}
+		}
+
+		return matches(local, PRODUCT_REF) || matches(local, PRODUCT_SHORT);
+	}
+
+	private boolean matches(int from, byte[] expected) {
+		if (name_len - from != expected.length) {
+			return false;
+		}
+
+		for (int i = 0; i < expected.length; i++) {
+			if (name[from + i] != expected[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Skip a comment, CDATA section or DOCTYPE declaration after "&lt;!".
+	 */
+	private void skipMarkupDeclaration() throws IOException {
+		int c = read();
+
+		if (c == '-') {
+			read();
+			skipUntil('-', '-', '>');
+		} else if (c == '[') {
+			skipUntil(']', ']', '>');
+		} else {
+			// DOCTYPE, possibly with an internal subset in square brackets.
+			int depth = 0;
+			while (c != -1 && !(c == '>' && depth == 0)) {
+				if (c == '[') {
+					depth++;
+				} else if (c == ']') {
+					depth--;
+				}
+				c = read();
+			}
+		}
+	}
+
+	/**
+	 * Skip past the given terminator sequence (up to 8 bytes).
+	 */
+	private void skipUntil(int... terminator) throws IOException {
+		long target = 0;
+		long mask = 0;
+		for (int t : terminator) {
+			target = (target << 8) | t;
+			mask = (mask << 8) | 0xff;
+		}
+
+		long window = 0;
+		int c;
+		while ((c = read()) != -1) {
+			window = (window << 8) | c;
+			if ((window & mask) == target) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Input stream over a byte range of a file. Uses positional reads so several
+	 * ranges of the same file can be read concurrently.
+	 */
+	static final class FileRangeInputStream extends InputStream {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+		private long position;
+		private final long end;
+
+		FileRangeInputStream(File file, long start, long end) throws IOException {
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+			this.position = start;
+			this.end = end;
+			buffer.flip();
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (!buffer.hasRemaining() && !fill()) {
+				return -1;
+			}
+
+			return buffer.get() & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int n) throws IOException {
+			if (n == 0) {
+				return 0;
+			}
+
+			if (!buffer.hasRemaining() && !fill()) {
+				return -1;
+			}
+
+			int count = Math.min(n, buffer.remaining());
+			buffer.get(b, off, count);
+			return count;
+		}
+
+		private boolean fill() throws IOException {
+			if (position >= end) {
+				return false;
+			}
+
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), end - position));
+
+			int count = channel.read(buffer, position);
+			buffer.flip();
+
+			if (count <= 0) {
+				return false;
+			}
+
+			position += count;
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,598 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.ValidatorHandler;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.xml.sax.Attributes;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * Checks each product of a run against the ONIX 3.0 XML schema, beside the
+ * mapping. The bytes the parser reads from a source are copied to a validation
+ * task on a pool of its own, which splits the message into products with SAX
+ * and validates each product as a document of its own, so the header of a split
+ * chunk is never checked. Invalid products are written to the validation report,
+ * keyed by RecordReference. When invalid products are dropped, a full record is
+ * only written once its product is known to be valid.
+ *
+ * Without a schema, sources are opened as they are and every product is kept.
+ */
+final class ProductValidator implements Closeable {
+	/**
+	 * Maximum number of reads copied to a validation task but not yet validated.
+	 */
+	private static final int QUEUE_DEPTH = 256;
+
+	private final Schema schema;
+	private final boolean drop_invalid;
+	private final ExecutorService pool;
+	private final Writer report;
+	private final SAXParserFactory sax = SAXParserFactory.newDefaultInstance();
+	private final LongAdder validated = new LongAdder();
+	private final LongAdder invalid = new LongAdder();
+	private volatile IOException report_error = null;
+
+	/**
+	 * @param options    Run options.
+	 * @param output_dir Output directory to write the report to.
+	 * @throws IOException              if the schema or report cannot be opened.
+	 * @throws SAXException             if the schema is not valid.
+	 * @throws IllegalArgumentException if invalid products are to be dropped
+	 *                                  without a schema.
+	 */
+	ProductValidator(ParserOptions options, String output_dir) throws IOException, SAXException {
+		drop_invalid = options.dropInvalid();
+
+		if (options.validate() == null) {
+			if (drop_invalid) {
+				throw new IllegalArgumentException("--drop-invalid needs --validate=<schema.xsd>");
+			}
+
+			schema = null;
+			pool = null;
+			report = null;
+			return;
+		}
+
+		schema = loadSchema(new File(options.validate()));
+
+		try {
+			sax.setNamespaceAware(true);
+			sax.setFeature("http://xml.org/sax/features/external-general-entities", false);
+			sax.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+			sax.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+		} catch (javax.xml.parsers.ParserConfigurationException e) {
+			throw new SAXException(e);
+		}
+
+		AtomicInteger threads = new AtomicInteger();
+		pool = Executors.newCachedThreadPool(task -> {
+			Thread thread = new Thread(task, "validate-" + threads.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		report = Files.newBufferedWriter(Paths.get(output_dir, OnixParser.VALIDATION_REPORT_FILE),
+				StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Load a schema from local files only. Schemas it includes or imports are
+	 * read relative to it; DTDs and remote schemas are never fetched.
+	 *
+	 * @param file Schema file, e.g. ONIX_BookProduct_3.0_reference.xsd.
+	 * @return Compiled schema, safe to share between threads.
+	 * @throws SAXException if the schema cannot be read or is not valid.
+	 */
+	private static Schema loadSchema(File file) throws SAXException {
+		SchemaFactory factory = SchemaFactory.newDefaultInstance();
+		factory.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+		factory.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "file");
+		return factory.newSchema(new StreamSource(file));
+	}
+
+	/**
+	 * Open a source, starting its validation task if validating.
+	 *
+	 * @param source Input source.
+	 * @return The opened source.
+	 * @throws IOException if the source cannot be opened.
+	 */
+	Checked open(InputSource source) throws IOException {
+		InputStream in = source.open();
+
+		if (schema == null) {
+			return new Checked(in);
+		}
+
+		ReadAheadInputStream copy = new ReadAheadInputStream(source.name(), 0, QUEUE_DEPTH);
+		Checked checked = new Checked(new TeeInputStream(in, copy));
+		pool.execute(() -> validate(source.name(), copy, checked));
+		return checked;
+	}
+
+	/**
+	 * Validate the products of a message as it is copied in.
+	 *
+	 * @param name    Source name for the report.
+	 * @param in      Copy of the bytes read by the parser.
+	 * @param checked Source to give the verdicts to.
+	 */
+	private void validate(String name, InputStream in, Checked checked) {
+		ProductHandler handler = new ProductHandler(name, checked);
+
+		try (InputStream message = in) {
+			XMLReader reader = sax.newSAXParser().getXMLReader();
+			reader.setContentHandler(handler);
+			reader.setErrorHandler(handler);
+			reader.parse(new org.xml.sax.InputSource(message));
+		} catch (Exception e) {
+			handler.abort(e);
+		} finally {
+			checked.done();
+		}
+	}
+
+	/**
+	 * Write an entry to the validation report.
+	 *
+	 * @param source           Source name.
+	 * @param record_reference RecordReference of the product, or null for errors
+	 *                         outside any product.
+	 * @param errors           Errors found, as line:column message.
+	 */
+	private void report(String source, String record_reference, List<String> errors) {
+		JSONObject entry = new JSONObject();
+		entry.put("RecordReference", record_reference);
+		entry.put("source", source);
+		entry.put("errors", new JSONArray(errors));
+
+		synchronized (report) {
+			try {
+				report.write(entry.toString());
+				report.write('\n');
+			} catch (IOException e) {
+				report_error = e;
+			}
+		}
+	}
+
+	private static String describe(SAXParseException e) {
+		return e.getLineNumber() + ":" + e.getColumnNumber() + " " + e.getMessage();
+	}
+
+	/**
+	 * Wait for the validation tasks to finish and close the report.
+	 *
+	 * @throws IOException if the report could not be written.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (schema == null) {
+			return;
+		}
+
+		pool.shutdown();
+		try {
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			pool.shutdownNow();
+		}
+
+		report.close();
+		System.out.println("Validated products: " + validated.sum() + ", invalid: " + invalid.sum());
+
+		if (report_error != null) {
+			throw report_error;
+		}
+	}
+
+	/**
+	 * An opened source and the verdicts on its products, in document order.
+	 */
+	final class Checked {
+		private final InputStream in;
+		private final BitSet failed = new BitSet();
+		private int count = 0;
+		private boolean done = false;
+
+		private Checked(InputStream in) {
+			this.in = in;
+		}
+
+		/**
+		 * @return Stream over the ONIX message, to be parsed and closed by the
+		 *         caller.
+		 */
+		InputStream in() {
+			return in;
+		}
+
+		/**
+		 * Decide whether to write a record. Unless invalid products are dropped,
+		 * or the record is not a full record, this returns at once. Otherwise it
+		 * waits for the product's verdict, which only needs input the parser has
+		 * already read.
+		 *
+		 * @param index             Position of the product in the source.
+		 * @param notification_code ONIX notification type code of the product.
+		 * @return Whether to write the record.
+		 * @throws InterruptedException if interrupted while waiting.
+		 */
+		boolean keep(int index, String notification_code) throws InterruptedException {
+			if (!drop_invalid || !RecordSink.fullRecord(notification_code)) {
+				return true;
+			}
+
+			synchronized (this) {
+				while (index >= count && !done) {
+					wait();
+				}
+
+				// A product the validator never reached is not known to be valid.
+				return index < count && !failed.get(index);
+			}
+		}
+
+		private synchronized void verdict(boolean valid) {
+			if (!valid) {
+				failed.set(count);
+			}
+
+			count++;
+			notifyAll();
+		}
+
+		private synchronized void done() {
+			done = true;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Passes a copy of every read on to a validation task. The copy is handed over
+	 * at once, so the validator can always catch up with the parser. Closing the
+	 * stream copies the rest of the input before ending the copy.
+	 */
+	private static final class TeeInputStream extends FilterInputStream {
+		private final ReadAheadInputStream copy;
+		private boolean closed = false;
+
+		TeeInputStream(InputStream in, ReadAheadInputStream copy) {
+			super(in);
+			this.copy = copy;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+
+			if (b >= 0) {
+				put(new byte[] { (byte) b });
+			}
+
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+
+			if (n > 0) {
+				put(Arrays.copyOfRange(b, off, off + n));
+			}
+
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			int read = read(new byte[(int) Math.min(n, 8192)]);
+			return Math.max(read, 0);
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		private void put(byte[] block) throws IOException {
+			try {
+				copy.put(block);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while copying input for validation");
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+
+			IOException error = null;
+
+			try {
+				byte[] rest = new byte[8192];
+				while (read(rest) > 0) {
+				}
+			} catch (IOException e) {
+				error = e;
+			} finally {
+				copy.end(error);
+				super.close();
+			}
+		}
+
+		@Override
+		public String toString() {
+			return in.toString();
+		}
+	}
+
+	/**
+	 * Splits a message into products and feeds each one to the schema validator
+	 * as a document of its own, with the namespaces in scope at the product.
+	 */
+	private final class ProductHandler extends DefaultHandler {
+		private final String source;
+		private final Checked checked;
+		private final ValidatorHandler validator = schema.newValidatorHandler();
+		private final NamespaceSupport namespaces = new NamespaceSupport();
+		private final List<String> prefixes = new ArrayList<String>();
+		private final List<String> errors = new ArrayList<String>();
+		private final StringBuilder record_reference = new StringBuilder();
+		private Locator locator = null;
+		private boolean context_pushed = false;
+		private int depth = 0;
+		private boolean first = true;
+		private boolean in_product = false;
+		private boolean in_reference = false;
+		private boolean reference_read = false;
+
+		ProductHandler(String source, Checked checked) {
+			this.source = source;
+			this.checked = checked;
+
+			validator.setErrorHandler(new ErrorHandler() {
+				@Override
+				public void warning(SAXParseException e) {
+				}
+
+				@Override
+				public void error(SAXParseException e) {
+					errors.add(describe(e));
+				}
+
+				@Override
+				public void fatalError(SAXParseException e) {
+					errors.add(describe(e));
+				}
+			});
+		}
+
+		@Override
+		public void setDocumentLocator(Locator locator) {
+			this.locator = locator;
+		}
+
+		@Override
+		public void startPrefixMapping(String prefix, String uri) throws SAXException {
+			if (!context_pushed) {
+				namespaces.pushContext();
+				context_pushed = true;
+			}
+
+			namespaces.declarePrefix(prefix, uri);
+
+			if (in_product) {
+				validator.startPrefixMapping(prefix, uri);
+			}
+		}
+
+		@Override
+		public void endPrefixMapping(String prefix) throws SAXException {
+			if (in_product) {
+				validator.endPrefixMapping(prefix);
+			}
+		}
+
+		@Override
+		public void startElement(String uri, String local_name, String qname, Attributes attributes)
+				throws SAXException {
+			if (!context_pushed) {
+				namespaces.pushContext();
+			}
+			context_pushed = false;
+			depth++;
+
+			if (depth == 2) {
+				// The first element may be the header; every other one is a product.
+				boolean header = first && local_name.equalsIgnoreCase("Header");
+				first = false;
+
+				if (!header) {
+					startProduct();
+				}
+			}
+
+			if (in_product) {
+				in_reference = depth == 3 && !reference_read
+						&& (local_name.equals("RecordReference") || local_name.equals("a001"));
+				validator.startElement(uri, local_name, qname, attributes);
+			}
+		}
+
+		@Override
+		public void endElement(String uri, String local_name, String qname) throws SAXException {
+			if (in_product) {
+				validator.endElement(uri, local_name, qname);
+
+				if (in_reference) {
+					in_reference = false;
+					reference_read = true;
+				}
+
+				if (depth == 2) {
+					endProduct();
+				}
+			}
+
+			depth--;
+			namespaces.popContext();
+		}
+
+		@Override
+		public void characters(char[] ch, int start, int length) throws SAXException {
+			if (in_product) {
+				if (in_reference) {
+					record_reference.append(ch, start, length);
+				}
+
+				validator.characters(ch, start, length);
+			}
+		}
+
+		@Override
+		public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+			if (in_product) {
+				validator.ignorableWhitespace(ch, start, length);
+			}
+		}
+
+		@Override
+		public void processingInstruction(String target, String data) throws SAXException {
+			if (in_product) {
+				validator.processingInstruction(target, data);
+			}
+		}
+
+		/**
+		 * Entities declared by the ONIX DTD, which is never loaded, are taken from
+		 * the local catalog like the parse engines do.
+		 */
+		@Override
+		public void skippedEntity(String name) throws SAXException {
+			String text = OnixEntities.resolve(name);
+
+			if (text != null) {
+				characters(text.toCharArray(), 0, text.length());
+			}
+		}
+
+		private void startProduct() throws SAXException {
+			in_product = true;
+			reference_read = false;
+			record_reference.setLength(0);
+			errors.clear();
+			prefixes.clear();
+
+			validator.setDocumentLocator(locator);
+			validator.startDocument();
+
+			for (Enumeration<?> e = namespaces.getPrefixes(); e.hasMoreElements();) {
+				String prefix = (String) e.nextElement();
+
+				if (!prefix.equals("xml")) {
+					prefixes.add(prefix);
+					validator.startPrefixMapping(prefix, namespaces.getURI(prefix));
+				}
+			}
+
+			String default_namespace = namespaces.getURI("");
+			if (default_namespace != null) {
+				prefixes.add("");
+				validator.startPrefixMapping("", default_namespace);
+			}
+		}
+
+		private void endProduct() throws SAXException {
+			for (String prefix : prefixes) {
+				validator.endPrefixMapping(prefix);
+			}
+
+			validator.endDocument();
+			in_product = false;
+			verdict();
+		}
+
+		private void verdict() {
+			boolean valid = errors.isEmpty();
+			validated.increment();
+
+			if (!valid) {
+				invalid.increment();
+				report(source, record_reference.toString().trim(), errors);
+			}
+
+			checked.verdict(valid);
+		}
+
+		/**
+		 * Report the error that stopped the parse against the product it was in.
+		 */
+		void abort(Exception e) {
+			String error = e instanceof SAXParseException ? describe((SAXParseException) e) : e.toString();
+
+			if (in_product) {
+				errors.add(error);
+				in_product = false;
+				verdict();
+			} else {
+				report(source, null, Arrays.asList(error));
+			}
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import org.json.JSONObject;
+
+/**
+ * Turns products into lines of UTF-8 JSON text for one run: a product mapper,
+ * and the JSON serialisation to write its output with. Safe to share between
+ * threads.
+ *
+ * @param <P> Product representation of the parse engine.
+ */
+class ProductWriter<P> {
+	private static final ObjectPool<JsonStreamOutput> JSON_STREAM = new ObjectPool<JsonStreamOutput>(
+			JsonStreamOutput::new);
+	private static final ObjectPool<JsonJacksonOutput> JSON_JACKSON = new ObjectPool<JsonJacksonOutput>(
+			JsonJacksonOutput::new);
+
+	private final BiConsumer<? super P, JsonOutput> mapper;
+	private final ParserOptions.Json json;
+	private final LongAdder copied = new LongAdder();
+	private final LongAdder encoded = new LongAdder();
+
+	/**
+	 * @param mapper Writes a product as one JSON object.
+	 * @param json   JSON serialisation.
+	 */
+	ProductWriter(BiConsumer<? super P, JsonOutput> mapper, ParserOptions.Json json) {
+		this.mapper = mapper;
+		this.json = json;
+	}
+
+	/**
+	 * Receives one serialised record.
+	 */
+	interface LineWriter {
+		void write(byte[] line, int off, int len) throws IOException;
+	}
+
+	/**
+	 * @return JSON serialisation.
+	 */
+	ParserOptions.Json json() {
+		return json;
+	}
+
+	/**
+	 * Map a product into a JSON object tree.
+	 *
+	 * @param product Product record.
+	 * @return Product record as a JSON object.
+	 */
+	JSONObject tree(P product) {
+		JsonTreeOutput tree = new JsonTreeOutput();
+		mapper.accept(product, tree);
+		return tree.root();
+	}
+
+	/**
+	 * Map a product and serialise it as one line of UTF-8 JSON text, without
+	 * line terminator. The streaming writers borrow a pooled buffer, so the line
+	 * is only valid during the call to the line writer.
+	 *
+	 * @param product Product record.
+	 * @param out     Receives the serialised record.
+	 * @throws IOException on output failure.
+	 */
+	void write(P product, LineWriter out) throws IOException {
+		if (json == ParserOptions.Json.TREE) {
+			byte[] line = tree(product).toString().getBytes(StandardCharsets.UTF_8);
+			out.write(line, 0, line.length);
+			return;
+		}
+
+		if (json == ParserOptions.Json.JACKSON) {
+			JsonJacksonOutput jackson = JSON_JACKSON.borrow();
+			try {
+				jackson.reset();
+				mapper.accept(product, jackson);
+				jackson.finish();
+				out.write(jackson.buffer(), 0, jackson.size());
+			} finally {
+				JSON_JACKSON.release(jackson);
+			}
+			return;
+		}
+
+		// Pooled rather than per thread, so that a virtual thread per task still
+		// finds a grown buffer and a filled member name cache.
+		JsonStreamOutput stream = JSON_STREAM.borrow();
+		try {
+			stream.reset();
+			mapper.accept(product, stream);
+			copied.add(stream.copied());
+			encoded.add(stream.encoded());
+			out.write(stream.buffer(), 0, stream.size());
+		} finally {
+			JSON_STREAM.release(stream);
+		}
+	}
+
+	/**
+	 * @return How many bytes of the strings the streaming writer wrote were
+	 *         copied ready encoded, and how many it had to encode.
+	 */
+	String report() {
+		long c = copied.sum();
+		long e = encoded.sum();
+		return String.format("Copied %d bytes of JSON strings ready encoded, encoded %d bytes (%.1f%% copied)", c, e,
+				c + e == 0 ? 0.0 : 100.0 * c / (c + e));
+	}
+}
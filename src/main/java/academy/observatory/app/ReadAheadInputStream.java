@@ -0,0 +1,203 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Input stream whose bytes are read from the underlying source by another
+ * thread. The producing thread calls {@link #pump(InputStream)}, which copies
+ * the source into a bounded queue of blocks; the consuming thread reads from
+ * this stream. When the queue is full the producer blocks, so at most
+ * depth * block_size bytes are held in memory per stream. Closing the stream
+ * before the end releases the producer, which stops copying.
+ *
+ * A producer that already holds the bytes can hand them over with
+ * {@link #put(byte[])} and {@link #end(IOException)} instead of pumping.
+ */
+class ReadAheadInputStream extends InputStream {
+	private static final byte[] EOF = new byte[0];
+
+	private final String name;
+	private final int block_size;
+	private final BlockingQueue<byte[]> blocks;
+
+	private byte[] current = null;
+	private int pos = 0;
+	private volatile IOException error = null;
+	private volatile boolean closed = false;
+
+	/**
+	 * @param name       Name reported from toString().
+	 * @param block_size Size of each block read from the source.
+	 * @param depth      Maximum number of blocks held in the queue.
+	 */
+	ReadAheadInputStream(String name, int block_size, int depth) {
+		this.name = name;
+		this.block_size = block_size;
+		this.blocks = new ArrayBlockingQueue<byte[]>(depth);
+	}
+
+	/**
+	 * Copy the source into the block queue until end of input. Called from the
+	 * producing thread. Read errors are passed on to the consumer. Returns early
+	 * if the consumer closes the stream.
+	 *
+	 * @param source Stream to read from. It is closed when done.
+	 * @throws InterruptedException if interrupted while waiting for queue space.
+	 */
+	void pump(InputStream source) throws InterruptedException {
+		try (InputStream in = source) {
+			while (!closed) {
+				byte[] block = new byte[block_size];
+				int n = in.readNBytes(block, 0, block_size);
+
+				if (n <= 0) {
+					break;
+				}
+
+				blocks.put(n == block_size ? block : Arrays.copyOf(block, n));
+
+				if (n < block_size) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			error = e;
+		} finally {
+			if (!closed) {
+				blocks.put(EOF);
+			}
+		}
+	}
+
+	/**
+	 * Queue a block of bytes. Called from the producing thread, which must not
+	 * modify the block afterwards. Does nothing once the consumer has closed the
+	 * stream.
+	 *
+	 * @param block Bytes to queue.
+	 * @throws InterruptedException if interrupted while waiting for queue space.
+	 */
+	void put(byte[] block) throws InterruptedException {
+		if (!closed && block.length > 0) {
+			blocks.put(block);
+		}
+	}
+
+	/**
+	 * Mark the end of the bytes queued with {@link #put(byte[])}. Waits for queue
+	 * space even if the thread is interrupted, so the consumer always sees the
+	 * end of input.
+	 *
+	 * @param error Error passed on to the consumer at end of input, or null.
+	 */
+	void end(IOException error) {
+		this.error = error;
+		boolean interrupted = false;
+
+		while (!closed) {
+			try {
+				blocks.put(EOF);
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return Number of blocks waiting to be read.
+	 */
+	int queued() {
+		return blocks.size();
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!next()) {
+			return -1;
+		}
+
+		return current[pos++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+
+		if (!next()) {
+			return -1;
+		}
+
+		int n = Math.min(len, current.length - pos);
+		System.arraycopy(current, pos, b, off, n);
+		pos += n;
+		return n;
+	}
+
+	/**
+	 * Make sure the current block has unread bytes.
+	 *
+	 * @return false at end of input.
+	 */
+	private boolean next() throws IOException {
+		while (current != EOF && (current == null || pos == current.length)) {
+			try {
+				current = blocks.take();
+				pos = 0;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for input", e);
+			}
+		}
+
+		if (current == EOF) {
+			if (error != null) {
+				throw error;
+			}
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Discard the unread input and let the producer stop.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		blocks.clear();
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
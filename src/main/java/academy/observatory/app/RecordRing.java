@@ -0,0 +1,230 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free queue of serialised records in front of one output, with
+ * many producers and a single consumer thread that writes them to the
+ * {@link JsonlWriter}.
+ *
+ * A producer copies its record, claims the next sequence number with one
+ * atomic increment, stores the record in the slot for that number and marks
+ * the slot published. Producers never wait for each other; one only waits when
+ * the ring is full. The consumer takes every published record in order, up to
+ * {@link #BATCH} at a time, writes them, and then frees their slots. Records
+ * are written in the order their sequence numbers were claimed.
+ */
+final class RecordRing implements Closeable {
+	/**
+	 * Most records the consumer takes before freeing their slots.
+	 */
+	static final int BATCH = 256;
+
+	// Busy waits before a waiting thread yields, and yields before it parks. With
+	// one CPU, spinning only keeps the thread it waits for off the core.
+	private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;
+	private static final int YIELDS = 10;
+	private static final long PARK_NANOS = 50_000;
+
+	private final JsonlWriter out;
+	private final String name;
+	private final int mask;
+	private final byte[][] slots;
+
+	// Sequence + 1 of the record in each slot once it is published.
+	private final AtomicLongArray published;
+	// Next sequence number to claim, and next one to consume.
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong head = new AtomicLong();
+
+	private final Thread consumer;
+	private volatile boolean parked = false;
+	private volatile boolean closed = false;
+	private volatile IOException error = null;
+
+	private final LongAdder full_waits = new LongAdder();
+	private long batches = 0;
+	private long records = 0;
+
+	/**
+	 * Start the consumer thread.
+	 *
+	 * @param out      Output the records are written to. Only the consumer
+	 *                 thread writes to it until the ring is closed.
+	 * @param name     Name of the output, e.g. "full".
+	 * @param capacity Number of slots, rounded up to a power of two.
+	 */
+	RecordRing(JsonlWriter out, String name, int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+
+		this.out = out;
+		this.name = name;
+		mask = size - 1;
+		slots = new byte[size][];
+		published = new AtomicLongArray(size);
+
+		consumer = new Thread(this::drain, "queue-" + name);
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+
+	/**
+	 * Copy a record into the ring. Safe to call from any number of threads.
+	 *
+	 * @param line Buffer holding the UTF-8 JSON text of the record, without line
+	 *             terminator.
+	 * @param off  Offset of the record in the buffer.
+	 * @param len  Length of the record in bytes.
+	 * @throws IOException if an earlier record failed to write.
+	 */
+	void publish(byte[] line, int off, int len) throws IOException {
+		if (error != null) {
+			throw new IOException("Writing " + name + " records failed", error);
+		}
+
+		byte[] record = Arrays.copyOfRange(line, off, off + len);
+		long seq = tail.getAndIncrement();
+
+		if (seq - head.get() > mask) {
+			awaitRoom(seq);
+		}
+
+		int slot = (int) seq & mask;
+		slots[slot] = record;
+		published.set(slot, seq + 1);
+
+		if (parked) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	/**
+	 * Wait until the consumer has freed the slot of a sequence number.
+	 */
+	private void awaitRoom(long seq) {
+		full_waits.increment();
+
+		for (int i = 0; seq - head.get() > mask; i++) {
+			if (i < SPINS) {
+				Thread.onSpinWait();
+			} else if (i < SPINS + YIELDS) {
+				Thread.yield();
+			} else {
+				LockSupport.parkNanos(this, PARK_NANOS);
+			}
+		}
+	}
+
+	/**
+	 * Consumer thread: write published records in batches until closed and
+	 * empty. After a write failure the records are still taken, so that
+	 * producers are not left waiting for room, but no longer written.
+	 */
+	private void drain() {
+		long h = 0;
+		int idle = 0;
+
+		while (true) {
+			int n = 0;
+			while (n < BATCH && published.get((int) (h + n) & mask) == h + n + 1) {
+				n++;
+			}
+
+			if (n == 0) {
+				if (closed && tail.get() == h) {
+					return;
+				}
+
+				if (idle < SPINS) {
+					Thread.onSpinWait();
+					idle++;
+				} else if (idle < SPINS + YIELDS) {
+					Thread.yield();
+					idle++;
+				} else {
+					// Publishers unpark the consumer once they see the flag; the
+					// timeout covers a close while parked.
+					parked = true;
+					if (published.get((int) h & mask) != h + 1) {
+						LockSupport.parkNanos(this, PARK_NANOS * 20);
+					}
+					parked = false;
+				}
+				continue;
+			}
+
+			idle = 0;
+			for (int i = 0; i < n; i++) {
+				int slot = (int) (h + i) & mask;
+				byte[] record = slots[slot];
+				slots[slot] = null;
+
+				if (error == null) {
+					try {
+						out.write(record, 0, record.length);
+					} catch (IOException e) {
+						error = e;
+					}
+				}
+			}
+
+			h += n;
+			head.set(h);
+			batches++;
+			records += n;
+		}
+	}
+
+	/**
+	 * @return Summary of the batches written and of the waits for room.
+	 */
+	String report() {
+		return String.format("Queued %d %s records in %d batches (%.1f per batch), producers waited for room %d times",
+				records, name, batches, batches == 0 ? 0.0 : (double) records / batches, full_waits.sum());
+	}
+
+	/**
+	 * Wait for the consumer to write every record published. Call once all
+	 * producers have finished.
+	 */
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		LockSupport.unpark(consumer);
+
+		try {
+			consumer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted writing " + name + " records");
+		}
+
+		if (error != null) {
+			throw new IOException("Writing " + name + " records failed", error);
+		}
+	}
+}
@@ -0,0 +1,254 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.tectonica.jonix.common.codelist.NotificationOrUpdateTypes;
+
+/**
+ * Streaming jsonlines sink for the full record, update record, and deletion
+ * record files. The three files stay open for the whole run and each record is
+ * written out as soon as it has been processed, so memory use does not grow
+ * with the number of records in the input. Writes are safe to call from
+ * several worker threads, including virtual threads: each file is guarded by
+ * its own lock rather than a monitor, so a virtual thread blocked on a write
+ * does not pin its carrier thread. See https://jsonlines.org/ for the spec.
+ *
+ * With a shard record or byte limit set, each output is instead written as a
+ * series of shards (full-00000.jsonl, full-00001.jsonl, ...) and a manifest
+ * listing the shards of every output is written when the sink is closed.
+ *
+ * With a write buffer size set, each output is written by a thread of its own
+ * (see {@link JsonlWriter}). With a write queue size set, the per-file locks
+ * are replaced by a lock-free queue per file that workers publish records to
+ * and a single thread drains (see {@link RecordRing}). On close a line per
+ * output is printed with the records, write calls and syncs made.
+ */
+class RecordSink implements Closeable {
+	private final String output_dir;
+	private final JsonlWriter full_out;
+	private final JsonlWriter update_out;
+	private final JsonlWriter delete_out;
+	private final ReentrantLock full_lock = new ReentrantLock();
+	private final ReentrantLock update_lock = new ReentrantLock();
+	private final ReentrantLock delete_lock = new ReentrantLock();
+	private final RecordRing full_ring;
+	private final RecordRing update_ring;
+	private final RecordRing delete_ring;
+
+	/**
+	 * Opens the full/update/delete record files in the output directory, with
+	 * the shard limits, write buffer, durability and write queue of the parser
+	 * options.
+	 *
+	 * @param output_dir Output directory to write the files to.
+	 * @param options    Parser options.
+	 * @throws IOException if any of the files cannot be opened.
+	 */
+	RecordSink(String output_dir, ParserOptions options) throws IOException {
+		this(output_dir, options.shardRecords(), options.shardSize(), options.writeBuffer(), options.durability(),
+				options.syncSize(), options.writeQueue());
+	}
+
+	/**
+	 * Opens the full/update/delete record files in the output directory.
+	 *
+	 * @param output_dir   Output directory to write the files to.
+	 * @param max_records  Records per shard, or 0 for no limit.
+	 * @param max_bytes    Bytes per shard, or 0 for no limit.
+	 * @param write_buffer Size of the blocks handed to each output's writer
+	 *                     thread, or 0 to write on the calling threads.
+	 * @param durability   When the files are forced to storage.
+	 * @param sync_size    Bytes written to a file between syncs, with
+	 *                     durability EVERY.
+	 * @param write_queue  Slots in the queue in front of each file, or 0 to
+	 *                     write under a lock per file.
+	 * @throws IOException if any of the files cannot be opened.
+	 */
+	RecordSink(String output_dir, long max_records, long max_bytes, int write_buffer,
+			ParserOptions.Durability durability, long sync_size, int write_queue) throws IOException {
+		this.output_dir = output_dir;
+		full_out = new JsonlWriter(output_dir, "full", OnixParser.FULL_RECORD_FILE, max_records, max_bytes,
+				write_buffer, durability, sync_size);
+		update_out = new JsonlWriter(output_dir, "update", OnixParser.UPDATE_RECORD_FILE, max_records, max_bytes,
+				write_buffer, durability, sync_size);
+		delete_out = new JsonlWriter(output_dir, "delete", OnixParser.DELETE_RECORD_FILE, max_records, max_bytes,
+				write_buffer, durability, sync_size);
+
+		if (write_queue > 0) {
+			full_ring = new RecordRing(full_out, "full", write_queue);
+			update_ring = new RecordRing(update_out, "update", write_queue);
+			delete_ring = new RecordRing(delete_out, "delete", write_queue);
+		} else {
+			full_ring = null;
+			update_ring = null;
+			delete_ring = null;
+		}
+	}
+
+	/**
+	 * Write a serialised record to the file matching its notification type.
+	 * Records with other notification types are dropped.
+	 *
+	 * @param notification_code ONIX notification type code of the record.
+	 * @param line              Buffer holding the UTF-8 JSON text of the record,
+	 *                          without line terminator.
+	 * @param off               Offset of the record in the buffer.
+	 * @param len               Length of the record in bytes.
+	 * @throws IOException on write failure.
+	 */
+	void write(String notification_code, byte[] line, int off, int len) throws IOException {
+		JsonlWriter out = writerFor(notification_code);
+
+		if (out == null) {
+			return;
+		}
+
+		if (full_ring != null) {
+			RecordRing ring = out == full_out ? full_ring : out == update_out ? update_ring : delete_ring;
+			ring.publish(line, off, len);
+		} else {
+			ReentrantLock lock = out == full_out ? full_lock : out == update_out ? update_lock : delete_lock;
+
+			lock.lock();
+			try {
+				out.write(line, off, len);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Find the output file for a notification type.
+	 *
+	 * @param notification_code ONIX notification type code.
+	 * @return Writer for the matching file, or null if the type is not written out.
+	 */
+	private JsonlWriter writerFor(String notification_code) {
+		if (fullRecord(notification_code)) {
+			return full_out;
+		} else if (NotificationOrUpdateTypes.Update_partial.getCode() == notification_code) {
+			return update_out;
+		} else if (NotificationOrUpdateTypes.Delete.getCode() == notification_code) {
+			return delete_out;
+		}
+
+		return null;
+	}
+
+	/**
+	 * @param notification_code ONIX notification type code.
+	 * @return Whether records of the type are written to the full record file.
+	 */
+	static boolean fullRecord(String notification_code) {
+		return NotificationOrUpdateTypes.Notification_confirmed_on_publication.getCode() == notification_code
+				|| NotificationOrUpdateTypes.Advance_notification_confirmed.getCode() == notification_code
+				|| NotificationOrUpdateTypes.Early_notification.getCode() == notification_code;
+	}
+
+	/**
+	 * Write the shard manifest: for each output, the shard files in order with
+	 * their record and byte counts.
+	 */
+	private void writeManifest() throws IOException {
+		JSONObject manifest = new JSONObject();
+		String[] names = { "full", "update", "delete" };
+		JsonlWriter[] writers = { full_out, update_out, delete_out };
+
+		for (int i = 0; i < names.length; i++) {
+			JSONArray shards = new JSONArray();
+			for (JsonlWriter.Shard shard : writers[i].shards()) {
+				shards.put(shard.toJson());
+			}
+			manifest.put(names[i], shards);
+		}
+
+		try (Writer out = new FileWriter(output_dir + "/" + OnixParser.MANIFEST_FILE)) {
+			manifest.write(out, 2, 0);
+			out.write("\n");
+		}
+	}
+
+	/**
+	 * Drain the queues if any, flush and close all three files, then write the
+	 * manifest if sharding.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (full_ring != null) {
+				closeRings();
+			}
+		} finally {
+			closeWriters();
+		}
+
+		if (full_out.sharded()) {
+			writeManifest();
+		}
+
+		if (full_ring != null) {
+			for (RecordRing ring : new RecordRing[] { full_ring, update_ring, delete_ring }) {
+				System.out.println(ring.report());
+			}
+		}
+
+		for (JsonlWriter out : new JsonlWriter[] { full_out, update_out, delete_out }) {
+			System.out.println(out.report());
+		}
+	}
+
+	/**
+	 * Wait for every queued record to be handed to its file.
+	 */
+	private void closeRings() throws IOException {
+		try {
+			full_ring.close();
+		} finally {
+			try {
+				update_ring.close();
+			} finally {
+				delete_ring.close();
+			}
+		}
+	}
+
+	/**
+	 * Flush and close all three files.
+	 */
+	private void closeWriters() throws IOException {
+		try {
+			full_out.close();
+		} finally {
+			try {
+				update_out.close();
+			} finally {
+				delete_out.close();
+			}
+		}
+	}
+}
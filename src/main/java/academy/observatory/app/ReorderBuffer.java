@@ -0,0 +1,201 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Puts records produced out of order by concurrent workers back into the order
+ * of a sequential run before they reach the sink. Each record is keyed by the
+ * index of its input source (file order, then chunk order) and its sequence
+ * number within that source.
+ *
+ * Records of the source currently being written (the head source) pass straight
+ * through. Records of later sources are held back until the head source has
+ * finished. To bound memory, workers of later sources wait in
+ * {@link #admit(int)} while the buffer is full. The head source is never held
+ * back, so as long as sources are started in index order the run always makes
+ * progress. A source that fails never finishes, so it must {@link #abort} the
+ * buffer instead, which fails the workers waiting behind it.
+ */
+class ReorderBuffer {
+	private final RecordSink sink;
+	private final int capacity;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition drained = lock.newCondition();
+
+	/**
+	 * A record held back until the records before it are written.
+	 */
+	private static final class Held {
+		final String notification_code;
+		final byte[] line;
+
+		Held(String notification_code, byte[] line) {
+			this.notification_code = notification_code;
+			this.line = line;
+		}
+	}
+
+	private final Map<Long, Held> pending = new HashMap<Long, Held>();
+	private final Map<Integer, Integer> counts = new HashMap<Integer, Integer>();
+	private int head_source = 0;
+	private int head_seq = 0;
+	private Throwable failure = null;
+
+	/**
+	 * @param sink     Sink to write the ordered records to.
+	 * @param capacity Number of held back records at which workers of later
+	 *                 sources are made to wait.
+	 */
+	ReorderBuffer(RecordSink sink, int capacity) {
+		this.sink = sink;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Wait until there is room for another record of the given source. Call
+	 * before producing each record.
+	 *
+	 * @param source Source index.
+	 * @throws InterruptedException if interrupted while waiting.
+	 * @throws IOException          if the buffer was aborted.
+	 */
+	void admit(int source) throws InterruptedException, IOException {
+		lock.lock();
+		try {
+			while (failure == null && source != head_source && pending.size() >= capacity) {
+				drained.await();
+			}
+
+			if (failure != null) {
+				throw new IOException("Stopped after an earlier source failed", failure);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Write a record, or hold it back until the records before it are written.
+	 * The record is only copied if it is held back, so the caller may reuse the
+	 * buffer once this returns.
+	 *
+	 * @param source            Source index.
+	 * @param seq               Sequence number of the record within its source.
+	 * @param notification_code ONIX notification type code of the record.
+	 * @param line              Buffer holding the UTF-8 JSON text of the record.
+	 * @param off               Offset of the record in the buffer.
+	 * @param len               Length of the record in bytes.
+	 * @throws IOException on write failure.
+	 */
+	void write(int source, int seq, String notification_code, byte[] line, int off, int len) throws IOException {
+		lock.lock();
+		try {
+			if (source == head_source && seq == head_seq) {
+				sink.write(notification_code, line, off, len);
+				head_seq++;
+				drain();
+			} else {
+				pending.put(key(source, seq), new Held(notification_code, Arrays.copyOfRange(line, off, off + len)));
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Record that a source has produced all of its records.
+	 *
+	 * @param source Source index.
+	 * @param count  Number of records the source produced.
+	 * @throws IOException on write failure.
+	 */
+	void finish(int source, int count) throws IOException {
+		lock.lock();
+		try {
+			counts.put(source, count);
+			drain();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Record that a source failed and will never finish. The records after it
+	 * can no longer be written in order, so held back records are dropped and
+	 * workers waiting in {@link #admit(int)} are woken to fail.
+	 *
+	 * @param cause Failure of the source.
+	 */
+	void abort(Throwable cause) {
+		lock.lock();
+		try {
+			if (failure == null) {
+				failure = cause;
+			}
+			pending.clear();
+			drained.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Write out held back records that are next in order, moving on to the next
+	 * source whenever the head source is complete.
+	 */
+	private void drain() throws IOException {
+		boolean progressed = false;
+
+		while (true) {
+			Integer count = counts.get(head_source);
+
+			if (count != null && head_seq == count) {
+				counts.remove(head_source);
+				head_source++;
+				head_seq = 0;
+				progressed = true;
+				continue;
+			}
+
+			Held record = pending.remove(key(head_source, head_seq));
+			if (record == null) {
+				break;
+			}
+
+			sink.write(record.notification_code, record.line, 0, record.line.length);
+			head_seq++;
+			progressed = true;
+		}
+
+		if (progressed) {
+			drained.signalAll();
+		}
+	}
+
+	private static long key(int source, int seq) {
+		return ((long) source << 32) | (seq & 0xffffffffL);
+	}
+}
@@ -0,0 +1,885 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import com.fasterxml.aalto.AsyncByteBufferFeeder;
+import com.fasterxml.aalto.AsyncXMLInputFactory;
+import com.fasterxml.aalto.AsyncXMLStreamReader;
+import com.fasterxml.aalto.stax.InputFactoryImpl;
+import com.tectonica.jonix.common.codelist.NotificationOrUpdateTypes;
+
+/**
+ * Parses ONIX 3 messages with a StAX reader, without the Jonix object model.
+ * Each product is read into a light tree that holds only the elements the
+ * mapping reads; every other element is skipped as it is read. Output keys are
+ * not in document order, so a product still has to be read whole before it is
+ * mapped, but the tree is a fraction of a Jonix DOM and model.
+ *
+ * Values are read the way Jonix reads them: the trimmed text of the element's
+ * own text nodes, empty attributes as missing, and the XHTML serialisation of
+ * the content for Text, TitleStatement, BiographicalNote and
+ * WebsiteDescription. Messages are accepted and rejected as Jonix does with
+ * failOnInvalidFile off, so with the same mapping both engines write the same
+ * records.
+ */
+class StaxEngine implements ParseEngine<StaxEngine.Node> {
+	private static final String ONIX3_PACKAGE = "com.tectonica.jonix.onix3.";
+	private static final byte[] UTF8_BOM = { (byte) 0xef, (byte) 0xbb, (byte) 0xbf };
+
+	private static final ObjectPool<XhtmlSerializer> XHTML_SERIALIZERS = new ObjectPool<XhtmlSerializer>(
+			XhtmlSerializer::new);
+
+	private final ObjectPool<XMLInputFactory> input_factories;
+	private final Map<String, String> names = new HashMap<String, String>();
+	private final Set<String> xhtml;
+	private final ProductWriter<Node> writer;
+
+	/**
+	 * @param mapper   Writes a product tree as one JSON object.
+	 * @param elements Reference names of the elements the mapper reads.
+	 * @param xhtml    Reference names of the elements whose value is XHTML.
+	 * @param json     JSON serialisation.
+	 * @param stax     StAX implementation.
+	 * @throws IllegalArgumentException if a name is not an ONIX 3 element.
+	 */
+	StaxEngine(BiConsumer<Node, JsonOutput> mapper, Collection<String> elements, Collection<String> xhtml,
+			ParserOptions.Json json, ParserOptions.Stax stax) {
+		this.input_factories = new ObjectPool<XMLInputFactory>(() -> StaxProviders.create(stax));
+
+		for (String element : elements) {
+			names.put(tagName(element, "refname"), element);
+			names.put(tagName(element, "shortname"), element);
+		}
+
+		this.xhtml = new HashSet<String>(xhtml);
+		this.writer = new ProductWriter<Node>(mapper, json);
+	}
+
+	/**
+	 * Create the engine for the hand-written mapping.
+	 *
+	 * @param fields Field projection.
+	 * @param json   JSON serialisation.
+	 * @param stax   StAX implementation.
+	 */
+	StaxEngine(FieldProjection fields, ParserOptions.Json json, ParserOptions.Stax stax) {
+		this(StaxMapper.create(fields), StaxMapper.ELEMENTS, StaxMapper.XHTML, json, stax);
+	}
+
+	private static String tagName(String element, String field) {
+		try {
+			return (String) Class.forName(ONIX3_PACKAGE + element).getField(field).get(null);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("Unknown ONIX element: " + element);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Like Jonix, products are read one ahead. A message that cannot be read up
+	 * to the end of its first product is skipped; an error after that fails the
+	 * run, and the product read before it is not passed on.
+	 */
+	@Override
+	public void parse(InputStream in, ProductConsumer<? super Node> consumer) throws Exception {
+		String source = in.toString();
+		XMLStreamReader reader = null;
+
+		try {
+			Node next;
+
+			try {
+				XMLInputFactory factory = input_factories.borrow();
+				try {
+					reader = factory.createXMLStreamReader(in, "UTF-8");
+				} finally {
+					input_factories.release(factory);
+				}
+
+				if (!startMessage(reader, source)) {
+					System.out.println("Processed records: 0");
+					return;
+				}
+
+				next = nextProduct(reader, true);
+			} catch (XMLStreamException e) {
+				System.out.println("Processed records: 0");
+				return;
+			}
+
+			int products = 0;
+
+			while (next != null) {
+				Node product = next;
+				next = nextProduct(reader, false);
+				products++;
+				consumer.accept(product);
+			}
+
+			System.out.println("Processed records: " + products);
+		} finally {
+			if (reader != null) {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * Read the next product. The first child of the root element may be the
+	 * header; everything else is taken as a product, whatever its name.
+	 *
+	 * @param first Whether this is the first child of the root element.
+	 * @return The product, or null at the end of the message.
+	 */
+	private Node nextProduct(XMLStreamReader reader, boolean first) throws XMLStreamException {
+		if (!nextElement(reader)) {
+			return null;
+		}
+
+		if (first && qualifiedName(reader).equalsIgnoreCase("Header")) {
+			skipElement(reader);
+			return nextProduct(reader, false);
+		}
+
+		return readElement(reader, "Product");
+	}
+
+	/**
+	 * Read up to the root element and check that the message is ONIX 3.
+	 *
+	 * @return Whether the products of the message should be read.
+	 */
+	private static boolean startMessage(XMLStreamReader reader, String source) throws XMLStreamException {
+		return nextElement(reader) && acceptMessage(reader, source);
+	}
+
+	/**
+	 * Check that the root element the reader is on is an ONIX 3 message.
+	 *
+	 * @return Whether the products of the message should be read.
+	 */
+	private static boolean acceptMessage(XMLStreamReader reader, String source) {
+		if (!reader.getLocalName().equalsIgnoreCase("ONIXMessage")) {
+			return false;
+		}
+
+		String release = reader.getAttributeValue(null, "release");
+
+		if (release == null || release.startsWith("2")) {
+			// We're only going to process ONIX3.
+			System.out.println("Processing ONIX2 file: " + source);
+			return false;
+		}
+
+		if (!release.startsWith("3")) {
+			return false;
+		}
+
+		System.out.println("Processing ONIX3 file: " + source);
+		return true;
+	}
+
+	/**
+	 * Move to the next start element at the current level.
+	 *
+	 * @return True if positioned on a start element, false if the end of the
+	 *         parent element or of the document was reached.
+	 */
+	private static boolean nextElement(XMLStreamReader reader) throws XMLStreamException {
+		while (reader.hasNext()) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				return true;
+			case XMLStreamConstants.END_ELEMENT:
+			case XMLStreamConstants.END_DOCUMENT:
+				return false;
+			default:
+				break;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Skip the element the reader is on, up to and including its end tag.
+	 */
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+
+		while (depth > 0) {
+			int event = reader.next();
+
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	private static String qualifiedName(XMLStreamReader reader) {
+		String prefix = reader.getPrefix();
+		return prefix == null || prefix.isEmpty() ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+	}
+
+	/**
+	 * Read the element the reader is on into a tree of the elements the mapping
+	 * reads. Text and CDATA are text; comments, processing instructions and
+	 * unresolved entity references are dropped, as in the Jonix DOM. Only
+	 * comments are dropped from XHTML content.
+	 *
+	 * @param name Reference name of the element.
+	 * @return The element.
+	 */
+	private Node readElement(XMLStreamReader reader, String name) throws XMLStreamException {
+		String[] attributes = attributes(reader);
+
+		if (xhtml.contains(name)) {
+			XhtmlSerializer serializer = XHTML_SERIALIZERS.borrow();
+			try {
+				return new Node(name, attributes, serializer.serialize(reader), Collections.emptyList());
+			} finally {
+				XHTML_SERIALIZERS.release(serializer);
+			}
+		}
+
+		StringBuilder text = new StringBuilder();
+		List<Node> children = null;
+
+		while (true) {
+			switch (reader.next()) {
+			case XMLStreamConstants.START_ELEMENT:
+				String child = names.get(qualifiedName(reader));
+
+				if (child == null) {
+					skipElement(reader);
+				} else {
+					if (children == null) {
+						children = new ArrayList<Node>();
+					}
+
+					children.add(readElement(reader, child));
+				}
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				return new Node(name, attributes, text.toString().trim(),
+						children == null ? Collections.emptyList() : children);
+			default:
+				break;
+			}
+		}
+	}
+
+	private static String[] attributes(XMLStreamReader reader) {
+		int count = reader.getAttributeCount();
+
+		if (count == 0) {
+			return null;
+		}
+
+		String[] attributes = new String[count * 2];
+
+		for (int i = 0; i < count; i++) {
+			String prefix = reader.getAttributePrefix(i);
+			String local = reader.getAttributeLocalName(i);
+			attributes[i * 2] = prefix == null || prefix.isEmpty() ? local : prefix + ":" + local;
+			attributes[i * 2 + 1] = reader.getAttributeValue(i);
+		}
+
+		return attributes;
+	}
+
+	/**
+	 * Create a push parser for one ONIX message that arrives in chunks.
+	 *
+	 * @param source   Name of the message in log messages.
+	 * @param consumer Receives each product as soon as its end tag is read.
+	 * @return Push parser.
+	 */
+	PushParser pushParser(String source, ProductConsumer<? super Node> consumer) {
+		return new PushParser(source, consumer);
+	}
+
+	/**
+	 * Parses a message from byte chunks with Aalto's non-blocking reader, so it
+	 * can be fed from a channel as data arrives. The chunks are tokenised as they
+	 * are fed, and each product is passed on when its end tag is read, with no
+	 * read ahead. Products are read into the same trees as {@link #parse}, event
+	 * by event instead of element by element. The message must be UTF-8, and
+	 * feeding never blocks.
+	 *
+	 * Entity references are resolved from {@link OnixEntities}, as the factories
+	 * of {@link StaxProviders} do. Messages that are not ONIX 3 are skipped as by
+	 * {@link #parse}. Products
+	 * already passed on cannot be taken back, so a message that is not well
+	 * formed fails at the error, after the products before it.
+	 */
+	final class PushParser {
+		private final String source;
+		private final ProductConsumer<? super Node> consumer;
+		private final AsyncXMLStreamReader<AsyncByteBufferFeeder> reader;
+
+		/** Open elements of the product being read, the product first. */
+		private final ArrayDeque<Frame> frames = new ArrayDeque<Frame>();
+		private int depth = 0;
+		private int skip_depth = 0;
+		private boolean first = true;
+		private int products = 0;
+		private int bom_read = 0;
+
+		/** XHTML element being copied, or null. */
+		private Frame xhtml_frame = null;
+		private org.w3c.dom.Document xhtml_document;
+		private org.w3c.dom.Element xhtml_element;
+
+		PushParser(String source, ProductConsumer<? super Node> consumer) {
+			AsyncXMLInputFactory factory = new InputFactoryImpl();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+			factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.FALSE);
+
+			this.source = source;
+			this.consumer = consumer;
+			this.reader = factory.createAsyncForByteBuffer();
+		}
+
+		/**
+		 * Parse a chunk of the message. The chunk is read in full before this
+		 * returns, so its buffer can be reused.
+		 *
+		 * @param chunk Next bytes of the message, from position to limit.
+		 * @throws XMLStreamException if the message is not well formed.
+		 * @throws Exception          if the consumer fails.
+		 */
+		void feed(ByteBuffer chunk) throws Exception {
+			// Aalto's non-blocking reader does not accept a byte order mark.
+			while (bom_read < UTF8_BOM.length && chunk.hasRemaining()) {
+				if (chunk.get(chunk.position()) != UTF8_BOM[bom_read]) {
+					feedHead();
+					break;
+				}
+
+				chunk.get();
+				bom_read++;
+			}
+
+			if (chunk.hasRemaining()) {
+				reader.getInputFeeder().feedInput(chunk);
+				drain();
+			}
+		}
+
+		/**
+		 * Feed the start of a byte order mark that turned out not to be one.
+		 */
+		private void feedHead() throws Exception {
+			int head = bom_read;
+			bom_read = UTF8_BOM.length;
+
+			if (head > 0) {
+				reader.getInputFeeder().feedInput(ByteBuffer.wrap(UTF8_BOM, 0, head));
+				drain();
+			}
+		}
+
+		/**
+		 * Parse the rest of the message after its last chunk.
+		 *
+		 * @return Number of products read.
+		 * @throws XMLStreamException if the message ends early.
+		 * @throws Exception          if the consumer fails.
+		 */
+		int end() throws Exception {
+			try {
+				if (bom_read < UTF8_BOM.length) {
+					feedHead();
+				}
+
+				reader.getInputFeeder().endOfInput();
+				drain();
+
+				if (depth > 0) {
+					throw new XMLStreamException("Message ended inside an element", reader.getLocation());
+				}
+			} finally {
+				reader.close();
+			}
+
+			System.out.println("Processed records: " + products);
+			return products;
+		}
+
+		private void drain() throws Exception {
+			while (true) {
+				int event = reader.next();
+
+				if (event == AsyncXMLStreamReader.EVENT_INCOMPLETE || event == XMLStreamConstants.END_DOCUMENT) {
+					return;
+				}
+
+				if (skip_depth > 0) {
+					if (event == XMLStreamConstants.START_ELEMENT) {
+						skip_depth++;
+					} else if (event == XMLStreamConstants.END_ELEMENT) {
+						skip_depth--;
+					}
+				} else if (xhtml_frame != null) {
+					copyXhtml(event);
+				} else {
+					switch (event) {
+					case XMLStreamConstants.START_ELEMENT:
+						startElement();
+						break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.CDATA:
+					case XMLStreamConstants.SPACE:
+						if (!frames.isEmpty()) {
+							frames.peek().text.append(reader.getTextCharacters(), reader.getTextStart(),
+									reader.getTextLength());
+						}
+						break;
+					case XMLStreamConstants.ENTITY_REFERENCE:
+						String entity = OnixEntities.resolve(reader.getLocalName());
+
+						if (entity != null && !frames.isEmpty()) {
+							frames.peek().text.append(entity);
+						}
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						endElement();
+						break;
+					default:
+						break;
+					}
+				}
+
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
+				}
+			}
+		}
+
+		/**
+		 * Start an element outside skipped and XHTML content. The depth is that of
+		 * its parent.
+		 */
+		private void startElement() {
+			if (depth == 0) {
+				if (!acceptMessage(reader, source)) {
+					skip_depth = 1;
+				}
+			} else if (depth == 1) {
+				if (first && qualifiedName(reader).equalsIgnoreCase("Header")) {
+					skip_depth = 1;
+				} else {
+					frames.push(new Frame("Product", attributes(reader)));
+				}
+
+				first = false;
+			} else {
+				String child = names.get(qualifiedName(reader));
+
+				if (child == null) {
+					skip_depth = 1;
+				} else if (xhtml.contains(child)) {
+					xhtml_frame = new Frame(child, attributes(reader));
+					XhtmlSerializer serializer = XHTML_SERIALIZERS.borrow();
+					try {
+						xhtml_document = serializer.newDocument();
+					} finally {
+						XHTML_SERIALIZERS.release(serializer);
+					}
+					xhtml_element = XhtmlSerializer.element(reader, xhtml_document);
+				} else {
+					frames.push(new Frame(child, attributes(reader)));
+				}
+			}
+		}
+
+		private void endElement() throws Exception {
+			if (frames.isEmpty()) {
+				return;
+			}
+
+			Node node = frames.pop().node(null);
+
+			if (frames.isEmpty()) {
+				products++;
+				consumer.accept(node);
+			} else {
+				frames.peek().add(node);
+			}
+		}
+
+		/**
+		 * Copy an event inside XHTML content into its DOM, serialising it when the
+		 * element ends.
+		 */
+		private void copyXhtml(int event) {
+			switch (event) {
+			case XMLStreamConstants.START_ELEMENT:
+				xhtml_element = (org.w3c.dom.Element) xhtml_element
+						.appendChild(XhtmlSerializer.element(reader, xhtml_document));
+				break;
+			case XMLStreamConstants.CHARACTERS:
+			case XMLStreamConstants.CDATA:
+			case XMLStreamConstants.SPACE:
+				xhtml_element.appendChild(xhtml_document.createTextNode(reader.getText()));
+				break;
+			case XMLStreamConstants.ENTITY_REFERENCE:
+				String entity = OnixEntities.resolve(reader.getLocalName());
+
+				if (entity != null) {
+					xhtml_element.appendChild(xhtml_document.createTextNode(entity));
+				}
+				break;
+			case XMLStreamConstants.PROCESSING_INSTRUCTION:
+				xhtml_element.appendChild(
+						xhtml_document.createProcessingInstruction(reader.getPITarget(), reader.getPIData()));
+				break;
+			case XMLStreamConstants.END_ELEMENT:
+				if (xhtml_element.getParentNode() instanceof org.w3c.dom.Element) {
+					xhtml_element = (org.w3c.dom.Element) xhtml_element.getParentNode();
+				} else {
+					XhtmlSerializer serializer = XHTML_SERIALIZERS.borrow();
+					try {
+						frames.peek().add(xhtml_frame.node(serializer.serialize(xhtml_element)));
+					} finally {
+						XHTML_SERIALIZERS.release(serializer);
+					}
+					xhtml_frame = null;
+				}
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	/**
+	 * An element being read by a {@link PushParser}.
+	 */
+	private static final class Frame {
+		final String name;
+		final String[] attributes;
+		final StringBuilder text = new StringBuilder();
+		List<Node> children = null;
+
+		Frame(String name, String[] attributes) {
+			this.name = name;
+			this.attributes = attributes;
+		}
+
+		void add(Node child) {
+			if (children == null) {
+				children = new ArrayList<Node>();
+			}
+
+			children.add(child);
+		}
+
+		/**
+		 * @param value Value of the element, or null to use its trimmed text.
+		 * @return The finished element.
+		 */
+		Node node(String value) {
+			return new Node(name, attributes, value == null ? text.toString().trim() : value,
+					children == null ? Collections.emptyList() : children);
+		}
+	}
+
+	@Override
+	public String notificationCode(Node product) {
+		return product.child("NotificationType").code(NotificationOrUpdateTypes::byCode).code;
+	}
+
+	@Override
+	public ProductWriter<Node> writer() {
+		return writer;
+	}
+
+	/**
+	 * An element of a product tree. Missing children are returned as
+	 * {@link #MISSING}, so lookups can be chained the way Jonix getters are.
+	 */
+	static final class Node {
+		/**
+		 * Stands in for an element that is not in the message.
+		 */
+		static final Node MISSING = new Node(null, null, null, Collections.emptyList());
+
+		final String name;
+		private final String[] attributes;
+		private final String value;
+		private final List<Node> children;
+
+		Node(String name, String[] attributes, String value, List<Node> children) {
+			this.name = name;
+			this.attributes = attributes;
+			this.value = value;
+			this.children = children;
+		}
+
+		/**
+		 * @return Whether the element is in the message.
+		 */
+		boolean exists() {
+			return this != MISSING;
+		}
+
+		/**
+		 * @param name Reference name of the child.
+		 * @return The last child of that name, as Jonix keeps the last of a repeated
+		 *         single element, or {@link #MISSING}.
+		 */
+		Node child(String name) {
+			for (int i = children.size() - 1; i >= 0; i--) {
+				Node child = children.get(i);
+
+				if (child.name.equals(name)) {
+					return child;
+				}
+			}
+
+			return MISSING;
+		}
+
+		/**
+		 * @param name Reference name of the children.
+		 * @return The children of that name, in document order.
+		 */
+		List<Node> children(String name) {
+			List<Node> found = new ArrayList<Node>();
+
+			for (Node child : children) {
+				if (child.name.equals(name)) {
+					found.add(child);
+				}
+			}
+
+			return found;
+		}
+
+		/**
+		 * @return Text of the element, or null if it is missing.
+		 */
+		String value() {
+			return value;
+		}
+
+		/**
+		 * @param byCode Codelist lookup.
+		 * @return Codelist entry of the element's text, or null if the element is
+		 *         missing or the code is unknown.
+		 */
+		<E> E code(Function<String, E> byCode) {
+			return value == null ? null : byCode.apply(value);
+		}
+
+		/**
+		 * @return Integer value of the element, or null if it is missing or empty.
+		 * @throws NumberFormatException if the text is not an integer.
+		 */
+		Integer integer() {
+			return value == null || value.isEmpty() ? null : Integer.valueOf(value);
+		}
+
+		/**
+		 * @return Decimal value of the element, or null if it is missing or empty.
+		 * @throws NumberFormatException if the text is not a number.
+		 */
+		Double decimal() {
+			return value == null || value.isEmpty() ? null : Double.valueOf(value);
+		}
+
+		/**
+		 * @param name Attribute name.
+		 * @return Attribute value, or null if it is missing or empty.
+		 */
+		String attribute(String name) {
+			if (attributes != null) {
+				for (int i = 0; i < attributes.length; i += 2) {
+					if (attributes[i].equals(name)) {
+						return attributes[i + 1].isEmpty() ? null : attributes[i + 1];
+					}
+				}
+			}
+
+			return null;
+		}
+
+		/**
+		 * @param name   Attribute name.
+		 * @param byCode Codelist lookup.
+		 * @return Codelist entry of the attribute, or null if it is missing or the
+		 *         code is unknown.
+		 */
+		<E> E attribute(String name, Function<String, E> byCode) {
+			return byCode.apply(attribute(name));
+		}
+	}
+
+	/**
+	 * Serialises XHTML content the way Jonix does: the element is copied into a
+	 * DOM and written out by the JDK transformer, and the text between the end of
+	 * the start tag and the start of the end tag is kept. An empty element is kept
+	 * whole. Not thread safe, so each use borrows an instance from
+	 * {@link #XHTML_SERIALIZERS}.
+	 */
+	private static final class XhtmlSerializer {
+		private final DocumentBuilder builder;
+		private final Transformer transformer;
+
+		XhtmlSerializer() {
+			try {
+				DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+				factory.setNamespaceAware(true);
+				builder = factory.newDocumentBuilder();
+				transformer = TransformerFactory.newInstance().newTransformer();
+				transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
+			} catch (ParserConfigurationException | TransformerException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/**
+		 * @return New empty document to copy XHTML content into.
+		 */
+		org.w3c.dom.Document newDocument() {
+			return builder.newDocument();
+		}
+
+		/**
+		 * Read the element the reader is on and serialise it.
+		 *
+		 * @return Serialised content.
+		 */
+		String serialize(XMLStreamReader reader) throws XMLStreamException {
+			org.w3c.dom.Document document = builder.newDocument();
+			org.w3c.dom.Element root = element(reader, document);
+			org.w3c.dom.Element current = root;
+
+			while (current != null) {
+				switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					current = (org.w3c.dom.Element) current.appendChild(element(reader, document));
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					current.appendChild(document.createTextNode(reader.getText()));
+					break;
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+					current.appendChild(document.createProcessingInstruction(reader.getPITarget(), reader.getPIData()));
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					current = current == root ? null : (org.w3c.dom.Element) current.getParentNode();
+					break;
+				default:
+					break;
+				}
+			}
+
+			return serialize(root);
+		}
+
+		/**
+		 * @param root Copy of the XHTML element.
+		 * @return Serialised content.
+		 */
+		String serialize(org.w3c.dom.Element root) {
+			StringWriter out = new StringWriter();
+
+			try {
+				transformer.transform(new DOMSource(root), new StreamResult(out));
+			} catch (TransformerException e) {
+				throw new RuntimeException(e);
+			}
+
+			String xml = out.toString();
+			int start = xml.indexOf('>') + 1;
+			int end = xml.lastIndexOf('<');
+			return end > start ? xml.substring(start, end) : xml;
+		}
+
+		private static org.w3c.dom.Element element(XMLStreamReader reader, org.w3c.dom.Document document) {
+			org.w3c.dom.Element element = document.createElementNS(emptyToNull(reader.getNamespaceURI()),
+					qualifiedName(reader));
+
+			for (int i = 0; i < reader.getNamespaceCount(); i++) {
+				String prefix = reader.getNamespacePrefix(i);
+				element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+						prefix == null || prefix.isEmpty() ? "xmlns" : "xmlns:" + prefix, reader.getNamespaceURI(i));
+			}
+
+			for (int i = 0; i < reader.getAttributeCount(); i++) {
+				QName name = reader.getAttributeName(i);
+				String prefix = name.getPrefix();
+				element.setAttributeNS(emptyToNull(name.getNamespaceURI()),
+						prefix.isEmpty() ? name.getLocalPart() : prefix + ":" + name.getLocalPart(),
+						reader.getAttributeValue(i));
+			}
+
+			return element;
+		}
+
+		private static String emptyToNull(String value) {
+			return value == null || value.isEmpty() ? null : value;
+		}
+	}
+}
@@ -0,0 +1,1025 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+import com.tectonica.jonix.common.codelist.*;
+
+import academy.observatory.app.StaxEngine.Node;
+
+/**
+ * The hand-written mapping of {@link OnixParser}, over the product trees of
+ * {@link StaxEngine}. Each process* method mirrors the one of the same name in
+ * OnixParser, with the same output keys and the same checks, so both engines
+ * write the same records. A change to one mapping must be made to the other;
+ * the differential test in AppTest compares them.
+ */
+class StaxMapper {
+	/**
+	 * Reference names of the elements the mapping reads. All other elements are
+	 * skipped by the parser.
+	 */
+	static final List<String> ELEMENTS = Collections.unmodifiableList(Arrays.asList("Affiliation",
+			"AlternativeName", "BiographicalNote", "CityOfPublication", "CollateralDetail", "Collection",
+			"CollectionIdentifier", "CollectionIDType", "CollectionType", "Contributor", "ContributorDate",
+			"ContributorDateRole", "ContributorPlace", "ContributorPlaceRelator", "ContributorRole", "CorporateName",
+			"CorporateNameInverted", "CountryCode", "CountryOfManufacture", "Date", "DateFormat",
+			"DescriptiveDetail", "EditionNumber", "EditionType", "EditionVersionNumber", "Extent", "ExtentType",
+			"ExtentUnit", "ExtentValue", "ExtentValueRoman", "Gender", "IDTypeName", "IDValue", "Imprint",
+			"ImprintIdentifier", "ImprintIDType", "ImprintName", "KeyNames", "Language", "LanguageCode",
+			"LanguageRole", "LettersAfterNames", "LocationName", "MainSubject", "NameIdentifier", "NameIDType",
+			"NamesAfterKey", "NamesBeforeKey", "NameType", "NoCollection", "NoContributor", "NotificationType",
+			"PartNumber", "PersonName", "PersonNameInverted", "PrefixToKey", "ProductForm", "ProductIdentifier",
+			"ProductIDType", "ProductRelationCode", "ProfessionalAffiliation", "ProfessionalPosition", "Publisher",
+			"PublisherName", "PublishingDate", "PublishingDateRole", "PublishingDetail", "PublishingRole",
+			"RecordReference", "RecordSourceName", "RecordSourceType", "RegionCode", "RelatedMaterial",
+			"RelatedProduct", "RelatedWork", "ScriptCode", "SequenceNumber", "Subject", "SubjectCode",
+			"SubjectHeadingText", "SubjectSchemeIdentifier", "SubjectSchemeName", "SubjectSchemeVersion",
+			"Subtitle", "SuffixToKey", "Text", "TextContent", "TextType", "TitleDetail", "TitleElement",
+			"TitleElementLevel", "TitlePrefix", "TitlesAfterNames", "TitlesBeforeNames", "TitleStatement",
+			"TitleText", "TitleType", "TitleWithoutPrefix", "UnnamedPersons", "Website", "WebsiteDescription",
+			"WebsiteLink", "WebsiteRole", "WorkIdentifier", "WorkIDType", "WorkRelationCode", "YearOfAnnual"));
+
+	/**
+	 * Reference names of the elements whose value Jonix reads as XHTML.
+	 */
+	static final List<String> XHTML = Collections
+			.unmodifiableList(Arrays.asList("BiographicalNote", "Text", "TitleStatement", "WebsiteDescription"));
+
+	/**
+	 * One top-level output field of the mapping.
+	 */
+	private static class Branch {
+		final String key;
+		final String section;
+		final BiConsumer<Node, JsonOutput> mapper;
+
+		/**
+		 * @param key     Output key.
+		 * @param section ONIX section the field is read from, or null.
+		 * @param mapper  Writes the field.
+		 */
+		Branch(String key, String section, BiConsumer<Node, JsonOutput> mapper) {
+			this.key = key;
+			this.section = section;
+			this.mapper = mapper;
+		}
+
+		/**
+		 * @return Output keys the branch can write.
+		 */
+		List<String> keys() {
+			return Collections.singletonList(key);
+		}
+
+		/**
+		 * @param fields Field projection.
+		 * @return Mapper for the selected part of the branch, or null if none of it
+		 *         is selected.
+		 */
+		BiConsumer<Node, JsonOutput> select(FieldProjection fields) {
+			return fields.includes(key, section) ? mapper : null;
+		}
+	}
+
+	/**
+	 * The mapping, in output order.
+	 */
+	private static final Branch[] BRANCHES = {
+			new Branch("RecordSourceName", null, (product, jsonline) -> {
+				if (product.child("RecordSourceName").exists())
+					jsonline.put("RecordSourceName", product.child("RecordSourceName").value());
+			}),
+			new Branch("RecordSourceType", null, (product, jsonline) -> {
+				if (product.child("RecordSourceType").exists())
+					jsonline.put("RecordSourceType",
+							product.child("RecordSourceType").code(RecordSourceTypes::byCode).description);
+			}),
+			new Branch("RecordRef", "RecordReference", (product, jsonline) -> {
+				if (product.child("RecordReference").exists())
+					jsonline.put("RecordRef", product.child("RecordReference").value());
+			}),
+			new Branch("RecordRef_src", "RecordReference", (product, jsonline) -> {
+				if (product.child("RecordReference").exists())
+					jsonline.put("RecordRef_src", product.child("RecordReference").attribute("sourcename"));
+			}),
+			new Branch("RecordRef_ts", "RecordReference", (product, jsonline) -> {
+				if (product.child("RecordReference").exists())
+					jsonline.put("RecordRef_ts", product.child("RecordReference").attribute("datestamp"));
+			}),
+			new Branch("RecordRef_src_type", "RecordReference", (product, jsonline) -> {
+				RecordSourceTypes type = product.child("RecordReference").attribute("sourcetype",
+						RecordSourceTypes::byCode);
+
+				if (product.child("RecordReference").exists() && type != null)
+					jsonline.put("RecordRef_src_type", type.description);
+			}),
+			new Branch(null, "ProductIdentifiers", null) {
+				@Override
+				List<String> keys() {
+					return OnixParser.PRODUCT_IDENTIFIERS.keys();
+				}
+
+				@Override
+				BiConsumer<Node, JsonOutput> select(FieldProjection fields) {
+					IdentifierTable<ProductIdentifierTypes> table = OnixParser.PRODUCT_IDENTIFIERS
+							.select(key -> fields.includes(key, section));
+
+					if (table.keys().isEmpty()) {
+						return null;
+					}
+
+					return (product, jsonline) -> table.write(product.children("ProductIdentifier"),
+							pid -> pid.child("ProductIDType").code(ProductIdentifierTypes::byCode),
+							pid -> pid.child("IDValue").value(), jsonline);
+				}
+			},
+			new Branch("TextContent", "CollateralDetail", (product, jsonline) -> {
+				if (product.child("CollateralDetail").exists())
+					processTextContent(product.child("CollateralDetail").children("TextContent"), jsonline);
+			}),
+			new Branch("EditionNumber", "DescriptiveDetail", (product, jsonline) -> jsonline.put("EditionNumber",
+					product.child("DescriptiveDetail").child("EditionNumber").integer())),
+			new Branch("EditionVersionNumber", "DescriptiveDetail", (product, jsonline) -> jsonline.put(
+					"EditionVersionNumber", product.child("DescriptiveDetail").child("EditionVersionNumber").value())),
+			new Branch("Contributors", "DescriptiveDetail", (product, jsonline) -> {
+				if (!product.child("DescriptiveDetail").child("NoContributor").exists())
+					processContributors(product.child("DescriptiveDetail").children("Contributor"), jsonline);
+			}),
+			new Branch("Subjects", "DescriptiveDetail", (product, jsonline) -> processSubjects(
+					product.child("DescriptiveDetail").children("Subject"), jsonline)),
+			new Branch("CountryOfManufacture", "DescriptiveDetail", (product, jsonline) -> {
+				if (product.child("DescriptiveDetail").child("CountryOfManufacture").exists())
+					jsonline.put("CountryOfManufacture", product.child("DescriptiveDetail")
+							.child("CountryOfManufacture").code(Countrys::byCode).code);
+			}),
+			new Branch("TitleDetails", "DescriptiveDetail", (product, jsonline) -> processTitleDetails(
+					product.child("DescriptiveDetail").children("TitleDetail"), jsonline)),
+			new Branch("Languages", "DescriptiveDetail", (product, jsonline) -> processLanguages(
+					product.child("DescriptiveDetail").children("Language"), jsonline)),
+			new Branch("EditionType", "DescriptiveDetail", (product, jsonline) -> processEditionTypes(
+					product.child("DescriptiveDetail").children("EditionType"), jsonline)),
+			new Branch("Extent", "DescriptiveDetail", (product, jsonline) -> processExtents(
+					product.child("DescriptiveDetail").children("Extent"), jsonline)),
+			new Branch("Collections", "DescriptiveDetail", (product, jsonline) -> {
+				if (!product.child("DescriptiveDetail").child("NoCollection").exists())
+					processCollections(product.child("DescriptiveDetail").children("Collection"), jsonline);
+			}),
+			new Branch("ProductForm", "DescriptiveDetail", (product, jsonline) -> processProductForm(
+					product.child("DescriptiveDetail").child("ProductForm"), jsonline)),
+			new Branch("RelatedProducts", "RelatedMaterial", (product, jsonline) -> processRelatedProducts(
+					product.child("RelatedMaterial").children("RelatedProduct"), jsonline)),
+			new Branch("RelatedWorks", "RelatedMaterial", (product, jsonline) -> processRelatedWorks(
+					product.child("RelatedMaterial").children("RelatedWork"), jsonline)),
+			new Branch("CityOfPublications", "PublishingDetail", (product, jsonline) -> {
+				if (product.child("PublishingDetail").exists())
+					processCityofPublications(product.child("PublishingDetail").children("CityOfPublication"),
+							jsonline);
+			}),
+			new Branch("Imprints", "PublishingDetail", (product, jsonline) -> {
+				if (product.child("PublishingDetail").exists())
+					processImprints(product.child("PublishingDetail").children("Imprint"), jsonline);
+			}),
+			new Branch("Publishers", "PublishingDetail", (product, jsonline) -> {
+				if (product.child("PublishingDetail").exists())
+					processPublishers(product.child("PublishingDetail").children("Publisher"), jsonline);
+			}),
+			new Branch("PublishingDates", "PublishingDetail", (product, jsonline) -> {
+				if (product.child("PublishingDetail").exists())
+					processPublishingDates(product.child("PublishingDetail").children("PublishingDate"), jsonline);
+			}),
+	};
+
+	/**
+	 * Create the mapper. Branches the field projection does not select are left
+	 * out.
+	 *
+	 * @param fields Field projection.
+	 * @return Product mapper.
+	 * @throws IllegalArgumentException if the projection names an unknown field.
+	 */
+	static BiConsumer<Node, JsonOutput> create(FieldProjection fields) {
+		Set<String> known = new HashSet<String>();
+		List<BiConsumer<Node, JsonOutput>> selected = new ArrayList<BiConsumer<Node, JsonOutput>>();
+
+		for (Branch branch : BRANCHES) {
+			known.addAll(branch.keys());
+
+			if (branch.section != null) {
+				known.add(branch.section);
+			}
+
+			BiConsumer<Node, JsonOutput> mapper = branch.select(fields);
+
+			if (mapper != null) {
+				selected.add(mapper);
+			}
+		}
+
+		fields.validate(known);
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		BiConsumer<Node, JsonOutput>[] branches = selected.toArray(new BiConsumer[0]);
+
+		return (product, jsonline) -> {
+			jsonline.startObject();
+
+			for (BiConsumer<Node, JsonOutput> branch : branches) {
+				branch.accept(product, jsonline);
+			}
+
+			jsonline.endObject();
+		};
+	}
+
+	private static void processRelatedProducts(List<Node> rel_prods, JsonOutput jsonline) {
+		jsonline.startArray("RelatedProducts");
+
+		for (Node rel_prod : rel_prods) {
+			jsonline.startObject();
+			processProductForm(rel_prod.child("ProductForm"), jsonline);
+			processProductIdentifiers(rel_prod.children("ProductIdentifier"), jsonline);
+			processProductRelationCodes(rel_prod.children("ProductRelationCode"), jsonline);
+			jsonline.endObject();
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processProductRelationCodes(List<Node> prod_relation_codes, JsonOutput jsonline) {
+		jsonline.startArray("ProductRelationCodes");
+
+		for (Node code : prod_relation_codes) {
+			jsonline.add(code.code(ProductRelations::byCode).description);
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processRelatedWorks(List<Node> rel_works, JsonOutput jsonline) {
+		jsonline.startArray("RelatedWorks");
+
+		for (Node rel_work : rel_works) {
+			jsonline.startObject();
+
+			WorkRelations relation = rel_work.child("WorkRelationCode").code(WorkRelations::byCode);
+
+			if (relation != null) {
+				jsonline.put("WorkRelationCode", relation.description);
+			}
+
+			processWorkIdentifiers(rel_work.children("WorkIdentifier"), jsonline);
+
+			jsonline.endObject();
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processWorkIdentifiers(List<Node> work_ids, JsonOutput jsonline) {
+		jsonline.startArray("WorkIdentifiers");
+
+		for (Node work_id : work_ids) {
+			jsonline.startObject();
+
+			jsonline.put("IDTypeName", work_id.child("IDTypeName").value());
+			jsonline.put("IDValue", work_id.child("IDValue").value());
+
+			WorkIdentifierTypes type = work_id.child("WorkIDType").code(WorkIdentifierTypes::byCode);
+
+			if (type != null) {
+				jsonline.put("WorkIDType", type.description);
+			}
+
+			jsonline.endObject();
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processImprints(List<Node> imprints, JsonOutput jsonline) {
+		jsonline.startArray("Imprints");
+
+		for (Node imprint : imprints) {
+			jsonline.startObject();
+			processImprintName(imprint.child("ImprintName"), jsonline);
+			processImprintIdentifiers(imprint.children("ImprintIdentifier"), jsonline);
+			jsonline.endObject();
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processImprintName(Node iname, JsonOutput jsonline) {
+		jsonline.put("ImprintName", iname.value());
+
+		Languages language = iname.attribute("language", Languages::byCode);
+
+		if (language != null) {
+			jsonline.put("ImprintName_lang", language.description);
+		}
+	}
+
+	private static void processImprintIdentifiers(List<Node> iids, JsonOutput jsonline) {
+		jsonline.startArray("ImprintIdentifiers");
+
+		for (Node iid : iids) {
+			jsonline.startObject();
+
+			jsonline.put("IDTypeName", iid.child("IDTypeName").value());
+			jsonline.put("IDValue", iid.child("IDValue").value());
+			jsonline.put("ImprintIDType", iid.child("ImprintIDType").code(NameIdentifierTypes::byCode));
+
+			jsonline.endObject();
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processCityofPublications(List<Node> cpubs, JsonOutput jsonline) {
+		jsonline.startArray("CityOfPublications");
+
+		for (Node cpub : cpubs) {
+			jsonline.add(cpub.value());
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processPublishingDates(List<Node> pubdates, JsonOutput jsonline) {
+		jsonline.startArray("PublishingDates");
+
+		for (Node pubdate : pubdates) {
+			jsonline.startObject();
+
+			jsonline.put("Date", pubdate.child("Date").value());
+
+			if (pubdate.child("DateFormat").exists()) {
+				jsonline.put("DateFormat", pubdate.child("DateFormat").code(DateFormats::byCode).description);
+			}
+
+			if (pubdate.child("PublishingDateRole").exists()) {
+				jsonline.put("PublishingDateRole",
+						pubdate.child("PublishingDateRole").code(PublishingDateRoles::byCode).description);
+			}
+
+			jsonline.endObject();
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processPublishers(List<Node> publishers, JsonOutput jsonline) {
+		jsonline.startArray("Publishers");
+
+		for (Node publisher : publishers) {
+			jsonline.startObject();
+
+			jsonline.put("PublisherName", publisher.child("PublisherName").value());
+
+			PublishingRoles role = publisher.child("PublishingRole").code(PublishingRoles::byCode);
+
+			if (role != null) {
+				jsonline.put("PublishingRole", role.description);
+			}
+
+			processWebsites(publisher.children("Website"), jsonline);
+			jsonline.endObject();
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processTextContent(List<Node> text_contents, JsonOutput jsonline) {
+		jsonline.startArray("TextContent");
+
+		for (Node text_content : text_contents) {
+			jsonline.startObject();
+
+			jsonline.startArray("Text");
+
+			for (Node text : text_content.children("Text")) {
+				jsonline.add(text.value());
+			}
+
+			jsonline.endArray();
+
+			if (text_content.child("TextType").exists()) {
+				jsonline.put("TextType", text_content.child("TextType").code(TextTypes::byCode).description);
+			}
+
+			jsonline.endObject();
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processProductIdentifiers(List<Node> pids, JsonOutput jsonline) {
+		OnixParser.PRODUCT_IDENTIFIERS.write(pids,
+				pid -> pid.child("ProductIDType").code(ProductIdentifierTypes::byCode),
+				pid -> pid.child("IDValue").value(), jsonline);
+	}
+
+	private static void processProductForm(Node pf, JsonOutput jsonline) {
+		if (!pf.exists()) {
+			return;
+		}
+
+		jsonline.put("ProductForm", pf.code(ProductForms::byCode).description);
+	}
+
+	private static void processCollections(List<Node> collections, JsonOutput jsonline) {
+		jsonline.startArray("Collections");
+
+		for (Node collection : collections) {
+			jsonline.startObject();
+
+			CollectionTypes type = collection.child("CollectionType").code(CollectionTypes::byCode);
+
+			if (type != null) {
+				jsonline.put("CollectionType", type.description);
+			}
+
+			processCollectionIdentifiers(collection.children("CollectionIdentifier"), jsonline);
+			processTitleDetails(collection.children("TitleDetail"), jsonline);
+
+			jsonline.endObject();
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processCollectionIdentifiers(List<Node> col_ids, JsonOutput jsonline) {
+		jsonline.startArray("CollectionIdentifers");
+
+		for (Node col_id : col_ids) {
+			jsonline.startObject();
+
+			jsonline.put("CollectionIdType", col_id.child("CollectionIDType").code(SeriesIdentifierTypes::byCode));
+			jsonline.put("IDTypeName", col_id.child("IDTypeName").value());
+			jsonline.put("IDValue", col_id.child("IDValue").value());
+
+			jsonline.endObject();
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processEditionTypes(List<Node> etypes, JsonOutput jsonline) {
+		jsonline.startArray("EditionType");
+
+		for (Node etype : etypes) {
+			EditionTypes type = etype.code(EditionTypes::byCode);
+
+			if (type != null) {
+				jsonline.add(type.description);
+			}
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processExtents(List<Node> extents, JsonOutput jsonline) {
+		jsonline.startArray("Extent");
+
+		for (Node extent : extents) {
+			jsonline.startObject();
+
+			ExtentTypes type = extent.child("ExtentType").code(ExtentTypes::byCode);
+
+			if (type != null) {
+				jsonline.put("ExtentType", type.description);
+			}
+
+			ExtentUnits unit = extent.child("ExtentUnit").code(ExtentUnits::byCode);
+
+			if (unit != null) {
+				jsonline.put("ExtentUnit", unit.description);
+			}
+
+			jsonline.put("ExtentValue", extent.child("ExtentValue").decimal());
+			jsonline.put("ExtentValueRoman", extent.child("ExtentValueRoman").value());
+
+			jsonline.endObject();
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processLanguages(List<Node> languages, JsonOutput jsonline) {
+		jsonline.startArray("Languages");
+
+		for (Node language : languages) {
+			jsonline.startObject();
+
+			if (language.child("CountryCode").exists()) {
+				jsonline.put("CountryCode", language.child("CountryCode").code(Countrys::byCode).code);
+			}
+
+			if (language.child("LanguageCode").exists()) {
+				jsonline.put("LanguageCode", language.child("LanguageCode").code(Languages::byCode).code);
+			}
+
+			if (language.child("LanguageRole").exists()) {
+				jsonline.put("LanguageRole", language.child("LanguageRole").code(LanguageRoles::byCode).description);
+			}
+
+			if (language.child("ScriptCode").exists()) {
+				jsonline.put("ScriptCode", language.child("ScriptCode").code(TextScripts::byCode).description);
+			}
+
+			jsonline.endObject();
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processTitleDetails(List<Node> details, JsonOutput jsonline) {
+		jsonline.startArray("TitleDetails");
+
+		for (Node detail : details) {
+			jsonline.startObject();
+
+			TitleTypes type = detail.child("TitleType").code(TitleTypes::byCode);
+
+			if (type != null) {
+				jsonline.put("TitleType", type.description);
+			}
+
+			jsonline.put("TitleStatement", detail.child("TitleStatement").value());
+			processTitleElements(detail.children("TitleElement"), jsonline);
+
+			jsonline.endObject();
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processTitleElements(List<Node> elements, JsonOutput jsonline) {
+		jsonline.startArray("TitleElements");
+
+		for (Node element : elements) {
+			jsonline.startObject();
+
+			jsonline.put("SequenceNumber", element.child("SequenceNumber").integer());
+
+			TitleElementLevels level = element.child("TitleElementLevel").code(TitleElementLevels::byCode);
+
+			if (level != null) {
+				jsonline.put("TitleElementLevel", level.description);
+			}
+
+			jsonline.put("YearOfAnnual", element.child("YearOfAnnual").value());
+
+			processPartNumber(element.child("PartNumber"), jsonline);
+			processSubtitle(element.child("Subtitle"), jsonline);
+			processTitlePrefix(element.child("TitlePrefix"), jsonline);
+			processTitleWithoutPrefix(element.child("TitleWithoutPrefix"), jsonline);
+			processTitleText(element.child("TitleText"), jsonline);
+
+			jsonline.endObject();
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processTitleText(Node tt, JsonOutput jsonline) {
+		if (!tt.exists()) {
+			return;
+		}
+
+		Languages language = tt.attribute("language", Languages::byCode);
+		TextScripts textscript = tt.attribute("textscript", TextScripts::byCode);
+		TextCaseFlags textcase = tt.attribute("textcase", TextCaseFlags::byCode);
+
+		if (language != null) {
+			jsonline.put("TitleText_Language", language.description);
+		}
+
+		if (textscript != null) {
+			jsonline.put("TitleText_TextScript", textscript.description);
+		}
+
+		if (textcase != null) {
+			jsonline.put("TitleText_TextCaseFlags", textcase.description);
+		}
+
+		jsonline.put("TitleText", tt.value());
+	}
+
+	private static void processPartNumber(Node pnum, JsonOutput jsonline) {
+		if (!pnum.exists()) {
+			return;
+		}
+
+		jsonline.startObject("PartNumber");
+
+		Languages language = pnum.attribute("language", Languages::byCode);
+		TextScripts textscript = pnum.attribute("textscript", TextScripts::byCode);
+
+		if (language != null) {
+			jsonline.put("Language", language.description);
+		}
+
+		if (textscript != null) {
+			jsonline.put("TextScript", textscript.description);
+		}
+
+		jsonline.put("Value", pnum.value());
+
+		jsonline.endObject();
+	}
+
+	private static void processTitleWithoutPrefix(Node tpref, JsonOutput jsonline) {
+		if (!tpref.exists()) {
+			return;
+		}
+
+		Languages language = tpref.attribute("language", Languages::byCode);
+		TextScripts textscript = tpref.attribute("textscript", TextScripts::byCode);
+		TextCaseFlags textcase = tpref.attribute("textcase", TextCaseFlags::byCode);
+
+		if (language != null) {
+			jsonline.put("TitleWithoutPrefix_LanguageCode", language.description);
+		}
+
+		if (textscript != null) {
+			jsonline.put("TitleWithoutPrefix_TextScript", textscript.description);
+		}
+
+		if (textcase != null) {
+			jsonline.put("TitleWithoutPrefix_TextCaseFlags", textcase.description);
+		}
+
+		jsonline.put("TitleWithoutPrefix", tpref.value());
+	}
+
+	private static void processTitlePrefix(Node tpref, JsonOutput jsonline) {
+		if (!tpref.exists()) {
+			return;
+		}
+
+		jsonline.startObject("TitlePrefix");
+
+		Languages language = tpref.attribute("language", Languages::byCode);
+		TextScripts textscript = tpref.attribute("textscript", TextScripts::byCode);
+		TextCaseFlags textcase = tpref.attribute("textcase", TextCaseFlags::byCode);
+
+		if (language != null) {
+			jsonline.put("Language", language.description);
+		}
+
+		if (textscript != null) {
+			jsonline.put("TextScript", textscript.description);
+		}
+
+		if (textcase != null) {
+			jsonline.put("TextCaseFlags", textcase.description);
+		}
+
+		jsonline.put("Value", tpref.value());
+
+		jsonline.endObject();
+	}
+
+	private static void processSubtitle(Node subtitle, JsonOutput jsonline) {
+		if (!subtitle.exists()) {
+			return;
+		}
+
+		Languages language = subtitle.attribute("language", Languages::byCode);
+		TextScripts textscript = subtitle.attribute("textscript", TextScripts::byCode);
+		TextCaseFlags textcase = subtitle.attribute("textcase", TextCaseFlags::byCode);
+
+		if (language != null) {
+			jsonline.put("Subtitle_Language", language.description);
+		}
+
+		if (textscript != null) {
+			jsonline.put("Subtitle_TextScript", textscript.description);
+		}
+
+		if (textcase != null) {
+			jsonline.put("Subtitle_TextCaseFlags", textcase.description);
+		}
+
+		jsonline.put("Subtitle", subtitle.value());
+	}
+
+	private static void processSubjects(List<Node> subjects, JsonOutput jsonline) {
+		jsonline.startArray("Subjects");
+
+		for (Node subject : subjects) {
+			jsonline.startObject();
+
+			jsonline.put("MainSubject", subject.child("MainSubject").exists());
+			jsonline.put("SubjectCode", subject.child("SubjectCode").value());
+
+			jsonline.startArray("SubjectHeadingText");
+			for (Node text : subject.children("SubjectHeadingText")) {
+				jsonline.add(text.value());
+			}
+			jsonline.endArray();
+
+			jsonline.put("SubjectSchemeIdentifier",
+					subject.child("SubjectSchemeIdentifier").code(SubjectSchemeIdentifiers::byCode));
+			jsonline.put("SubjectSchemeVersion", subject.child("SubjectSchemeVersion").value());
+			jsonline.put("SubjectSchemeName", subject.child("SubjectSchemeName").value());
+
+			Languages language = subject.child("SubjectSchemeName").attribute("language", Languages::byCode);
+
+			if (language != null) {
+				jsonline.put("SubjectSchemeNameLanguage", language.description);
+			}
+
+			jsonline.endObject();
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processContributors(List<Node> contributors, JsonOutput jsonline) {
+		jsonline.startArray("Contributors");
+
+		for (Node contributor : contributors) {
+			jsonline.startObject();
+			jsonline.put("PersonName", contributor.child("PersonName").value());
+			jsonline.put("PersonNameInverted", contributor.child("PersonNameInverted").value());
+			jsonline.put("NamesAfterKey", contributor.child("NamesAfterKey").value());
+			jsonline.put("NamesBeforeKey", contributor.child("NamesBeforeKey").value());
+
+			if (contributor.child("NameType").exists()) {
+				jsonline.put("NameType",
+						contributor.child("NameType").code(PersonOrganizationNameTypes::byCode).description);
+			}
+
+			jsonline.put("LettersAfterNames", contributor.child("LettersAfterNames").value());
+			jsonline.put("KeyNames", contributor.child("KeyNames").value());
+			jsonline.put("CorprorateName", contributor.child("CorporateName").value());
+			jsonline.put("CorprorateNameInverted", contributor.child("CorporateNameInverted").value());
+
+			UnnamedPersonss unnamed = contributor.child("UnnamedPersons").code(UnnamedPersonss::byCode);
+
+			if (unnamed != null) {
+				jsonline.put("UnnamedPersons", unnamed.description);
+			}
+
+			Genders gender = contributor.child("Gender").code(Genders::byCode);
+
+			if (gender != null) {
+				jsonline.put("Gender", gender.description);
+			}
+
+			if (contributor.child("SequenceNumber").exists()) {
+				jsonline.put("SequenceNumber", contributor.child("SequenceNumber").integer());
+			}
+
+			jsonline.put("TitlesBeforeNames", contributor.child("TitlesBeforeNames").value());
+			jsonline.put("TitlesAfterNames", contributor.child("TitlesAfterNames").value());
+			jsonline.put("PrefixToKey", contributor.child("PrefixToKey").value());
+			jsonline.put("SuffixToKey", contributor.child("SuffixToKey").value());
+
+			processContributorDates(contributor.children("ContributorDate"), jsonline);
+			processContributorRoles(contributor.children("ContributorRole"), jsonline);
+			processContributorPlaces(contributor.children("ContributorPlace"), jsonline);
+			processNameIdentifiers(contributor.children("NameIdentifier"), jsonline);
+			processProfessionalAffiliations(contributor.children("ProfessionalAffiliation"), jsonline);
+			processAlternativeNames(contributor.children("AlternativeName"), jsonline);
+			processWebsites(contributor.children("Website"), jsonline);
+			processBiographicalNotes(contributor.children("BiographicalNote"), jsonline);
+
+			jsonline.endObject();
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processBiographicalNotes(List<Node> notes, JsonOutput jsonlines) {
+		jsonlines.startArray("BiographicalNotes");
+
+		for (Node note : notes) {
+			jsonlines.startObject();
+
+			Languages language = note.attribute("language", Languages::byCode);
+			TextFormats textformat = note.attribute("textformat", TextFormats::byCode);
+
+			if (language != null) {
+				jsonlines.put("Language", language.description);
+			}
+
+			if (textformat != null) {
+				jsonlines.put("TextFormat", textformat.description);
+			}
+
+			jsonlines.put("Note", note.value());
+
+			jsonlines.endObject();
+		}
+
+		jsonlines.endArray();
+	}
+
+	private static void processWebsites(List<Node> websites, JsonOutput jsonlines) {
+		jsonlines.startArray("Websites");
+
+		for (Node website : websites) {
+			jsonlines.startObject();
+
+			if (website.child("WebsiteRole").exists()) {
+				jsonlines.put("WebsiteRole", website.child("WebsiteRole").code(WebsiteRoles::byCode).description);
+			}
+
+			processWebsiteDescriptions(website.children("WebsiteDescription"), jsonlines);
+			processWebsiteLinks(website.children("WebsiteLink"), jsonlines);
+
+			jsonlines.endObject();
+		}
+
+		jsonlines.endArray();
+	}
+
+	private static void processWebsiteLinks(List<Node> links, JsonOutput jsonlines) {
+		jsonlines.startArray("WebsiteLinks");
+
+		for (Node link : links) {
+			jsonlines.add(link.value());
+		}
+
+		jsonlines.endArray();
+	}
+
+	private static void processWebsiteDescriptions(List<Node> descriptions, JsonOutput jsonlines) {
+		jsonlines.startArray("WebsiteDescriptions");
+
+		for (Node desc : descriptions) {
+			jsonlines.add(desc.value());
+		}
+
+		jsonlines.endArray();
+	}
+
+	private static void processAlternativeNames(List<Node> alt_names, JsonOutput jsonlines) {
+		jsonlines.startArray("AlternativeNames");
+
+		for (Node alt_name : alt_names) {
+			jsonlines.startObject();
+
+			jsonlines.put("CorprorateName", alt_name.child("CorporateName").value());
+			jsonlines.put("CorprorateNameInverted", alt_name.child("CorporateNameInverted").value());
+
+			Genders gender = alt_name.child("Gender").code(Genders::byCode);
+
+			if (gender != null) {
+				jsonlines.put("Gender", gender.description);
+			}
+
+			jsonlines.put("KeyNames", alt_name.child("KeyNames").value());
+			jsonlines.put("LettersAfterNames", alt_name.child("LettersAfterNames").value());
+			processNameIdentifiers(alt_name.children("NameIdentifier"), jsonlines);
+
+			jsonlines.put("NamesAfterKey", alt_name.child("NamesAfterKey").value());
+			jsonlines.put("NamesBeforeKey", alt_name.child("NamesBeforeKey").value());
+
+			if (alt_name.child("NameType").exists()) {
+				jsonlines.put("NameType",
+						alt_name.child("NameType").code(PersonOrganizationNameTypes::byCode).description);
+			}
+
+			jsonlines.put("PersonName", alt_name.child("PersonName").value());
+			jsonlines.put("PersonNameInverted", alt_name.child("PersonNameInverted").value());
+			jsonlines.put("PrefixToKey", alt_name.child("PrefixToKey").value());
+			jsonlines.put("SuffixToKey", alt_name.child("SuffixToKey").value());
+			jsonlines.put("TitlesBeforeNames", alt_name.child("TitlesBeforeNames").value());
+			jsonlines.put("TitlesAfterNames", alt_name.child("TitlesAfterNames").value());
+
+			jsonlines.endObject();
+		}
+
+		jsonlines.endArray();
+	}
+
+	private static void processContributorDates(List<Node> dates, JsonOutput jsonline) {
+		jsonline.startArray("Dates");
+
+		for (Node date : dates) {
+			jsonline.startObject();
+
+			PersonOrganizationDateRoles role = date.child("ContributorDateRole")
+					.code(PersonOrganizationDateRoles::byCode);
+
+			if (role != null) {
+				jsonline.put("Role", role.description);
+			}
+
+			jsonline.put("Date", date.child("Date").value());
+
+			DateFormats format = date.child("DateFormat").code(DateFormats::byCode);
+
+			if (format != null) {
+				jsonline.put("Format", format.description);
+			}
+
+			jsonline.endObject();
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processContributorPlaces(List<Node> places, JsonOutput jsonline) {
+		jsonline.startArray("Places");
+
+		for (Node place : places) {
+			jsonline.startObject();
+
+			ContributorPlaceRelators relator = place.child("ContributorPlaceRelator")
+					.code(ContributorPlaceRelators::byCode);
+
+			if (relator != null) {
+				jsonline.put("Relation", relator.description);
+			}
+
+			Countrys country = place.child("CountryCode").code(Countrys::byCode);
+
+			if (country != null) {
+				jsonline.put("CountryCode", country.description);
+			}
+
+			Regions region = place.child("RegionCode").code(Regions::byCode);
+
+			if (region != null) {
+				jsonline.put("RegionCode", region.description);
+			}
+
+			jsonline.startArray("Locations");
+			for (Node location : place.children("LocationName")) {
+				jsonline.add(location.value());
+			}
+			jsonline.endArray();
+
+			jsonline.endObject();
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processContributorRoles(List<Node> roles, JsonOutput jsonline) {
+		jsonline.startArray("Roles");
+
+		for (Node role : roles) {
+			ContributorRoles value = role.code(ContributorRoles::byCode);
+
+			if (value != null) {
+				jsonline.add(value.description);
+			}
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processProfessionalAffiliations(List<Node> paffils, JsonOutput jsonline) {
+		jsonline.startArray("ProfessionalAffiliations");
+
+		for (Node affil : paffils) {
+			jsonline.startObject();
+
+			jsonline.put("Affiliations", affil.child("Affiliation").value());
+
+			jsonline.startArray("Positions");
+			for (Node position : affil.children("ProfessionalPosition")) {
+				jsonline.add(position.value());
+			}
+			jsonline.endArray();
+
+			jsonline.endObject();
+		}
+
+		jsonline.endArray();
+	}
+
+	private static void processNameIdentifiers(List<Node> nids, JsonOutput jsonline) {
+		OnixParser.NAME_IDENTIFIERS.write(nids, nid -> nid.child("NameIDType").code(NameIdentifierTypes::byCode),
+				nid -> nid.child("IDValue").value(), jsonline);
+	}
+}
@@ -0,0 +1,407 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.io.InputStream;
+import java.io.Reader;
+
+import javax.xml.stream.EventFilter;
+import javax.xml.stream.StreamFilter;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLReporter;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.util.StreamReaderDelegate;
+import javax.xml.stream.util.XMLEventAllocator;
+import javax.xml.transform.Source;
+
+/**
+ * Creates the XMLInputFactory of the selected StAX provider. Woodstox and
+ * Aalto are both on the classpath, so XMLInputFactory.newInstance() would pick
+ * whichever service file comes first; the provider is always named instead.
+ *
+ * Jonix creates one factory for the whole process when it is first used, with
+ * XMLInputFactory.newInstance(). Its provider is set through the
+ * javax.xml.stream.XMLInputFactory system property before that happens and
+ * cannot be changed afterwards.
+ *
+ * Every provider is wrapped in an {@link OnixInputFactory}, which never loads
+ * DTDs or other external entities and resolves the character entities of the
+ * ONIX DTD from {@link OnixEntities} instead.
+ */
+final class StaxProviders {
+	private static final String FACTORY_PROPERTY = XMLInputFactory.class.getName();
+	private static final String JONIX_FACTORY_HOLDER = "com.tectonica.xmlchunk.XmlChunkerContext";
+
+	private static ParserOptions.Stax jonix_provider = null;
+
+	private StaxProviders() {
+	}
+
+	/**
+	 * Wraps the factory of a provider. The factory class is instantiated by name,
+	 * so the provider's factory is wrapped rather than configured.
+	 *
+	 * DTDs and external entities are never loaded, whatever the message declares,
+	 * and a resolver that refuses every lookup backs that up. Entity references
+	 * the catalog knows are reported as text. Readers are created as stream
+	 * readers and wrapped, and event readers are built on top of them, so Jonix
+	 * sees the same events as the StAX engine.
+	 */
+	public static class OnixInputFactory extends XMLInputFactory {
+		private final XMLInputFactory factory;
+
+		/**
+		 * @param factory    Provider's factory.
+		 * @param coalescing Report CDATA as text. Jonix builds its DOM through a
+		 *                   StAXSource, which drops the CDATA events Woodstox and
+		 *                   Aalto report otherwise.
+		 */
+		OnixInputFactory(XMLInputFactory factory, boolean coalescing) {
+			this.factory = factory;
+			factory.setProperty(SUPPORT_DTD, Boolean.FALSE);
+			factory.setProperty(IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+			factory.setProperty(IS_REPLACING_ENTITY_REFERENCES, Boolean.FALSE);
+			factory.setXMLResolver((public_id, system_id, base_uri, namespace) -> {
+				throw new XMLStreamException("External entities are not loaded: " + system_id);
+			});
+
+			if (coalescing) {
+				factory.setProperty(IS_COALESCING, Boolean.TRUE);
+			}
+		}
+
+		@Override
+		public XMLStreamReader createXMLStreamReader(Reader reader) throws XMLStreamException {
+			return new EntityResolvingReader(factory.createXMLStreamReader(reader));
+		}
+
+		@Override
+		public XMLStreamReader createXMLStreamReader(Source source) throws XMLStreamException {
+			return new EntityResolvingReader(factory.createXMLStreamReader(source));
+		}
+
+		@Override
+		public XMLStreamReader createXMLStreamReader(InputStream stream) throws XMLStreamException {
+			return new EntityResolvingReader(factory.createXMLStreamReader(stream));
+		}
+
+		@Override
+		public XMLStreamReader createXMLStreamReader(InputStream stream, String encoding)
+				throws XMLStreamException {
+			return new EntityResolvingReader(factory.createXMLStreamReader(stream, encoding));
+		}
+
+		@Override
+		public XMLStreamReader createXMLStreamReader(String system_id, InputStream stream)
+				throws XMLStreamException {
+			return new EntityResolvingReader(factory.createXMLStreamReader(system_id, stream));
+		}
+
+		@Override
+		public XMLStreamReader createXMLStreamReader(String system_id, Reader reader) throws XMLStreamException {
+			return new EntityResolvingReader(factory.createXMLStreamReader(system_id, reader));
+		}
+
+		@Override
+		public XMLEventReader createXMLEventReader(Reader reader) throws XMLStreamException {
+			return factory.createXMLEventReader(createXMLStreamReader(reader));
+		}
+
+		@Override
+		public XMLEventReader createXMLEventReader(String system_id, Reader reader) throws XMLStreamException {
+			return factory.createXMLEventReader(createXMLStreamReader(system_id, reader));
+		}
+
+		@Override
+		public XMLEventReader createXMLEventReader(XMLStreamReader reader) throws XMLStreamException {
+			return factory.createXMLEventReader(reader);
+		}
+
+		@Override
+		public XMLEventReader createXMLEventReader(Source source) throws XMLStreamException {
+			return factory.createXMLEventReader(createXMLStreamReader(source));
+		}
+
+		@Override
+		public XMLEventReader createXMLEventReader(InputStream stream) throws XMLStreamException {
+			return factory.createXMLEventReader(createXMLStreamReader(stream));
+		}
+
+		@Override
+		public XMLEventReader createXMLEventReader(InputStream stream, String encoding) throws XMLStreamException {
+			return factory.createXMLEventReader(createXMLStreamReader(stream, encoding));
+		}
+
+		@Override
+		public XMLEventReader createXMLEventReader(String system_id, InputStream stream)
+				throws XMLStreamException {
+			return factory.createXMLEventReader(createXMLStreamReader(system_id, stream));
+		}
+
+		@Override
+		public XMLStreamReader createFilteredReader(XMLStreamReader reader, StreamFilter filter)
+				throws XMLStreamException {
+			return factory.createFilteredReader(reader, filter);
+		}
+
+		@Override
+		public XMLEventReader createFilteredReader(XMLEventReader reader, EventFilter filter)
+				throws XMLStreamException {
+			return factory.createFilteredReader(reader, filter);
+		}
+
+		@Override
+		public XMLResolver getXMLResolver() {
+			return factory.getXMLResolver();
+		}
+
+		@Override
+		public void setXMLResolver(XMLResolver resolver) {
+			factory.setXMLResolver(resolver);
+		}
+
+		@Override
+		public XMLReporter getXMLReporter() {
+			return factory.getXMLReporter();
+		}
+
+		@Override
+		public void setXMLReporter(XMLReporter reporter) {
+			factory.setXMLReporter(reporter);
+		}
+
+		@Override
+		public void setProperty(String name, Object value) {
+			factory.setProperty(name, value);
+		}
+
+		@Override
+		public Object getProperty(String name) {
+			return factory.getProperty(name);
+		}
+
+		@Override
+		public boolean isPropertySupported(String name) {
+			return factory.isPropertySupported(name);
+		}
+
+		@Override
+		public void setEventAllocator(XMLEventAllocator allocator) {
+			factory.setEventAllocator(allocator);
+		}
+
+		@Override
+		public XMLEventAllocator getEventAllocator() {
+			return factory.getEventAllocator();
+		}
+	}
+
+	/**
+	 * The JDK's built-in SJSXP.
+	 */
+	public static final class Jdk extends OnixInputFactory {
+		public Jdk() {
+			super(XMLInputFactory.newDefaultFactory(), false);
+		}
+	}
+
+	/**
+	 * Woodstox, reporting CDATA as text.
+	 */
+	public static final class Woodstox extends OnixInputFactory {
+		public Woodstox() {
+			super(new com.ctc.wstx.stax.WstxInputFactory(), true);
+		}
+	}
+
+	/**
+	 * Aalto, reporting CDATA as text.
+	 */
+	public static final class Aalto extends OnixInputFactory {
+		public Aalto() {
+			super(new com.fasterxml.aalto.stax.InputFactoryImpl(), true);
+		}
+	}
+
+	/**
+	 * Reports entity references that the catalog resolves as character events,
+	 * the way a parser that had read the DTD would. Unknown references are passed
+	 * through, and the readers of both engines drop them.
+	 */
+	private static final class EntityResolvingReader extends StreamReaderDelegate {
+		/** Replacement text of the current event, or null if it is not a resolved entity. */
+		private String entity = null;
+
+		EntityResolvingReader(XMLStreamReader reader) {
+			super(reader);
+		}
+
+		@Override
+		public int next() throws XMLStreamException {
+			int event = super.next();
+			entity = event == ENTITY_REFERENCE ? OnixEntities.resolve(super.getLocalName()) : null;
+			return entity == null ? event : CHARACTERS;
+		}
+
+		@Override
+		public int nextTag() throws XMLStreamException {
+			int event = next();
+
+			while (event == CHARACTERS && isWhiteSpace() || event == CDATA && isWhiteSpace() || event == SPACE
+					|| event == PROCESSING_INSTRUCTION || event == COMMENT) {
+				event = next();
+			}
+
+			if (event != START_ELEMENT && event != END_ELEMENT) {
+				throw new XMLStreamException("Expected a start or end tag", getLocation());
+			}
+
+			return event;
+		}
+
+		@Override
+		public String getElementText() throws XMLStreamException {
+			StringBuilder text = new StringBuilder();
+			int event = next();
+
+			while (event != END_ELEMENT) {
+				if (event == CHARACTERS || event == CDATA || event == SPACE || event == ENTITY_REFERENCE) {
+					text.append(getText());
+				} else if (event == START_ELEMENT || event == END_DOCUMENT) {
+					throw new XMLStreamException("Expected text only", getLocation());
+				}
+
+				event = next();
+			}
+
+			return text.toString();
+		}
+
+		@Override
+		public int getEventType() {
+			return entity == null ? super.getEventType() : CHARACTERS;
+		}
+
+		@Override
+		public boolean hasText() {
+			return entity != null || super.hasText();
+		}
+
+		@Override
+		public boolean isCharacters() {
+			return entity != null || super.isCharacters();
+		}
+
+		@Override
+		public boolean isWhiteSpace() {
+			return entity == null ? super.isWhiteSpace() : entity.trim().isEmpty();
+		}
+
+		@Override
+		public String getText() {
+			return entity == null ? super.getText() : entity;
+		}
+
+		@Override
+		public char[] getTextCharacters() {
+			return entity == null ? super.getTextCharacters() : entity.toCharArray();
+		}
+
+		@Override
+		public int getTextCharacters(int source_start, char[] target, int target_start, int length)
+				throws XMLStreamException {
+			if (entity == null) {
+				return super.getTextCharacters(source_start, target, target_start, length);
+			}
+
+			int count = Math.max(0, Math.min(length, entity.length() - source_start));
+			entity.getChars(source_start, source_start + count, target, target_start);
+			return count;
+		}
+
+		@Override
+		public int getTextStart() {
+			return entity == null ? super.getTextStart() : 0;
+		}
+
+		@Override
+		public int getTextLength() {
+			return entity == null ? super.getTextLength() : entity.length();
+		}
+	}
+
+	/**
+	 * @param stax StAX provider.
+	 * @return Factory class of the provider.
+	 */
+	static Class<? extends OnixInputFactory> factoryClass(ParserOptions.Stax stax) {
+		switch (stax) {
+		case WOODSTOX:
+			return Woodstox.class;
+		case AALTO:
+			return Aalto.class;
+		default:
+			return Jdk.class;
+		}
+	}
+
+	/**
+	 * Create a new factory of a provider. Factories are not shared between
+	 * threads.
+	 *
+	 * @param stax StAX provider.
+	 * @return New input factory.
+	 */
+	static XMLInputFactory create(ParserOptions.Stax stax) {
+		switch (stax) {
+		case WOODSTOX:
+			return new Woodstox();
+		case AALTO:
+			return new Aalto();
+		default:
+			return new Jdk();
+		}
+	}
+
+	/**
+	 * Make Jonix read with a provider. Only the first provider given in a process
+	 * takes effect, so asking for a different one later is an error.
+	 *
+	 * @param stax StAX provider.
+	 * @throws IllegalStateException if Jonix already reads with another provider.
+	 */
+	static synchronized void useForJonix(ParserOptions.Stax stax) {
+		if (jonix_provider == null) {
+			System.setProperty(FACTORY_PROPERTY, factoryClass(stax).getName());
+
+			try {
+				Class.forName(JONIX_FACTORY_HOLDER, true, StaxProviders.class.getClassLoader());
+			} catch (ClassNotFoundException e) {
+				throw new IllegalStateException(e);
+			}
+
+			jonix_provider = stax;
+		} else if (jonix_provider != stax) {
+			throw new IllegalStateException("Jonix already reads with the " + jonix_provider
+					+ " StAX provider, run " + stax + " in a separate process");
+		}
+	}
+}
@@ -0,0 +1,538 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.tectonica.jonix.common.OnixComposite;
+
+/**
+ * Removes whole ONIX composites, e.g. ProductSupply or ContentDetail, from the
+ * input before it reaches the XML parser, so no events, DOM nodes or model
+ * objects are ever created for them. The input is scanned at the byte level,
+ * like {@link ProductSplitter}: an element whose local name is the reference or
+ * short tag name of a skipped composite is dropped together with everything up
+ * to its matching end tag. Comments, CDATA sections and processing
+ * instructions are passed through untouched.
+ *
+ * The scanner only understands ASCII compatible encodings (UTF-8, ISO-8859-x).
+ * Composites the product mapper reads must not be skipped.
+ */
+class SubtreeSkipper {
+	private static final String ONIX3_PACKAGE = "com.tectonica.jonix.onix3.";
+
+	private static final int MAX_NAME = 128;
+
+	private final List<String> composites;
+	private final byte[][] names;
+	private final LongAdder passed = new LongAdder();
+	private final LongAdder skipped = new LongAdder();
+
+	/**
+	 * @param composites Reference names of the composites to skip.
+	 * @throws IllegalArgumentException if a name is not an ONIX 3 composite.
+	 */
+	SubtreeSkipper(Collection<String> composites) {
+		this.composites = new ArrayList<String>(composites);
+		this.names = new byte[composites.size() * 2][];
+
+		int i = 0;
+		for (String composite : composites) {
+			names[i++] = tagName(composite, "refname");
+			names[i++] = tagName(composite, "shortname");
+		}
+	}
+
+	/**
+	 * Look up a tag name of an ONIX 3 composite in the Jonix model.
+	 */
+	private static byte[] tagName(String composite, String field) {
+		try {
+			Class<?> type = Class.forName(ONIX3_PACKAGE + composite);
+
+			if (!OnixComposite.class.isAssignableFrom(type)) {
+				throw new IllegalArgumentException("Not an ONIX composite: " + composite);
+			}
+
+			return ((String) type.getField(field).get(null)).getBytes(StandardCharsets.US_ASCII);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("Unknown ONIX composite: " + composite);
+		}
+	}
+
+	/**
+	 * @return Reference names of the skipped composites.
+	 */
+	List<String> composites() {
+		return composites;
+	}
+
+	/**
+	 * Wrap an ONIX message so that the skipped composites are removed from it.
+	 *
+	 * @param in ONIX message.
+	 * @return Filtered message, or the message itself if nothing is skipped.
+	 */
+	InputStream wrap(InputStream in) {
+		return names.length == 0 ? in : new SkippingInputStream(in);
+	}
+
+	/**
+	 * @return Bytes passed on to the parser so far, over all wrapped streams.
+	 */
+	long passed() {
+		return passed.sum();
+	}
+
+	/**
+	 * @return Bytes skipped so far, over all wrapped streams.
+	 */
+	long skipped() {
+		return skipped.sum();
+	}
+
+	/**
+	 * @return Summary of the bytes parsed and skipped.
+	 */
+	String report() {
+		long p = passed();
+		long s = skipped();
+		return String.format("Parsed %d bytes, skipped %d bytes (%.1f%%) of %s", p, s,
+				p + s == 0 ? 0.0 : 100.0 * s / (p + s), String.join(",", composites));
+	}
+
+	/**
+	 * Whether a local name is one of the skipped tag names.
+	 */
+	private boolean isSkipped(byte[] name, int from, int to) {
+		for (byte[] skip : names) {
+			if (skip.length == to - from && regionMatches(name, from, skip, 0, skip.length)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean regionMatches(byte[] a, int a_from, byte[] b, int b_from, int len) {
+		for (int i = 0; i < len; i++) {
+			if (a[a_from + i] != b[b_from + i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * The filtering stream. Input is read a buffer at a time, and output is
+	 * produced one markup construct at a time, so a tag is only passed on once it
+	 * is known not to start a skipped composite.
+	 */
+	private final class SkippingInputStream extends FilterInputStream {
+		private final byte[] buf = new byte[1 << 16];
+		private int pos = 0;
+		private int limit = 0;
+		private long consumed = 0;
+
+		private byte[] out = new byte[1 << 16];
+		private int out_pos = 0;
+		private int out_len = 0;
+		private long emitted = 0;
+
+		private final byte[] name = new byte[MAX_NAME];
+		private int name_len = 0;
+
+		SkippingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (out_pos == out_len && !fill()) {
+				return -1;
+			}
+
+			return out[out_pos++] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+
+			if (out_pos == out_len && !fill()) {
+				return -1;
+			}
+
+			int n = Math.min(len, out_len - out_pos);
+			System.arraycopy(out, out_pos, b, off, n);
+			out_pos += n;
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long done = 0;
+
+			while (done < n && (out_pos < out_len || fill())) {
+				int step = (int) Math.min(n - done, out_len - out_pos);
+				out_pos += step;
+				done += step;
+			}
+
+			return done;
+		}
+
+		@Override
+		public int available() {
+			return out_len - out_pos;
+		}
+
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				skipped.add(consumed - emitted);
+				passed.add(emitted);
+				consumed = emitted = 0;
+			}
+		}
+
+		/**
+		 * Produce the next run of output.
+		 *
+		 * @return false at end of input.
+		 */
+		private boolean fill() throws IOException {
+			out_pos = out_len = 0;
+
+			while (out_len < buf.length) {
+				if (pos == limit && !refill()) {
+					break;
+				}
+
+				int lt = pos;
+				while (lt < limit && buf[lt] != '<') {
+					lt++;
+				}
+
+				emit(buf, pos, lt - pos);
+				consumed += lt - pos;
+				pos = lt;
+
+				if (lt < limit) {
+					markup();
+				}
+			}
+
+			return out_len > 0;
+		}
+
+		/**
+		 * Pass on or drop one markup construct, starting at '&lt;'.
+		 */
+		private void markup() throws IOException {
+			int mark = out_len;
+			copy(next());
+			int c = next();
+
+			if (c == '!') {
+				copy(c);
+				declaration(true);
+				return;
+			} else if (c == '?') {
+				copy(c);
+				until(true, '?', '>');
+				return;
+			}
+
+			boolean end_tag = c == '/';
+			if (end_tag) {
+				copy(c);
+				c = next();
+			}
+
+			c = readName(c, true);
+			int local = localName();
+
+			if (end_tag || !isSkipped(name, local, name_len)) {
+				if (c != -1) {
+					copy(c);
+				}
+				return;
+			}
+
+			// Drop the tag read so far, and the rest of the composite.
+			emitted -= out_len - mark;
+			out_len = mark;
+			if (c == '>' || (c != '/' && tagEnd(c))) {
+				element(name, name_len);
+			} else if (c == '/') {
+				tagEnd(next());
+			}
+		}
+
+		/**
+		 * Drop the content and end tag of an element whose start tag has been read.
+		 */
+		private void element(byte[] open, int open_len) throws IOException {
+			byte[] skip_name = Arrays.copyOf(open, open_len);
+			int depth = 1;
+
+			while (depth > 0) {
+				int c = next();
+				while (c != '<' && c != -1) {
+					if (pos < limit) {
+						int lt = pos;
+						while (lt < limit && buf[lt] != '<') {
+							lt++;
+						}
+						consumed += lt - pos;
+						pos = lt;
+					}
+					c = next();
+				}
+
+				if (c == -1) {
+					return;
+				}
+
+				c = next();
+
+				if (c == '!') {
+					declaration(false);
+					continue;
+				} else if (c == '?') {
+					until(false, '?', '>');
+					continue;
+				}
+
+				boolean end_tag = c == '/';
+				c = readName(end_tag ? next() : c, false);
+				boolean same = name_len == skip_name.length && regionMatches(name, 0, skip_name, 0, name_len);
+
+				if (end_tag) {
+					if (c != '>') {
+						until(false, '>');
+					}
+					if (same) {
+						depth--;
+					}
+				} else if (c == '>') {
+					if (same) {
+						depth++;
+					}
+				} else if (c == '/') {
+					next();
+				} else if (tagEnd(c) && same) {
+					depth++;
+				}
+			}
+		}
+
+		/**
+		 * Read a tag name starting with byte c into the name buffer.
+		 *
+		 * @return The byte after the name: whitespace, '/', '>' or -1.
+		 */
+		private int readName(int c, boolean pass) throws IOException {
+			name_len = 0;
+
+			while (c != -1 && c != '>' && c != '/' && c > ' ') {
+				if (pass) {
+					copy(c);
+				}
+				if (name_len < MAX_NAME) {
+					name[name_len++] = (byte) c;
+				}
+				c = next();
+			}
+
+			return c;
+		}
+
+		/**
+		 * @return Start of the local part of the name buffer.
+		 */
+		private int localName() {
+			int local = 0;
+
+			for (int i = 0; i < name_len; i++) {
+				if (name[i] == ':') {
+					local = i + 1;
+				}
+			}
+
+			return local;
+		}
+
+		/**
+		 * Drop the attributes and end of a start tag, after the name. Quoted
+		 * attribute values may contain '&gt;'.
+		 *
+		 * @return true if the element has content, false if the tag was empty.
+		 */
+		private boolean tagEnd(int c) throws IOException {
+			int quote = 0;
+			int last = 0;
+
+			while (c != -1) {
+				if (quote != 0) {
+					if (c == quote) {
+						quote = 0;
+					}
+				} else if (c == '"' || c == '\'') {
+					quote = c;
+				} else if (c == '>') {
+					return last != '/';
+				}
+
+				last = c;
+				c = next();
+			}
+
+			return false;
+		}
+
+		/**
+		 * Pass on or drop a comment, CDATA section or DOCTYPE declaration after
+		 * "&lt;!".
+		 */
+		private void declaration(boolean pass) throws IOException {
+			int c = next();
+			if (pass && c != -1) {
+				copy(c);
+			}
+
+			if (c == '-') {
+				c = next();
+				if (pass && c != -1) {
+					copy(c);
+				}
+				until(pass, '-', '-', '>');
+			} else if (c == '[') {
+				until(pass, ']', ']', '>');
+			} else {
+				// DOCTYPE, possibly with an internal subset in square brackets.
+				int depth = 0;
+				while (c != -1 && !(c == '>' && depth == 0)) {
+					c = next();
+					if (pass && c != -1) {
+						copy(c);
+					}
+					if (c == '[') {
+						depth++;
+					} else if (c == ']') {
+						depth--;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Pass on or drop input up to and including the given terminator sequence
+		 * (up to 8 bytes).
+		 */
+		private void until(boolean pass, int... terminator) throws IOException {
+			long target = 0;
+			long mask = 0;
+			for (int t : terminator) {
+				target = (target << 8) | t;
+				mask = (mask << 8) | 0xff;
+			}
+
+			long window = 0;
+			int c;
+			while ((c = next()) != -1) {
+				if (pass) {
+					copy(c);
+				}
+				window = (window << 8) | c;
+				if ((window & mask) == target) {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Read the next input byte.
+		 *
+		 * @return Byte value, or -1 at end of input.
+		 */
+		private int next() throws IOException {
+			if (pos == limit && !refill()) {
+				return -1;
+			}
+
+			consumed++;
+			return buf[pos++] & 0xff;
+		}
+
+		private boolean refill() throws IOException {
+			int n = in.read(buf, 0, buf.length);
+
+			if (n <= 0) {
+				return false;
+			}
+
+			pos = 0;
+			limit = n;
+			return true;
+		}
+
+		private void copy(int c) {
+			if (out_len == out.length) {
+				out = Arrays.copyOf(out, out.length * 2);
+			}
+
+			out[out_len++] = (byte) c;
+			emitted++;
+		}
+
+		private void emit(byte[] b, int off, int len) {
+			if (out_len + len > out.length) {
+				out = Arrays.copyOf(out, Math.max(out.length * 2, out_len + len));
+			}
+
+			System.arraycopy(b, off, out, out_len, len);
+			out_len += len;
+			emitted += len;
+		}
+
+		@Override
+		public String toString() {
+			return in.toString();
+		}
+	}
+}
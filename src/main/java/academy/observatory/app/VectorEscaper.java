@@ -0,0 +1,94 @@
+/* Copyright 2020 Curtin University
+
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Author: Tuan Chien
+*/
+
+package academy.observatory.app;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Copies runs of chars that JSON strings hold unescaped, a whole vector of
+ * chars at a time, with the incubating Vector API. Plain chars are printable
+ * ASCII other than '"' and '\\', and '/' unless it follows '<'; they encode as
+ * one byte each, so a run is copied by narrowing the chars to bytes.
+ *
+ * The class cannot load unless the JVM was started with --add-modules
+ * jdk.incubator.vector, so {@link JsonStreamOutput} checks for the module before
+ * using it and otherwise escapes every char on its own.
+ */
+final class VectorEscaper {
+	private static final VectorSpecies<Short> CHARS = ShortVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class,
+			VectorShape.forBitSize(CHARS.vectorBitSize() / 2));
+
+	/**
+	 * Chars scanned per step: 8 to 32 depending on the vector width.
+	 */
+	static final int LANES = CHARS.length();
+
+	private VectorEscaper() {
+	}
+
+	/**
+	 * Copy the plain chars from the start of chars[from, to) into out as bytes.
+	 * Only whole vectors are scanned, so fewer than {@link #LANES} chars at the
+	 * end are left to the caller. Up to LANES bytes past the run may be
+	 * overwritten, so out must have that much room beyond it.
+	 *
+	 * @param chars The string's chars, from its first char.
+	 * @param from  First char to copy.
+	 * @param to    End of the string.
+	 * @param out   Buffer to copy into.
+	 * @param pos   Position in out of the first byte.
+	 * @return Number of chars copied, each as one byte.
+	 */
+	static int copyPlain(char[] chars, int from, int to, byte[] out, int pos) {
+		int i = from;
+
+		while (to - i >= LANES) {
+			ShortVector v = ShortVector.fromCharArray(CHARS, chars, i);
+
+			// Chars from 0x8000 are negative as shorts, so the first test takes them too.
+			VectorMask<Short> special = v.compare(VectorOperators.LT, (short) ' ')
+					.or(v.compare(VectorOperators.GE, (short) 0x80))
+					.or(v.compare(VectorOperators.EQ, (short) '"'))
+					.or(v.compare(VectorOperators.EQ, (short) '\\'));
+			VectorMask<Short> slash = v.compare(VectorOperators.EQ, (short) '/');
+
+			if (i == 0) {
+				special = special.or(slash);
+			} else if (slash.anyTrue()) {
+				ShortVector prev = ShortVector.fromCharArray(CHARS, chars, i - 1);
+				special = special.or(slash.and(prev.compare(VectorOperators.EQ, (short) '<')));
+			}
+
+			((ByteVector) v.convertShape(VectorOperators.S2B, BYTES, 0)).intoArray(out, pos + i - from);
+
+			if (special.anyTrue()) {
+				return i - from + special.firstTrue();
+			}
+
+			i += LANES;
+		}
+
+		return i - from;
+	}
+}
@@ -1,7 +1,20 @@
 package academy.observatory.app;
 
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import java.io.*;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 
 import org.junit.FixMethodOrder;
 import org.junit.Test;
@@ -27,6 +40,8 @@ import academy.observatory.app.OnixParser;
 public class AppTest 
 {
     private static final String OUTPUT_DIR = "/tmp/coki_onix_parser";
+    private static final String MULTI_OUTPUT_DIR = OUTPUT_DIR + "/multi";
+    private static int run_count = 0;
 
     /**
      * Rigorous Test :-)
@@ -39,10 +54,41 @@ public class AppTest
 
         OnixParser parser = new OnixParser();
         parser.parseOnix(new File(input_dir), OUTPUT_DIR);
+        parser.parseOnix(new File(input_dir + "/multi"), MULTI_OUTPUT_DIR);
 
         assertTrue( true );
     }
 
+    /**
+     * Parse the test data and the multi-Product message with the given options,
+     * and check the output is byte-identical to a sequential run.
+     */
+    private static void assertSameOutput(ParserOptions options) throws IOException
+    {
+        String pwd = System.getProperty("user.dir");
+        String run_dir = OUTPUT_DIR + "/run" + run_count++;
+
+        OnixParser.parseOnix(new File(pwd + "/test_data"), run_dir, options);
+        OnixParser.parseOnix(new File(pwd + "/test_data/multi"), run_dir + "/multi", options);
+
+        assertSameFiles(OUTPUT_DIR, run_dir);
+        assertSameFiles(MULTI_OUTPUT_DIR, run_dir + "/multi");
+    }
+
+    /**
+     * Check the full, update and delete record files of two runs are
+     * byte-identical.
+     */
+    private static void assertSameFiles(String expected_dir, String actual_dir) throws IOException
+    {
+        String[] files = { OnixParser.FULL_RECORD_FILE, OnixParser.UPDATE_RECORD_FILE, OnixParser.DELETE_RECORD_FILE };
+        for (String file : files) {
+            byte[] expected = Files.readAllBytes(new File(expected_dir + "/" + file).toPath());
+            byte[] actual = Files.readAllBytes(new File(actual_dir + "/" + file).toPath());
+            assertArrayEquals(actual_dir + "/" + file, expected, actual);
+        }
+    }
+
     @Test
     public void testFullRecords()
     {
@@ -328,6 +374,914 @@ public class AppTest
         assert(object.getString("GTIN_13").equals("9780000000000"));
     }
 
+    @Test
+    public void testParallelOutputMatchesSequential() throws IOException
+    {
+        assertSameOutput(new ParserOptions().threads(4).splitSize(1024));
+    }
+
+    @Test
+    public void testVirtualOutputMatchesSequential() throws IOException
+    {
+        // Fewer permits than chunks, so later chunks wait for earlier ones.
+        assertSameOutput(new ParserOptions().mode(ParserOptions.Mode.VIRTUAL).maxConcurrency(3).splitSize(1024));
+        assertSameOutput(ParserOptions.parse(new String[] { "--mode=virtual", "--max-concurrency=256", "--split-size=2K" }));
+        // Every chunk runs on a new virtual thread, sharing the pooled XML factories.
+        assertSameOutput(new ParserOptions().mode(ParserOptions.Mode.VIRTUAL).engine(ParserOptions.Engine.STAX)
+                .maxConcurrency(3).splitSize(1024));
+    }
+
+    @Test(timeout = 60000)
+    public void testReorderBuffer() throws Exception
+    {
+        // Chunks of one file finish out of order and are put back in order, even
+        // when only one record may be held back.
+        assertSameOutput(new ParserOptions().threads(4).splitSize(1024).reorderBuffer(1));
+        assertSameOutput(new ParserOptions().threads(2).splitSize(512).reorderBuffer(1));
+        assertSameOutput(ParserOptions.parse(new String[] { "--threads=4", "--split-size=1K", "--reorder-buffer=3" }));
+
+        // Unordered output has the same records, in any order.
+        String unordered_dir = OUTPUT_DIR + "/unordered";
+        ParserOptions unordered = ParserOptions.parse(new String[] { "--unordered", "--threads=4", "--split-size=1K" });
+        assert(!unordered.ordered());
+        OnixParser.parseOnix(new File(System.getProperty("user.dir") + "/test_data/multi"), unordered_dir, unordered);
+        for (String file : new String[] { OnixParser.FULL_RECORD_FILE, OnixParser.UPDATE_RECORD_FILE,
+                OnixParser.DELETE_RECORD_FILE }) {
+            List<String> sequential = Files.readAllLines(new File(MULTI_OUTPUT_DIR + "/" + file).toPath());
+            List<String> records = Files.readAllLines(new File(unordered_dir + "/" + file).toPath());
+            java.util.Collections.sort(sequential);
+            java.util.Collections.sort(records);
+            assertEquals(sequential, records);
+        }
+
+        // Records of a later source are held back, and its worker waits once the
+        // buffer is full, until the sources before it finish.
+        String reorder_dir = OUTPUT_DIR + "/reorder";
+        new File(reorder_dir).mkdirs();
+        String code = com.tectonica.jonix.common.codelist.NotificationOrUpdateTypes.Notification_confirmed_on_publication
+                .getCode();
+        RecordSink sink = new RecordSink(reorder_dir, new ParserOptions());
+        ReorderBuffer reorder = new ReorderBuffer(sink, 1);
+
+        reorder.write(1, 0, code, "{\"b\":0}".getBytes(), 0, 7);
+        Thread waiting = new Thread(() -> {
+            try {
+                reorder.admit(1);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        waiting.start();
+        waiting.join(200);
+        assert(waiting.isAlive());
+
+        reorder.admit(0);
+        reorder.write(0, 0, code, "{\"a\":0}".getBytes(), 0, 7);
+        reorder.write(0, 1, code, "{\"a\":1}".getBytes(), 0, 7);
+        reorder.finish(0, 2);
+        waiting.join();
+        reorder.write(1, 1, code, "{\"b\":1}".getBytes(), 0, 7);
+        reorder.finish(1, 2);
+        sink.close();
+
+        assertEquals(Arrays.asList("{\"a\":0}", "{\"a\":1}", "{\"b\":0}", "{\"b\":1}"),
+                Files.readAllLines(new File(reorder_dir + "/" + OnixParser.FULL_RECORD_FILE).toPath()));
+
+        // Once aborted, workers fail rather than wait for a source that never ends.
+        ReorderBuffer aborted = new ReorderBuffer(null, 1);
+        aborted.abort(new IOException("broken"));
+        try {
+            aborted.admit(1);
+            assert(false);
+        } catch (IOException e) {
+            assertEquals("broken", e.getCause().getMessage());
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testFailedSourceDoesNotHang() throws IOException
+    {
+        // A broken first file never finishes, while the files after it fill a
+        // one-record reorder buffer and hold every worker and permit.
+        String pwd = System.getProperty("user.dir");
+        File input_dir = new File(OUTPUT_DIR + "/failing_input");
+        input_dir.mkdirs();
+        Files.write(new File(input_dir, "a.xml.gz").toPath(), "not gzip".getBytes());
+        for (int i = 0; i < 8; i++) {
+            Files.copy(new File(pwd + "/test_data/full_test.xml").toPath(), new File(input_dir, "b" + i + ".xml").toPath(),
+                    java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        ParserOptions[] runs = { new ParserOptions().threads(2).reorderBuffer(1),
+                new ParserOptions().mode(ParserOptions.Mode.VIRTUAL).maxConcurrency(2).reorderBuffer(1) };
+        for (ParserOptions options : runs) {
+            OnixParser.parseOnix(input_dir, OUTPUT_DIR + "/failing", options);
+        }
+    }
+
+    @Test
+    public void testPipelineOutputMatchesSequential() throws IOException
+    {
+        assertSameOutput(new ParserOptions().mode(ParserOptions.Mode.PIPELINE).threads(2).splitSize(1024));
+        // One-slot queues and reorder buffer, so every stage waits on its neighbours.
+        assertSameOutput(new ParserOptions().mode(ParserOptions.Mode.PIPELINE).threads(4).splitSize(1024)
+                .queueDepth(1).reorderBuffer(1));
+    }
+
+    @Test(timeout = 60000)
+    public void testPipelineStopsWhenAStageFails() throws Exception
+    {
+        // The last stage fails on its first item, with items still to queue in
+        // front of it.
+        Pipeline pipeline = new Pipeline();
+        Pipeline.Stage<Integer> last = pipeline.stage("last", 1, 1, null, item -> {
+            throw new IOException("broken");
+        });
+        Pipeline.Stage<Integer> first = pipeline.stage("first", 2, 1, last, last::put);
+        pipeline.start(0);
+
+        try {
+            for (int i = 0; i < 100; i++) {
+                first.put(i);
+            }
+            first.end();
+        } catch (InterruptedException e) {
+            // Stopped by the failure.
+        }
+
+        try {
+            pipeline.await();
+            assert(false);
+        } catch (IOException e) {
+            assertEquals("broken", e.getMessage());
+        }
+
+        // A broken first file fails the read stage while the files after it wait
+        // in one-slot queues.
+        String pwd = System.getProperty("user.dir");
+        File input_dir = new File(OUTPUT_DIR + "/failing_pipeline_input");
+        input_dir.mkdirs();
+        Files.write(new File(input_dir, "a.xml.gz").toPath(), "not gzip".getBytes());
+        for (int i = 0; i < 8; i++) {
+            Files.copy(new File(pwd + "/test_data/full_test.xml").toPath(), new File(input_dir, "b" + i + ".xml").toPath(),
+                    java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        OnixParser.parseOnix(input_dir, OUTPUT_DIR + "/failing_pipeline",
+                new ParserOptions().mode(ParserOptions.Mode.PIPELINE).threads(2).queueDepth(1).reorderBuffer(1));
+    }
+
+    @Test
+    public void testMappedInputMatchesSequential() throws IOException
+    {
+        String pwd = System.getProperty("user.dir");
+        // Small windows so reads cross window boundaries.
+        File full_test = new File(pwd + "/test_data/full_test.xml");
+        MappedFile mapped = MappedFile.map(full_test, 1000);
+        assert(mapped.windows() > 1);
+        assertArrayEquals(Files.readAllBytes(full_test.toPath()), mapped.stream(0, mapped.size()).readAllBytes());
+
+        assertSameOutput(new ParserOptions().mmap(true).threads(4).splitSize(1024));
+    }
+
+    @Test
+    public void testSplitMultiProductMessage() throws IOException
+    {
+        // Comments, processing instructions and CDATA holding Product tags sit
+        // between and inside the records, and the DOCTYPE's internal subset holds
+        // one too, so a scanner fooled by any of them splits in the wrong place.
+        String pwd = System.getProperty("user.dir");
+        File multi_test = new File(pwd + "/test_data/multi/multi_test.xml");
+        byte[] xml = Files.readAllBytes(multi_test.toPath());
+        List<ProductSplitter.Chunk> chunks = new java.util.ArrayList<ProductSplitter.Chunk>();
+        List<ProductSplitter.Chunk> mapped_chunks = new java.util.ArrayList<ProductSplitter.Chunk>();
+
+        assert(ProductSplitter.split(multi_test, 1024, chunks::add) > 1);
+        ProductSplitter.split(MappedFile.map(multi_test, 1000), multi_test, 1024, mapped_chunks::add);
+        assertEquals(chunks.size(), mapped_chunks.size());
+
+        for (int i = 0; i < chunks.size(); i++) {
+            ProductSplitter.Chunk chunk = chunks.get(i);
+            assertEquals(chunk.start, mapped_chunks.get(i).start);
+            assertEquals(chunk.end, mapped_chunks.get(i).end);
+
+            String records = new String(xml, (int) chunk.start, (int) (chunk.end - chunk.start), "UTF-8");
+            assert(records.startsWith("<Product>\n\t\t<RecordReference>"));
+            assert(records.endsWith("</DescriptiveDetail>\n\t</Product>"));
+        }
+
+        assertEquals(18, Files.readAllLines(new File(MULTI_OUTPUT_DIR + "/" + OnixParser.FULL_RECORD_FILE).toPath()).size());
+        assertSameOutput(new ParserOptions().threads(4).splitSize(1024));
+        assertSameOutput(new ParserOptions().threads(4).splitSize(1024).mmap(true));
+    }
+
+    @Test
+    public void testStreamingJsonMatchesTree() throws IOException
+    {
+        // Strings are escaped and encoded exactly as org.json does.
+        char[] alphabet = { 'a', 'Z', '0', ' ', '"', '\\', '/', '<', '\b', '\t', '\n', '\f', '\r',
+                '\u0000', '\u001f', '\u007f', '\u0080', '\u009f', '\u00a0', '\u00e9', '\u07ff', '\u0800',
+                '\u1fff', '\u2000', '\u2028', '\u20ac', '\u2100', '\ud83d', '\ude00', '\uffff' };
+        java.util.Random random = new java.util.Random(42);
+
+        for (int i = 0; i < 10000; i++) {
+            char[] chars = new char[random.nextInt(12)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = alphabet[random.nextInt(alphabet.length)];
+            }
+            String value = new String(chars);
+
+            JsonStreamOutput stream = new JsonStreamOutput();
+            stream.startObject();
+            stream.put("key", value);
+            stream.endObject();
+
+            byte[] tree = new JSONObject().put("key", value).toString().getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            assertArrayEquals(tree, stream.toByteArray());
+        }
+
+        // Cached names and code list descriptions are copied with the same bytes.
+        JsonStreamOutput cached = new JsonStreamOutput();
+        cached.put("Description", "");
+        for (Class<?> type : new Class<?>[] { com.tectonica.jonix.common.codelist.ProductForms.class,
+                com.tectonica.jonix.common.codelist.ContributorRoles.class,
+                com.tectonica.jonix.common.codelist.Languages.class }) {
+            for (Object code : type.getEnumConstants()) {
+                String description = ((com.tectonica.jonix.common.OnixCodelist) code).getDescription();
+                cached.reset();
+                cached.startObject();
+                cached.put("Description", description);
+                cached.endObject();
+
+                byte[] tree = new JSONObject().put("Description", description).toString()
+                        .getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                assertArrayEquals(tree, cached.toByteArray());
+                assertEquals(tree.length - 3, cached.copied());
+            }
+        }
+        assert(CodelistStrings.size() > 1000);
+
+        // Whole records read back the same from both serialisations.
+        String pwd = System.getProperty("user.dir");
+        String tree_dir = OUTPUT_DIR + "/tree";
+        OnixParser.parseOnix(new File(pwd + "/test_data"), tree_dir, new ParserOptions().json(ParserOptions.Json.TREE));
+        String jackson_dir = OUTPUT_DIR + "/jackson";
+        OnixParser.parseOnix(new File(pwd + "/test_data"), jackson_dir, new ParserOptions().json(ParserOptions.Json.JACKSON));
+
+        String[] files = { OnixParser.FULL_RECORD_FILE, OnixParser.UPDATE_RECORD_FILE, OnixParser.DELETE_RECORD_FILE };
+        for (String file : files) {
+            java.util.List<String> streamed = Files.readAllLines(new File(OUTPUT_DIR + "/" + file).toPath());
+            java.util.List<String> built = Files.readAllLines(new File(tree_dir + "/" + file).toPath());
+            java.util.List<String> generated = Files.readAllLines(new File(jackson_dir + "/" + file).toPath());
+            assert(streamed.size() == built.size());
+            assert(generated.size() == built.size());
+
+            for (int i = 0; i < streamed.size(); i++) {
+                assertTrue(new JSONObject(streamed.get(i)).similar(new JSONObject(built.get(i))));
+                assertTrue(new JSONObject(generated.get(i)).similar(new JSONObject(built.get(i))));
+            }
+        }
+    }
+
+    @Test
+    public void testJsonOutputsSharedAcrossThreads() throws Exception
+    {
+        // One new thread after another, as with a virtual thread per task, still
+        // writes into the same buffer.
+        ParserOptions.Json[] modes = { ParserOptions.Json.STREAM, ParserOptions.Json.JACKSON };
+
+        for (ParserOptions.Json json : modes) {
+            ProductWriter<String> writer = new ProductWriter<String>((product, out) -> {
+                out.startObject();
+                out.put("RecordReference", product);
+                out.endObject();
+            }, json);
+            byte[][] buffers = new byte[2][];
+
+            for (int i = 0; i < buffers.length; i++) {
+                int task = i;
+                Thread thread = new Thread(() -> {
+                    try {
+                        writer.write("rec." + task, (line, off, len) -> buffers[task] = line);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                thread.start();
+                thread.join();
+            }
+
+            assert(buffers[0] != null && buffers[0] == buffers[1]);
+        }
+    }
+
+    @Test
+    public void testShardedOutputMatchesSequential() throws IOException
+    {
+        String pwd = System.getProperty("user.dir");
+        String sharded_dir = OUTPUT_DIR + "/sharded";
+
+        ParserOptions options = new ParserOptions().shardRecords(1);
+        OnixParser.parseOnix(new File(pwd + "/test_data"), sharded_dir, options);
+
+        JSONObject manifest = new JSONObject(new JSONTokener(new FileReader(sharded_dir + "/" + OnixParser.MANIFEST_FILE)));
+        String[] names = { "full", "update", "delete" };
+        String[] files = { OnixParser.FULL_RECORD_FILE, OnixParser.UPDATE_RECORD_FILE, OnixParser.DELETE_RECORD_FILE };
+
+        for (int i = 0; i < names.length; i++) {
+            ByteArrayOutputStream joined = new ByteArrayOutputStream();
+            JSONArray shards = manifest.getJSONArray(names[i]);
+
+            for (int j = 0; j < shards.length(); j++) {
+                JSONObject shard = shards.getJSONObject(j);
+                byte[] bytes = Files.readAllBytes(new File(sharded_dir + "/" + shard.getString("file")).toPath());
+                assert(shard.getString("file").equals(String.format("%s-%05d.jsonl", names[i], j)));
+                assert(shard.getLong("records") <= 1);
+                assert(shard.getLong("bytes") == bytes.length);
+                joined.write(bytes);
+            }
+
+            byte[] sequential = Files.readAllBytes(new File(OUTPUT_DIR + "/" + files[i]).toPath());
+            assertArrayEquals(sequential, joined.toByteArray());
+        }
+    }
+
+    @Test
+    public void testWriterDurability() throws IOException
+    {
+        String sync_dir = OUTPUT_DIR + "/durability";
+        new File(sync_dir).mkdirs();
+
+        ParserOptions options = ParserOptions.parse(new String[] { "--fsync=64K" });
+        assertEquals(ParserOptions.Durability.EVERY, options.durability());
+        assertEquals(64 << 10, options.syncSize());
+        assertEquals(ParserOptions.Durability.END, ParserOptions.parse(new String[] { "--fsync=end" }).durability());
+
+        // 3 MB of records: one gathering write without syncs, a sync at the end,
+        // or a write and a sync once 64 KB is buffered (every 66 records) and one
+        // for the rest at the end.
+        byte[] line = new byte[999];
+        Arrays.fill(line, (byte) 'x');
+        ParserOptions.Durability[] modes = { ParserOptions.Durability.NONE, ParserOptions.Durability.END,
+                ParserOptions.Durability.EVERY };
+        long[] syncs = { 0, 1, 46 };
+
+        for (int i = 0; i < modes.length; i++) {
+            JsonlWriter writer = new JsonlWriter(sync_dir, "full", modes[i] + ".jsonl",
+                    new ParserOptions().durability(modes[i]).syncSize(64 << 10));
+            for (int j = 0; j < 3000; j++) {
+                writer.write(line, 0, line.length);
+            }
+            writer.close();
+
+            assertEquals(3000 * 1000, new File(sync_dir + "/" + modes[i] + ".jsonl").length());
+            assertEquals(syncs[i], writer.syncs());
+            assertEquals(modes[i] == ParserOptions.Durability.EVERY ? syncs[i] : 1, writer.writes());
+        }
+
+        // Syncing after every few records leaves the output unchanged.
+        assertSameOutput(new ParserOptions().durability(ParserOptions.Durability.EVERY).syncSize(1024).threads(2));
+    }
+
+    @Test
+    public void testWriterThreadOutputMatchesSequential() throws IOException
+    {
+        // Blocks smaller than a record are handed off after every record, larger
+        // ones after several.
+        for (int threads : new int[] { 1, 2 }) {
+            assertSameOutput(new ParserOptions().writeBuffer(64).threads(threads).splitSize(1024));
+            assertSameOutput(new ParserOptions().writeBuffer(4096).threads(threads).splitSize(1024));
+        }
+
+        // Records are written in order across many blocks and shards.
+        String shard_dir = OUTPUT_DIR + "/async_shards";
+        new File(shard_dir).mkdirs();
+        JsonlWriter writer = new JsonlWriter(shard_dir, "full", OnixParser.FULL_RECORD_FILE,
+                new ParserOptions().shardRecords(1000).writeBuffer(4096));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 5000; i++) {
+            byte[] line = ("{\"n\":" + i + "}").getBytes(java.nio.charset.StandardCharsets.UTF_8);
+            writer.write(line, 0, line.length);
+            expected.write(line);
+            expected.write('\n');
+        }
+        writer.close();
+
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        assertEquals(5, writer.shards().size());
+        for (JsonlWriter.Shard shard : writer.shards()) {
+            assertEquals(1000, shard.records);
+            joined.write(Files.readAllBytes(new File(shard_dir + "/" + shard.file).toPath()));
+        }
+        assertArrayEquals(expected.toByteArray(), joined.toByteArray());
+        assert(writer.report().startsWith("Wrote 5000 full records"));
+    }
+
+    @Test
+    public void testWriteQueueOutputMatchesSequential() throws Exception
+    {
+        for (int threads : new int[] { 1, 2 }) {
+            assertSameOutput(new ParserOptions().writeQueue(4).threads(threads).splitSize(1024));
+        }
+
+        // Producers racing on a small ring lose no records and keep their own order.
+        String ring_dir = OUTPUT_DIR + "/ring";
+        new File(ring_dir).mkdirs();
+        JsonlWriter writer = new JsonlWriter(ring_dir, "full", OnixParser.FULL_RECORD_FILE, new ParserOptions());
+        RecordRing ring = new RecordRing(writer, "full", 16);
+        Thread[] producers = new Thread[8];
+        for (int t = 0; t < producers.length; t++) {
+            int id = t;
+            producers[t] = new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    byte[] line = ("{\"t\":" + id + ",\"n\":" + i + "}").getBytes(java.nio.charset.StandardCharsets.UTF_8);
+                    try {
+                        ring.publish(line, 0, line.length);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        ring.close();
+        writer.close();
+
+        int[] next = new int[producers.length];
+        List<String> lines = Files.readAllLines(new File(ring_dir + "/" + OnixParser.FULL_RECORD_FILE).toPath());
+        assertEquals(40000, lines.size());
+        for (String line : lines) {
+            JSONObject record = new JSONObject(line);
+            assertEquals(next[record.getInt("t")]++, record.getInt("n"));
+        }
+        assert(ring.report().startsWith("Queued 40000 full records"));
+    }
+
+    @Test
+    public void testCompressedInputMatchesSequential() throws IOException
+    {
+        String pwd = System.getProperty("user.dir");
+        File input_dir = new File(OUTPUT_DIR + "/compressed_input");
+        String compressed_dir = OUTPUT_DIR + "/compressed";
+        input_dir.mkdirs();
+
+        File delete_test = new File(pwd + "/test_data/delete_test.xml");
+        File full_test = new File(pwd + "/test_data/full_test.xml");
+        File update_test = new File(pwd + "/test_data/update_test.xml");
+
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(new File(input_dir, "a.xml.gz")))) {
+            Files.copy(delete_test.toPath(), out);
+        }
+
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(new File(input_dir, "b.zip")))) {
+            out.putNextEntry(new ZipEntry("readme.txt"));
+            out.write("not onix".getBytes());
+            out.putNextEntry(new ZipEntry("full/full_test.xml"));
+            Files.copy(full_test.toPath(), out);
+        }
+
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(
+                new GZIPOutputStream(new FileOutputStream(new File(input_dir, "c.tar.gz"))))) {
+            TarArchiveEntry entry = new TarArchiveEntry("update_test.xml");
+            entry.setSize(update_test.length());
+            out.putArchiveEntry(entry);
+            Files.copy(update_test.toPath(), out);
+            out.closeArchiveEntry();
+        }
+
+        OnixParser.parseOnix(input_dir, compressed_dir);
+        assertSameFiles(OUTPUT_DIR, compressed_dir);
+    }
+
+    @Test
+    public void testSpecMapperMatchesCode() throws IOException
+    {
+        assertSameOutput(new ParserOptions().mapper(ParserOptions.Mapper.SPEC));
+
+        // Paths are resolved when the spec is compiled, not when it is run.
+        try {
+            MappingPlan.compile(new JSONObject("{\"product\": [{\"key\": \"X\", \"path\": \"noSuchField\"}]}"),
+                    FieldProjection.ALL);
+            assert(false);
+        } catch (IllegalArgumentException e) {
+            assert(e.getMessage().contains("noSuchField"));
+        }
+    }
+
+    @Test
+    public void testFieldProjection() throws IOException
+    {
+        String pwd = System.getProperty("user.dir");
+        List<String> fields = Arrays.asList("ISBN13", "TitleDetails", "RecordReference");
+        Set<String> allowed = new HashSet<String>(Arrays.asList("ISBN13", "TitleDetails", "RecordRef",
+                "RecordRef_src", "RecordRef_ts", "RecordRef_src_type"));
+
+        String code_dir = OUTPUT_DIR + "/fields_code";
+        String spec_dir = OUTPUT_DIR + "/fields_spec";
+        OnixParser.parseOnix(new File(pwd + "/test_data"), code_dir, new ParserOptions().fields(fields));
+        OnixParser.parseOnix(new File(pwd + "/test_data"), spec_dir,
+                new ParserOptions().fields(fields).mapper(ParserOptions.Mapper.SPEC));
+
+        boolean titles = false;
+        String[] files = { OnixParser.FULL_RECORD_FILE, OnixParser.UPDATE_RECORD_FILE, OnixParser.DELETE_RECORD_FILE };
+        for (String file : files) {
+            List<String> code = Files.readAllLines(new File(code_dir + "/" + file).toPath());
+            List<String> spec = Files.readAllLines(new File(spec_dir + "/" + file).toPath());
+            assertEquals(code, spec);
+
+            for (String line : code) {
+                JSONObject record = new JSONObject(line);
+                assert(allowed.containsAll(record.keySet()));
+                titles |= record.has("TitleDetails");
+            }
+        }
+        assert(titles);
+
+        for (ParserOptions.Mapper mapper : ParserOptions.Mapper.values()) {
+            try {
+                OnixParser.productWriter(new ParserOptions().mapper(mapper).fields(Arrays.asList("NoSuchField")));
+                assert(false);
+            } catch (IllegalArgumentException e) {
+                assert(e.getMessage().contains("NoSuchField"));
+            }
+        }
+    }
+
+    @Test
+    public void testSubtreeSkipper() throws IOException
+    {
+        SubtreeSkipper skipper = new SubtreeSkipper(ParserOptions.UNMAPPED_COMPOSITES);
+        String message = "<ONIXMessage><!-- <ProductSupply> --><Product><A>1</A>"
+                + "<ProductSupply a=\"x>y\"><B/><ProductSupply>2</ProductSupply><!-- </ProductSupply> -->"
+                + "<![CDATA[</ProductSupply>]]></ProductSupply>"
+                + "<ContentDetail/><contentdetail >3</contentdetail><onix:ProductSupply>4</onix:ProductSupply>"
+                + "<ProductSupplyDetail>5</ProductSupplyDetail></Product></ONIXMessage>";
+        String expected = "<ONIXMessage><!-- <ProductSupply> --><Product><A>1</A>"
+                + "<ProductSupplyDetail>5</ProductSupplyDetail></Product></ONIXMessage>";
+
+        byte[] input = message.getBytes("UTF-8");
+        byte[] output;
+        try (InputStream in = skipper.wrap(new ByteArrayInputStream(input))) {
+            output = in.readAllBytes();
+        }
+
+        assertEquals(expected, new String(output, "UTF-8"));
+        assertEquals(output.length, skipper.passed());
+        assertEquals(input.length - output.length, skipper.skipped());
+
+        try {
+            new SubtreeSkipper(Arrays.asList("NoSuchComposite"));
+            assert(false);
+        } catch (IllegalArgumentException e) {
+            assert(e.getMessage().contains("NoSuchComposite"));
+        }
+
+        // Skipping composites the mapping does not read leaves the output unchanged.
+        String pwd = System.getProperty("user.dir");
+        File input_dir = new File(OUTPUT_DIR + "/supply_input");
+        String supply_dir = OUTPUT_DIR + "/supply";
+        input_dir.mkdirs();
+
+        String supply = "<ProductSupply><SupplyDetail><Supplier><SupplierRole>01</SupplierRole>"
+                + "<SupplierName>Supplier</SupplierName></Supplier><ProductAvailability>21</ProductAvailability>"
+                + "<Price><PriceAmount>10.00</PriceAmount><CurrencyCode>GBP</CurrencyCode></Price>"
+                + "</SupplyDetail></ProductSupply>";
+        String[] files = { "delete_test.xml", "full_test.xml", "update_test.xml" };
+        for (String file : files) {
+            String xml = new String(Files.readAllBytes(new File(pwd + "/test_data/" + file).toPath()), "UTF-8");
+            Files.write(new File(input_dir, file).toPath(), xml.replace("</Product>", supply + "</Product>")
+                    .getBytes("UTF-8"));
+        }
+
+        OnixParser.parseOnix(input_dir, supply_dir, new ParserOptions().skip(ParserOptions.UNMAPPED_COMPOSITES));
+
+        String[] outputs = { OnixParser.FULL_RECORD_FILE, OnixParser.UPDATE_RECORD_FILE, OnixParser.DELETE_RECORD_FILE };
+        for (String file : outputs) {
+            byte[] plain = Files.readAllBytes(new File(OUTPUT_DIR + "/" + file).toPath());
+            byte[] skipped = Files.readAllBytes(new File(supply_dir + "/" + file).toPath());
+            assertArrayEquals(plain, skipped);
+        }
+    }
+
+    @Test
+    public void testChannelInputMatchesFiles() throws Exception
+    {
+        String pwd = System.getProperty("user.dir");
+        String[] inputs = { "delete_test.xml", "full_test.xml", "update_test.xml" };
+        String[] files = { OnixParser.FULL_RECORD_FILE, OnixParser.UPDATE_RECORD_FILE, OnixParser.DELETE_RECORD_FILE };
+        ByteArrayOutputStream[] joined = { new ByteArrayOutputStream(), new ByteArrayOutputStream(),
+                new ByteArrayOutputStream() };
+
+        for (int i = 0; i < inputs.length; i++) {
+            // A byte order mark and a trickle of small writes, read without blocking.
+            byte[] message = Files.readAllBytes(new File(pwd + "/test_data/" + inputs[i]).toPath());
+            java.nio.channels.Pipe pipe = java.nio.channels.Pipe.open();
+            pipe.source().configureBlocking(false);
+
+            Thread writer = new Thread(() -> {
+                try (java.nio.channels.Pipe.SinkChannel sink = pipe.sink()) {
+                    java.nio.ByteBuffer bom = java.nio.ByteBuffer.wrap(new byte[] { (byte) 0xef, (byte) 0xbb, (byte) 0xbf });
+                    while (bom.hasRemaining()) {
+                        sink.write(bom);
+                    }
+
+                    for (int off = 0; off < message.length; off += 7) {
+                        java.nio.ByteBuffer chunk = java.nio.ByteBuffer.wrap(message, off, Math.min(7, message.length - off));
+                        while (chunk.hasRemaining()) {
+                            sink.write(chunk);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            writer.start();
+
+            String channel_dir = OUTPUT_DIR + "/channel_" + i;
+            OnixParser.parseOnix(pipe.source(), inputs[i], channel_dir,
+                    new ParserOptions().engine(ParserOptions.Engine.STAX));
+            writer.join();
+            pipe.source().close();
+
+            for (int j = 0; j < files.length; j++) {
+                joined[j].write(Files.readAllBytes(new File(channel_dir + "/" + files[j]).toPath()));
+            }
+        }
+
+        for (int j = 0; j < files.length; j++) {
+            byte[] sequential = Files.readAllBytes(new File(OUTPUT_DIR + "/" + files[j]).toPath());
+            assertArrayEquals(sequential, joined[j].toByteArray());
+        }
+    }
+
+    @Test
+    public void testChannelInputRejectsUnsupportedOptions() throws IOException
+    {
+        // Skipping and validation need the file path, so a run asking for either
+        // writes nothing rather than every product in full and unchecked.
+        String pwd = System.getProperty("user.dir");
+        ParserOptions[] runs = {
+                new ParserOptions().engine(ParserOptions.Engine.STAX).skip(ParserOptions.UNMAPPED_COMPOSITES),
+                new ParserOptions().engine(ParserOptions.Engine.STAX).validate("onix.xsd"),
+                new ParserOptions().engine(ParserOptions.Engine.STAX).dropInvalid(true) };
+
+        for (int i = 0; i < runs.length; i++) {
+            String rejected_dir = OUTPUT_DIR + "/channel_rejected_" + i;
+            try (java.nio.channels.ReadableByteChannel channel = Files.newByteChannel(
+                    new File(pwd + "/test_data/full_test.xml").toPath())) {
+                OnixParser.parseOnix(channel, "full_test.xml", rejected_dir, runs[i]);
+            }
+            assert(!new File(rejected_dir + "/" + OnixParser.FULL_RECORD_FILE).exists());
+        }
+    }
+
+    @Test
+    public void testDtdEntitiesResolvedOffline() throws IOException
+    {
+        // The DTD and schema are never fetched; the DTD's entities come from the catalog.
+        String pwd = System.getProperty("user.dir");
+        File input_dir = new File(OUTPUT_DIR + "/dtd_input");
+        input_dir.mkdirs();
+
+        String xml = new String(Files.readAllBytes(new File(pwd + "/test_data/full_test.xml").toPath()), "UTF-8")
+                .replace("<ONIXMessage release=\"3.0\"", "<!DOCTYPE ONIXMessage SYSTEM \"http://127.0.0.1:1/onix.dtd\">"
+                        + "<ONIXMessage xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+                        + " xsi:schemaLocation=\"http://127.0.0.1:1/onix.xsd\" release=\"3.0\"")
+                .replace(">TestTitle<", ">Caf&eacute;&nbsp;&unknown;Title<")
+                .replace(">Some text.<", "><p>&mdash;<b>&euro;</b></p><");
+        Files.write(new File(input_dir, "dtd.xml").toPath(), xml.getBytes("UTF-8"));
+
+        ParserOptions[] runs = { new ParserOptions(), new ParserOptions().engine(ParserOptions.Engine.STAX),
+                new ParserOptions().engine(ParserOptions.Engine.STAX).stax(ParserOptions.Stax.AALTO) };
+        List<String> expected = null;
+
+        for (int i = 0; i < runs.length; i++) {
+            String dtd_dir = OUTPUT_DIR + "/dtd_" + i;
+            OnixParser.parseOnix(input_dir, dtd_dir, runs[i]);
+            List<String> lines = Files.readAllLines(new File(dtd_dir + "/" + OnixParser.FULL_RECORD_FILE).toPath());
+
+            if (expected == null) {
+                expected = lines;
+            }
+            assertEquals(expected, lines);
+        }
+
+        try (java.nio.channels.ReadableByteChannel channel = Files.newByteChannel(new File(input_dir, "dtd.xml").toPath())) {
+            OnixParser.parseOnix(channel, "dtd.xml", OUTPUT_DIR + "/dtd_channel",
+                    new ParserOptions().engine(ParserOptions.Engine.STAX));
+        }
+        assertEquals(expected, Files.readAllLines(new File(OUTPUT_DIR + "/dtd_channel/" + OnixParser.FULL_RECORD_FILE).toPath()));
+
+        String record = expected.get(0);
+        assert(record.contains("\"Caf\u00e9\u00a0Title\""));
+        assert(record.contains("<p>\\u2014<b>\\u20ac<\\/b><\\/p>"));
+        assertEquals(253, OnixEntities.size());
+    }
+
+    @Test
+    public void testStaxEngineMatchesJonix() throws IOException
+    {
+        String pwd = System.getProperty("user.dir");
+        File input_dir = new File(OUTPUT_DIR + "/stax_input");
+        input_dir.mkdirs();
+
+        for (String file : new String[] { "delete_test.xml", "full_test.xml", "update_test.xml" }) {
+            Files.copy(new File(pwd + "/test_data/" + file).toPath(), new File(input_dir, file).toPath(),
+                    java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        // Short tags, entities, CDATA, comments, unknown codes and XHTML, in both
+        // reference and short form.
+        String edge = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+                + "<ONIXMessage release=\"3.0\" xmlns=\"http://ns.editeur.org/onix/3.0/reference\">"
+                + "<Header><Sender><SenderName>X</SenderName></Sender></Header><Product>"
+                + "<RecordReference sourcename=\"src &amp; co\" datestamp=\"\">  ref.1 &amp; <![CDATA[cdata]]> </RecordReference>"
+                + "<NotificationType>03</NotificationType><RecordSourceType>04</RecordSourceType>"
+                + "<ProductIdentifier><ProductIDType>15</ProductIDType><IDValue>9780000000001</IDValue></ProductIdentifier>"
+                + "<ProductIdentifier><ProductIDType>06</ProductIDType></ProductIdentifier>"
+                + "<DescriptiveDetail><EditionNumber> 2 </EditionNumber><TitleDetail><TitleType>01</TitleType>"
+                + "<TitleStatement>A <i>bold</i> &lt;title&gt; <!-- c --><?pi x?><![CDATA[x<y]]></TitleStatement>"
+                + "<TitleElement><TitleElementLevel>01</TitleElementLevel><TitleText language=\"eng\">Main</TitleText>"
+                + "<Subtitle>Sub</Subtitle></TitleElement></TitleDetail><TitleDetail><TitleStatement/></TitleDetail>"
+                + "<Contributor><ContributorRole>A01</ContributorRole><ContributorRole>QQQ</ContributorRole>"
+                + "<PersonName>Jane &amp; Doe</PersonName><NameIdentifier><NameIDType>16</NameIDType>"
+                + "<IDValue>0000-0001</IDValue></NameIdentifier>"
+                + "<BiographicalNote><p xmlns=\"http://www.w3.org/1999/xhtml\" class=\"a\">Bio</p><br/></BiographicalNote>"
+                + "</Contributor><Extent><ExtentType>08</ExtentType><ExtentValue>1.5e2</ExtentValue></Extent>"
+                + "<Subject><MainSubject/><SubjectSchemeIdentifier>12</SubjectSchemeIdentifier>"
+                + "<SubjectHeadingText><![CDATA[Only cdata]]></SubjectHeadingText></Subject>"
+                + "<UnknownThing><TitleText>ignored</TitleText></UnknownThing></DescriptiveDetail>"
+                + "<CollateralDetail><TextContent><TextType>03</TextType><Text textformat=\"05\"><p>Para\r\n"
+                + "&#x1F600;</p></Text><Text></Text></TextContent></CollateralDetail></Product>"
+                + "<product><a001>short.2</a001><a002>05</a002>"
+                + "<productidentifier><b221>15</b221><b244>9780000000009</b244></productidentifier>"
+                + "<descriptivedetail><contributor><b035>B01</b035><b036>Short</b036><b044>Short <i>bio</i></b044>"
+                + "</contributor></descriptivedetail></product></ONIXMessage>";
+        Files.write(new File(input_dir, "edge.xml").toPath(), edge.getBytes("UTF-8"));
+
+        for (ParserOptions.Json json : ParserOptions.Json.values()) {
+            String jonix_dir = OUTPUT_DIR + "/engine_jonix";
+            OnixParser.parseOnix(input_dir, jonix_dir, new ParserOptions().json(json));
+
+            for (ParserOptions.Stax provider : ParserOptions.Stax.values()) {
+                String stax_dir = OUTPUT_DIR + "/engine_stax_" + provider;
+                OnixParser.parseOnix(input_dir, stax_dir,
+                        new ParserOptions().json(json).engine(ParserOptions.Engine.STAX).stax(provider));
+
+                assertSameFiles(jonix_dir, stax_dir);
+            }
+        }
+
+        // Jonix keeps the provider it was first used with.
+        try {
+            OnixParser.parseEngine(new ParserOptions().stax(ParserOptions.Stax.WOODSTOX));
+            assert(false);
+        } catch (IllegalStateException e) {
+            assert(e.getMessage().contains("JDK"));
+        }
+
+        try {
+            OnixParser.parseEngine(new ParserOptions().engine(ParserOptions.Engine.STAX)
+                    .mapper(ParserOptions.Mapper.SPEC));
+            assert(false);
+        } catch (IllegalArgumentException e) {
+            assert(e.getMessage().contains("jonix"));
+        }
+    }
+
+    @Test
+    public void testValidationReportsAndDropsInvalid() throws Exception
+    {
+        String pwd = System.getProperty("user.dir");
+        File input_dir = new File(OUTPUT_DIR + "/validate_input");
+        input_dir.mkdirs();
+
+        // A small part of the ONIX schema, enough to fail products on their RecordReference.
+        String xsd = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\""
+                + " targetNamespace=\"http://ns.editeur.org/onix/3.0/reference\" elementFormDefault=\"qualified\">"
+                + "<xs:element name=\"Product\"><xs:complexType><xs:sequence>"
+                + "<xs:element name=\"RecordReference\"><xs:simpleType><xs:restriction base=\"xs:string\">"
+                + "<xs:pattern value=\"[a-z0-9.]+\"/></xs:restriction></xs:simpleType></xs:element>"
+                + "<xs:element name=\"NotificationType\" type=\"xs:string\"/>"
+                + "<xs:any namespace=\"##any\" processContents=\"skip\" minOccurs=\"0\" maxOccurs=\"unbounded\"/>"
+                + "</xs:sequence></xs:complexType></xs:element></xs:schema>";
+        File schema = new File(OUTPUT_DIR, "validate.xsd");
+        Files.write(schema.toPath(), xsd.getBytes("UTF-8"));
+
+        String full = new String(Files.readAllBytes(new File(pwd + "/test_data/full_test.xml").toPath()), "UTF-8");
+        String update = new String(Files.readAllBytes(new File(pwd + "/test_data/update_test.xml").toPath()), "UTF-8");
+        String full_product = full.substring(full.indexOf("<Product>"), full.indexOf("</Product>") + 10);
+        String update_product = update.substring(update.indexOf("<Product>"), update.indexOf("</Product>") + 10);
+        String xml = full.replace(full_product, full_product.replace("some.test.data", "valid.1")
+                + full_product.replace("some.test.data", "Invalid Full 2")
+                + update_product.replace("some.test.data", "Invalid Update 3")
+                + full_product.replace("some.test.data", "valid.4"));
+        Files.write(new File(input_dir, "validate.xml").toPath(), xml.getBytes("UTF-8"));
+
+        String report_dir = OUTPUT_DIR + "/validate_report";
+        OnixParser.parseOnix(input_dir, report_dir, new ParserOptions().validate(schema.getPath()));
+        assertEquals(3, Files.readAllLines(new File(report_dir + "/" + OnixParser.FULL_RECORD_FILE).toPath()).size());
+
+        List<String> report = Files.readAllLines(new File(report_dir + "/" + OnixParser.VALIDATION_REPORT_FILE).toPath());
+        assertEquals(2, report.size());
+        JSONObject entry = new JSONObject(report.get(0));
+        assertEquals("Invalid Full 2", entry.getString("RecordReference"));
+        assert(entry.getJSONArray("errors").getString(0).contains("cvc-pattern-valid"));
+        assertEquals("Invalid Update 3", new JSONObject(report.get(1)).getString("RecordReference"));
+
+        // Only full records are dropped, in every execution mode.
+        ParserOptions[] runs = { new ParserOptions(), new ParserOptions().engine(ParserOptions.Engine.STAX),
+                new ParserOptions().mode(ParserOptions.Mode.PARALLEL).threads(2).splitSize(2048),
+                new ParserOptions().mode(ParserOptions.Mode.PIPELINE).threads(2).splitSize(2048) };
+
+        for (int i = 0; i < runs.length; i++) {
+            String drop_dir = OUTPUT_DIR + "/validate_drop_" + i;
+            OnixParser.parseOnix(input_dir, drop_dir, runs[i].validate(schema.getPath()).dropInvalid(true));
+
+            List<String> records = Files.readAllLines(new File(drop_dir + "/" + OnixParser.FULL_RECORD_FILE).toPath());
+            assertEquals(2, records.size());
+            assert(records.get(0).contains("valid.1"));
+            assert(records.get(1).contains("valid.4"));
+            assertEquals(1, Files.readAllLines(new File(drop_dir + "/" + OnixParser.UPDATE_RECORD_FILE).toPath()).size());
+        }
+
+        // Without dropping, validation leaves the output unchanged.
+        assertSameOutput(new ParserOptions().mode(ParserOptions.Mode.PIPELINE).threads(2).validate(schema.getPath()));
+
+        try {
+            new ProductValidator(new ParserOptions().dropInvalid(true), OUTPUT_DIR);
+            assert(false);
+        } catch (IllegalArgumentException e) {
+            assert(e.getMessage().contains("validate"));
+        }
+    }
+
+    @Test
+    public void testVectorEscapingMatchesScalar()
+    {
+        // Surefire adds the incubator module, so the vector scan is exercised here.
+        assert(JsonStreamOutput.VECTOR_AVAILABLE);
+
+        // Long runs of plain ASCII broken by chars needing escapes or several bytes,
+        // so the special chars land at every position within a vector.
+        char[] special = { '"', '\\', '/', '<', '\b', '\t', '\n', '\f', '\r', '\u0000', '\u001f',
+                '\u007f', '\u0080', '\u009f', '\u00a0', '\u00e9', '\u07ff', '\u0800', '\u1fff', '\u2000',
+                '\u2028', '\u20ac', '\u2100', '\u7fff', '\u8000', '\ud83d', '\ude00', '\uffff' };
+        java.util.Random random = new java.util.Random(7);
+        JsonStreamOutput scalar = new JsonStreamOutput(false);
+        JsonStreamOutput vector = new JsonStreamOutput(true);
+
+        for (int i = 0; i < 20000; i++) {
+            char[] chars = new char[random.nextInt(300)];
+            int rate = 1 + random.nextInt(80);
+            for (int j = 0; j < chars.length; j++) {
+                if (random.nextInt(rate) == 0) {
+                    chars[j] = special[random.nextInt(special.length)];
+                } else {
+                    chars[j] = (char) (' ' + random.nextInt(0x7f - ' '));
+                }
+            }
+            String value = new String(chars);
+
+            assertArrayEquals(value, scalar.quote(value), vector.quote(value));
+        }
+
+        // The '/' escape depends on the char before, including across vectors.
+        StringBuilder slashes = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            slashes.append(i % 3 == 0 ? '<' : '/');
+        }
+        String value = slashes.toString();
+        assertArrayEquals(scalar.quote(value), vector.quote(value));
+
+        // Long runs of text in other scripts, often ending the string with a
+        // supplementary char, so a surrogate pair falls at the end of a run.
+        String[] runs = { "\u00e9", "\u65e5\u672c", "\ud83d\ude00", "\ud840\udc0b", "a" };
+        for (int i = 0; i < 5000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(200);
+            while (sb.length() < length) {
+                String run = runs[random.nextInt(runs.length)];
+                for (int j = random.nextInt(40); j >= 0; j--) {
+                    sb.append(run);
+                }
+            }
+            if (random.nextBoolean()) {
+                sb.append(runs[2 + random.nextInt(2)]);
+            }
+            value = sb.toString();
+
+            assertArrayEquals(value, scalar.quote(value), vector.quote(value));
+        }
+
+        value = "a".repeat(32) + "\u00e9".repeat(32) + "\ud83d\ude00";
+        assertArrayEquals(JSONObject.quote(value).getBytes(java.nio.charset.StandardCharsets.UTF_8),
+                vector.quote(value));
+    }
+
     @AfterClass
     public static void deleteTestFolder()
     {
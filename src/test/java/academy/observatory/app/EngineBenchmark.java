@@ -0,0 +1,65 @@
+package academy.observatory.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares parsing and mapping a message with Jonix and with the StAX engine,
+ * for every field and for a narrow projection. The ONIX is parsed from memory
+ * on every operation.
+ *
+ * By default test_data/full_test.xml is used. Pass -jvmArgsAppend
+ * -Dbenchmark.input=/path/to/file.xml to parse a real delivery instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx1g" })
+public class EngineBenchmark {
+    @Param({ "JONIX", "STAX" })
+    public String engine;
+
+    @Param({ "", "ProductIdentifiers,TitleDetails" })
+    public String fields;
+
+    private ParseEngine<Object> parser;
+    private byte[] message;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws IOException {
+        String input = System.getProperty("benchmark.input",
+                System.getProperty("user.dir") + "/test_data/full_test.xml");
+
+        parser = (ParseEngine<Object>) OnixParser.parseEngine(new ParserOptions()
+                .engine(ParserOptions.Engine.valueOf(engine))
+                .fields(fields.isEmpty() ? null : Arrays.asList(fields.split(","))));
+        message = Files.readAllBytes(new File(input).toPath());
+    }
+
+    @Benchmark
+    public void parseAndWrite(Blackhole bh) throws Exception {
+        ProductWriter<Object> writer = parser.writer();
+        parser.parse(new ByteArrayInputStream(message),
+                product -> writer.write(product, (line, off, len) -> bh.consume(line[off + len - 1])));
+    }
+}
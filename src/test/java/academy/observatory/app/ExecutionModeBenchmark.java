@@ -0,0 +1,87 @@
+package academy.observatory.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the execution modes on a delivery of many small ONIX files.
+ *
+ * By default the delivery is generated from test_data/full_test.xml into a
+ * temporary directory. The gain from virtual threads comes from overlapping I/O
+ * waits, so it is most visible on slow or network storage: set
+ * -Dbenchmark.input=/path/to/delivery to run against a real delivery there.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExecutionModeBenchmark {
+    @Param({ "SEQUENTIAL", "PARALLEL", "VIRTUAL" })
+    public String mode;
+
+    @Param({ "2000" })
+    public int files;
+
+    private File input_dir;
+    private File output_dir;
+    private boolean generated;
+
+    @Setup
+    public void setup() throws IOException {
+        String input = System.getProperty("benchmark.input");
+        generated = input == null;
+        input_dir = generated ? generateDelivery(files) : new File(input);
+        output_dir = Files.createTempDirectory("onix_bench_out").toFile();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (generated) {
+            AppTest.deleteFiles(input_dir);
+        }
+        AppTest.deleteFiles(output_dir);
+    }
+
+    @Benchmark
+    public void parse() {
+        ParserOptions options = new ParserOptions().mode(ParserOptions.Mode.valueOf(mode))
+                .threads(0);
+        OnixParser.parseOnix(input_dir, output_dir.getPath(), options);
+    }
+
+    /**
+     * Write a delivery of small single-product ONIX files.
+     */
+    static File generateDelivery(int count) throws IOException {
+        String pwd = System.getProperty("user.dir");
+        String message = new String(Files.readAllBytes(new File(pwd + "/test_data/full_test.xml").toPath()),
+                StandardCharsets.UTF_8);
+        Path dir = Files.createTempDirectory("onix_bench_in");
+
+        for (int i = 0; i < count; i++) {
+            String file = String.format("delivery_%06d.xml", i);
+            Files.write(dir.resolve(file), message.replace("some.test.data", "rec." + i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        return dir.toFile();
+    }
+}
@@ -0,0 +1,114 @@
+package academy.observatory.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.tectonica.jonix.Jonix;
+import com.tectonica.jonix.JonixRecord;
+import com.tectonica.jonix.common.codelist.NameIdentifierTypes;
+import com.tectonica.jonix.onix3.Contributor;
+
+/**
+ * Compares writing contributor name identifiers with one find() scan per output
+ * key, as the mapping used to, against the single pass through
+ * {@link OnixParser#NAME_IDENTIFIERS}. The product is generated from
+ * test_data/full_test.xml with the given number of contributors, each carrying
+ * a handful of identifiers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IdentifierDispatchBenchmark {
+    private static final NameIdentifierTypes[] MAPPED_TYPES = { NameIdentifierTypes.ARK,
+            NameIdentifierTypes.B_rsenverein_Verkehrsnummer, NameIdentifierTypes.BNE_CN,
+            NameIdentifierTypes.BNF_Control_Number, NameIdentifierTypes.Centraal_Boekhuis_Relatie_ID,
+            NameIdentifierTypes.DNB_publisher_identifier, NameIdentifierTypes.DUNS, NameIdentifierTypes.EIDR_Party_DOI,
+            NameIdentifierTypes.Fondscode_Boekenbank, NameIdentifierTypes.FundRef_DOI,
+            NameIdentifierTypes.GAPP_Publisher_Identifier, NameIdentifierTypes.German_ISBN_Agency_publisher_identifier,
+            NameIdentifierTypes.GKD, NameIdentifierTypes.GLN, NameIdentifierTypes.GND, NameIdentifierTypes.GRID,
+            NameIdentifierTypes.Identifiant_Editeur_Electre, NameIdentifierTypes.Identifiant_Marque_Electre,
+            NameIdentifierTypes.ISNI, NameIdentifierTypes.Japanese_Publisher_identifier,
+            NameIdentifierTypes.JP_Distribution_Identifier, NameIdentifierTypes.LCCN,
+            NameIdentifierTypes.MARC_organization_code, NameIdentifierTypes.Nasjonalt_autoritetsregister,
+            NameIdentifierTypes.ORCID, NameIdentifierTypes.PND, NameIdentifierTypes.Proprietary,
+            NameIdentifierTypes.Proprietary_, NameIdentifierTypes.Ringgold_ID, NameIdentifierTypes.SAN,
+            NameIdentifierTypes.VAT_Identity_Number, NameIdentifierTypes.VIAF_ID, NameIdentifierTypes.Y_tunnus };
+
+    @Param({ "FIND", "TABLE" })
+    public String dispatch;
+
+    @Param({ "500" })
+    public int contributors;
+
+    private com.tectonica.jonix.onix3.Product product;
+    private final JsonStreamOutput out = new JsonStreamOutput();
+
+    @Setup
+    public void setup() throws IOException {
+        String pwd = System.getProperty("user.dir");
+        String message = new String(Files.readAllBytes(new File(pwd + "/test_data/full_test.xml").toPath()),
+                StandardCharsets.UTF_8);
+        StringBuilder extra = new StringBuilder();
+
+        for (int i = 0; i < contributors; i++) {
+            extra.append("<Contributor><SequenceNumber>").append(i + 3)
+                    .append("</SequenceNumber><ContributorRole>A01</ContributorRole>")
+                    .append("<NameIdentifier><NameIDType>01</NameIDType><IDTypeName>Local</IDTypeName><IDValue>")
+                    .append(i).append("</IDValue></NameIdentifier>")
+                    .append("<NameIdentifier><NameIDType>16</NameIDType><IDValue>000000011111")
+                    .append(String.format("%04d", i)).append("</IDValue></NameIdentifier>")
+                    .append("<NameIdentifier><NameIDType>21</NameIDType><IDValue>0000-0001-0000-")
+                    .append(String.format("%04d", i)).append("</IDValue></NameIdentifier>")
+                    .append("<NameIdentifier><NameIDType>25</NameIDType><IDValue>").append(1000 + i)
+                    .append("</IDValue></NameIdentifier>")
+                    .append("<PersonName>Contributor ").append(i).append("</PersonName></Contributor>");
+        }
+
+        message = message.replaceFirst("<DescriptiveDetail>", "<DescriptiveDetail>" + extra);
+
+        for (JonixRecord record : Jonix.source(new ByteArrayInputStream(message.getBytes(StandardCharsets.UTF_8)))) {
+            product = (com.tectonica.jonix.onix3.Product) record.product;
+        }
+    }
+
+    @Benchmark
+    public void nameIdentifiers(Blackhole bh) {
+        boolean table = dispatch.equals("TABLE");
+        out.reset();
+        out.startObject();
+
+        for (Contributor contributor : product.descriptiveDetail().contributors()) {
+            if (table) {
+                OnixParser.NAME_IDENTIFIERS.write(contributor.nameIdentifiers(), nid -> nid.idValue().value, out);
+            } else {
+                for (NameIdentifierTypes type : MAPPED_TYPES) {
+                    out.put(type.name(), contributor.nameIdentifiers().find(type).map(nid -> nid.idValue().value)
+                            .orElse(null));
+                }
+            }
+        }
+
+        out.endObject();
+        bh.consume(out.size());
+    }
+}
@@ -0,0 +1,73 @@
+package academy.observatory.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.tectonica.jonix.Jonix;
+import com.tectonica.jonix.JonixRecord;
+
+/**
+ * Compares building a JSONObject tree per product, streaming the JSON text
+ * straight into a UTF-8 buffer and writing it with a Jackson generator, with
+ * the hand-written mapping and with the compiled mapping spec. Only mapping and
+ * serialisation are measured: the products are parsed once in setup. Results
+ * are kept in benchmarks/JsonSerializationBenchmark.txt.
+ *
+ * By default the products of test_data/full_test.xml are used. Pass
+ * -jvmArgsAppend -Dbenchmark.input=/path/to/file.xml to serialise the products
+ * of a real delivery instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx1g" })
+public class JsonSerializationBenchmark {
+    @Param({ "TREE", "STREAM", "JACKSON" })
+    public String json;
+
+    @Param({ "CODE", "SPEC" })
+    public String mapper;
+
+    private ProductWriter<com.tectonica.jonix.onix3.Product> writer;
+    private List<com.tectonica.jonix.onix3.Product> products;
+
+    @Setup
+    public void setup() throws IOException {
+        StaxProviders.useForJonix(ParserOptions.Stax.JDK);
+        String input = System.getProperty("benchmark.input",
+                System.getProperty("user.dir") + "/test_data/full_test.xml");
+
+        writer = OnixParser.productWriter(new ParserOptions().json(ParserOptions.Json.valueOf(json))
+                .mapper(ParserOptions.Mapper.valueOf(mapper)));
+        products = new ArrayList<com.tectonica.jonix.onix3.Product>();
+
+        for (JonixRecord record : Jonix.source(new File(input))) {
+            products.add((com.tectonica.jonix.onix3.Product) record.product);
+        }
+    }
+
+    @Benchmark
+    public void serialize(Blackhole bh) throws IOException {
+        for (com.tectonica.jonix.onix3.Product product : products) {
+            writer.write(product, (line, off, len) -> bh.consume(line[off + len - 1]));
+        }
+    }
+}
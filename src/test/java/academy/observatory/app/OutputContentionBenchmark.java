@@ -0,0 +1,103 @@
+package academy.observatory.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tectonica.jonix.common.codelist.NotificationOrUpdateTypes;
+
+/**
+ * Compares workers taking turns writing the full record file under a lock
+ * with workers publishing to a lock-free queue drained by one thread, from 1 to
+ * 64 producer threads. Each operation has the producers write 32768 records of
+ * 512 bytes, already serialised, between them to a fresh RecordSink on a tmpfs,
+ * including opening and closing the files, so that only the hand-off to the
+ * file is measured. Results are kept in
+ * benchmarks/OutputContentionBenchmark.txt.
+ *
+ * Pass -jvmArgsAppend -Dbenchmark.tmpfs=/path to change where the files go.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx1g" })
+public class OutputContentionBenchmark {
+    private static final int RECORDS = 1 << 15;
+    private static final int RECORD_SIZE = 512;
+
+    @Param({ "1", "2", "4", "8", "16", "32", "64" })
+    public int producers;
+
+    @Param({ "LOCK", "RING" })
+    public String sink;
+
+    private ExecutorService pool;
+    private String output_dir;
+    private byte[] record;
+
+    @Setup
+    public void setup() {
+        // The sink prints a report per output each time it is closed.
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        output_dir = System.getProperty("benchmark.tmpfs", "/dev/shm") + "/onix_output_benchmark";
+        new File(output_dir).mkdirs();
+        pool = Executors.newFixedThreadPool(producers);
+
+        StringBuilder sb = new StringBuilder("{\"RecordReference\":\"");
+        while (sb.length() < RECORD_SIZE - 2) {
+            sb.append('x');
+        }
+        record = sb.append("\"}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public void write() throws IOException, InterruptedException, ExecutionException {
+        String code = NotificationOrUpdateTypes.Notification_confirmed_on_publication.getCode();
+
+        try (RecordSink out = new RecordSink(output_dir,
+                new ParserOptions().writeQueue(sink.equals("RING") ? 1024 : 0))) {
+            List<Future<?>> tasks = new ArrayList<Future<?>>();
+            for (int p = 0; p < producers; p++) {
+                tasks.add(pool.submit(() -> {
+                    for (int i = 0; i < RECORDS / producers; i++) {
+                        out.write(code, record, 0, record.length);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        }
+    }
+}
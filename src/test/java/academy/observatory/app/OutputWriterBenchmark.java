@@ -0,0 +1,98 @@
+package academy.observatory.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tectonica.jonix.Jonix;
+import com.tectonica.jonix.JonixRecord;
+
+/**
+ * Compares writing the output files on the mapping thread with handing blocks
+ * of records to a writer thread per output, with the files on disk and on a
+ * tmpfs, where the disk write path is taken out, and with each durability: no
+ * fsync, an fsync per file at the end, and an fsync every 1 MB. Each operation
+ * maps, serialises and writes every product to a fresh RecordSink, including
+ * opening and closing the files. Results are kept in
+ * benchmarks/OutputWriterBenchmark.txt.
+ *
+ * By default the products of test_data/full_test.xml are used. Pass
+ * -jvmArgsAppend -Dbenchmark.input=/path/to/file.xml to write the products of a
+ * real delivery instead, and -Dbenchmark.disk=/path or -Dbenchmark.tmpfs=/path
+ * to change where the files go.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx1g" })
+public class OutputWriterBenchmark {
+    @Param({ "0", "1048576" })
+    public int writeBuffer;
+
+    @Param({ "DISK", "TMPFS" })
+    public String output;
+
+    @Param({ "NONE", "END", "EVERY" })
+    public String durability;
+
+    private ProductWriter<com.tectonica.jonix.onix3.Product> writer;
+    private List<com.tectonica.jonix.onix3.Product> products;
+    private List<String> codes;
+    private String output_dir;
+    private ParserOptions options;
+
+    @Setup
+    public void setup() throws IOException {
+        // The sink prints a report per output each time it is closed.
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        StaxProviders.useForJonix(ParserOptions.Stax.JDK);
+        String input = System.getProperty("benchmark.input",
+                System.getProperty("user.dir") + "/test_data/full_test.xml");
+        String root = output.equals("DISK") ? System.getProperty("benchmark.disk", System.getProperty("java.io.tmpdir"))
+                : System.getProperty("benchmark.tmpfs", "/dev/shm");
+
+        output_dir = root + "/onix_output_benchmark";
+        new File(output_dir).mkdirs();
+
+        writer = OnixParser.productWriter(new ParserOptions());
+        options = new ParserOptions().writeBuffer(writeBuffer)
+                .durability(ParserOptions.Durability.valueOf(durability)).syncSize(1 << 20);
+        products = new ArrayList<com.tectonica.jonix.onix3.Product>();
+        codes = new ArrayList<String>();
+
+        for (JonixRecord record : Jonix.source(new File(input))) {
+            com.tectonica.jonix.onix3.Product product = (com.tectonica.jonix.onix3.Product) record.product;
+            products.add(product);
+            codes.add(product.notificationType().value.code);
+        }
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        try (RecordSink sink = new RecordSink(output_dir, options)) {
+            for (int i = 0; i < products.size(); i++) {
+                String code = codes.get(i);
+                writer.write(products.get(i), (line, off, len) -> sink.write(code, line, off, len));
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package academy.observatory.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.tectonica.jonix.Jonix;
+import com.tectonica.jonix.JonixRecord;
+
+/**
+ * Compares writing every field with writing a narrow projection. Jonix builds
+ * the model of a product lazily, so the ONIX is parsed from memory on every
+ * operation and a projection also saves the model building of the sections it
+ * leaves out.
+ *
+ * By default test_data/full_test.xml is used. Pass -jvmArgsAppend
+ * -Dbenchmark.input=/path/to/file.xml to parse a real delivery instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx1g" })
+public class ProjectionBenchmark {
+    @Param({ "", "ProductIdentifiers,TitleDetails" })
+    public String fields;
+
+    @Param({ "CODE", "SPEC" })
+    public String mapper;
+
+    private ProductWriter<com.tectonica.jonix.onix3.Product> writer;
+    private byte[] message;
+
+    @Setup
+    public void setup() throws IOException {
+        StaxProviders.useForJonix(ParserOptions.Stax.JDK);
+        String input = System.getProperty("benchmark.input",
+                System.getProperty("user.dir") + "/test_data/full_test.xml");
+
+        writer = OnixParser.productWriter(new ParserOptions().mapper(ParserOptions.Mapper.valueOf(mapper))
+                .fields(fields.isEmpty() ? null : Arrays.asList(fields.split(","))));
+        message = Files.readAllBytes(new File(input).toPath());
+    }
+
+    @Benchmark
+    public void parseAndWrite(Blackhole bh) throws IOException {
+        for (JonixRecord record : Jonix.source(new ByteArrayInputStream(message))) {
+            writer.write((com.tectonica.jonix.onix3.Product) record.product,
+                    (line, off, len) -> bh.consume(line[off + len - 1]));
+        }
+    }
+}
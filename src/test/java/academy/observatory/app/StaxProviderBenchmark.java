@@ -0,0 +1,73 @@
+package academy.observatory.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the StAX providers under both parse engines. Each operation parses
+ * and maps the whole message from memory; the products counter gives products
+ * per second. Jonix fixes its provider once per process, which JMH's fork per
+ * parameter set allows.
+ *
+ * By default test_data/full_test.xml is used. Pass -jvmArgsAppend
+ * -Dbenchmark.input=/path/to/file.xml to parse a real delivery instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx1g" })
+public class StaxProviderBenchmark {
+    @Param({ "JDK", "WOODSTOX", "AALTO" })
+    public String stax;
+
+    @Param({ "JONIX", "STAX" })
+    public String engine;
+
+    private ParseEngine<Object> parser;
+    private byte[] message;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Products {
+        public long products;
+    }
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() throws IOException {
+        String input = System.getProperty("benchmark.input",
+                System.getProperty("user.dir") + "/test_data/full_test.xml");
+
+        parser = (ParseEngine<Object>) OnixParser.parseEngine(new ParserOptions()
+                .engine(ParserOptions.Engine.valueOf(engine)).stax(ParserOptions.Stax.valueOf(stax)));
+        message = Files.readAllBytes(new File(input).toPath());
+    }
+
+    @Benchmark
+    public void parseAndWrite(Products products, Blackhole bh) throws Exception {
+        ProductWriter<Object> writer = parser.writer();
+        parser.parse(new ByteArrayInputStream(message), product -> {
+            writer.write(product, (line, off, len) -> bh.consume(line[off + len - 1]));
+            products.products++;
+        });
+    }
+}
@@ -0,0 +1,80 @@
+package academy.observatory.app;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares escaping a long text field char by char with scanning it a vector
+ * at a time, for the kinds of text ONIX descriptions hold: plain English,
+ * XHTML markup, accented Latin and CJK. Each string is about 2000 chars, the
+ * size of a typical description or biography. Results are kept in
+ * benchmarks/StringEscapeBenchmark.txt.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx1g", "--add-modules", "jdk.incubator.vector" })
+public class StringEscapeBenchmark {
+    private static final int LENGTH = 2000;
+
+    @Param({ "SCALAR", "VECTOR" })
+    public String escaper;
+
+    @Param({ "ASCII", "XHTML", "LATIN", "CJK" })
+    public String text;
+
+    private JsonStreamOutput out;
+    private String value;
+
+    @Setup
+    public void setup() {
+        out = new JsonStreamOutput(escaper.equals("VECTOR"));
+
+        String[] words;
+        switch (text) {
+        case "XHTML":
+            words = new String[] { "<p>The", "history", "of", "<em>printing</em>", "in", "Europe.</p>",
+                    "<br/>", "\"Essential\"", "reading,", "<a href=\"https://example.org/\">review</a>" };
+            break;
+        case "LATIN":
+            words = new String[] { "Geschichte", "der", "B\u00fccher", "und", "Drucker", "\u00e0", "Paris",
+                    "\u00e9t\u00e9", "na\u00efve", "\u00fcber" };
+            break;
+        case "CJK":
+            words = new String[] { "\u65e5\u672c\u306e", "\u51fa\u7248", "\u6587\u5316\u53f2", "\u3068",
+                    "\u66f8\u7c4d", "\u6d41\u901a" };
+            break;
+        default:
+            words = new String[] { "The", "history", "of", "printing", "in", "Europe,", "from", "Gutenberg",
+                    "to", "today." };
+        }
+
+        Random random = new Random(1);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < LENGTH) {
+            sb.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        value = sb.toString();
+    }
+
+    @Benchmark
+    public int escape() {
+        out.reset();
+        out.add(value);
+        return out.size();
+    }
+}
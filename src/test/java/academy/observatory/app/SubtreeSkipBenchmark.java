@@ -0,0 +1,112 @@
+package academy.observatory.app;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.tectonica.jonix.Jonix;
+import com.tectonica.jonix.JonixRecord;
+
+/**
+ * Compares parsing and mapping products with and without removing the
+ * ProductSupply and ContentDetail composites from the input first. Every
+ * Product of the input is given a ProductSupply with the given number of
+ * SupplyDetails, and a ContentDetail. The bytes handed to the parser and the
+ * bytes skipped are reported as the parsed and skipped counters.
+ *
+ * By default test_data/full_test.xml is used. Pass -jvmArgsAppend
+ * -Dbenchmark.input=/path/to/file.xml to start from a real delivery instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = { "-Xmx1g" })
+public class SubtreeSkipBenchmark {
+    private static final String SUPPLY_DETAIL = "<SupplyDetail><Supplier><SupplierRole>01</SupplierRole>"
+            + "<SupplierName>Distributor</SupplierName><EmailAddress>orders@example.com</EmailAddress></Supplier>"
+            + "<ProductAvailability>21</ProductAvailability>"
+            + "<SupplyDate><SupplyDateRole>08</SupplyDateRole><Date>20200101</Date></SupplyDate>"
+            + "<Price><PriceType>02</PriceType><PriceAmount>12.99</PriceAmount><Tax><TaxType>01</TaxType>"
+            + "<TaxRatePercent>0</TaxRatePercent></Tax><CurrencyCode>GBP</CurrencyCode>"
+            + "<Territory><CountriesIncluded>GB IE</CountriesIncluded></Territory></Price>"
+            + "<Price><PriceType>01</PriceType><PriceAmount>15.50</PriceAmount><CurrencyCode>USD</CurrencyCode>"
+            + "<Territory><RegionsIncluded>WORLD</RegionsIncluded></Territory></Price></SupplyDetail>";
+
+    private static final String CONTENT_DETAIL = "<ContentDetail><ContentItem>"
+            + "<LevelSequenceNumber>1</LevelSequenceNumber><TextItem><TextItemType>03</TextItemType>"
+            + "<PageRun><FirstPageNumber>1</FirstPageNumber><LastPageNumber>20</LastPageNumber></PageRun></TextItem>"
+            + "<TitleDetail><TitleType>01</TitleType><TitleElement><TitleElementLevel>04</TitleElementLevel>"
+            + "<TitleText>Chapter one</TitleText></TitleElement></TitleDetail></ContentItem></ContentDetail>";
+
+    @Param({ "", "ProductSupply,ContentDetail" })
+    public String skip;
+
+    @Param({ "6" })
+    public int supplyDetails;
+
+    private ProductWriter<com.tectonica.jonix.onix3.Product> writer;
+    private SubtreeSkipper skipper;
+    private byte[] message;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long parsed;
+        public long skipped;
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        StaxProviders.useForJonix(ParserOptions.Stax.JDK);
+        String input = System.getProperty("benchmark.input",
+                System.getProperty("user.dir") + "/test_data/full_test.xml");
+        String xml = new String(Files.readAllBytes(new File(input).toPath()), StandardCharsets.UTF_8);
+        String supply = "<ProductSupply>" + String.join("", Collections.nCopies(supplyDetails, SUPPLY_DETAIL))
+                + "</ProductSupply>";
+
+        xml = xml.replace("<PublishingDetail>", CONTENT_DETAIL + "<PublishingDetail>").replace("</Product>",
+                supply + "</Product>");
+
+        writer = OnixParser.productWriter(new ParserOptions());
+        skipper = new SubtreeSkipper(skip.isEmpty() ? Collections.emptyList() : Arrays.asList(skip.split(",")));
+        message = xml.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public void parseAndWrite(Bytes bytes, Blackhole bh) throws IOException {
+        long passed = skipper.passed();
+        long skipped = skipper.skipped();
+
+        try (InputStream in = skipper.wrap(new ByteArrayInputStream(message))) {
+            for (JonixRecord record : Jonix.source(in)) {
+                writer.write((com.tectonica.jonix.onix3.Product) record.product,
+                        (line, off, len) -> bh.consume(line[off + len - 1]));
+            }
+        }
+
+        bytes.parsed += skip.isEmpty() ? message.length : skipper.passed() - passed;
+        bytes.skipped += skipper.skipped() - skipped;
+    }
+}